@@ -9,7 +9,8 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.data.jpa.repository.config.EnableJpaAuditing;
 import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
 import org.springframework.scheduling.annotation.EnableAsync;
-import com.aispring.service.CloudDiskService;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import com.aispring.service.ContentHashBackfillService;
 import com.aispring.service.UserService;
 import com.aispring.entity.Admin;
 import org.slf4j.Logger;
@@ -21,6 +22,7 @@ import org.slf4j.LoggerFactory;
 @SpringBootApplication(scanBasePackages = {"com.aispring", "com.example.aispring"})
 @EnableJpaAuditing
 @EnableAsync
+@EnableScheduling
 @EnableConfigurationProperties
 public class AiTutorApplication {
     private static final Logger log = LoggerFactory.getLogger(AiTutorApplication.class);
@@ -43,8 +45,8 @@ public class AiTutorApplication {
 
     @Bean
     @ConditionalOnProperty(name = "app.cloud-disk.migrate-on-startup", havingValue = "true")
-    public CommandLineRunner cloudDiskMigrationRunner(CloudDiskService cloudDiskService) {
-        return args -> cloudDiskService.migrateToUnifiedBase();
+    public CommandLineRunner cloudDiskMigrationRunner(ContentHashBackfillService contentHashBackfillService) {
+        return args -> contentHashBackfillService.requestFullPass();
     }
 
     @Bean
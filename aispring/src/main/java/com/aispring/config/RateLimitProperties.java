@@ -0,0 +1,74 @@
+package com.aispring.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 限流策略配置
+ * app.rate-limit.routes.{路由}.{anonymous|user|admin} 定义每条路由、每个用户等级的策略，
+ * 未配置的路由使用 routes.default
+ */
+@Component
+@ConfigurationProperties(prefix = "app.rate-limit")
+public class RateLimitProperties {
+
+    public enum Algorithm { SLIDING_WINDOW, TOKEN_BUCKET }
+
+    public static class Policy {
+        private Algorithm algorithm = Algorithm.SLIDING_WINDOW;
+        /** 窗口内最大请求数 / 令牌桶容量；小于等于 0 表示不限流 */
+        private int limit = 0;
+        /** 滑动窗口长度 / 令牌桶从空到满的时间（秒） */
+        private long windowSeconds = 86400;
+
+        public Policy() {}
+
+        public Policy(Algorithm algorithm, int limit, long windowSeconds) {
+            this.algorithm = algorithm;
+            this.limit = limit;
+            this.windowSeconds = windowSeconds;
+        }
+
+        public Algorithm getAlgorithm() { return algorithm; }
+        public void setAlgorithm(Algorithm algorithm) { this.algorithm = algorithm; }
+        public int getLimit() { return limit; }
+        public void setLimit(int limit) { this.limit = limit; }
+        public long getWindowSeconds() { return windowSeconds; }
+        public void setWindowSeconds(long windowSeconds) { this.windowSeconds = windowSeconds; }
+
+        public boolean isUnlimited() { return limit <= 0; }
+    }
+
+    private Map<String, Map<String, Policy>> routes = new HashMap<>();
+
+    /** 本地“已耗尽”近端缓存的最大条目数 */
+    private int nearCacheMaxEntries = 10000;
+
+    public RateLimitProperties() {
+        Map<String, Policy> chat = new HashMap<>();
+        chat.put("anonymous", new Policy(Algorithm.SLIDING_WINDOW, 5, 86400));
+        chat.put("user", new Policy(Algorithm.TOKEN_BUCKET, 120, 3600));
+        chat.put("admin", new Policy(Algorithm.TOKEN_BUCKET, 0, 3600));
+        routes.put("chat", chat);
+    }
+
+    public Map<String, Map<String, Policy>> getRoutes() { return routes; }
+    public void setRoutes(Map<String, Map<String, Policy>> routes) { this.routes = routes; }
+    public int getNearCacheMaxEntries() { return nearCacheMaxEntries; }
+    public void setNearCacheMaxEntries(int nearCacheMaxEntries) { this.nearCacheMaxEntries = nearCacheMaxEntries; }
+
+    /**
+     * 查找路由 + 等级对应的策略，找不到时返回不限流策略
+     */
+    public Policy resolve(String route, String tier) {
+        Map<String, Policy> byTier = routes.get(route);
+        if (byTier == null) {
+            byTier = routes.get("default");
+        }
+        Policy policy = byTier != null ? byTier.get(tier) : null;
+        return policy != null ? policy : new Policy(Algorithm.SLIDING_WINDOW, 0, 0);
+    }
+}
@@ -1,12 +1,21 @@
 package com.aispring.controller;
 
+import com.aispring.dto.request.FilePatchRequest;
 import com.aispring.dto.response.ApiResponse;
+import com.aispring.dto.response.FileEditResult;
+import com.aispring.dto.response.TextPage;
+import com.aispring.entity.StorageChangeEntry;
+import com.aispring.entity.StorageIntegrityScan;
 import com.aispring.entity.User;
 import com.aispring.entity.UserFile;
+import com.aispring.exception.VersionConflictException;
 import com.aispring.repository.ChatRecordRepository;
 import com.aispring.repository.UserFileRepository;
 import com.aispring.repository.UserRepository;
 import com.aispring.service.CloudDiskService;
+import com.aispring.service.StorageChangeJournalService;
+import com.aispring.service.StorageIntegrityScanService;
+import com.fasterxml.jackson.annotation.JsonAlias;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import lombok.Data;
@@ -14,16 +23,16 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.List;
@@ -44,6 +53,8 @@ public class AdminController {
     private final ChatRecordRepository chatRecordRepository;
     private final UserFileRepository userFileRepository;
     private final CloudDiskService cloudDiskService;
+    private final StorageIntegrityScanService storageIntegrityScanService;
+    private final StorageChangeJournalService storageChangeJournalService;
 
     @Data
     public static class AdminStatistics {
@@ -61,37 +72,40 @@ public class AdminController {
     @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<?> downloadFile(
             @PathVariable Long fileId,
-            @RequestParam(required = false) String mode) {
+            @RequestParam(required = false) String mode,
+            WebRequest webRequest) {
         log.info("Admin download request for fileId: {}, mode: {}", fileId, mode);
         try {
-            Path filePath = cloudDiskService.downloadFileAdmin(fileId);
+            CloudDiskService.DownloadTarget target = cloudDiskService.downloadFileAdmin(fileId);
+            boolean notModified = target.lastModified() > 0
+                    ? webRequest.checkNotModified(target.etag(), target.lastModified())
+                    : webRequest.checkNotModified(target.etag());
+            if (notModified) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(target.etag()).build();
+            }
+
+            Path filePath = cloudDiskService.resolveDownloadPathAdmin(target);
             log.info("Resolved file path: {}", filePath);
-            Resource resource = new UrlResource(filePath.toUri());
 
-            if (resource.exists() || resource.isReadable()) {
-                String contentType = Files.probeContentType(filePath);
-                if (contentType == null) {
-                    contentType = "application/octet-stream";
-                }
+            String disposition = "attachment";
+            if ("inline".equalsIgnoreCase(mode)) {
+                disposition = "inline";
+            }
 
-                String disposition = "attachment";
-                if ("inline".equalsIgnoreCase(mode)) {
-                    disposition = "inline";
-                }
+            // 获取原始文件名
+            String originalFilename = target.filename();
 
-                // 获取原始文件名
-                String originalFilename = filePath.getFileName().toString();
-                // 尝试从数据库获取更好的文件名（如果需要）
-                
-                return ResponseEntity.ok()
-                        .contentType(MediaType.parseMediaType(contentType))
-                        .header(HttpHeaders.CONTENT_DISPOSITION, disposition + "; filename=\"" + originalFilename + "\"")
-                        .body(resource);
-            } else {
-                log.warn("File not found or not readable: {}", filePath);
-                return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                        .body(ApiResponse.error(404, "文件不存在或不可读: " + filePath.getFileName()));
+            // Resource 响应体由框架处理 Range 请求
+            ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(target.contentType()))
+                    .eTag(target.etag())
+                    .cacheControl(CacheControl.noCache().cachePrivate())
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .header(HttpHeaders.CONTENT_DISPOSITION, disposition + "; filename=\"" + originalFilename + "\"");
+            if (target.lastModified() > 0) {
+                builder.lastModified(target.lastModified());
             }
+            return builder.body(new FileSystemResource(filePath));
         } catch (IllegalArgumentException e) {
             log.warn("Invalid file request: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
@@ -108,30 +122,56 @@ public class AdminController {
     }
 
     /**
-     * 验证文件完整性 - 检查数据库记录与物理文件是否一致
+     * 存储完整性扫描报告（默认最近一次扫描），问题列表按 ID 分页
      */
     @GetMapping("/files/verify")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<?> verifyFiles() {
+    public ResponseEntity<?> verifyFiles(@RequestParam(required = false) Long scanId,
+                                         @RequestParam(required = false) Long cursor,
+                                         @RequestParam(defaultValue = "100") int limit) {
         try {
-            Map<String, Object> result = cloudDiskService.verifyAllFiles();
-            return ResponseEntity.ok(ApiResponse.success(result));
+            return storageIntegrityScanService.report(scanId, cursor, limit)
+                    .<ResponseEntity<?>>map(report -> ResponseEntity.ok(ApiResponse.success(report)))
+                    .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                            .body(ApiResponse.error(404, "尚未执行存储完整性扫描")));
+        } catch (Exception e) {
+            log.error("Error reading integrity report: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error(500, "获取完整性报告失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 发起一次后台完整性扫描；已有扫描在进行时返回该扫描
+     */
+    @PostMapping("/files/verify")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> startVerify(@RequestParam(defaultValue = "false") boolean cleanup) {
+        try {
+            StorageIntegrityScan scan = storageIntegrityScanService.requestScan(
+                    StorageIntegrityScanService.TRIGGER_ADMIN, cleanup);
+            return ResponseEntity.ok(ApiResponse.success("完整性扫描已在后台执行", scan));
         } catch (Exception e) {
-            log.error("Error verifying files: {}", e.getMessage(), e);
+            log.error("Error starting integrity scan: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(ApiResponse.error(500, "验证文件失败: " + e.getMessage()));
+                    .body(ApiResponse.error(500, "发起完整性扫描失败: " + e.getMessage()));
         }
     }
 
     /**
-     * 清理孤立的文件记录（数据库中存在但物理文件不存在）
+     * 清理扫描发现的孤立文件记录（数据库中存在但物理文件不存在），删除前再次确认
      */
     @DeleteMapping("/files/cleanup-orphans")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<?> cleanupOrphanFiles() {
+    public ResponseEntity<?> cleanupOrphanFiles(@RequestParam(required = false) Long scanId) {
         try {
-            Map<String, Object> result = cloudDiskService.cleanupOrphanFiles();
+            int deleted = storageIntegrityScanService.cleanup(scanId);
+            Map<String, Object> result = new HashMap<>();
+            result.put("deletedCount", deleted);
             return ResponseEntity.ok(ApiResponse.success(result));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(ApiResponse.error(400, e.getMessage()));
         } catch (Exception e) {
             log.error("Error cleaning up orphan files: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -139,6 +179,28 @@ public class AdminController {
         }
     }
 
+    /**
+     * 云盘变更日志：监听状态与最近发现的磁盘 / 数据库分歧
+     */
+    @GetMapping("/files/journal")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> storageJournal(@RequestParam(required = false) Long cursor,
+                                            @RequestParam(defaultValue = "100") int limit) {
+        try {
+            List<StorageChangeEntry> entries = storageChangeJournalService.recent(cursor, limit);
+            Map<String, Object> result = new HashMap<>();
+            result.put("status", storageChangeJournalService.status());
+            result.put("entries", entries);
+            result.put("nextCursor", entries.size() < Math.max(1, Math.min(limit, 500))
+                    ? null : entries.get(entries.size() - 1).getId());
+            return ResponseEntity.ok(ApiResponse.success(result));
+        } catch (Exception e) {
+            log.error("Error reading storage journal: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error(500, "获取变更日志失败: " + e.getMessage()));
+        }
+    }
+
     @Data
     public static class AdminUserDTO {
         private Long id;
@@ -160,6 +222,9 @@ public class AdminController {
     public static class FileContentRequest {
         @NotBlank
         private String content;
+        /** 编辑基于的内容版本，为空时不做版本检查 */
+        @JsonAlias({"baseVersion","base_version"})
+        private String baseVersion;
     }
 
     /**
@@ -203,25 +268,91 @@ public class AdminController {
         }
     }
 
+    /**
+     * 按行分页获取文件内容
+     */
+    @GetMapping("/files/content/{fileId}/lines")
+    @Transactional(readOnly = true)
+    public ResponseEntity<ApiResponse<TextPage>> getFileLines(
+            @PathVariable Long fileId,
+            @RequestParam(defaultValue = "0") long start,
+            @RequestParam(required = false) Integer count) {
+        try {
+            TextPage page = cloudDiskService.getFileLinesAdmin(fileId, start, count);
+            return ResponseEntity.ok(ApiResponse.success("获取文件内容成功", page));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(ApiResponse.error(HttpStatus.NOT_FOUND.value(), e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(ApiResponse.error(HttpStatus.INTERNAL_SERVER_ERROR.value(), "读取文件失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 按字节窗口获取文件内容
+     */
+    @GetMapping("/files/content/{fileId}/range")
+    @Transactional(readOnly = true)
+    public ResponseEntity<ApiResponse<TextPage>> getFileRange(
+            @PathVariable Long fileId,
+            @RequestParam(defaultValue = "0") long offset,
+            @RequestParam(required = false) Integer length) {
+        try {
+            TextPage page = cloudDiskService.getFileRangeAdmin(fileId, offset, length);
+            return ResponseEntity.ok(ApiResponse.success("获取文件内容成功", page));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(ApiResponse.error(HttpStatus.NOT_FOUND.value(), e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(ApiResponse.error(HttpStatus.INTERNAL_SERVER_ERROR.value(), "读取文件失败: " + e.getMessage()));
+        }
+    }
+
     /**
      * 更新文件内容
      */
     @PutMapping("/files/content/{fileId}")
-    public ResponseEntity<ApiResponse<Void>> updateFileContent(
+    public ResponseEntity<ApiResponse<FileEditResult>> updateFileContent(
             @PathVariable Long fileId,
             @Valid @RequestBody FileContentRequest request) {
         try {
-            cloudDiskService.updateFileContentAdmin(fileId, request.getContent());
-            return ResponseEntity.ok(ApiResponse.success("文件内容更新成功", null));
+            FileEditResult result = cloudDiskService.updateFileContentAdmin(fileId, request.getContent(),
+                request.getBaseVersion());
+            return ResponseEntity.ok(ApiResponse.success("文件内容更新成功", result));
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(ApiResponse.error(HttpStatus.INTERNAL_SERVER_ERROR.value(), "更新文件失败: " + e.getMessage()));
+        } catch (VersionConflictException e) {
+            // 交给全局异常处理器返回 409 与当前版本
+            throw e;
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(ApiResponse.error(HttpStatus.INTERNAL_SERVER_ERROR.value(), "更新文件内容失败: " + e.getMessage()));
         }
     }
 
+    /**
+     * 增量编辑文件内容
+     */
+    @PostMapping("/files/content/{fileId}/patch")
+    public ResponseEntity<ApiResponse<FileEditResult>> patchFileContent(
+            @PathVariable Long fileId,
+            @Valid @RequestBody FilePatchRequest request) {
+        try {
+            FileEditResult result = cloudDiskService.patchFileContentAdmin(fileId, request.getBaseVersion(),
+                request.toTextEdits());
+            return ResponseEntity.ok(ApiResponse.success("文件内容更新成功", result));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(ApiResponse.error(HttpStatus.NOT_FOUND.value(), e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(ApiResponse.error(HttpStatus.INTERNAL_SERVER_ERROR.value(), "更新文件失败: " + e.getMessage()));
+        }
+    }
+
     /**
      * 获取所有用户列表
      */
@@ -9,6 +9,7 @@ import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -53,26 +54,22 @@ public class AiChatController {
         
         String ip = getClientIp(servletRequest);
         
-        Long userId = null;
-        if (customUserDetails != null) {
-            userId = customUserDetails.getUser().getId();
-        } else {
-            // 匿名用户处理
-            if (!rateLimitService.checkAndIncrement(ip)) {
-                SseEmitter emitter = new SseEmitter(0L);
-                try {
-                    // 发送错误消息并关闭
-                    Map<String, String> error = new HashMap<>();
-                    error.put("content", "您已达到今日免费对话次数上限（5次）。请注册登录后继续使用。");
-                    emitter.send(SseEmitter.event().data(new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(error)));
-                    // 发送结束标记，确保前端正确断开
-                    emitter.send(SseEmitter.event().data("[DONE]"));
-                    emitter.complete();
-                } catch (IOException e) {
-                    emitter.completeWithError(e);
-                }
-                return emitter;
+        Long userId = customUserDetails != null ? customUserDetails.getUser().getId() : null;
+        RateLimitService.Decision decision = checkRateLimit(customUserDetails, ip);
+        if (!decision.allowed()) {
+            SseEmitter emitter = new SseEmitter(0L);
+            try {
+                // 发送错误消息并关闭
+                Map<String, String> error = new HashMap<>();
+                error.put("content", rateLimitMessage(customUserDetails, decision));
+                emitter.send(SseEmitter.event().data(new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(error)));
+                // 发送结束标记，确保前端正确断开
+                emitter.send(SseEmitter.event().data("[DONE]"));
+                emitter.complete();
+            } catch (IOException e) {
+                emitter.completeWithError(e);
             }
+            return emitter;
         }
         
         // 调用AI流式聊天服务
@@ -94,16 +91,12 @@ public class AiChatController {
             @AuthenticationPrincipal CustomUserDetails customUserDetails,
             HttpServletRequest servletRequest) {
         
-        Long userId = null;
-        if (customUserDetails != null) {
-            userId = customUserDetails.getUser().getId();
-        } else {
-             // 匿名用户处理
-            String ip = getClientIp(servletRequest);
-            if (!rateLimitService.checkAndIncrement(ip)) {
-                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
-                        .body(ApiResponse.error(429, "您已达到今日免费对话次数上限（5次）。请注册登录后继续使用。"));
-            }
+        Long userId = customUserDetails != null ? customUserDetails.getUser().getId() : null;
+        RateLimitService.Decision decision = checkRateLimit(customUserDetails, getClientIp(servletRequest));
+        if (!decision.allowed()) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, (decision.retryAfterMs() + 999) / 1000)))
+                    .body(ApiResponse.error(429, rateLimitMessage(customUserDetails, decision)));
         }
         
         String answer = aiChatService.ask(
@@ -118,6 +111,26 @@ public class AiChatController {
         return ResponseEntity.ok(ApiResponse.success(responseData));
     }
 
+    /**
+     * 按用户等级限流：匿名用户按 IP，登录用户按用户ID
+     */
+    private RateLimitService.Decision checkRateLimit(CustomUserDetails customUserDetails, String ip) {
+        if (customUserDetails == null) {
+            return rateLimitService.check("chat", RateLimitService.Tier.ANONYMOUS, ip);
+        }
+        RateLimitService.Tier tier = customUserDetails.getUser().isAdmin()
+                ? RateLimitService.Tier.ADMIN : RateLimitService.Tier.USER;
+        return rateLimitService.check("chat", tier, String.valueOf(customUserDetails.getUser().getId()));
+    }
+
+    private String rateLimitMessage(CustomUserDetails customUserDetails, RateLimitService.Decision decision) {
+        if (customUserDetails == null) {
+            return "您已达到今日免费对话次数上限（" + decision.limit() + "次）。请注册登录后继续使用。";
+        }
+        long seconds = Math.max(1, (decision.retryAfterMs() + 999) / 1000);
+        return "请求过于频繁，请 " + seconds + " 秒后再试。";
+    }
+
     private String getClientIp(HttpServletRequest request) {
         String xfHeader = request.getHeader("X-Forwarded-For");
         if (xfHeader == null) {
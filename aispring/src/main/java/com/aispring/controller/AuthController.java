@@ -4,6 +4,7 @@ import com.aispring.dto.request.*;
 import com.aispring.dto.response.ApiResponse;
 import com.aispring.dto.response.AuthResponse;
 import com.aispring.service.AuthService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
@@ -26,8 +27,9 @@ public class AuthController {
      */
     @PostMapping("/register/send-code")
     public ResponseEntity<ApiResponse<Void>> sendRegisterCode(
-            @Valid @RequestBody EmailRequest request) {
-        authService.sendRegisterCode(request.getEmail());
+            @Valid @RequestBody EmailRequest request,
+            HttpServletRequest servletRequest) {
+        authService.sendRegisterCode(request.getEmail(), getClientIp(servletRequest));
         return ResponseEntity.ok(ApiResponse.success("验证码已发送到您的邮箱", null));
     }
     
@@ -59,8 +61,9 @@ public class AuthController {
      */
     @PostMapping("/forgot-password/send-code")
     public ResponseEntity<ApiResponse<Void>> sendForgotPasswordCode(
-            @Valid @RequestBody EmailRequest request) {
-        authService.sendForgotPasswordCode(request.getEmail());
+            @Valid @RequestBody EmailRequest request,
+            HttpServletRequest servletRequest) {
+        authService.sendForgotPasswordCode(request.getEmail(), getClientIp(servletRequest));
         return ResponseEntity.ok(ApiResponse.success("验证码已发送到您的邮箱", null));
     }
     
@@ -84,5 +87,12 @@ public class AuthController {
         AuthResponse response = authService.createTestUser();
         return ResponseEntity.ok(ApiResponse.success("测试token生成成功", response));
     }
+    
+    private String getClientIp(HttpServletRequest request) {
+        String xfHeader = request.getHeader("X-Forwarded-For");
+        if (xfHeader == null) {
+            return request.getRemoteAddr();
+        }
+        return xfHeader.split(",")[0];
+    }
 }
-
@@ -2,14 +2,18 @@ package com.aispring.controller;
 
 import com.aispring.entity.ChatRecord;
 import com.aispring.entity.ChatSession;
+import com.aispring.service.ChatExportService;
 import com.aispring.service.ChatRecordService;
 import com.aispring.dto.response.MessageResponse;
 import com.aispring.security.CustomUserDetails;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -17,6 +21,8 @@ import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +39,7 @@ import jakarta.servlet.http.HttpServletRequest;
 public class ChatRecordController {
     
     private final ChatRecordService chatRecordService;
+    private final ChatExportService chatExportService;
     
     // DTO类
     @Data
@@ -172,6 +179,30 @@ public class ChatRecordController {
         return ResponseEntity.ok(response);
     }
     
+    /**
+     * 全文检索当前用户的聊天记录
+     * GET /api/chat-records/search?q=关键词&page=1&size=20
+     */
+    @GetMapping("/search")
+    public ResponseEntity<Map<String, Object>> searchMessages(
+            @RequestParam(name = "q", required = false) String q,
+            @RequestParam(defaultValue = "1") Integer page,
+            @RequestParam(defaultValue = "20") Integer size,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) {
+
+        Long userId = customUserDetails.getUser().getId();
+        ChatRecordService.ChatSearchResult result = chatRecordService.searchMessages(userId, q, page, size);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("results", result.results());
+        response.put("sessions", result.sessions());
+        response.put("total", result.total());
+        response.put("page", result.page());
+        response.put("size", result.size());
+
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * 获取特定会话的所有消息
      * Python: GET /api/chat-records/session/{session_id}
@@ -198,6 +229,47 @@ public class ChatRecordController {
         return ResponseEntity.ok(response);
     }
     
+    /**
+     * 导出聊天记录（流式输出）
+     * GET /api/chat-records/export?format=ndjson|markdown|zip&session_id=xxx
+     * 不传 session_id 时导出当前用户的全部会话
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportSessions(
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(name = "session_id", required = false) String sessionId,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) {
+
+        Long userId = customUserDetails.getUser().getId();
+        String normalized = chatExportService.normalizeFormat(format);
+
+        String baseName = (sessionId != null && !sessionId.isEmpty()) ? "chat-" + sessionId : "chat-history";
+        MediaType contentType;
+        String filename;
+        switch (normalized) {
+            case ChatExportService.FORMAT_MARKDOWN -> {
+                contentType = new MediaType("text", "markdown", StandardCharsets.UTF_8);
+                filename = baseName + ".md";
+            }
+            case ChatExportService.FORMAT_ZIP -> {
+                contentType = MediaType.parseMediaType("application/zip");
+                filename = baseName + ".zip";
+            }
+            default -> {
+                contentType = new MediaType("application", "x-ndjson", StandardCharsets.UTF_8);
+                filename = baseName + ".ndjson";
+            }
+        }
+
+        StreamingResponseBody body = out -> chatExportService.export(userId, sessionId, normalized, out);
+
+        return ResponseEntity.ok()
+            .contentType(contentType)
+            .header(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"" + URLEncoder.encode(filename, StandardCharsets.UTF_8) + "\"")
+            .body(body);
+    }
+
     /**
      * 删除特定会话
      * Python: DELETE /api/chat-records/session/{session_id}
@@ -2,26 +2,45 @@ package com.aispring.controller;
 
 import com.aispring.entity.UserFile;
 import com.aispring.entity.UserFolder;
+import com.aispring.service.BlobStoreService;
+import com.aispring.service.ChunkedUploadService;
+import com.aispring.service.CloudDiskListingService;
 import com.aispring.service.CloudDiskService;
+import com.aispring.service.CloudDiskTrashService;
+import com.aispring.service.ContentHashBackfillService;
+import com.aispring.service.FolderZipService;
+import com.aispring.service.InstantUploadChallengeService;
+import com.aispring.service.ZipExtractJobService;
+import com.aispring.util.StreamingZipWriter;
+import com.aispring.dto.request.FilePatchRequest;
 import com.aispring.dto.response.ApiResponse;
+import com.aispring.dto.response.CursorPage;
+import com.aispring.dto.response.FileEditResult;
+import com.aispring.dto.response.FileListItem;
+import com.aispring.dto.response.FolderListItem;
+import com.aispring.dto.response.TextPage;
+import com.aispring.exception.ResourceNotFoundException;
+import com.aispring.exception.VersionConflictException;
 import com.aispring.security.CustomUserDetails;
 import com.fasterxml.jackson.annotation.JsonAlias;
 import lombok.Data;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -38,6 +57,15 @@ import java.util.List;
 public class CloudDiskController {
     
     private final CloudDiskService cloudDiskService;
+    private final CloudDiskTrashService cloudDiskTrashService;
+    private final CloudDiskListingService cloudDiskListingService;
+    private final ChunkedUploadService chunkedUploadService;
+    private final ContentHashBackfillService contentHashBackfillService;
+    private final FolderZipService folderZipService;
+    private final ZipExtractJobService zipExtractJobService;
+    
+    /** 允许浏览器缓存，但每次使用前都要用校验值确认（同一 fileId 的内容可能被覆盖） */
+    private static final CacheControl DOWNLOAD_CACHE_CONTROL = CacheControl.noCache().cachePrivate();
     
     // DTO类
     @Data
@@ -57,6 +85,12 @@ public class CloudDiskController {
         private String targetPath;
     }
     
+    @Data
+    public static class MoveFolderRequest {
+        @JsonAlias({"targetFolderId","target_folder_id"})
+        private Long targetFolderId;
+    }
+    
     @Data
     public static class RenameFolderRequest {
         @NotBlank
@@ -84,6 +118,56 @@ public class CloudDiskController {
     public static class FileContentRequest {
         @NotBlank
         private String content;
+        /** 编辑基于的内容版本，为空时不做版本检查 */
+        @JsonAlias({"baseVersion","base_version"})
+        private String baseVersion;
+    }
+
+    @Data
+    public static class InstantUploadRequest {
+        @NotBlank
+        private String filename;
+        @JsonAlias({"folderPath","folder_path"})
+        private String folderPath;
+        @jakarta.validation.constraints.NotNull
+        private Long size;
+        @NotBlank
+        @JsonAlias({"hash","contentHash","content_hash","sha256"})
+        private String hash;
+        /** 协商接口签发的一次性挑战 */
+        @NotBlank
+        private String nonce;
+        /** 对挑战中每个内容块的回答 */
+        @jakarta.validation.constraints.NotEmpty
+        private List<BlobStoreService.BlockSample> samples;
+        @JsonAlias({"conflictStrategy","conflict_strategy"})
+        private String conflictStrategy;
+    }
+
+    @Data
+    public static class InstantUploadChallengeRequest {
+        @jakarta.validation.constraints.NotNull
+        private Long size;
+        @NotBlank
+        @JsonAlias({"hash","contentHash","content_hash","sha256"})
+        private String hash;
+    }
+
+    @Data
+    public static class ChunkedUploadInitRequest {
+        @NotBlank
+        private String filename;
+        @JsonAlias({"folderPath","folder_path"})
+        private String folderPath;
+        @jakarta.validation.constraints.NotNull
+        private Long size;
+        @JsonAlias({"chunkSize","chunk_size"})
+        private Integer chunkSize;
+        /** 可选的整个文件 SHA-256，合并后校验 */
+        @JsonAlias({"hash","contentHash","content_hash","sha256"})
+        private String hash;
+        @JsonAlias({"conflictStrategy","conflict_strategy"})
+        private String conflictStrategy;
     }
 
     /**
@@ -112,34 +196,119 @@ public class CloudDiskController {
         }
     }
 
+    /**
+     * 按行分页获取文件内容（预览大文本文件时使用）
+     * @param fileId 文件ID
+     * @param start 起始行号（从 0 开始）
+     * @param count 行数
+     * @param customUserDetails 当前用户
+     * @return 一页文本
+     */
+    @GetMapping("/content/{fileId}/lines")
+    public ResponseEntity<ApiResponse<TextPage>> getFileLines(
+            @PathVariable Long fileId,
+            @RequestParam(defaultValue = "0") long start,
+            @RequestParam(required = false) Integer count,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) {
+        try {
+            Long userId = customUserDetails.getUser().getId();
+            TextPage page = cloudDiskService.getFileLines(userId, fileId, start, count);
+            return ResponseEntity.ok(ApiResponse.success("获取文件内容成功", page));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(ApiResponse.error(HttpStatus.NOT_FOUND.value(), e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(ApiResponse.error(HttpStatus.INTERNAL_SERVER_ERROR.value(), "读取文件失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 按字节窗口获取文件内容（窗口两端对齐到行边界）
+     * @param fileId 文件ID
+     * @param offset 起始字节位置
+     * @param length 窗口字节数
+     * @param customUserDetails 当前用户
+     * @return 一页文本
+     */
+    @GetMapping("/content/{fileId}/range")
+    public ResponseEntity<ApiResponse<TextPage>> getFileRange(
+            @PathVariable Long fileId,
+            @RequestParam(defaultValue = "0") long offset,
+            @RequestParam(required = false) Integer length,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) {
+        try {
+            Long userId = customUserDetails.getUser().getId();
+            TextPage page = cloudDiskService.getFileRange(userId, fileId, offset, length);
+            return ResponseEntity.ok(ApiResponse.success("获取文件内容成功", page));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(ApiResponse.error(HttpStatus.NOT_FOUND.value(), e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(ApiResponse.error(HttpStatus.INTERNAL_SERVER_ERROR.value(), "读取文件失败: " + e.getMessage()));
+        }
+    }
+
     /**
      * 更新文件内容
      * @param fileId 文件ID
      * @param request 包含新内容的请求体
      * @param customUserDetails 当前用户
-     * @return 响应结果
+     * @return 新的内容版本
      */
     @PutMapping("/content/{fileId}")
-    public ResponseEntity<ApiResponse<Void>> updateFileContent(
+    public ResponseEntity<ApiResponse<FileEditResult>> updateFileContent(
             @PathVariable Long fileId,
             @Valid @RequestBody FileContentRequest request,
             @AuthenticationPrincipal CustomUserDetails customUserDetails) {
         try {
             Long userId = customUserDetails.getUser().getId();
-            cloudDiskService.updateFileContent(userId, fileId, request.getContent());
-            return ResponseEntity.ok(ApiResponse.success("文件内容更新成功", null));
+            FileEditResult result = cloudDiskService.updateFileContent(userId, fileId, request.getContent(),
+                request.getBaseVersion());
+            return ResponseEntity.ok(ApiResponse.success("文件内容更新成功", result));
         } catch (IllegalArgumentException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                 .body(ApiResponse.error(HttpStatus.NOT_FOUND.value(), e.getMessage()));
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(ApiResponse.error(HttpStatus.INTERNAL_SERVER_ERROR.value(), "更新文件失败: " + e.getMessage()));
+        } catch (VersionConflictException e) {
+            // 交给全局异常处理器返回 409 与当前版本
+            throw e;
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(ApiResponse.error(HttpStatus.INTERNAL_SERVER_ERROR.value(), "更新文件内容失败: " + e.getMessage()));
         }
     }
 
+    /**
+     * 增量编辑文件内容：只提交修改的部分，基准版本与当前版本不一致时返回 409
+     * 参数错误（编辑越界、编码无法表示等）由全局异常处理器返回 400
+     * @param fileId 文件ID
+     * @param request 基准版本与编辑列表
+     * @param customUserDetails 当前用户
+     * @return 新的内容版本
+     */
+    @PostMapping("/content/{fileId}/patch")
+    public ResponseEntity<ApiResponse<FileEditResult>> patchFileContent(
+            @PathVariable Long fileId,
+            @Valid @RequestBody FilePatchRequest request,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) {
+        try {
+            Long userId = customUserDetails.getUser().getId();
+            FileEditResult result = cloudDiskService.patchFileContent(userId, fileId, request.getBaseVersion(),
+                request.toTextEdits());
+            return ResponseEntity.ok(ApiResponse.success("文件内容更新成功", result));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(ApiResponse.error(HttpStatus.NOT_FOUND.value(), e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(ApiResponse.error(HttpStatus.INTERNAL_SERVER_ERROR.value(), "更新文件失败: " + e.getMessage()));
+        }
+    }
+
     /**
      * 初始化用户文件夹结构
      * Python: POST /api/cloud_disk/init-folder-structure
@@ -220,7 +389,7 @@ public class CloudDiskController {
         Long userId = customUserDetails.getUser().getId();
         cloudDiskService.deleteFolder(userId, folderId);
         
-        return ResponseEntity.ok(ApiResponse.success("文件夹已删除", null));
+        return ResponseEntity.ok(ApiResponse.success("文件夹已移入回收站", null));
     }
     
     /**
@@ -241,14 +410,124 @@ public class CloudDiskController {
         return ResponseEntity.ok(ApiResponse.success("文件上传成功", userFile));
     }
 
-    @PostMapping("/upload-folder")
-    public ResponseEntity<ApiResponse<Integer>> uploadFolder(
+    /**
+     * 秒传协商：返回一次性 nonce 与需要回答的内容块（偏移、长度）
+     */
+    @PostMapping("/instant-upload/challenge")
+    public ResponseEntity<ApiResponse<InstantUploadChallengeService.Challenge>> instantUploadChallenge(
+            @Valid @RequestBody InstantUploadChallengeRequest request,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) {
+        try {
+            Long userId = customUserDetails.getUser().getId();
+            return ResponseEntity.ok(ApiResponse.success("挑战已签发",
+                cloudDiskService.instantUploadChallenge(userId, request.getHash(), request.getSize())));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                .body(ApiResponse.error(HttpStatus.BAD_REQUEST.value(), e.getMessage()));
+        }
+    }
+
+    /**
+     * 秒传：客户端提交文件大小、SHA-256 以及对挑战的回答，服务器已有相同内容且回答正确时直接创建文件记录
+     * 返回 data.instant=false 时客户端应继续走普通上传
+     */
+    @PostMapping("/instant-upload")
+    public ResponseEntity<ApiResponse<java.util.Map<String, Object>>> instantUpload(
+            @Valid @RequestBody InstantUploadRequest request,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) throws IOException {
+        Long userId = customUserDetails.getUser().getId();
+        UserFile userFile = cloudDiskService.instantUpload(userId, request.getFolderPath(), request.getFilename(),
+            request.getSize(), request.getHash(), request.getNonce(), request.getSamples(),
+            request.getConflictStrategy() != null ? request.getConflictStrategy() : "RENAME");
+        java.util.Map<String, Object> result = new java.util.HashMap<>();
+        result.put("instant", userFile != null);
+        result.put("file", userFile);
+        return ResponseEntity.ok(ApiResponse.success(userFile != null ? "秒传成功" : "需要上传文件", result));
+    }
+
+    /**
+     * 分片上传：创建会话
+     */
+    @PostMapping("/chunked-upload/init")
+    public ResponseEntity<ApiResponse<ChunkedUploadService.SessionStatus>> initChunkedUpload(
+            @Valid @RequestBody ChunkedUploadInitRequest request,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) throws IOException {
+        Long userId = customUserDetails.getUser().getId();
+        ChunkedUploadService.SessionStatus status = chunkedUploadService.init(userId, request.getFilename(),
+            request.getFolderPath(), request.getSize(), request.getChunkSize(), request.getHash(), request.getConflictStrategy());
+        return ResponseEntity.ok(ApiResponse.success(status));
+    }
+
+    /**
+     * 分片上传：查询进度（断点续传时获取已上传的分片）
+     */
+    @GetMapping("/chunked-upload/{uploadId}")
+    public ResponseEntity<ApiResponse<ChunkedUploadService.SessionStatus>> getChunkedUpload(
+            @PathVariable String uploadId,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) throws IOException {
+        Long userId = customUserDetails.getUser().getId();
+        return ResponseEntity.ok(ApiResponse.success(chunkedUploadService.status(userId, uploadId)));
+    }
+
+    /**
+     * 分片上传：上传一个分片，请求体为分片原始字节，可用 X-Chunk-Sha256 头携带分片校验值
+     */
+    @PutMapping("/chunked-upload/{uploadId}/chunks/{index}")
+    public ResponseEntity<ApiResponse<Void>> putChunk(
+            @PathVariable String uploadId,
+            @PathVariable int index,
+            @RequestHeader(value = "X-Chunk-Sha256", required = false) String chunkHash,
+            jakarta.servlet.http.HttpServletRequest request,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) throws IOException {
+        Long userId = customUserDetails.getUser().getId();
+        chunkedUploadService.putChunk(userId, uploadId, index, request.getInputStream(), chunkHash);
+        return ResponseEntity.ok(ApiResponse.success("分片上传成功", null));
+    }
+
+    /**
+     * 分片上传：合并分片并创建文件
+     */
+    @PostMapping("/chunked-upload/{uploadId}/complete")
+    public ResponseEntity<ApiResponse<UserFile>> completeChunkedUpload(
+            @PathVariable String uploadId,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) throws IOException {
+        Long userId = customUserDetails.getUser().getId();
+        UserFile userFile = chunkedUploadService.complete(userId, uploadId);
+        return ResponseEntity.ok(ApiResponse.success("文件上传成功", userFile));
+    }
+
+    /**
+     * 分片上传：取消并释放已上传的分片
+     */
+    @DeleteMapping("/chunked-upload/{uploadId}")
+    public ResponseEntity<ApiResponse<Void>> abortChunkedUpload(
+            @PathVariable String uploadId,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) throws IOException {
+        Long userId = customUserDetails.getUser().getId();
+        chunkedUploadService.abort(userId, uploadId);
+        return ResponseEntity.ok(ApiResponse.success("已取消上传", null));
+    }
+
+    /**
+     * 压缩包上传：保存压缩包并登记后台解压任务后立即返回，通过任务接口轮询进度
+     * 解压只走后台任务，条目大小、总大小上限与配额都在任务中校验
+     */
+    @PostMapping("/upload-folder/jobs")
+    public ResponseEntity<ApiResponse<ZipExtractJobService.JobStatus>> submitFolderZipJob(
             @RequestParam("file") MultipartFile zipFile,
             @RequestParam String folderPath,
             @AuthenticationPrincipal CustomUserDetails customUserDetails) throws IOException {
         Long userId = customUserDetails.getUser().getId();
-        int count = cloudDiskService.uploadFolderZip(userId, folderPath, zipFile);
-        return ResponseEntity.ok(ApiResponse.success("文件夹上传成功", count));
+        ZipExtractJobService.JobStatus status = zipExtractJobService.submit(userId, folderPath, zipFile);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(ApiResponse.success("解压任务已创建", status));
+    }
+
+    @GetMapping("/upload-folder/jobs/{jobId}")
+    public ResponseEntity<ApiResponse<ZipExtractJobService.JobStatus>> getFolderZipJob(
+            @PathVariable String jobId,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) {
+        Long userId = customUserDetails.getUser().getId();
+        return ResponseEntity.ok(ApiResponse.success(zipExtractJobService.status(userId, jobId)));
     }
 
     @PostMapping("/upload-folder-stream")
@@ -278,6 +557,53 @@ public class CloudDiskController {
         return ResponseEntity.ok(ApiResponse.success(files));
     }
 
+    /**
+     * 分页获取文件列表（键集分页，服务端排序）
+     * @param sort name / size / time
+     * @param order asc / desc
+     * @param cursor 上一页返回的 next_cursor
+     */
+    @GetMapping("/files/page")
+    public ResponseEntity<ApiResponse<CursorPage<FileListItem>>> getFilesPage(
+            @RequestParam(required = false) Long folderId,
+            @RequestParam(required = false) String folderPath,
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) String order,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) {
+        
+        Long userId = customUserDetails.getUser().getId();
+        try {
+            return ResponseEntity.ok(ApiResponse.success(
+                cloudDiskListingService.listFiles(userId, folderId, folderPath, sort, order, cursor, limit)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(400, e.getMessage()));
+        }
+    }
+
+    /**
+     * 分页获取子文件夹列表（键集分页，服务端排序）
+     */
+    @GetMapping("/folders/page")
+    public ResponseEntity<ApiResponse<CursorPage<FolderListItem>>> getFoldersPage(
+            @RequestParam(required = false) Long parentId,
+            @RequestParam(required = false) String parentPath,
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) String order,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) {
+        
+        Long userId = customUserDetails.getUser().getId();
+        try {
+            return ResponseEntity.ok(ApiResponse.success(
+                cloudDiskListingService.listFolders(userId, parentId, parentPath, sort, order, cursor, limit)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(400, e.getMessage()));
+        }
+    }
+
     @PutMapping("/rename-file")
     public ResponseEntity<ApiResponse<java.util.Map<String, Object>>> renameFile(
             @RequestParam Long fileId,
@@ -318,41 +644,29 @@ public class CloudDiskController {
      * 下载文件
      * Python: GET /api/cloud_disk/download/{file_id}
      * 支持 mode 参数：inline (预览) 或 attachment (下载，默认)
+     * 支持 If-None-Match / If-Modified-Since 协商缓存（命中时不访问文件）和 Range 分段下载
      */
     @GetMapping("/download/{fileId}")
     public ResponseEntity<?> downloadFile(
             @PathVariable Long fileId,
             @RequestParam(required = false) String mode,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            WebRequest webRequest,
             @AuthenticationPrincipal CustomUserDetails customUserDetails) {
         
         try {
             Long userId = customUserDetails.getUser().getId();
-            Path filePath = cloudDiskService.downloadFile(userId, fileId);
+            CloudDiskService.DownloadTarget target = cloudDiskService.downloadFile(userId, fileId);
             
-            // 再次检查文件是否存在
-            if (!Files.exists(filePath) || !Files.isRegularFile(filePath)) {
-                return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                    .body(ApiResponse.error(HttpStatus.NOT_FOUND.value(), "文件不存在或已被删除"));
+            // 校验值来自数据库记录，命中时直接返回 304
+            if (isNotModified(webRequest, target)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(target.etag())
+                    .cacheControl(DOWNLOAD_CACHE_CONTROL)
+                    .build();
             }
             
-            Resource resource;
-            try {
-                resource = new UrlResource(filePath.toUri());
-                // 检查资源是否存在和可读
-                if (!resource.exists() || !resource.isReadable()) {
-                    return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                        .body(ApiResponse.error(HttpStatus.NOT_FOUND.value(), "文件不可访问"));
-                }
-            } catch (MalformedURLException e) {
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(ApiResponse.error(HttpStatus.INTERNAL_SERVER_ERROR.value(), "文件路径无效: " + e.getMessage()));
-            }
-            
-            // 检测文件的 MIME 类型
-            String contentType = Files.probeContentType(filePath);
-            if (contentType == null) {
-                contentType = "application/octet-stream";
-            }
+            Path filePath = cloudDiskService.resolveDownloadPath(userId, target);
             
             // 根据 mode 参数决定是内联预览还是下载
             String disposition = "attachment";
@@ -360,14 +674,27 @@ public class CloudDiskController {
                 disposition = "inline";
             }
             
-            String filename = filePath.getFileName().toString();
+            String filename = target.filename();
             String encodedFilename = URLEncoder.encode(filename, StandardCharsets.UTF_8);
             
-            return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(contentType))
+            ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(target.contentType()))
+                .eTag(target.etag())
+                .cacheControl(DOWNLOAD_CACHE_CONTROL)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
                 .header(HttpHeaders.CONTENT_DISPOSITION, 
-                    disposition + "; filename=\"" + encodedFilename + "\"")
-                .body(resource);
+                    disposition + "; filename=\"" + encodedFilename + "\"");
+            if (target.lastModified() > 0) {
+                builder.lastModified(target.lastModified());
+            }
+            
+            // Resource 响应体由框架按 Range 请求头返回 206；If-Range 不匹配时内容已变化，返回完整内容。
+            // 框架不对 InputStreamResource 处理 Range，用它忽略 Range 请求头，仍走消息转换器输出 200
+            if (ifRange != null && !ifRangeMatches(ifRange, target)) {
+                long length = Files.size(filePath);
+                return builder.contentLength(length).body(new InputStreamResource(Files.newInputStream(filePath)));
+            }
+            return builder.body(new FileSystemResource(filePath));
                 
         } catch (IllegalArgumentException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
@@ -381,49 +708,56 @@ public class CloudDiskController {
         }
     }
     
+    private boolean isNotModified(WebRequest webRequest, CloudDiskService.DownloadTarget target) {
+        return target.lastModified() > 0
+            ? webRequest.checkNotModified(target.etag(), target.lastModified())
+            : webRequest.checkNotModified(target.etag());
+    }
+    
+    /**
+     * If-Range 只接受强 ETag：HTTP 日期只精确到秒，同一秒内的两次编辑无法区分，
+     * 弱校验值与日期都按不匹配处理，返回完整内容，避免把新旧两个版本拼接到一起
+     */
+    private boolean ifRangeMatches(String ifRange, CloudDiskService.DownloadTarget target) {
+        String value = ifRange.trim();
+        return value.startsWith("\"") && value.equals(target.etag());
+    }
+    
+    /**
+     * 下载文件夹（ZIP）
+     * 返回类型须声明为 StreamingResponseBody，框架才会按流式响应体异步输出；
+     * 开始输出前的错误以异常交给全局异常处理器
+     */
     @GetMapping("/download-folder")
-    public ResponseEntity<?> downloadFolder(
+    public ResponseEntity<StreamingResponseBody> downloadFolder(
             @RequestParam(required = false) String folderPath,
             @AuthenticationPrincipal CustomUserDetails customUserDetails) {
+        Long userId = customUserDetails.getUser().getId();
+        List<StreamingZipWriter.Entry> entries;
         try {
-            Long userId = customUserDetails.getUser().getId();
-            Path zipPath = cloudDiskService.zipFolder(userId, folderPath);
-            Resource resource;
-            try {
-                resource = new UrlResource(zipPath.toUri());
-                if (!resource.exists() || !resource.isReadable()) {
-                    return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                        .body(ApiResponse.error(HttpStatus.NOT_FOUND.value(), "文件不可访问"));
-                }
-            } catch (MalformedURLException e) {
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(ApiResponse.error(HttpStatus.INTERNAL_SERVER_ERROR.value(), "文件路径无效: " + e.getMessage()));
-            }
-            String name;
-            if (folderPath == null || folderPath.trim().isEmpty()) {
-                name = "download";
-            } else {
-                String s = folderPath.trim();
-                while (s.endsWith("/")) s = s.substring(0, s.length() - 1);
-                int idx = s.lastIndexOf('/');
-                name = idx >= 0 ? s.substring(idx + 1) : s;
-            }
-            String encodedFilename = URLEncoder.encode(name + ".zip", StandardCharsets.UTF_8);
-            return ResponseEntity.ok()
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .header(HttpHeaders.CONTENT_DISPOSITION, 
-                    "attachment; filename=\"" + encodedFilename + "\"")
-                .body(resource);
+            entries = cloudDiskService.listFolderZipEntries(userId, folderPath);
         } catch (IllegalArgumentException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                .body(ApiResponse.error(HttpStatus.NOT_FOUND.value(), e.getMessage()));
+            throw new ResourceNotFoundException(e.getMessage());
         } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                .body(ApiResponse.error(HttpStatus.NOT_FOUND.value(), "文件不存在: " + e.getMessage()));
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                .body(ApiResponse.error(HttpStatus.INTERNAL_SERVER_ERROR.value(), "下载文件夹失败: " + e.getMessage()));
+            throw new ResourceNotFoundException("文件不存在: " + e.getMessage());
+        }
+        String name;
+        if (folderPath == null || folderPath.trim().isEmpty()) {
+            name = "download";
+        } else {
+            String s = folderPath.trim();
+            while (s.endsWith("/")) s = s.substring(0, s.length() - 1);
+            int idx = s.lastIndexOf('/');
+            name = idx >= 0 ? s.substring(idx + 1) : s;
         }
+        String encodedFilename = URLEncoder.encode(name + ".zip", StandardCharsets.UTF_8);
+        // 边打包边输出，不生成临时文件
+        StreamingResponseBody body = out -> folderZipService.write(entries, out);
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_OCTET_STREAM)
+            .header(HttpHeaders.CONTENT_DISPOSITION, 
+                "attachment; filename=\"" + encodedFilename + "\"")
+            .body(body);
     }
     
     /**
@@ -438,7 +772,52 @@ public class CloudDiskController {
         Long userId = customUserDetails.getUser().getId();
         cloudDiskService.deleteFile(userId, fileId);
         
-        return ResponseEntity.ok(ApiResponse.success("文件已删除", null));
+        return ResponseEntity.ok(ApiResponse.success("文件已移入回收站", null));
+    }
+    
+    /**
+     * 回收站列表
+     */
+    @GetMapping("/trash")
+    public ResponseEntity<ApiResponse<List<CloudDiskTrashService.TrashEntry>>> listTrash(
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) {
+        
+        Long userId = customUserDetails.getUser().getId();
+        return ResponseEntity.ok(ApiResponse.success("获取回收站成功", cloudDiskTrashService.list(userId)));
+    }
+    
+    /**
+     * 从回收站恢复文件夹（连同同一次删除的子文件夹与文件）
+     */
+    @PostMapping("/trash/restore-folder")
+    public ResponseEntity<ApiResponse<UserFolder>> restoreFolder(
+            @RequestParam Long folderId,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) {
+        
+        Long userId = customUserDetails.getUser().getId();
+        try {
+            UserFolder folder = cloudDiskTrashService.restoreFolder(userId, folderId);
+            return ResponseEntity.ok(ApiResponse.success("文件夹已恢复", folder));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(400, e.getMessage()));
+        }
+    }
+    
+    /**
+     * 从回收站恢复文件
+     */
+    @PostMapping("/trash/restore-file")
+    public ResponseEntity<ApiResponse<UserFile>> restoreFile(
+            @RequestParam Long fileId,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) {
+        
+        Long userId = customUserDetails.getUser().getId();
+        try {
+            UserFile file = cloudDiskTrashService.restoreFile(userId, fileId);
+            return ResponseEntity.ok(ApiResponse.success("文件已恢复", file));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(400, e.getMessage()));
+        }
     }
     
     /**
@@ -458,6 +837,27 @@ public class CloudDiskController {
         return ResponseEntity.ok(ApiResponse.success("文件移动成功", file));
     }
     
+    /**
+     * 移动文件夹（连同子文件夹与文件）
+     */
+    @PutMapping("/move-folder")
+    public ResponseEntity<ApiResponse<UserFolder>> moveFolder(
+            @RequestParam Long folderId,
+            @RequestBody MoveFolderRequest request,
+            @AuthenticationPrincipal CustomUserDetails customUserDetails) {
+        
+        Long userId = customUserDetails.getUser().getId();
+        if (request.getTargetFolderId() == null) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(400, "目标文件夹不能为空"));
+        }
+        try {
+            UserFolder folder = cloudDiskService.moveFolder(userId, folderId, request.getTargetFolderId());
+            return ResponseEntity.ok(ApiResponse.success("文件夹移动成功", folder));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(400, e.getMessage()));
+        }
+    }
+    
     /**
      * 重命名文件夹
      * Python: PUT /api/cloud_disk/rename-folder
@@ -505,8 +905,8 @@ public class CloudDiskController {
 
     @PostMapping("/migrate")
     public ResponseEntity<ApiResponse<Void>> migrateAll() {
-        cloudDiskService.migrateToUnifiedBase();
-        return ResponseEntity.ok(ApiResponse.success("迁移完成", null));
+        contentHashBackfillService.requestFullPass();
+        return ResponseEntity.ok(ApiResponse.success("迁移已在后台开始", null));
     }
 }
 
@@ -0,0 +1,48 @@
+package com.aispring.dto.request;
+
+import com.aispring.service.TextContentService;
+import com.fasterxml.jackson.annotation.JsonAlias;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 增量编辑请求DTO
+ * 编辑基于 baseVersion 对应的内容，偏移按字符计，换行统一计为一个字符
+ */
+@Data
+public class FilePatchRequest {
+
+    @NotBlank
+    @JsonAlias({"baseVersion", "base_version"})
+    private String baseVersion;
+
+    @NotEmpty
+    @Valid
+    private List<Edit> edits;
+
+    /**
+     * 把 [start, end) 替换为 text；start 与 end 相等时为插入，text 为空时为删除
+     */
+    @Data
+    public static class Edit {
+        @NotNull
+        @PositiveOrZero
+        private Long start;
+        @NotNull
+        @PositiveOrZero
+        private Long end;
+        private String text;
+    }
+
+    public List<TextContentService.TextEdit> toTextEdits() {
+        return edits.stream()
+            .map(e -> new TextContentService.TextEdit(e.getStart(), e.getEnd(), e.getText()))
+            .toList();
+    }
+}
@@ -0,0 +1,21 @@
+package com.aispring.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 在线编辑结果：新的内容版本，后续编辑以它作为基准版本
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileEditResult {
+    /** 新的内容版本 */
+    private String version;
+    private Long fileSize;
+    /** 写入使用的编码（增量编辑保持原文件编码） */
+    private String charset;
+}
@@ -0,0 +1,25 @@
+package com.aispring.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 文件列表项（分页列表使用，只包含列表展示需要的字段）
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileListItem {
+    private Long id;
+    private String filename;
+    private Long fileSize;
+    private String fileType;
+    private Long folderId;
+    private String folderPath;
+    private LocalDateTime uploadTime;
+}
@@ -0,0 +1,23 @@
+package com.aispring.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 文件夹列表项（分页列表使用）
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class FolderListItem {
+    private Long id;
+    private String folderName;
+    private Long parentId;
+    private String folderPath;
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,36 @@
+package com.aispring.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 文本文件的一页内容（按行或按字节窗口读取）
+ * 按行读取时 lines 有值，按字节窗口读取时 text 有值；字节偏移均指文件中的原始字节位置
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TextPage {
+    /** 内容版本，文件内容变化后改变 */
+    private String version;
+    private String charset;
+    private Long fileSize;
+    /** 总行数（按字节窗口读取时为空） */
+    private Long totalLines;
+    private Long startLine;
+    /** 本页结束的行号（不含），下一页从这里开始 */
+    private Long endLine;
+    private Long startByte;
+    /** 本页结束的字节位置（不含），下一页从这里开始 */
+    private Long endByte;
+    private List<String> lines;
+    private String text;
+    private boolean hasMore;
+    /** 有超长的行被截断 */
+    private boolean truncated;
+}
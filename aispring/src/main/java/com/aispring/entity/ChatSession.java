@@ -15,7 +15,8 @@ import java.time.LocalDateTime;
 @Table(name = "chat_sessions",
     indexes = {
         @Index(name = "idx_session_id", columnList = "session_id", unique = true),
-        @Index(name = "idx_user_id", columnList = "user_id")
+        @Index(name = "idx_user_id", columnList = "user_id"),
+        @Index(name = "idx_deleted_at", columnList = "deleted_at")
     }
 )
 @Data
@@ -52,6 +53,9 @@ public class ChatSession {
     @Column(name = "updated_at")
     private LocalDateTime updatedAt;
 
+    @Column(name = "deleted_at")
+    private LocalDateTime deletedAt; // 非空表示已逻辑删除，等待后台清理
+
     @PrePersist
     protected void onCreate() {
         createdAt = LocalDateTime.now();
@@ -0,0 +1,82 @@
+package com.aispring.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 邮件发件箱实体
+ * 业务事务中只写入发件箱，提交后由 EmailOutboxService 异步投递
+ */
+@Entity
+@Table(name = "email_outbox",
+    indexes = {
+        @Index(name = "idx_outbox_status_next", columnList = "status, next_attempt_at")
+    }
+)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class EmailOutbox {
+    
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_SENDING = "SENDING";
+    public static final String STATUS_SENT = "SENT";
+    public static final String STATUS_FAILED = "FAILED";
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "to_email", nullable = false, length = 120)
+    private String toEmail;
+    
+    @Column(nullable = false, length = 255)
+    private String subject;
+    
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String content;
+    
+    /** 验证码用途：非空时正文中的验证码占位符在发送时从验证码存储读取，验证码本身不写入发件箱 */
+    @Column(name = "code_usage", length = 40)
+    private String codeUsage;
+    
+    @Column(nullable = false, length = 20)
+    @Builder.Default
+    private String status = STATUS_PENDING;
+    
+    @Column(nullable = false)
+    @Builder.Default
+    private Integer attempts = 0;
+    
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+    
+    /** 认领租约到期时间：发送中的邮件超过该时间仍未完成，视为认领实例已失联 */
+    @Column(name = "lease_until")
+    private LocalDateTime leaseUntil;
+    
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+    
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+    
+    @Column(name = "sent_at")
+    private LocalDateTime sentAt;
+    
+    @PrePersist
+    protected void onCreate() {
+        if (createdAt == null) {
+            createdAt = LocalDateTime.now();
+        }
+        if (nextAttemptAt == null) {
+            nextAttemptAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.aispring.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 云盘内容寻址数据块
+ * 相同内容的文件只在磁盘上保存一份，ref_count 记录引用它的 user_files 行数；
+ * 引用数归零后由 {@link com.aispring.service.BlobStoreService} 的回收任务延迟删除
+ */
+@Entity
+@Table(name = "file_blobs",
+    indexes = {
+        @Index(name = "idx_blob_ref_released", columnList = "ref_count, released_at")
+    }
+)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileBlob {
+    
+    /** 内容的 SHA-256（小写十六进制） */
+    @Id
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+    
+    @Column(name = "size", nullable = false)
+    private Long size;
+    
+    @Column(name = "ref_count", nullable = false)
+    private Integer refCount = 0;
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+    
+    /** 最近一次引用数减少的时间，回收任务据此留出宽限期 */
+    @Column(name = "released_at")
+    private LocalDateTime releasedAt;
+}
@@ -0,0 +1,60 @@
+package com.aispring.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 云盘变更日志中的一条分歧：监听到的外部磁盘变更（或上次运行未完成的自身变更）与数据库记录不一致
+ */
+@Entity
+@Table(name = "storage_change_journal",
+    indexes = {
+        @Index(name = "idx_change_detected_at", columnList = "detected_at")
+    }
+)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StorageChangeEntry {
+    
+    public static final String EVENT_DELETE = "DELETE";
+    public static final String EVENT_MODIFY = "MODIFY";
+    public static final String EVENT_RECOVERY = "RECOVERY";
+    public static final String EVENT_OVERFLOW = "OVERFLOW";
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    /** 发生变更的路径（相对云盘根目录） */
+    @Column(name = "path", nullable = false, length = 1000)
+    private String path;
+    
+    @Column(name = "event_type", nullable = false, length = 20)
+    private String eventType;
+    
+    @Column(name = "detail", length = 500)
+    private String detail;
+    
+    /** 引用该路径的文件记录数 */
+    @Column(name = "affected_files", nullable = false)
+    private Integer affectedFiles = 0;
+    
+    /** 确认物理内容缺失的记录数 */
+    @Column(name = "missing", nullable = false)
+    private Integer missing = 0;
+    
+    /** 已删除的记录数 */
+    @Column(name = "cleaned", nullable = false)
+    private Integer cleaned = 0;
+    
+    @Column(name = "detected_at", nullable = false)
+    private LocalDateTime detectedAt;
+    
+    @Column(name = "reconciled_at", nullable = false)
+    private LocalDateTime reconciledAt;
+}
@@ -0,0 +1,55 @@
+package com.aispring.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 完整性扫描发现的问题：数据库中存在但物理内容缺失的文件记录
+ */
+@Entity
+@Table(name = "storage_integrity_issues",
+    indexes = {
+        @Index(name = "idx_integrity_issue_scan", columnList = "scan_id, id")
+    }
+)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StorageIntegrityIssue {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "scan_id", nullable = false)
+    private Long scanId;
+    
+    @Column(name = "file_id", nullable = false)
+    private Long fileId;
+    
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+    
+    @Column(name = "filename", length = 255)
+    private String filename;
+    
+    @Column(name = "filepath", length = 500)
+    private String filepath;
+    
+    @Column(name = "reason", nullable = false, length = 100)
+    private String reason;
+    
+    @Column(name = "attempted_path", length = 1000)
+    private String attemptedPath;
+    
+    /** 记录是否已被删除 */
+    @Column(name = "cleaned", nullable = false)
+    private Boolean cleaned = false;
+    
+    @Column(name = "detected_at", nullable = false)
+    private LocalDateTime detectedAt;
+}
@@ -0,0 +1,77 @@
+package com.aispring.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 存储完整性扫描
+ * 按文件 ID 升序分批检查物理内容是否存在；cursor_id 与本批发现的问题在同一事务中推进，重启后从该位置继续
+ */
+@Entity
+@Table(name = "storage_integrity_scans",
+    indexes = {
+        @Index(name = "idx_integrity_scan_status", columnList = "status")
+    }
+)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StorageIntegrityScan {
+    
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_FAILED = "FAILED";
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "status", nullable = false, length = 20)
+    private String status = STATUS_PENDING;
+    
+    /** 触发方式：STARTUP / SCHEDULED / ADMIN / JOURNAL */
+    @Column(name = "trigger_source", nullable = false, length = 20)
+    private String triggerSource;
+    
+    /** 发现缺失时是否直接删除记录 */
+    @Column(name = "auto_cleanup", nullable = false)
+    private Boolean autoCleanup = false;
+    
+    /** 已检查的最大文件 ID（已提交的进度） */
+    @Column(name = "cursor_id", nullable = false)
+    private Long cursorId = 0L;
+    
+    /** 创建扫描时的文件总数（估算进度用） */
+    @Column(name = "total_files", nullable = false)
+    private Long totalFiles = 0L;
+    
+    @Column(name = "scanned", nullable = false)
+    private Long scanned = 0L;
+    
+    @Column(name = "missing", nullable = false)
+    private Integer missing = 0;
+    
+    @Column(name = "cleaned", nullable = false)
+    private Integer cleaned = 0;
+    
+    @Column(name = "error_message", length = 500)
+    private String errorMessage;
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+    
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+    
+    /** 每批提交时刷新的心跳，超时未刷新的 RUNNING 扫描可被重新认领 */
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+    
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+}
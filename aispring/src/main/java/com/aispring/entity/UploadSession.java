@@ -0,0 +1,80 @@
+package com.aispring.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 分片上传会话
+ * 已收到的分片以 {index}.part 文件保存在会话目录中，目录内容即为上传进度，
+ * 客户端断线后可查询会话并只补传缺失的分片
+ */
+@Entity
+@Table(name = "upload_sessions",
+    indexes = {
+        @Index(name = "idx_upload_user", columnList = "user_id"),
+        @Index(name = "idx_upload_expires", columnList = "expires_at"),
+        @Index(name = "idx_upload_user_status", columnList = "user_id, status")
+    }
+)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSession {
+    
+    public static final String STATUS_UPLOADING = "UPLOADING";
+    public static final String STATUS_COMPLETING = "COMPLETING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    
+    @Id
+    @Column(name = "upload_id", length = 36)
+    private String uploadId;
+    
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+    
+    @Column(name = "filename", nullable = false, length = 255)
+    private String filename;
+    
+    @Column(name = "folder_path", length = 500)
+    private String folderPath;
+    
+    @Column(name = "conflict_strategy", length = 20)
+    private String conflictStrategy;
+    
+    @Column(name = "total_size", nullable = false)
+    private Long totalSize;
+    
+    @Column(name = "chunk_size", nullable = false)
+    private Integer chunkSize;
+    
+    @Column(name = "total_chunks", nullable = false)
+    private Integer totalChunks;
+    
+    /** 客户端声明的整个文件的 SHA-256，合并后校验 */
+    @Column(name = "expected_hash", length = 64)
+    private String expectedHash;
+    
+    /** 初始化时预留的配额字节数，完成时提交，放弃或过期时释放 */
+    @Column(name = "reserved_bytes", nullable = false)
+    private Long reservedBytes;
+    
+    @Column(name = "status", nullable = false, length = 20)
+    private String status = STATUS_UPLOADING;
+    
+    /** 合并租约到期时间：状态为 COMPLETING 且租约已过期的会话视为合并中断 */
+    @Column(name = "completing_until")
+    private LocalDateTime completingUntil;
+    
+    @Column(name = "file_id")
+    private Long fileId;
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+    
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+}
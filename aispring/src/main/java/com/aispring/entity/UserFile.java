@@ -5,6 +5,7 @@ import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.SQLRestriction;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
@@ -12,14 +13,24 @@ import java.time.LocalDateTime;
 
 /**
  * 用户文件实体类
+ * 删除时进入回收站（deleted_at 非空），JPA 查询自动排除；回收站与清理任务使用原生 SQL
  */
 @Entity
 @Table(name = "user_files",
     indexes = {
         @Index(name = "idx_user_id", columnList = "user_id"),
-        @Index(name = "idx_folder_path", columnList = "folder_path")
+        @Index(name = "idx_file_folder", columnList = "folder_id, upload_time"),
+        @Index(name = "idx_content_hash", columnList = "content_hash"),
+        @Index(name = "idx_file_deleted_at", columnList = "deleted_at"),
+        @Index(name = "idx_file_list_time", columnList = "user_id, folder_id, deleted_at, upload_time"),
+        @Index(name = "idx_file_list_name", columnList = "user_id, folder_id, deleted_at, filename"),
+        @Index(name = "idx_file_list_size", columnList = "user_id, folder_id, deleted_at, file_size"),
+        @Index(name = "idx_file_all_time", columnList = "user_id, deleted_at, upload_time, id"),
+        @Index(name = "idx_file_all_name", columnList = "user_id, deleted_at, filename, id"),
+        @Index(name = "idx_file_all_size", columnList = "user_id, deleted_at, file_size, id")
     }
 )
+@SQLRestriction("deleted_at IS NULL")
 @EntityListeners(AuditingEntityListener.class)
 @Data
 @NoArgsConstructor
@@ -44,17 +55,41 @@ public class UserFile {
     @Column(name = "file_path", nullable = false, length = 500)
     private String filepath;
     
-    @Column(name = "file_size")
+    @Column(name = "file_size", nullable = false)
     private Long fileSize;
     
     @Column(name = "file_type", length = 50)
     private String fileType;
     
-    @Column(name = "folder_path", length = 500)
+    @Column(name = "folder_id")
+    private Long folderId;
+    
+    /** 所在文件夹路径，由服务层按文件夹树填充 */
+    @Transient
     private String folderPath;
     
+    /** 内容 SHA-256；非空时文件内容保存在数据块存储中，file_path 仅作逻辑路径 */
+    @Column(name = "content_hash", length = 64)
+    @JsonIgnore
+    private String contentHash;
+    
     @CreatedDate
     @Column(name = "upload_time", nullable = false, updatable = false)
     private LocalDateTime uploadTime;
+    
+    /** 内容最后修改时间：覆盖上传与在线编辑时刷新，作为下载的 Last-Modified */
+    @Column(name = "modified_at", nullable = false)
+    private LocalDateTime modifiedAt;
+    
+    @Column(name = "deleted_at")
+    @JsonIgnore
+    private LocalDateTime deletedAt; // 非空表示已移入回收站，等待恢复或后台清理
+    
+    @PrePersist
+    void initModifiedAt() {
+        if (modifiedAt == null) {
+            modifiedAt = uploadTime != null ? uploadTime : LocalDateTime.now();
+        }
+    }
 }
 
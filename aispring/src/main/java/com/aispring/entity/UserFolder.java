@@ -5,6 +5,7 @@ import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.SQLRestriction;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
@@ -12,17 +13,25 @@ import java.time.LocalDateTime;
 
 /**
  * 用户文件夹实体类
+ * 文件夹按父文件夹 ID 组织成树（根目录 parentId 为空），子树关系保存在 user_folder_closure 闭包表；
+ * 路径不落库，folderPath / parentPath 由服务层按名称拼出后填充
+ * 删除时进入回收站（deleted_at 非空），JPA 查询自动排除；回收站与清理任务使用原生 SQL。
+ * 同级名称唯一约束只作用于未删除的文件夹：生成列 live_key 对已删除行为 NULL，不参与唯一性比较。
+ * 根目录的 parent_id 为 NULL，不受同级名称约束；生成列 root_key 只对未删除的根目录为 1，保证每个用户只有一个根目录
  */
 @Entity
 @Table(name = "user_folders",
     indexes = {
         @Index(name = "idx_user_id", columnList = "user_id"),
-        @Index(name = "idx_folder_path", columnList = "folder_path")
+        @Index(name = "idx_folder_deleted_at", columnList = "deleted_at"),
+        @Index(name = "idx_folder_list_time", columnList = "user_id, parent_id, deleted_at, created_at")
     },
     uniqueConstraints = {
-        @UniqueConstraint(columnNames = {"user_id", "folder_path"})
+        @UniqueConstraint(name = "uk_folder_live_name", columnNames = {"user_id", "parent_id", "folder_name", "live_key"}),
+        @UniqueConstraint(name = "uk_folder_root", columnNames = {"user_id", "root_key"})
     }
 )
+@SQLRestriction("deleted_at IS NULL")
 @EntityListeners(AuditingEntityListener.class)
 @Data
 @NoArgsConstructor
@@ -41,14 +50,31 @@ public class UserFolder {
     @Column(name = "folder_name", nullable = false, length = 255)
     private String folderName;
     
-    @Column(name = "folder_path", nullable = false, length = 500)
+    @Column(name = "parent_id")
+    private Long parentId;
+    
+    @Transient
     private String folderPath;
     
-    @Column(name = "parent_path", length = 500)
+    @Transient
     private String parentPath;
     
     @CreatedDate
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
+    
+    @Column(name = "deleted_at")
+    @JsonIgnore
+    private LocalDateTime deletedAt; // 非空表示已移入回收站，等待恢复或后台清理
+    
+    @Column(name = "live_key", insertable = false, updatable = false,
+        columnDefinition = "TINYINT AS (IF(deleted_at IS NULL, 1, NULL)) VIRTUAL")
+    @JsonIgnore
+    private Integer liveKey;
+    
+    @Column(name = "root_key", insertable = false, updatable = false,
+        columnDefinition = "TINYINT AS (IF(parent_id IS NULL AND deleted_at IS NULL, 1, NULL)) VIRTUAL")
+    @JsonIgnore
+    private Integer rootKey;
 }
 
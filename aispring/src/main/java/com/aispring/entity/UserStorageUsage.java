@@ -0,0 +1,34 @@
+package com.aispring.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 用户存储用量计数
+ * used_bytes 为已提交的文件总大小，reserved_bytes 为进行中的上传预留的空间；
+ * 两者均通过条件 UPDATE 原子维护，避免每次上传都对 user_files 求和
+ */
+@Entity
+@Table(name = "user_storage_usage")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserStorageUsage {
+    
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+    
+    @Column(name = "used_bytes", nullable = false)
+    private Long usedBytes = 0L;
+    
+    @Column(name = "reserved_bytes", nullable = false)
+    private Long reservedBytes = 0L;
+    
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+}
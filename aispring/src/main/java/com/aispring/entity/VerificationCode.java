@@ -1,58 +0,0 @@
-package com.aispring.entity;
-
-import jakarta.persistence.*;
-import lombok.AllArgsConstructor;
-import lombok.Data;
-import lombok.NoArgsConstructor;
-import org.springframework.data.annotation.CreatedDate;
-import org.springframework.data.jpa.domain.support.AuditingEntityListener;
-
-import java.time.LocalDateTime;
-
-/**
- * 验证码实体类
- */
-@Entity
-@Table(name = "verification_codes_v2",
-    indexes = {
-        @Index(name = "idx_email", columnList = "email"),
-        @Index(name = "idx_code", columnList = "code")
-    }
-)
-@EntityListeners(AuditingEntityListener.class)
-@Data
-@NoArgsConstructor
-@AllArgsConstructor
-public class VerificationCode {
-    
-    @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
-    private Long id;
-    
-    @Column(nullable = false, length = 120)
-    private String email;
-    
-    @Column(nullable = false, length = 6)
-    private String code;
-    
-    @CreatedDate
-    @Column(name = "created_at", nullable = false, updatable = false)
-    private LocalDateTime createdAt;
-    
-    @Column(name = "expires_at", nullable = false)
-    private LocalDateTime expiresAt;
-    
-    @Column(name = "is_used", nullable = false)
-    private Boolean isUsed = false;
-    
-    @Column(name = "usage_type", nullable = false, length = 20)
-    private String usageType;  // register, login, reset_password
-    
-    /**
-     * 检查验证码是否过期
-     */
-    public boolean isExpired() {
-        return LocalDateTime.now().isAfter(expiresAt);
-    }
-}
-
@@ -0,0 +1,81 @@
+package com.aispring.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * ZIP 后台解压任务
+ * 上传的压缩包保存在 .extract-jobs/{job_id}.zip，按中央目录顺序导入；
+ * next_entry 与导入的文件记录在同一事务中推进，重启后从该位置继续
+ */
+@Entity
+@Table(name = "zip_extract_jobs",
+    indexes = {
+        @Index(name = "idx_extract_user", columnList = "user_id"),
+        @Index(name = "idx_extract_status", columnList = "status")
+    }
+)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ZipExtractJob {
+    
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_FAILED = "FAILED";
+    
+    @Id
+    @Column(name = "job_id", length = 36)
+    private String jobId;
+    
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+    
+    @Column(name = "folder_path", length = 500)
+    private String folderPath;
+    
+    @Column(name = "archive_name", length = 255)
+    private String archiveName;
+    
+    @Column(name = "status", nullable = false, length = 20)
+    private String status = STATUS_PENDING;
+    
+    @Column(name = "total_entries", nullable = false)
+    private Integer totalEntries;
+    
+    /** 中央目录中下一个待导入条目的序号（已提交的进度） */
+    @Column(name = "next_entry", nullable = false)
+    private Integer nextEntry = 0;
+    
+    /** 中央目录声明的解压后总大小 */
+    @Column(name = "total_bytes", nullable = false)
+    private Long totalBytes;
+    
+    @Column(name = "bytes_done", nullable = false)
+    private Long bytesDone = 0L;
+    
+    @Column(name = "files_imported", nullable = false)
+    private Integer filesImported = 0;
+    
+    @Column(name = "error_message", length = 500)
+    private String errorMessage;
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+    
+    /** 本轮运行开始时间（每次恢复执行时重置），用于估算剩余时间 */
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+    
+    /** 运行中定期刷新的心跳，超时未刷新的 RUNNING 任务可被重新认领 */
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+    
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+}
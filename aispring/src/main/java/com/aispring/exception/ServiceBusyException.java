@@ -0,0 +1,18 @@
+package com.aispring.exception;
+
+/**
+ * 服务繁忙异常，由全局异常处理器转换为 503 + Retry-After
+ */
+public class ServiceBusyException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public ServiceBusyException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,18 @@
+package com.aispring.exception;
+
+/**
+ * 内容版本冲突异常：基于旧版本的修改被拒绝，由全局异常处理器转换为 409 并返回当前版本
+ */
+public class VersionConflictException extends RuntimeException {
+
+    private final String currentVersion;
+
+    public VersionConflictException(String message, String currentVersion) {
+        super(message);
+        this.currentVersion = currentVersion;
+    }
+
+    public String getCurrentVersion() {
+        return currentVersion;
+    }
+}
@@ -3,9 +3,11 @@ package com.aispring.repository;
 import com.aispring.entity.ChatRecord;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
@@ -40,9 +42,42 @@ public interface ChatRecordRepository extends JpaRepository<ChatRecord, Long> {
     List<ChatRecord> findByUserIdAndSessionIdOrderByMessageOrderDesc(Long userId, String sessionId, Pageable pageable);
     
     /**
-     * 根据会话ID和用户ID删除聊天记录
+     * 统计会话中的消息数量
      */
-    void deleteByUserIdAndSessionId(Long userId, String sessionId);
+    long countByUserIdAndSessionId(Long userId, String sessionId);
+
+    /**
+     * 导出用：用户有消息的会话ID，按会话ID排序
+     */
+    @Query("SELECT DISTINCT c.sessionId FROM ChatRecord c WHERE c.userId = :userId ORDER BY c.sessionId ASC")
+    List<String> findExportSessionIds(@Param("userId") Long userId);
+
+    /**
+     * 导出用：按 (messageOrder, id) 键集分页读取一个会话的消息，定位与排序走 idx_user_session_order
+     * 每页是一次独立的短查询，慢速下载期间不占用数据库连接
+     */
+    @Query("SELECT c FROM ChatRecord c WHERE c.userId = :userId AND c.sessionId = :sessionId " +
+           "AND (c.messageOrder > :afterOrder OR (c.messageOrder = :afterOrder AND c.id > :afterId)) " +
+           "ORDER BY c.messageOrder ASC, c.id ASC")
+    List<ChatRecord> findExportPage(@Param("userId") Long userId, @Param("sessionId") String sessionId,
+                                    @Param("afterOrder") int afterOrder, @Param("afterId") long afterId,
+                                    Pageable pageable);
+
+    /**
+     * 根据会话ID和用户ID批量删除聊天记录（单条 DELETE 语句，不逐条加载实体）
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ChatRecord c WHERE c.userId = :userId AND c.sessionId = :sessionId")
+    int deleteByUserIdAndSessionId(@Param("userId") Long userId, @Param("sessionId") String sessionId);
+
+    /**
+     * 分块删除会话的聊天记录，每次调用独立提交，避免长时间锁表
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM chat_records WHERE user_id = :userId AND session_id = :sessionId LIMIT :limit", nativeQuery = true)
+    int deleteChunkByUserIdAndSessionId(@Param("userId") Long userId, @Param("sessionId") String sessionId, @Param("limit") int limit);
     
     /**
      * 查询用户的所有会话ID（去重）
@@ -65,7 +100,8 @@ public interface ChatRecordRepository extends JpaRepository<ChatRecord, Long> {
            "ORDER BY c2.send_time DESC LIMIT 1) AS last_message " +
            "FROM chat_records c " +
            "LEFT JOIN chat_sessions s ON c.session_id COLLATE utf8mb4_unicode_ci = s.session_id COLLATE utf8mb4_unicode_ci " +
-           "WHERE c.user_id = :userId AND (s.session_type COLLATE utf8mb4_unicode_ci = :sessionType COLLATE utf8mb4_unicode_ci OR (s.session_type IS NULL AND :sessionType = 'chat')) " +
+           "WHERE c.user_id = :userId AND s.deleted_at IS NULL " +
+           "AND (s.session_type COLLATE utf8mb4_unicode_ci = :sessionType COLLATE utf8mb4_unicode_ci OR (s.session_type IS NULL AND :sessionType = 'chat')) " +
            "GROUP BY c.session_id ORDER BY last_message_time DESC", nativeQuery = true)
     List<Object[]> findSessionInfoByUserIdAndType(@Param("userId") Long userId, @Param("sessionType") String sessionType);
 
@@ -100,6 +136,30 @@ public interface ChatRecordRepository extends JpaRepository<ChatRecord, Long> {
            "GROUP BY c.session_id, c.user_id ORDER BY last_message_time DESC", nativeQuery = true)
     List<Object[]> findSessionsInfoByUserId(@Param("userId") Long userId);
     
+    /**
+     * 全文检索用户的聊天记录（ngram FULLTEXT 索引，BOOLEAN MODE）
+     * 仅返回命中词附近的片段，避免传输整条长消息
+     */
+    @Query(value = "SELECT c.id, c.session_id, c.sender_type, " +
+           "SUBSTRING(c.content, GREATEST(1, LOCATE(:anchor, c.content) - :radius), :snippetLength) AS snippet, " +
+           "c.send_time, s.title " +
+           "FROM chat_records c " +
+           "LEFT JOIN chat_sessions s ON c.session_id COLLATE utf8mb4_unicode_ci = s.session_id COLLATE utf8mb4_unicode_ci " +
+           "WHERE c.user_id = :userId AND s.deleted_at IS NULL " +
+           "AND MATCH(c.content) AGAINST(:query IN BOOLEAN MODE) " +
+           "ORDER BY MATCH(c.content) AGAINST(:query IN BOOLEAN MODE) DESC, c.id DESC " +
+           "LIMIT :limit OFFSET :offset", nativeQuery = true)
+    List<Object[]> searchContentByUserId(@Param("userId") Long userId, @Param("query") String query,
+                                         @Param("anchor") String anchor, @Param("radius") int radius,
+                                         @Param("snippetLength") int snippetLength,
+                                         @Param("limit") int limit, @Param("offset") int offset);
+
+    @Query(value = "SELECT COUNT(*) FROM chat_records c " +
+           "LEFT JOIN chat_sessions s ON c.session_id COLLATE utf8mb4_unicode_ci = s.session_id COLLATE utf8mb4_unicode_ci " +
+           "WHERE c.user_id = :userId AND s.deleted_at IS NULL " +
+           "AND MATCH(c.content) AGAINST(:query IN BOOLEAN MODE)", nativeQuery = true)
+    long countContentSearchByUserId(@Param("userId") Long userId, @Param("query") String query);
+
     /**
      * 统计总消息数
      */
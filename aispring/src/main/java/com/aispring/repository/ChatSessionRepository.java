@@ -1,9 +1,16 @@
 package com.aispring.repository;
 
 import com.aispring.entity.ChatSession;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -11,4 +18,40 @@ public interface ChatSessionRepository extends JpaRepository<ChatSession, Long>
     Optional<ChatSession> findBySessionId(String sessionId);
     void deleteBySessionId(String sessionId);
     java.util.List<ChatSession> findByUserIdAndSessionTypeOrderByCreatedAtDesc(Long userId, String sessionType);
+    List<ChatSession> findByUserId(Long userId);
+
+    /**
+     * 逻辑删除会话（立即从会话列表中隐藏）
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE ChatSession s SET s.deletedAt = :deletedAt WHERE s.sessionId = :sessionId AND s.userId = :userId")
+    int markDeleted(@Param("userId") Long userId, @Param("sessionId") String sessionId, @Param("deletedAt") LocalDateTime deletedAt);
+
+    /**
+     * 会话是否已逻辑删除（等待后台清理期间不再返回其消息）
+     */
+    boolean existsByUserIdAndSessionIdAndDeletedAtIsNotNull(Long userId, String sessionId);
+
+    /**
+     * 批量删除会话行
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ChatSession s WHERE s.sessionId = :sessionId AND s.userId = :userId")
+    int deleteByUserIdAndSessionId(@Param("userId") Long userId, @Param("sessionId") String sessionId);
+
+    /**
+     * 按标题全文检索用户的会话（ngram FULLTEXT 索引）
+     */
+    @Query(value = "SELECT s.session_id, s.title, s.updated_at FROM chat_sessions s " +
+           "WHERE s.user_id = :userId AND s.deleted_at IS NULL " +
+           "AND MATCH(s.title) AGAINST(:query IN BOOLEAN MODE) " +
+           "ORDER BY s.updated_at DESC LIMIT :limit", nativeQuery = true)
+    List<Object[]> searchTitleByUserId(@Param("userId") Long userId, @Param("query") String query, @Param("limit") int limit);
+
+    /**
+     * 查找已逻辑删除但尚未清理完成的会话（用于重启后续跑清理任务）
+     */
+    List<ChatSession> findByDeletedAtBeforeOrderByDeletedAtAsc(LocalDateTime before, Pageable pageable);
 }
@@ -0,0 +1,52 @@
+package com.aispring.repository;
+
+import com.aispring.entity.EmailOutbox;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 邮件发件箱Repository
+ */
+@Repository
+public interface EmailOutboxRepository extends JpaRepository<EmailOutbox, Long> {
+    
+    /**
+     * 查找到期待发送的邮件
+     */
+    List<EmailOutbox> findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(
+        String status, LocalDateTime now, Pageable pageable
+    );
+    
+    /**
+     * 认领待发送的邮件并设置租约，返回受影响行数
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailOutbox e SET e.status = 'SENDING', e.leaseUntil = :leaseUntil WHERE e.id IN :ids AND e.status = 'PENDING'")
+    int claim(@Param("ids") List<Long> ids, @Param("leaseUntil") LocalDateTime leaseUntil);
+    
+    /**
+     * 恢复租约已过期的发送中邮件（认领实例崩溃或失联）；租约未过期的邮件可能正被其他实例发送，保持不动
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailOutbox e SET e.status = 'PENDING', e.leaseUntil = NULL " +
+           "WHERE e.status = 'SENDING' AND (e.leaseUntil IS NULL OR e.leaseUntil < :now)")
+    int resetExpiredLeases(@Param("now") LocalDateTime now);
+    
+    /**
+     * 清理已发送的历史记录
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM EmailOutbox e WHERE e.status = 'SENT' AND e.sentAt < :before")
+    int deleteSentBefore(@Param("before") LocalDateTime before);
+}
@@ -0,0 +1,55 @@
+package com.aispring.repository;
+
+import com.aispring.entity.FileBlob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 云盘数据块Repository
+ * 引用计数通过单条 UPSERT / 条件 UPDATE 维护，行锁保证与回收任务互斥
+ */
+@Repository
+public interface FileBlobRepository extends JpaRepository<FileBlob, String> {
+    
+    /**
+     * 增加引用：数据块不存在时插入，已存在时引用数 + 1
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO file_blobs (content_hash, size, ref_count, created_at) VALUES (:hash, :size, 1, NOW()) " +
+           "ON DUPLICATE KEY UPDATE ref_count = ref_count + 1, released_at = NULL",
+           nativeQuery = true)
+    int acquire(@Param("hash") String hash, @Param("size") long size);
+    
+    /**
+     * 减少引用并记录时间，引用数不会小于 0
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE file_blobs SET ref_count = ref_count - 1, released_at = NOW() " +
+           "WHERE content_hash = :hash AND ref_count > 0",
+           nativeQuery = true)
+    int release(@Param("hash") String hash);
+    
+    /**
+     * 查找引用数为 0 且超过宽限期的数据块
+     */
+    @Query("SELECT b.contentHash FROM FileBlob b WHERE b.refCount <= 0 AND (b.releasedAt IS NULL OR b.releasedAt < :before)")
+    List<String> findUnreferencedBefore(@Param("before") LocalDateTime before, Pageable pageable);
+    
+    /**
+     * 删除仍未被引用的数据块记录，返回受影响行数（期间被重新引用则为 0）
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM file_blobs WHERE content_hash = :hash AND ref_count <= 0", nativeQuery = true)
+    int deleteIfUnreferenced(@Param("hash") String hash);
+}
@@ -0,0 +1,29 @@
+package com.aispring.repository;
+
+import com.aispring.entity.StorageChangeEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 云盘变更日志Repository
+ */
+@Repository
+public interface StorageChangeEntryRepository extends JpaRepository<StorageChangeEntry, Long> {
+    
+    List<StorageChangeEntry> findByOrderByIdDesc(Pageable pageable);
+    
+    List<StorageChangeEntry> findByIdLessThanOrderByIdDesc(Long beforeId, Pageable pageable);
+    
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM StorageChangeEntry e WHERE e.detectedAt < :before")
+    int deleteDetectedBefore(@Param("before") LocalDateTime before);
+}
@@ -0,0 +1,38 @@
+package com.aispring.repository;
+
+import com.aispring.entity.StorageIntegrityIssue;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 存储完整性问题Repository
+ */
+@Repository
+public interface StorageIntegrityIssueRepository extends JpaRepository<StorageIntegrityIssue, Long> {
+    
+    /**
+     * 按 ID 键集分页读取扫描发现的问题
+     */
+    List<StorageIntegrityIssue> findByScanIdAndIdGreaterThanOrderByIdAsc(Long scanId, Long afterId, Pageable pageable);
+    
+    List<StorageIntegrityIssue> findByScanIdAndCleanedFalseAndIdGreaterThanOrderByIdAsc(Long scanId, Long afterId,
+                                                                                         Pageable pageable);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE StorageIntegrityIssue i SET i.cleaned = true WHERE i.id IN :ids")
+    int markCleaned(@Param("ids") Collection<Long> ids);
+    
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM StorageIntegrityIssue i WHERE i.scanId IN :scanIds")
+    int deleteByScanIds(@Param("scanIds") Collection<Long> scanIds);
+}
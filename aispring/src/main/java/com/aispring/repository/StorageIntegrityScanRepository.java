@@ -0,0 +1,68 @@
+package com.aispring.repository;
+
+import com.aispring.entity.StorageIntegrityScan;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 存储完整性扫描Repository
+ */
+@Repository
+public interface StorageIntegrityScanRepository extends JpaRepository<StorageIntegrityScan, Long> {
+    
+    Optional<StorageIntegrityScan> findFirstByOrderByIdDesc();
+    
+    Optional<StorageIntegrityScan> findFirstByStatusInOrderByIdDesc(Collection<String> statuses);
+    
+    /**
+     * 可认领的扫描：等待中，或运行中但心跳已超时（所在实例已崩溃或重启）
+     */
+    @Query("SELECT s.id FROM StorageIntegrityScan s WHERE s.status = 'PENDING' " +
+           "OR (s.status = 'RUNNING' AND s.updatedAt < :staleBefore) ORDER BY s.id")
+    List<Long> findClaimable(@Param("staleBefore") LocalDateTime staleBefore);
+    
+    /**
+     * 条件认领，返回受影响行数（0 表示已被其他实例认领）
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE StorageIntegrityScan s SET s.status = 'RUNNING', s.startedAt = :now, s.updatedAt = :now " +
+           "WHERE s.id = :id AND (s.status = 'PENDING' OR (s.status = 'RUNNING' AND s.updatedAt < :staleBefore))")
+    int claim(@Param("id") Long id, @Param("now") LocalDateTime now,
+              @Param("staleBefore") LocalDateTime staleBefore);
+    
+    /**
+     * 推进检查点并累加计数（与本批发现的问题在同一事务中执行）
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE StorageIntegrityScan s SET s.cursorId = :cursorId, s.scanned = s.scanned + :scanned, " +
+           "s.missing = s.missing + :missing, s.cleaned = s.cleaned + :cleaned, s.updatedAt = :now WHERE s.id = :id")
+    int updateProgress(@Param("id") Long id, @Param("cursorId") long cursorId, @Param("scanned") long scanned,
+                       @Param("missing") int missing, @Param("cleaned") int cleaned,
+                       @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE StorageIntegrityScan s SET s.cleaned = s.cleaned + :cleaned WHERE s.id = :id")
+    int addCleaned(@Param("id") Long id, @Param("cleaned") int cleaned);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE StorageIntegrityScan s SET s.status = :status, s.errorMessage = :error, s.finishedAt = :now, " +
+           "s.updatedAt = :now WHERE s.id = :id")
+    int finish(@Param("id") Long id, @Param("status") String status,
+               @Param("error") String error, @Param("now") LocalDateTime now);
+    
+    @Query("SELECT s.id FROM StorageIntegrityScan s WHERE s.status IN ('COMPLETED', 'FAILED') AND s.finishedAt < :before")
+    List<Long> findFinishedIdsBefore(@Param("before") LocalDateTime before);
+}
@@ -0,0 +1,79 @@
+package com.aispring.repository;
+
+import com.aispring.entity.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 分片上传会话Repository
+ */
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+    
+    Optional<UploadSession> findByUploadIdAndUserId(String uploadId, Long userId);
+    
+    List<UploadSession> findByExpiresAtBefore(LocalDateTime time);
+    
+    /**
+     * 合并租约已过期的会话（合并进程崩溃遗留）
+     */
+    @Query("SELECT s FROM UploadSession s WHERE s.status = 'COMPLETING' AND (s.completingUntil IS NULL OR s.completingUntil < :now)")
+    List<UploadSession> findStaleCompleting(@Param("now") LocalDateTime now);
+    
+    /**
+     * 收到分片后延长会话有效期
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.expiresAt = :expiresAt WHERE s.uploadId = :uploadId")
+    int touch(@Param("uploadId") String uploadId, @Param("expiresAt") LocalDateTime expiresAt);
+    
+    /**
+     * 条件状态迁移，返回受影响行数（0 表示状态已被其他请求改变）
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.status = :to WHERE s.uploadId = :uploadId AND s.status = :from")
+    int transitionStatus(@Param("uploadId") String uploadId, @Param("from") String from, @Param("to") String to);
+    
+    /**
+     * 开始合并：从 UPLOADING 或合并租约已过期的 COMPLETING 认领，返回受影响行数
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.status = 'COMPLETING', s.completingUntil = :leaseUntil " +
+           "WHERE s.uploadId = :uploadId AND (s.status = 'UPLOADING' OR " +
+           "(s.status = 'COMPLETING' AND (s.completingUntil IS NULL OR s.completingUntil < :now)))")
+    int claimCompleting(@Param("uploadId") String uploadId, @Param("now") LocalDateTime now,
+                        @Param("leaseUntil") LocalDateTime leaseUntil);
+    
+    /**
+     * 恢复合并中断的会话为 UPLOADING（仅当租约仍处于过期状态），分片仍在，客户端可以重新合并
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.status = 'UPLOADING', s.completingUntil = NULL " +
+           "WHERE s.uploadId = :uploadId AND s.status = 'COMPLETING' AND (s.completingUntil IS NULL OR s.completingUntil < :now)")
+    int recoverStaleCompleting(@Param("uploadId") String uploadId, @Param("now") LocalDateTime now);
+    
+    /**
+     * 仅当状态未变时删除会话，返回受影响行数（0 表示期间已被其他请求认领或删除）
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM UploadSession s WHERE s.uploadId = :uploadId AND s.status = :status")
+    int deleteIfStatus(@Param("uploadId") String uploadId, @Param("status") String status);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.status = :status, s.fileId = :fileId WHERE s.uploadId = :uploadId")
+    int markCompleted(@Param("uploadId") String uploadId, @Param("fileId") Long fileId, @Param("status") String status);
+}
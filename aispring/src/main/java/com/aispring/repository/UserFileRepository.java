@@ -1,11 +1,18 @@
 package com.aispring.repository;
 
 import com.aispring.entity.UserFile;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -35,18 +42,38 @@ public interface UserFileRepository extends JpaRepository<UserFile, Long> {
     /**
      * 根据用户ID和文件夹ID查找文件
      */
-    List<UserFile> findByUser_IdAndFolderPathOrderByUploadTimeDesc(Long userId, String folderPath);
+    List<UserFile> findByUser_IdAndFolderIdOrderByUploadTimeDesc(Long userId, Long folderId);
 
-    Optional<UserFile> findFirstByUser_IdAndFolderPathInAndFilename(Long userId, List<String> folderPaths, String filename);
+    /**
+     * 子树中的文件（folderIds 来自闭包表）
+     */
+    List<UserFile> findByFolderIdIn(Collection<Long> folderIds);
+
+    Optional<UserFile> findFirstByUser_IdAndFolderIdAndFilename(Long userId, Long folderId, String filename);
+
+    boolean existsByUser_IdAndFolderIdAndFilename(Long userId, Long folderId, String filename);
 
-    boolean existsByUser_IdAndFolderPathInAndFilename(Long userId, List<String> folderPaths, String filename);
+    boolean existsByUser_IdAndFolderIdAndFilenameIgnoreCaseAndIdNot(Long userId, Long folderId, String filename, Long id);
 
-    boolean existsByUser_IdAndFolderPathInAndFilenameIgnoreCaseAndIdNot(Long userId, List<String> folderPaths, String filename, Long id);
+    /**
+     * 把一个文件夹中的文件整体移到另一个文件夹（合并文件夹）
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UserFile f SET f.folderId = :targetId WHERE f.folderId = :sourceId")
+    int moveAllToFolder(@Param("sourceId") Long sourceId, @Param("targetId") Long targetId);
     
     /**
      * 根据用户ID和文件ID查找
      */
     Optional<UserFile> findByIdAndUserId(Long id, Long userId);
+
+    /**
+     * 根据ID查找文件并加行锁（在线编辑时串行化同一文件的版本检查与内容替换）
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT f FROM UserFile f JOIN FETCH f.user WHERE f.id = :id")
+    Optional<UserFile> findByIdForUpdate(@Param("id") Long id);
     
     /**
      * 根据文件路径查找
@@ -63,5 +90,65 @@ public interface UserFileRepository extends JpaRepository<UserFile, Long> {
      */
     @Query("SELECT COALESCE(SUM(f.fileSize), 0) FROM UserFile f")
     Long sumAllFileSizes();
-}
 
+    /**
+     * 按ID顺序分批查找尚未计算内容哈希的文件（旧数据回填）
+     */
+    @Query("SELECT f.id FROM UserFile f WHERE f.contentHash IS NULL AND f.id > :afterId ORDER BY f.id")
+    List<Long> findIdsWithoutContentHash(@Param("afterId") Long afterId, Pageable pageable);
+
+    long countByContentHashIsNull();
+
+    /**
+     * 回填内容哈希：仅当文件仍未回填且路径未变时更新，避免覆盖并发的修改
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UserFile f SET f.contentHash = :hash, f.fileSize = :size " +
+           "WHERE f.id = :id AND f.contentHash IS NULL AND f.filepath = :filepath")
+    int assignContentHash(@Param("id") Long id, @Param("filepath") String filepath,
+                          @Param("hash") String hash, @Param("size") Long size);
+
+    /**
+     * 把单个文件移入回收站
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE user_files SET deleted_at = :deletedAt WHERE id = :id AND user_id = :userId AND deleted_at IS NULL",
+           nativeQuery = true)
+    int trash(@Param("id") Long id, @Param("userId") Long userId, @Param("deletedAt") LocalDateTime deletedAt);
+
+    /**
+     * 回收站中的文件：只列出单独删除的文件（所在文件夹未删除，或不是同一次删除）
+     */
+    @Query(value = "SELECT uf.* FROM user_files uf LEFT JOIN user_folders f ON f.id = uf.folder_id " +
+                   "WHERE uf.user_id = :userId AND uf.deleted_at IS NOT NULL " +
+                   "AND (f.id IS NULL OR f.deleted_at IS NULL OR f.deleted_at <> uf.deleted_at) " +
+                   "ORDER BY uf.deleted_at DESC", nativeQuery = true)
+    List<UserFile> findTrashRoots(@Param("userId") Long userId);
+
+    @Query(value = "SELECT * FROM user_files WHERE id = :id AND user_id = :userId AND deleted_at IS NOT NULL",
+           nativeQuery = true)
+    Optional<UserFile> findTrashedByIdAndUserId(@Param("id") Long id, @Param("userId") Long userId);
+
+    /**
+     * 恢复文件；执行后清空持久化上下文，避免之前加载的已删除状态被写回
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE user_files SET deleted_at = NULL, folder_id = :folderId, filename = :filename " +
+                   "WHERE id = :id AND deleted_at IS NOT NULL", nativeQuery = true)
+    int restore(@Param("id") Long id, @Param("folderId") Long folderId, @Param("filename") String filename);
+
+    /**
+     * 超过保留期的已删除文件，按删除时间先后
+     */
+    @Query(value = "SELECT * FROM user_files WHERE deleted_at < :cutoff ORDER BY deleted_at LIMIT :limit",
+           nativeQuery = true)
+    List<UserFile> findReapable(@Param("cutoff") LocalDateTime cutoff, @Param("limit") int limit);
+
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM user_files WHERE id IN (:ids) AND deleted_at IS NOT NULL", nativeQuery = true)
+    int deleteTrashed(@Param("ids") Collection<Long> ids);
+}
@@ -2,8 +2,14 @@ package com.aispring.repository;
 
 import com.aispring.entity.UserFolder;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,24 +25,21 @@ public interface UserFolderRepository extends JpaRepository<UserFolder, Long> {
     List<UserFolder> findByUser_IdOrderByIdAsc(Long userId);
     
     /**
-     * 根据用户ID和父文件夹ID查找子文件夹
+     * 用户根目录（parentId 为空）
      */
-    List<UserFolder> findByUser_IdAndParentPathOrderByIdAsc(Long userId, String parentPath);
+    Optional<UserFolder> findFirstByUser_IdAndParentIdIsNullOrderByIdAsc(Long userId);
     
     /**
-     * 根据用户ID和文件夹名称查找
+     * 根据父文件夹ID和名称查找子文件夹
      */
-    Optional<UserFolder> findByUser_IdAndFolderName(Long userId, String folderName);
+    Optional<UserFolder> findByUser_IdAndParentIdAndFolderName(Long userId, Long parentId, String folderName);
     
-    /**
-     * 根据用户ID和文件夹路径查找
-     */
-    Optional<UserFolder> findByUser_IdAndFolderPath(Long userId, String folderPath);
+    boolean existsByUser_IdAndParentIdAndFolderName(Long userId, Long parentId, String folderName);
     
     /**
-     * 检查用户是否已存在指定路径的文件夹
+     * 直接子文件夹
      */
-    boolean existsByUser_IdAndFolderPath(Long userId, String folderPath);
+    List<UserFolder> findByParentIdOrderByIdAsc(Long parentId);
     
     /**
      * 根据用户ID和文件夹ID查找
@@ -44,8 +47,123 @@ public interface UserFolderRepository extends JpaRepository<UserFolder, Long> {
     Optional<UserFolder> findByIdAndUser_Id(Long id, Long userId);
 
     /**
-     * 查找以指定路径开头的所有文件夹（用于查找子文件夹）
+     * 祖先链（含自身），从根目录开始
      */
-    List<UserFolder> findByUser_IdAndFolderPathStartingWith(Long userId, String prefix);
-}
+    @Query(value = "SELECT f.* FROM user_folders f JOIN user_folder_closure c ON c.ancestor_id = f.id " +
+                   "WHERE c.descendant_id = :folderId ORDER BY c.depth DESC", nativeQuery = true)
+    List<UserFolder> findAncestors(@Param("folderId") Long folderId);
+
+    /**
+     * 子树中未删除的文件夹（含自身），按层级由浅到深
+     */
+    @Query(value = "SELECT f.* FROM user_folders f JOIN user_folder_closure c ON c.descendant_id = f.id " +
+                   "WHERE c.ancestor_id = :folderId AND f.deleted_at IS NULL ORDER BY c.depth, f.id", nativeQuery = true)
+    List<UserFolder> findSubtree(@Param("folderId") Long folderId);
+
+    @Query(value = "SELECT c.descendant_id FROM user_folder_closure c WHERE c.ancestor_id = :folderId", nativeQuery = true)
+    List<Long> findSubtreeIds(@Param("folderId") Long folderId);
+
+    /**
+     * 祖先 ID（不含自身）；只读闭包表，祖先文件夹已被删除时仍可用于断开闭包行
+     */
+    @Query(value = "SELECT c.ancestor_id FROM user_folder_closure c WHERE c.descendant_id = :folderId AND c.depth > 0",
+           nativeQuery = true)
+    List<Long> findAncestorIds(@Param("folderId") Long folderId);
+
+    @Query(value = "SELECT COUNT(*) FROM user_folder_closure c " +
+                   "WHERE c.ancestor_id = :ancestorId AND c.descendant_id = :descendantId", nativeQuery = true)
+    long countClosure(@Param("ancestorId") Long ancestorId, @Param("descendantId") Long descendantId);
+
+    /**
+     * 为新文件夹写入闭包行：父文件夹的每个祖先各一行，外加自身
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO user_folder_closure (ancestor_id, descendant_id, depth) " +
+                   "SELECT c.ancestor_id, :folderId, c.depth + 1 FROM user_folder_closure c WHERE c.descendant_id = :parentId " +
+                   "UNION ALL SELECT :folderId, :folderId, 0", nativeQuery = true)
+    int insertClosure(@Param("folderId") Long folderId, @Param("parentId") Long parentId);
+
+    /**
+     * 移动子树第一步：断开子树与原祖先（不含子树内部）之间的闭包行
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM user_folder_closure WHERE descendant_id IN (:subtreeIds) AND ancestor_id IN (:ancestorIds)",
+           nativeQuery = true)
+    int detachClosure(@Param("subtreeIds") Collection<Long> subtreeIds, @Param("ancestorIds") Collection<Long> ancestorIds);
+
+    /**
+     * 移动子树第二步：新父文件夹的每个祖先与子树中每个节点各一行
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO user_folder_closure (ancestor_id, descendant_id, depth) " +
+                   "SELECT sup.ancestor_id, sub.descendant_id, sup.depth + sub.depth + 1 " +
+                   "FROM user_folder_closure sup JOIN user_folder_closure sub " +
+                   "ON sup.descendant_id = :parentId AND sub.ancestor_id = :folderId", nativeQuery = true)
+    int attachClosure(@Param("folderId") Long folderId, @Param("parentId") Long parentId);
+
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM user_folder_closure WHERE descendant_id IN (:folderIds)", nativeQuery = true)
+    int deleteClosure(@Param("folderIds") Collection<Long> folderIds);
+
+    /**
+     * 把子树中尚未删除的文件夹与文件一次标记为已删除（多表 UPDATE，单条语句）；
+     * 之前单独删除的子项保留各自的删除时间，恢复时不受影响
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE user_folders f JOIN user_folder_closure c ON c.descendant_id = f.id " +
+                   "LEFT JOIN user_files uf ON uf.folder_id = f.id AND uf.deleted_at IS NULL " +
+                   "SET f.deleted_at = :deletedAt, uf.deleted_at = :deletedAt " +
+                   "WHERE c.ancestor_id = :folderId AND f.deleted_at IS NULL", nativeQuery = true)
+    int trashSubtree(@Param("folderId") Long folderId, @Param("deletedAt") LocalDateTime deletedAt);
 
+    /**
+     * 恢复与子树根同一次删除的文件夹与文件；执行后清空持久化上下文，避免之前加载的已删除状态被写回
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE user_folders f JOIN user_folder_closure c ON c.descendant_id = f.id " +
+                   "LEFT JOIN user_files uf ON uf.folder_id = f.id AND uf.deleted_at = :deletedAt " +
+                   "SET f.deleted_at = NULL, uf.deleted_at = NULL " +
+                   "WHERE c.ancestor_id = :folderId AND f.deleted_at = :deletedAt", nativeQuery = true)
+    int restoreSubtree(@Param("folderId") Long folderId, @Param("deletedAt") LocalDateTime deletedAt);
+
+    /**
+     * 回收站中的文件夹：只列出每次删除的子树根（父文件夹未删除，或不是同一次删除）
+     */
+    @Query(value = "SELECT f.* FROM user_folders f LEFT JOIN user_folders p ON p.id = f.parent_id " +
+                   "WHERE f.user_id = :userId AND f.deleted_at IS NOT NULL " +
+                   "AND (p.id IS NULL OR p.deleted_at IS NULL OR p.deleted_at <> f.deleted_at) " +
+                   "ORDER BY f.deleted_at DESC", nativeQuery = true)
+    List<UserFolder> findTrashRoots(@Param("userId") Long userId);
+
+    @Query(value = "SELECT * FROM user_folders WHERE id = :id AND user_id = :userId AND deleted_at IS NOT NULL",
+           nativeQuery = true)
+    Optional<UserFolder> findTrashedByIdAndUserId(@Param("id") Long id, @Param("userId") Long userId);
+
+    /**
+     * 恢复前调整名称（仍处于删除状态，不受同级唯一约束限制）
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE user_folders SET folder_name = :name WHERE id = :id AND deleted_at IS NOT NULL", nativeQuery = true)
+    int renameTrashed(@Param("id") Long id, @Param("name") String name);
+
+    /**
+     * 可清理的文件夹：超过保留期，且已没有文件和子文件夹（自下而上逐层清理）
+     */
+    @Query(value = "SELECT f.id FROM user_folders f WHERE f.deleted_at < :cutoff " +
+                   "AND NOT EXISTS (SELECT 1 FROM user_files uf WHERE uf.folder_id = f.id) " +
+                   "AND NOT EXISTS (SELECT 1 FROM user_folders ch WHERE ch.parent_id = f.id) " +
+                   "LIMIT :limit", nativeQuery = true)
+    List<Long> findReapableIds(@Param("cutoff") LocalDateTime cutoff, @Param("limit") int limit);
+
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM user_folders WHERE id IN (:ids) AND deleted_at IS NOT NULL", nativeQuery = true)
+    int deleteTrashed(@Param("ids") Collection<Long> ids);
+}
@@ -2,8 +2,13 @@ package com.aispring.repository;
 
 import com.aispring.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.Optional;
 
 /**
@@ -31,5 +36,12 @@ public interface UserRepository extends JpaRepository<User, Long> {
      * 检查用户名是否存在
      */
     boolean existsByUsername(String username);
+    
+    /**
+     * 更新最后登录时间（单条 UPDATE，不加载实体）
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.lastLogin = :lastLogin WHERE u.id = :id")
+    int updateLastLogin(@Param("id") Long id, @Param("lastLogin") LocalDateTime lastLogin);
 }
-
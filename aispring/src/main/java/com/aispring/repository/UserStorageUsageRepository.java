@@ -0,0 +1,99 @@
+package com.aispring.repository;
+
+import com.aispring.entity.UserStorageUsage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 用户存储用量Repository
+ * 所有计数变更都是单条条件 UPDATE，由数据库行锁保证并发安全
+ */
+@Repository
+public interface UserStorageUsageRepository extends JpaRepository<UserStorageUsage, Long> {
+    
+    /**
+     * 首次访问时按 user_files 现有数据初始化计数（已存在则忽略）
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT IGNORE INTO user_storage_usage (user_id, used_bytes, reserved_bytes, updated_at) " +
+           "SELECT :userId, COALESCE(SUM(file_size), 0), 0, NOW() FROM user_files WHERE user_id = :userId",
+           nativeQuery = true)
+    int initIfAbsent(@Param("userId") Long userId);
+    
+    /**
+     * 预留空间：仅当 已用 + 已预留 + 本次 不超过上限时成功，返回受影响行数
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE user_storage_usage SET reserved_bytes = reserved_bytes + :bytes, updated_at = NOW() " +
+           "WHERE user_id = :userId AND used_bytes + reserved_bytes + :bytes <= :limit",
+           nativeQuery = true)
+    int reserve(@Param("userId") Long userId, @Param("bytes") long bytes, @Param("limit") long limit);
+    
+    /**
+     * 释放预留空间
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE user_storage_usage SET reserved_bytes = GREATEST(reserved_bytes - :bytes, 0), updated_at = NOW() " +
+           "WHERE user_id = :userId",
+           nativeQuery = true)
+    int release(@Param("userId") Long userId, @Param("bytes") long bytes);
+    
+    /**
+     * 提交预留：释放预留并把实际变化量计入已用空间
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE user_storage_usage SET reserved_bytes = GREATEST(reserved_bytes - :reserved, 0), " +
+           "used_bytes = GREATEST(used_bytes + :delta, 0), updated_at = NOW() WHERE user_id = :userId",
+           nativeQuery = true)
+    int commit(@Param("userId") Long userId, @Param("reserved") long reserved, @Param("delta") long delta);
+    
+    /**
+     * 直接调整已用空间（删除等不需要预留的操作）
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE user_storage_usage SET used_bytes = GREATEST(used_bytes + :delta, 0), updated_at = NOW() " +
+           "WHERE user_id = :userId",
+           nativeQuery = true)
+    int adjustUsed(@Param("userId") Long userId, @Param("delta") long delta);
+    
+    /**
+     * 用 user_files 的实际总和校正已用空间，返回受影响行数（无偏差时为 0）
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE user_storage_usage u SET u.used_bytes = " +
+           "(SELECT COALESCE(SUM(f.file_size), 0) FROM user_files f WHERE f.user_id = :userId), u.updated_at = NOW() " +
+           "WHERE u.user_id = :userId AND u.used_bytes <> " +
+           "(SELECT COALESCE(SUM(f2.file_size), 0) FROM user_files f2 WHERE f2.user_id = :userId)",
+           nativeQuery = true)
+    int reconcileUsed(@Param("userId") Long userId);
+    
+    /**
+     * 校正长时间未变化的预留：请求内的预留早已提交或释放，此时仍然有效的只有未完成分片上传会话的预留，
+     * 因此按 upload_sessions 重新汇总（而不是清零，分片上传期间不会刷新 updated_at）
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE user_storage_usage u SET u.reserved_bytes = " +
+           "(SELECT COALESCE(SUM(s.reserved_bytes), 0) FROM upload_sessions s WHERE s.user_id = u.user_id AND s.status <> 'COMPLETED'), " +
+           "u.updated_at = NOW() " +
+           "WHERE u.updated_at < :before AND u.reserved_bytes <> " +
+           "(SELECT COALESCE(SUM(s2.reserved_bytes), 0) FROM upload_sessions s2 WHERE s2.user_id = u.user_id AND s2.status <> 'COMPLETED')",
+           nativeQuery = true)
+    int recomputeStaleReservations(@Param("before") LocalDateTime before);
+    
+    @Query("SELECT u.userId FROM UserStorageUsage u ORDER BY u.userId")
+    List<Long> findAllUserIds();
+}
@@ -0,0 +1,68 @@
+package com.aispring.repository;
+
+import com.aispring.entity.ZipExtractJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * ZIP 解压任务Repository
+ */
+@Repository
+public interface ZipExtractJobRepository extends JpaRepository<ZipExtractJob, String> {
+    
+    Optional<ZipExtractJob> findByJobIdAndUserId(String jobId, Long userId);
+    
+    /**
+     * 可认领的任务：等待中，或运行中但心跳已超时（所在实例已崩溃或重启）
+     */
+    @Query("SELECT j.jobId FROM ZipExtractJob j WHERE j.status = 'PENDING' " +
+           "OR (j.status = 'RUNNING' AND j.updatedAt < :staleBefore) ORDER BY j.createdAt")
+    List<String> findClaimable(@Param("staleBefore") LocalDateTime staleBefore);
+    
+    /**
+     * 条件认领，返回受影响行数（0 表示已被其他实例认领）
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE ZipExtractJob j SET j.status = 'RUNNING', j.startedAt = :now, j.updatedAt = :now " +
+           "WHERE j.jobId = :jobId AND (j.status = 'PENDING' OR (j.status = 'RUNNING' AND j.updatedAt < :staleBefore))")
+    int claim(@Param("jobId") String jobId, @Param("now") LocalDateTime now,
+              @Param("staleBefore") LocalDateTime staleBefore);
+    
+    /**
+     * 记录已提交的进度（在导入分段的事务中执行）
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE ZipExtractJob j SET j.nextEntry = :nextEntry, j.bytesDone = :bytesDone, " +
+           "j.filesImported = :filesImported, j.updatedAt = :now WHERE j.jobId = :jobId")
+    int updateProgress(@Param("jobId") String jobId, @Param("nextEntry") int nextEntry,
+                       @Param("bytesDone") long bytesDone, @Param("filesImported") int filesImported,
+                       @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE ZipExtractJob j SET j.updatedAt = :now WHERE j.jobId IN :jobIds AND j.status = 'RUNNING'")
+    int heartbeat(@Param("jobIds") Collection<String> jobIds, @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE ZipExtractJob j SET j.status = :status, j.errorMessage = :error, j.finishedAt = :now, " +
+           "j.updatedAt = :now WHERE j.jobId = :jobId")
+    int finish(@Param("jobId") String jobId, @Param("status") String status,
+               @Param("error") String error, @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ZipExtractJob j WHERE j.status IN ('COMPLETED', 'FAILED') AND j.finishedAt < :before")
+    int deleteFinishedBefore(@Param("before") LocalDateTime before);
+}
@@ -0,0 +1,97 @@
+package com.aispring.security;
+
+import com.aispring.exception.ServiceBusyException;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 密码校验执行器
+ * BCrypt 校验是 CPU 密集操作，放到独立的有界线程池中执行，避免登录高峰占满 Tomcat 请求线程；
+ * 队列已满或等待超时时抛出 {@link ServiceBusyException}，由客户端按 Retry-After 重试。
+ * 等待结果时请求线程仍被占用，因此线程数与队列容量之和被限制在 Tomcat 最大线程数的一定比例内，
+ * 保证登录高峰时被拒绝的是多余的登录请求，而不是其他接口的请求线程。
+ */
+@Slf4j
+@Component
+public class CredentialVerifier {
+
+    private static final AtomicInteger THREAD_SEQ = new AtomicInteger(1);
+
+    private final AuthenticationManager authenticationManager;
+    private final ThreadPoolExecutor executor;
+
+    @Value("${app.auth.login-wait-timeout-ms:2000}")
+    private long waitTimeoutMs;
+
+    @Value("${app.auth.login-retry-after-seconds:2}")
+    private long retryAfterSeconds;
+
+    public CredentialVerifier(AuthenticationManager authenticationManager,
+                              @Value("${app.auth.login-pool-size:0}") int poolSize,
+                              @Value("${app.auth.login-queue-capacity:8}") int queueCapacity,
+                              @Value("${app.auth.login-max-thread-share:0.25}") double maxThreadShare,
+                              @Value("${server.tomcat.threads.max:200}") int tomcatMaxThreads) {
+        this.authenticationManager = authenticationManager;
+        // 同时在途的登录（执行中 + 排队）最多占用的请求线程数
+        int budget = Math.max(2, (int) (tomcatMaxThreads * maxThreadShare));
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        threads = Math.max(1, Math.min(threads, budget - 1));
+        queueCapacity = Math.max(1, Math.min(queueCapacity, budget - threads));
+        log.info("登录校验线程池: threads={}, queue={}, tomcatMaxThreads={}", threads, queueCapacity, tomcatMaxThreads);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r);
+                    t.setName("credential-verify-" + THREAD_SEQ.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 在校验线程池中执行认证，认证异常原样抛出
+     */
+    public Authentication authenticate(Authentication request) {
+        Future<Authentication> future;
+        try {
+            future = executor.submit(() -> authenticationManager.authenticate(request));
+        } catch (RejectedExecutionException e) {
+            log.warn("登录校验队列已满，拒绝请求 - active={}, queued={}", executor.getActiveCount(), executor.getQueue().size());
+            throw new ServiceBusyException("登录人数过多，请稍后重试", retryAfterSeconds);
+        }
+
+        try {
+            return future.get(waitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new ServiceBusyException("登录人数过多，请稍后重试", retryAfterSeconds);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServiceBusyException("登录请求被中断，请稍后重试", retryAfterSeconds);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
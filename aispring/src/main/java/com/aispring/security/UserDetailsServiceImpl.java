@@ -13,13 +13,14 @@ import org.springframework.stereotype.Service;
 public class UserDetailsServiceImpl implements UserDetailsService {
     
     private final UserRepository userRepository;
+    private final UserPrincipalCache userPrincipalCache;
     
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        User user = userRepository.findByEmail(username)
-                .orElseThrow(() -> new UsernameNotFoundException("用户不存在: " + username));
-        
-        return new CustomUserDetails(user);
+        return userPrincipalCache.get(username, () -> {
+            User user = userRepository.findByEmail(username)
+                    .orElseThrow(() -> new UsernameNotFoundException("用户不存在: " + username));
+            return new CustomUserDetails(user);
+        });
     }
 }
-
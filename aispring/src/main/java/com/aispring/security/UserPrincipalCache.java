@@ -0,0 +1,80 @@
+package com.aispring.security;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 认证主体缓存
+ * 按邮箱缓存 {@link CustomUserDetails}，带 TTL；用户资料、密码或管理员身份变更时需显式调用 evict。
+ * 在事务中调用 evict 时，失效推迟到事务结束后执行，避免提交前被并发请求用旧数据重新填充。
+ */
+@Component
+public class UserPrincipalCache {
+
+    private record Entry(CustomUserDetails details, long expiresAtMillis) {}
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    /** 失效计数：加载期间发生过失效时，加载结果可能是旧数据，不写入缓存 */
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Value("${app.auth.principal-cache-ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Value("${app.auth.principal-cache-max-entries:10000}")
+    private int maxEntries;
+
+    public CustomUserDetails get(String email, Supplier<CustomUserDetails> loader) {
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(email);
+        if (entry != null && entry.expiresAtMillis() > now) {
+            return entry.details();
+        }
+
+        long evictionsBeforeLoad = evictions.get();
+        CustomUserDetails details = loader.get();
+        if (evictions.get() != evictionsBeforeLoad) {
+            return details;
+        }
+        if (cache.size() >= maxEntries) {
+            cache.entrySet().removeIf(e -> e.getValue().expiresAtMillis() <= now);
+            if (cache.size() >= maxEntries) {
+                cache.clear();
+            }
+        }
+        cache.put(email, new Entry(details, now + ttlSeconds * 1000));
+        return details;
+    }
+
+    public void evict(String email) {
+        if (email == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    remove(email);
+                }
+            });
+        } else {
+            remove(email);
+        }
+    }
+
+    public void evictAll() {
+        evictions.incrementAndGet();
+        cache.clear();
+    }
+
+    private void remove(String email) {
+        evictions.incrementAndGet();
+        cache.remove(email);
+    }
+}
@@ -0,0 +1,79 @@
+package com.aispring.security;
+
+import com.aispring.util.JwtUtil;
+import io.jsonwebtoken.Claims;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 已验证令牌缓存
+ * 以令牌的 SHA-256 为键缓存验签结果直到令牌过期，同一令牌的后续请求无需再次解析和 HMAC 校验。
+ * 容量有界（LRU），不保存令牌原文。
+ */
+@Component
+public class VerifiedTokenCache {
+
+    /**
+     * 验签通过的令牌信息
+     */
+    public record VerifiedToken(String subject, long expiresAtMillis) {
+        boolean isExpired(long now) {
+            return expiresAtMillis <= now;
+        }
+    }
+
+    private final JwtUtil jwtUtil;
+    private final Map<String, VerifiedToken> cache;
+
+    public VerifiedTokenCache(JwtUtil jwtUtil,
+                              @Value("${app.auth.token-cache-max-entries:10000}") int maxEntries) {
+        this.jwtUtil = jwtUtil;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, VerifiedToken> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * 验证令牌：缓存命中且未过期时直接返回，否则解析一次并写入缓存
+     * @throws io.jsonwebtoken.JwtException 令牌无效或已过期
+     */
+    public VerifiedToken verify(String token) {
+        String key = sha256(token);
+        long now = System.currentTimeMillis();
+        VerifiedToken cached = cache.get(key);
+        if (cached != null) {
+            if (!cached.isExpired(now)) {
+                return cached;
+            }
+            cache.remove(key);
+        }
+
+        Claims claims = jwtUtil.parseClaims(token);
+        long expiresAt = claims.getExpiration() != null ? claims.getExpiration().getTime() : now;
+        VerifiedToken verified = new VerifiedToken(claims.getSubject(), expiresAt);
+        if (claims.getExpiration() != null) {
+            cache.put(key, verified);
+        }
+        return verified;
+    }
+
+    private static String sha256(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.aispring.service;
+
+import com.aispring.entity.AnonymousChatRecord;
+import com.aispring.repository.AnonymousChatRecordRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 匿名聊天归档服务
+ * 1. 定时批量消费 Redis 归档队列，写入按天分区的 anonymous_chat_records 表；
+ *    记录先移入本实例的处理列表，写库提交后才确认删除，启动及定时回收失联实例遗留的处理列表；
+ *    同一批连续失败达到上限后逐条写入，数据库可用但仍写不进去的记录（以及无法解析的记录）移入死信列表
+ * 2. 每日维护分区：预建未来几天的分区，过期分区直接 DROP PARTITION 而不是逐行删除
+ */
+@Service
+@Slf4j
+public class AnonymousChatArchiveService {
+
+    private static final String TABLE_NAME = "anonymous_chat_records";
+    private static final String FUTURE_PARTITION = "p_future";
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+    /** MySQL TO_DAYS('1970-01-01') */
+    private static final long TO_DAYS_EPOCH_OFFSET = 719528L;
+
+    private final AnonymousChatStore anonymousChatStore;
+    private final AnonymousChatRecordRepository anonymousChatRecordRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${app.anonymous-chat.archive-batch-size:500}")
+    private int archiveBatchSize;
+
+    @Value("${app.anonymous-chat.retention-days:30}")
+    private int retentionDays;
+
+    @Value("${app.anonymous-chat.partition-days-ahead:3}")
+    private int partitionDaysAhead;
+
+    @Value("${app.anonymous-chat.archive-max-attempts:5}")
+    private int archiveMaxAttempts;
+
+    /** 处理列表中当前这一批已连续写库失败的次数（归档任务单线程执行） */
+    private int batchFailures;
+
+    public AnonymousChatArchiveService(AnonymousChatStore anonymousChatStore,
+                                       AnonymousChatRecordRepository anonymousChatRecordRepository,
+                                       JdbcTemplate jdbcTemplate) {
+        this.anonymousChatStore = anonymousChatStore;
+        this.anonymousChatRecordRepository = anonymousChatRecordRepository;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 批量归档：每轮最多取 archiveBatchSize 条，一次事务写入
+     */
+    @Scheduled(fixedDelayString = "${app.anonymous-chat.archive-interval-ms:5000}", initialDelay = 10000)
+    public void flushArchiveQueue() {
+        List<String> batch;
+        try {
+            batch = anonymousChatStore.claimArchiveBatch(archiveBatchSize);
+        } catch (Exception e) {
+            log.debug("读取匿名聊天归档队列失败: {}", e.getMessage());
+            return;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<AnonymousChatRecord> records = new ArrayList<>(batch.size());
+        List<String> parsed = new ArrayList<>(batch.size());
+        List<String> deadLetters = new ArrayList<>();
+        for (String json : batch) {
+            try {
+                records.add(anonymousChatStore.deserialize(json));
+                parsed.add(json);
+            } catch (Exception e) {
+                log.warn("无法解析的匿名聊天归档记录移入死信列表: {}", e.getMessage());
+                deadLetters.add(json);
+            }
+        }
+
+        try {
+            anonymousChatRecordRepository.saveAll(records);
+            log.debug("匿名聊天归档 {} 条", records.size());
+        } catch (Exception e) {
+            batchFailures++;
+            if (batchFailures < archiveMaxAttempts) {
+                log.error("匿名聊天归档写库失败（第 {} 次），{} 条记录保留在处理列表中，下轮重试",
+                    batchFailures, batch.size(), e);
+                return;
+            }
+            log.error("匿名聊天归档写库连续失败 {} 次，逐条写入以隔离无法写入的记录", batchFailures, e);
+            if (!saveIndividually(parsed, deadLetters)) {
+                return;
+            }
+        }
+        batchFailures = 0;
+        try {
+            if (deadLetters.isEmpty()) {
+                anonymousChatStore.ackArchiveBatch();
+            } else {
+                anonymousChatStore.deadLetterArchiveBatch(deadLetters);
+                log.error("{} 条匿名聊天归档记录无法写入，已移入死信列表 {}",
+                    deadLetters.size(), AnonymousChatStore.ARCHIVE_DEAD_LETTER_KEY);
+            }
+        } catch (Exception e) {
+            // 已提交但未确认：下轮会重试这一批，可能产生重复审计记录，但不会丢失
+            log.warn("匿名聊天归档确认失败，{} 条记录可能被重复归档: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 逐条写入（每条单独提交），写入失败的记录加入死信。
+     * 有记录写入失败且数据库本身不可用时返回 false，整批留在处理列表中下轮重试
+     */
+    private boolean saveIndividually(List<String> batch, List<String> deadLetters) {
+        List<String> failed = new ArrayList<>();
+        for (String json : batch) {
+            try {
+                // 重新解析：整批写入失败后实体上可能残留已回滚的主键
+                anonymousChatRecordRepository.save(anonymousChatStore.deserialize(json));
+            } catch (Exception e) {
+                log.warn("匿名聊天归档记录写入失败: {}", e.getMessage());
+                failed.add(json);
+            }
+        }
+        if (!failed.isEmpty() && !databaseAvailable()) {
+            log.error("数据库不可用，{} 条匿名聊天归档记录保留在处理列表中，下轮重试", failed.size());
+            return false;
+        }
+        deadLetters.addAll(failed);
+        return true;
+    }
+
+    private boolean databaseAvailable() {
+        try {
+            jdbcTemplate.queryForObject("SELECT 1", Integer.class);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reclaimArchiveBatchesOnStartup() {
+        reclaimArchiveBatches();
+    }
+
+    /**
+     * 回收失联实例（崩溃或已下线）遗留在处理列表中的记录
+     */
+    @Scheduled(fixedDelayString = "${app.anonymous-chat.archive-reclaim-interval-ms:300000}", initialDelay = 300000)
+    public void reclaimArchiveBatches() {
+        try {
+            anonymousChatStore.reclaimStaleArchiveBatches();
+        } catch (Exception e) {
+            log.warn("回收匿名聊天归档处理列表失败: {}", e.getMessage());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void maintainPartitionsOnStartup() {
+        maintainPartitions();
+    }
+
+    /**
+     * 分区维护：预建未来分区并删除超过保留期的分区
+     */
+    @Scheduled(cron = "${app.anonymous-chat.partition-cron:0 10 3 * * ?}")
+    public void maintainPartitions() {
+        try {
+            List<Map<String, Object>> partitions = jdbcTemplate.queryForList(
+                "SELECT PARTITION_NAME, PARTITION_DESCRIPTION FROM information_schema.PARTITIONS " +
+                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL",
+                TABLE_NAME);
+            if (partitions.isEmpty()) {
+                log.warn("{} 未分区，跳过分区维护", TABLE_NAME);
+                return;
+            }
+
+            Set<String> names = new HashSet<>();
+            long maxBound = 0;
+            for (Map<String, Object> p : partitions) {
+                String name = String.valueOf(p.get("PARTITION_NAME"));
+                names.add(name);
+                Long bound = parseBound(p.get("PARTITION_DESCRIPTION"));
+                if (bound != null) {
+                    maxBound = Math.max(maxBound, bound);
+                }
+            }
+            if (!names.contains(FUTURE_PARTITION)) {
+                log.warn("{} 缺少 {} 分区，跳过分区维护", TABLE_NAME, FUTURE_PARTITION);
+                return;
+            }
+
+            // 预建分区：按日期顺序从 p_future 中切出
+            LocalDate today = LocalDate.now();
+            for (int i = 0; i <= partitionDaysAhead; i++) {
+                LocalDate day = today.plusDays(i);
+                long upperBound = toDays(day.plusDays(1));
+                if (upperBound <= maxBound) {
+                    continue;
+                }
+                String name = "p" + day.format(PARTITION_SUFFIX);
+                jdbcTemplate.execute("ALTER TABLE " + TABLE_NAME + " REORGANIZE PARTITION " + FUTURE_PARTITION + " INTO (" +
+                    "PARTITION " + name + " VALUES LESS THAN (" + upperBound + "), " +
+                    "PARTITION " + FUTURE_PARTITION + " VALUES LESS THAN MAXVALUE)");
+                maxBound = upperBound;
+                log.info("已创建匿名聊天分区 {}", name);
+            }
+
+            // 删除过期分区：分区上界不晚于保留期起点，说明其中数据全部过期
+            long cutoff = toDays(today.minusDays(retentionDays));
+            for (Map<String, Object> p : partitions) {
+                String name = String.valueOf(p.get("PARTITION_NAME"));
+                Long bound = parseBound(p.get("PARTITION_DESCRIPTION"));
+                if (bound != null && bound <= cutoff) {
+                    jdbcTemplate.execute("ALTER TABLE " + TABLE_NAME + " DROP PARTITION " + name);
+                    log.info("已删除过期匿名聊天分区 {}", name);
+                }
+            }
+        } catch (Exception e) {
+            log.error("匿名聊天分区维护失败", e);
+        }
+    }
+
+    private Long parseBound(Object description) {
+        if (description == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(description.toString().trim());
+        } catch (NumberFormatException e) {
+            return null; // MAXVALUE
+        }
+    }
+
+    private long toDays(LocalDate date) {
+        return date.toEpochDay() + TO_DAYS_EPOCH_OFFSET;
+    }
+}
@@ -0,0 +1,253 @@
+package com.aispring.service;
+
+import com.aispring.entity.AnonymousChatRecord;
+import com.aispring.repository.AnonymousChatRecordRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 匿名聊天热存储
+ * 匿名会话的近期上下文保存在 Redis 列表中（带 TTL），用于构建提示词和回显会话；
+ * 每条记录同时写入归档队列，由 {@link AnonymousChatArchiveService} 批量落库审计。
+ * Redis 不可用时回退到直接读写 anonymous_chat_records。
+ *
+ * 归档队列采用可靠队列：新记录从头部压入，归档时用 RPOPLPUSH 把尾部最旧的记录原子地移入
+ * 本实例的处理列表，数据库提交后才删除处理列表；实例崩溃时处理列表保留在 Redis 中，
+ * 其心跳过期后由任意实例放回队列（至少一次投递）。
+ * 多次写库失败的批次逐条重试，仍无法写入的记录移入死信列表，不再阻塞后续归档。
+ */
+@Service
+@Slf4j
+public class AnonymousChatStore {
+
+    static final String SESSION_KEY_PREFIX = "anon_chat:session:";
+    static final String ARCHIVE_QUEUE_KEY = "anon_chat:archive";
+    static final String ARCHIVE_PROCESSING_KEY_PREFIX = "anon_chat:archive:processing:";
+    static final String ARCHIVE_WORKER_KEY_PREFIX = "anon_chat:archive:worker:";
+    static final String ARCHIVE_WORKERS_KEY = "anon_chat:archive:workers";
+    static final String ARCHIVE_DEAD_LETTER_KEY = "anon_chat:archive:dead";
+
+    /** RPUSH + LTRIM + EXPIRE + 入归档队列（LPUSH，归档从尾部取最旧的），一次往返完成 */
+    private static final DefaultRedisScript<Long> APPEND_SCRIPT = new DefaultRedisScript<>(
+        "redis.call('RPUSH', KEYS[1], ARGV[1]) " +
+        "redis.call('LTRIM', KEYS[1], -tonumber(ARGV[2]), -1) " +
+        "redis.call('EXPIRE', KEYS[1], tonumber(ARGV[3])) " +
+        "redis.call('LPUSH', KEYS[2], ARGV[1]) " +
+        "return 1",
+        Long.class);
+
+    /**
+     * 刷新心跳并领取一批归档记录：处理列表中仍有上轮未确认的记录时直接重试它们，
+     * 否则从队列尾部移动最多 ARGV[1] 条到处理列表。返回处理列表中的记录数
+     */
+    private static final DefaultRedisScript<Long> CLAIM_SCRIPT = new DefaultRedisScript<>(
+        "redis.call('SET', KEYS[3], '1', 'EX', tonumber(ARGV[3])) " +
+        "redis.call('SADD', KEYS[4], ARGV[2]) " +
+        "local pending = redis.call('LLEN', KEYS[2]) " +
+        "if pending > 0 then return pending end " +
+        "local moved = 0 " +
+        "for i = 1, tonumber(ARGV[1]) do " +
+        "  if not redis.call('RPOPLPUSH', KEYS[1], KEYS[2]) then break end " +
+        "  moved = moved + 1 " +
+        "end " +
+        "return moved",
+        Long.class);
+
+    /**
+     * 回收失联实例的处理列表：心跳仍在时返回 -1，否则把记录放回队列尾部（下一批优先领取）并注销该实例
+     */
+    private static final DefaultRedisScript<Long> RECLAIM_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('EXISTS', KEYS[3]) == 1 then return -1 end " +
+        "local n = 0 " +
+        "local v = redis.call('RPOP', KEYS[1]) " +
+        "while v do " +
+        "  redis.call('RPUSH', KEYS[2], v) " +
+        "  n = n + 1 " +
+        "  v = redis.call('RPOP', KEYS[1]) " +
+        "end " +
+        "redis.call('SREM', KEYS[4], ARGV[1]) " +
+        "return n",
+        Long.class);
+
+    /**
+     * 把无法归档的记录写入死信列表（保留最新 ARGV[1] 条）并删除处理列表，结束这一批。ARGV[2..]: 死信记录
+     */
+    private static final DefaultRedisScript<Long> DEAD_LETTER_SCRIPT = new DefaultRedisScript<>(
+        "for i = 2, #ARGV do redis.call('LPUSH', KEYS[2], ARGV[i]) end " +
+        "if #ARGV > 1 then redis.call('LTRIM', KEYS[2], 0, tonumber(ARGV[1]) - 1) end " +
+        "redis.call('DEL', KEYS[1]) " +
+        "return #ARGV - 1",
+        Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final AnonymousChatRecordRepository anonymousChatRecordRepository;
+    private final ObjectMapper objectMapper;
+    /** 本实例的归档工作者标识，每次启动不同，旧进程遗留的处理列表按失联实例回收 */
+    private final String workerId = UUID.randomUUID().toString();
+
+    @Value("${app.anonymous-chat.hot-ttl-seconds:86400}")
+    private long hotTtlSeconds;
+
+    @Value("${app.anonymous-chat.hot-max-messages:60}")
+    private int hotMaxMessages;
+
+    @Value("${app.anonymous-chat.archive-worker-ttl-seconds:300}")
+    private long archiveWorkerTtlSeconds;
+
+    @Value("${app.anonymous-chat.archive-dead-letter-max:10000}")
+    private int archiveDeadLetterMax;
+
+    public AnonymousChatStore(StringRedisTemplate redisTemplate,
+                              AnonymousChatRecordRepository anonymousChatRecordRepository) {
+        this.redisTemplate = redisTemplate;
+        this.anonymousChatRecordRepository = anonymousChatRecordRepository;
+        this.objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    }
+
+    /**
+     * 追加一条匿名聊天记录
+     */
+    public void append(AnonymousChatRecord record) {
+        try {
+            String json = objectMapper.writeValueAsString(record);
+            redisTemplate.execute(APPEND_SCRIPT,
+                List.of(SESSION_KEY_PREFIX + record.getSessionId(), ARCHIVE_QUEUE_KEY),
+                json, String.valueOf(hotMaxMessages), String.valueOf(hotTtlSeconds));
+        } catch (Exception e) {
+            log.warn("匿名聊天写入 Redis 失败，直接落库 - sessionId={}: {}", record.getSessionId(), e.getMessage());
+            anonymousChatRecordRepository.save(record);
+        }
+    }
+
+    /**
+     * 获取会话最近的记录（按时间倒序），用于构建上下文
+     */
+    public List<AnonymousChatRecord> findRecentDesc(String sessionId, String ipAddress, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        try {
+            // 按 IP 过滤时读取整个列表（长度受 hot-max-messages 限制）再取最后 limit 条，避免过滤后不足 limit 条
+            boolean filtered = ipAddress != null && !ipAddress.isEmpty();
+            List<AnonymousChatRecord> records = readRange(sessionId, ipAddress, filtered ? 0 : -limit, -1);
+            if (records.size() > limit) {
+                records = new ArrayList<>(records.subList(records.size() - limit, records.size()));
+            }
+            Collections.reverse(records);
+            return records;
+        } catch (Exception e) {
+            log.warn("读取匿名聊天热存储失败，回退数据库 - sessionId={}: {}", sessionId, e.getMessage());
+            return (ipAddress == null || ipAddress.isEmpty())
+                ? anonymousChatRecordRepository.findBySessionIdOrderByCreatedAtDesc(sessionId, PageRequest.of(0, limit))
+                : anonymousChatRecordRepository.findBySessionIdAndIpAddressOrderByCreatedAtDesc(sessionId, ipAddress, PageRequest.of(0, limit));
+        }
+    }
+
+    /**
+     * 获取会话在热存储中的全部记录（按时间正序）
+     */
+    public List<AnonymousChatRecord> findAllAsc(String sessionId, String ipAddress) {
+        try {
+            return readRange(sessionId, ipAddress, 0, -1);
+        } catch (Exception e) {
+            log.warn("读取匿名聊天热存储失败，回退数据库 - sessionId={}: {}", sessionId, e.getMessage());
+            return (ipAddress == null || ipAddress.isEmpty())
+                ? anonymousChatRecordRepository.findBySessionIdOrderByCreatedAtAsc(sessionId)
+                : anonymousChatRecordRepository.findBySessionIdAndIpAddressOrderByCreatedAtAsc(sessionId, ipAddress);
+        }
+    }
+
+    /**
+     * 领取一批归档记录（供归档任务使用）：记录移入本实例的处理列表，
+     * 确认前不会从 Redis 中消失；上轮写库失败的记录会在这里原样重试
+     */
+    List<String> claimArchiveBatch(int count) {
+        String processingKey = ARCHIVE_PROCESSING_KEY_PREFIX + workerId;
+        Long size = redisTemplate.execute(CLAIM_SCRIPT,
+            List.of(ARCHIVE_QUEUE_KEY, processingKey, ARCHIVE_WORKER_KEY_PREFIX + workerId, ARCHIVE_WORKERS_KEY),
+            String.valueOf(count), workerId, String.valueOf(archiveWorkerTtlSeconds));
+        if (size == null || size == 0) {
+            return Collections.emptyList();
+        }
+        List<String> batch = redisTemplate.opsForList().range(processingKey, 0, -1);
+        return batch != null ? batch : Collections.emptyList();
+    }
+
+    /**
+     * 确认归档：数据库提交后调用。处理列表只包含本实例当前这一批，直接整体删除
+     */
+    void ackArchiveBatch() {
+        redisTemplate.delete(ARCHIVE_PROCESSING_KEY_PREFIX + workerId);
+    }
+
+    /**
+     * 结束一批多次写库失败的归档：无法写入的记录移入死信列表，同时删除处理列表
+     */
+    void deadLetterArchiveBatch(List<String> deadLetters) {
+        List<String> args = new ArrayList<>(deadLetters.size() + 1);
+        args.add(String.valueOf(archiveDeadLetterMax));
+        args.addAll(deadLetters);
+        redisTemplate.execute(DEAD_LETTER_SCRIPT,
+            List.of(ARCHIVE_PROCESSING_KEY_PREFIX + workerId, ARCHIVE_DEAD_LETTER_KEY),
+            args.toArray());
+    }
+
+    /**
+     * 把心跳已过期实例的处理列表放回归档队列，返回回收的记录数
+     */
+    int reclaimStaleArchiveBatches() {
+        Set<String> workers = redisTemplate.opsForSet().members(ARCHIVE_WORKERS_KEY);
+        if (workers == null || workers.isEmpty()) {
+            return 0;
+        }
+        int reclaimed = 0;
+        for (String worker : workers) {
+            if (workerId.equals(worker)) {
+                continue;
+            }
+            Long n = redisTemplate.execute(RECLAIM_SCRIPT,
+                List.of(ARCHIVE_PROCESSING_KEY_PREFIX + worker, ARCHIVE_QUEUE_KEY,
+                    ARCHIVE_WORKER_KEY_PREFIX + worker, ARCHIVE_WORKERS_KEY),
+                worker);
+            if (n != null && n > 0) {
+                log.warn("回收失联归档实例 {} 的处理列表，{} 条记录放回队列", worker, n);
+                reclaimed += n;
+            }
+        }
+        return reclaimed;
+    }
+
+    AnonymousChatRecord deserialize(String json) throws java.io.IOException {
+        return objectMapper.readValue(json, AnonymousChatRecord.class);
+    }
+
+    private List<AnonymousChatRecord> readRange(String sessionId, String ipAddress, long start, long end) throws java.io.IOException {
+        List<String> raw = redisTemplate.opsForList().range(SESSION_KEY_PREFIX + sessionId, start, end);
+        List<AnonymousChatRecord> records = new ArrayList<>();
+        if (raw == null) {
+            return records;
+        }
+        for (String json : raw) {
+            AnonymousChatRecord record = deserialize(json);
+            if (ipAddress == null || ipAddress.isEmpty() || ipAddress.equals(record.getIpAddress())) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+}
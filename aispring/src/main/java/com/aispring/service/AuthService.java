@@ -5,17 +5,17 @@ import com.aispring.dto.request.RegisterRequest;
 import com.aispring.dto.request.ResetPasswordRequest;
 import com.aispring.dto.response.AuthResponse;
 import com.aispring.entity.User;
-import com.aispring.entity.VerificationCode;
 import com.aispring.exception.CustomException;
 import com.aispring.repository.UserRepository;
-import com.aispring.repository.VerificationCodeRepository;
-import com.aispring.util.EmailUtil;
+import com.aispring.security.CredentialVerifier;
+import com.aispring.security.CustomUserDetails;
+import com.aispring.security.UserPrincipalCache;
 import com.aispring.util.JwtUtil;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.stereotype.Service;
@@ -25,6 +25,11 @@ import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
@@ -32,21 +37,33 @@ import java.util.Random;
 public class AuthService {
     
     private final UserRepository userRepository;
-    private final VerificationCodeRepository verificationCodeRepository;
+    private final VerificationCodeStore verificationCodeStore;
     private final JwtUtil jwtUtil;
-    private final EmailUtil emailUtil;
-    private final AuthenticationManager authenticationManager;
+    private final EmailOutboxService emailOutboxService;
+    private final CredentialVerifier credentialVerifier;
     private final UserDetailsService userDetailsService;
     private final UserService userService;
+    private final UserPrincipalCache userPrincipalCache;
     
-    @Value("${app.auth.verification-code-expire-minutes:5}")
-    private Integer codeExpireMinutes;
+    /** 最后登录时间写回线程，队列有界，繁忙时丢弃更新而不阻塞登录 */
+    private final ExecutorService loginRecordExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(10000), r -> {
+                Thread t = new Thread(r);
+                t.setName("login-record");
+                t.setDaemon(true);
+                return t;
+            });
+    
+    @PreDestroy
+    public void shutdownExecutor() {
+        loginRecordExecutor.shutdown();
+    }
     
     /**
      * 发送注册验证码
      */
     @Transactional
-    public void sendRegisterCode(String email) {
+    public void sendRegisterCode(String email, String ip) {
         // 检查邮箱是否已注册
         if (userRepository.existsByEmail(email)) {
             throw new CustomException("该邮箱已被注册");
@@ -55,18 +72,11 @@ public class AuthService {
         // 生成验证码
         String code = generateVerificationCode();
         
-        // 保存验证码
-        VerificationCode verificationCode = new VerificationCode();
-        verificationCode.setEmail(email);
-        verificationCode.setCode(code);
-        verificationCode.setUsageType("register");
-        verificationCode.setExpiresAt(LocalDateTime.now().plusMinutes(codeExpireMinutes));
-        verificationCode.setIsUsed(false);
+        // 保存验证码（Redis，含发送频率限制）
+        verificationCodeStore.issue(VerificationCodeStore.USAGE_REGISTER, email, ip, code);
         
-        verificationCodeRepository.save(verificationCode);
-        
-        // 发送邮件
-        emailUtil.sendVerificationCode(email, code, "注册");
+        // 发送邮件：写入发件箱，事务提交后异步投递；发件箱只记录验证码用途，发送时再从 Redis 读取验证码
+        emailOutboxService.enqueueVerificationCode(email, VerificationCodeStore.USAGE_REGISTER, "注册");
         
         log.info("发送注册验证码到邮箱: {}", email);
     }
@@ -76,17 +86,8 @@ public class AuthService {
      */
     @Transactional
     public AuthResponse register(RegisterRequest request) {
-        // 验证验证码
-        VerificationCode verificationCode = verificationCodeRepository
-                .findFirstByEmailAndIsUsedFalseAndExpiresAtAfterOrderByCreatedAtDesc(
-                        request.getEmail(),
-                        LocalDateTime.now()
-                )
-                .orElseThrow(() -> new CustomException("验证码无效或已过期"));
-        
-        if (!verificationCode.getCode().equals(request.getCode())) {
-            throw new CustomException("验证码错误");
-        }
+        // 先验证并消费验证码：验证码错误的请求不做密码加密和任何写入；之后事务回滚时验证码会被恢复
+        verificationCodeStore.consume(VerificationCodeStore.USAGE_REGISTER, request.getEmail(), request.getCode());
         
         // 检查邮箱是否已注册
         if (userRepository.existsByEmail(request.getEmail())) {
@@ -117,10 +118,6 @@ public class AuthService {
             }
         }
         
-        // 标记验证码已使用
-        verificationCode.setIsUsed(true);
-        verificationCodeRepository.save(verificationCode);
-        
         // 生成JWT Token
         UserDetails userDetails = userDetailsService.loadUserByUsername(user.getEmail());
         Map<String, Object> extraClaims = new HashMap<>();
@@ -172,6 +169,7 @@ public class AuthService {
             user.setLastLogin(LocalDateTime.now());
             userService.setDefaultAvatar(user);
             userRepository.save(user);
+            userPrincipalCache.evict(testEmail);
             
             log.info("测试用户已存在，更新登录时间和头像: {}", testEmail);
         }
@@ -196,27 +194,25 @@ public class AuthService {
     
     /**
      * 用户登录
+     * 密码校验在独立的有界线程池中执行；认证结果已包含用户实体，不再重复查询，
+     * 最后登录时间异步写回
      */
     public AuthResponse login(LoginRequest request) {
         // 验证用户名密码
-        authenticationManager.authenticate(
+        Authentication authentication = credentialVerifier.authenticate(
                 new UsernamePasswordAuthenticationToken(
                         request.getEmail(),
                         request.getPassword()
                 )
         );
         
-        // 获取用户
-        User user = userRepository.findByEmail(request.getEmail())
-                .orElseThrow(() -> new CustomException("用户不存在"));
-        
-        // 更新最后登录时间和默认头像
-        user.setLastLogin(LocalDateTime.now());
-        userService.setDefaultAvatar(user);
-        userRepository.save(user);
+        CustomUserDetails userDetails = (CustomUserDetails) authentication.getPrincipal();
+        User user = userDetails.getUser();
+        boolean missingAvatar = user.getAvatar() == null || user.getAvatar().isEmpty();
+        String avatar = missingAvatar ? userService.defaultAvatarUrl(user.getUsername()) : user.getAvatar();
+        recordLoginAsync(user.getId(), user.getEmail(), missingAvatar ? avatar : null);
         
         // 生成JWT Token
-        UserDetails userDetails = userDetailsService.loadUserByUsername(user.getEmail());
         Map<String, Object> extraClaims = new HashMap<>();
         extraClaims.put("user_id", user.getId());
         extraClaims.put("is_admin", user.isAdmin());
@@ -231,15 +227,38 @@ public class AuthService {
                 .username(user.getUsername())
                 .email(user.getEmail())
                 .isAdmin(user.isAdmin())
-                .avatar(user.getAvatar())
+                .avatar(avatar)
                 .build();
     }
     
+    /**
+     * 异步更新最后登录时间，首次登录时补写默认头像
+     * 更新语句提交后再失效用户缓存，缓存中不会留下旧的最后登录时间
+     */
+    private void recordLoginAsync(Long userId, String email, String defaultAvatar) {
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            loginRecordExecutor.execute(() -> {
+                try {
+                    userRepository.updateLastLogin(userId, now);
+                    userPrincipalCache.evict(email);
+                    if (defaultAvatar != null) {
+                        userService.updateAvatar(userId, defaultAvatar);
+                    }
+                } catch (Exception e) {
+                    log.warn("更新最后登录时间失败 - userId={}: {}", userId, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("登录记录队列已满，跳过最后登录时间更新 - userId={}", userId);
+        }
+    }
+    
     /**
      * 发送忘记密码验证码
      */
     @Transactional
-    public void sendForgotPasswordCode(String email) {
+    public void sendForgotPasswordCode(String email, String ip) {
         // 检查邮箱是否存在
         if (!userRepository.existsByEmail(email)) {
             throw new CustomException("该邮箱未注册");
@@ -248,18 +267,11 @@ public class AuthService {
         // 生成验证码
         String code = generateVerificationCode();
         
-        // 保存验证码
-        VerificationCode verificationCode = new VerificationCode();
-        verificationCode.setEmail(email);
-        verificationCode.setCode(code);
-        verificationCode.setUsageType("reset_password");
-        verificationCode.setExpiresAt(LocalDateTime.now().plusMinutes(codeExpireMinutes));
-        verificationCode.setIsUsed(false);
+        // 保存验证码（Redis，含发送频率限制）
+        verificationCodeStore.issue(VerificationCodeStore.USAGE_RESET_PASSWORD, email, ip, code);
         
-        verificationCodeRepository.save(verificationCode);
-        
-        // 发送邮件
-        emailUtil.sendVerificationCode(email, code, "重置密码");
+        // 发送邮件：写入发件箱，事务提交后异步投递；发件箱只记录验证码用途，发送时再从 Redis 读取验证码
+        emailOutboxService.enqueueVerificationCode(email, VerificationCodeStore.USAGE_RESET_PASSWORD, "重置密码");
         
         log.info("发送重置密码验证码到邮箱: {}", email);
     }
@@ -269,17 +281,8 @@ public class AuthService {
      */
     @Transactional
     public void resetPassword(ResetPasswordRequest request) {
-        // 验证验证码
-        VerificationCode verificationCode = verificationCodeRepository
-                .findFirstByEmailAndIsUsedFalseAndExpiresAtAfterOrderByCreatedAtDesc(
-                        request.getEmail(),
-                        LocalDateTime.now()
-                )
-                .orElseThrow(() -> new CustomException("验证码无效或已过期"));
-        
-        if (!verificationCode.getCode().equals(request.getCode())) {
-            throw new CustomException("验证码错误");
-        }
+        // 先验证并消费验证码：验证码错误的请求不做密码加密和任何写入；之后事务回滚时验证码会被恢复
+        verificationCodeStore.consume(VerificationCodeStore.USAGE_RESET_PASSWORD, request.getEmail(), request.getCode());
         
         // 获取用户
         User user = userRepository.findByEmail(request.getEmail())
@@ -288,10 +291,7 @@ public class AuthService {
         // 更新密码
         user.setPassword(request.getNewPassword()); // 会自动加密
         userRepository.save(user);
-        
-        // 标记验证码已使用
-        verificationCode.setIsUsed(true);
-        verificationCodeRepository.save(verificationCode);
+        userPrincipalCache.evict(user.getEmail());
         
         log.info("用户重置密码成功: {}", user.getEmail());
     }
@@ -0,0 +1,392 @@
+package com.aispring.service;
+
+import com.aispring.config.StorageProperties;
+import com.aispring.repository.FileBlobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 云盘内容寻址存储
+ * - 上传时边写临时文件边计算 SHA-256，相同内容只保留一份，路径为 .blobs/ab/cd/{hash}
+ * - 引用计数在调用方事务中增减，事务回滚时计数一并回滚
+ * - 回收任务删除引用数为 0 的数据块，以及事务回滚后遗留的无记录文件
+ */
+@Service
+@Slf4j
+public class BlobStoreService {
+
+    /** 数据块根目录（位于云盘根目录下，不与用户ID目录冲突） */
+    public static final String BLOB_DIR = ".blobs";
+    private static final String TMP_DIR = "tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 写入结果
+     * @param hash SHA-256（小写十六进制）
+     * @param size 内容字节数
+     */
+    public record StoredBlob(String hash, long size) {}
+
+    /**
+     * 抽样块校验
+     * @param hash 文件中 [offset, offset + length) 的 SHA-256
+     */
+    public record BlockSample(long offset, int length, String hash) {}
+
+    /** 单个抽样块的最大长度，避免借校验读取大段内容 */
+    private static final int MAX_SAMPLE_LENGTH = 1024 * 1024;
+    private static final int MAX_SAMPLES = 16;
+
+    private final FileBlobRepository fileBlobRepository;
+    private final StorageProperties storageProperties;
+    private final StorageIntentLog intentLog;
+    private final TransactionTemplate requiresNew;
+
+    @Value("${app.cloud-disk.blob.gc-grace-minutes:60}")
+    private long gcGraceMinutes;
+
+    @Value("${app.cloud-disk.blob.gc-batch-size:500}")
+    private int gcBatchSize;
+
+    @Value("${app.cloud-disk.blob.fsync:true}")
+    private boolean fsync;
+
+    public BlobStoreService(FileBlobRepository fileBlobRepository,
+                            StorageProperties storageProperties,
+                            StorageIntentLog intentLog,
+                            PlatformTransactionManager transactionManager) {
+        this.fileBlobRepository = fileBlobRepository;
+        this.storageProperties = storageProperties;
+        this.intentLog = intentLog;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * 数据块的物理路径（按哈希前两级分片，避免单目录文件过多）
+     */
+    public Path blobPath(String hash) {
+        return blobRoot().resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    /**
+     * 暂存的内容：已写入临时文件并计算哈希，尚未计入引用
+     */
+    public record StagedBlob(Path tmp, String hash, long size) {}
+
+    /**
+     * 流式写入内容并增加一次引用；内容已存在时只增加引用，不再落盘
+     */
+    public StoredBlob store(InputStream in) throws IOException {
+        return commitStaged(stage(in));
+    }
+
+    /**
+     * 只写临时文件并计算哈希，不访问数据库（可在工作线程中并行执行），
+     * 之后由调用方在事务中 {@link #commitStaged} 或 {@link #discardStaged}
+     */
+    public StagedBlob stage(InputStream in) throws IOException {
+        Path tmpDir = blobRoot().resolve(TMP_DIR);
+        Files.createDirectories(tmpDir);
+        Path tmp = Files.createTempFile(tmpDir, "upload-", ".tmp");
+        try {
+            MessageDigest digest = newDigest();
+            long size = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                    size += n;
+                }
+            }
+            return new StagedBlob(tmp, HexFormat.of().formatHex(digest.digest()), size);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    /**
+     * 把暂存内容迁入数据块存储并增加一次引用
+     */
+    public StoredBlob commitStaged(StagedBlob staged) throws IOException {
+        try {
+            publish(staged.tmp(), staged.hash(), staged.size());
+            return new StoredBlob(staged.hash(), staged.size());
+        } finally {
+            Files.deleteIfExists(staged.tmp());
+        }
+    }
+
+    public void discardStaged(StagedBlob staged) {
+        try {
+            Files.deleteIfExists(staged.tmp());
+        } catch (IOException e) {
+            log.warn("删除暂存文件失败 - {}: {}", staged.tmp(), e.getMessage());
+        }
+    }
+
+    public StoredBlob store(byte[] bytes) throws IOException {
+        return store(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * 在数据块临时目录下创建文件（与数据块同一文件系统，迁入时可原子移动）
+     */
+    public Path newTempFile() throws IOException {
+        Path tmpDir = blobRoot().resolve(TMP_DIR);
+        Files.createDirectories(tmpDir);
+        return Files.createTempFile(tmpDir, "assemble-", ".tmp");
+    }
+
+    /**
+     * 把已写好的临时文件迁入数据块存储并增加一次引用；
+     * 使用堆外缓冲计算哈希，内容不经过堆内存复制
+     */
+    public StoredBlob adopt(Path tmp) throws IOException {
+        try {
+            MessageDigest digest = newDigest();
+            long size = 0;
+            java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocateDirect(BUFFER_SIZE);
+            try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(tmp)) {
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    size += buffer.remaining();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            publish(tmp, hash, size);
+            return new StoredBlob(hash, size);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 是否已存在内容与大小都相同的数据块
+     */
+    public boolean contains(String hash, long size) {
+        return fileBlobRepository.findById(hash)
+            .filter(b -> b.getSize() != null && b.getSize() == size)
+            .isPresent() && Files.isRegularFile(blobPath(hash));
+    }
+
+    /**
+     * 对已有数据块增加一次引用（秒传），数据块文件不存在时抛出异常
+     */
+    public StoredBlob reference(String hash) throws IOException {
+        long size = fileBlobRepository.findById(hash)
+            .map(b -> b.getSize())
+            .orElseThrow(() -> new IOException("数据块不存在: " + hash));
+        fileBlobRepository.acquire(hash, size);
+        if (!Files.isRegularFile(blobPath(hash))) {
+            throw new IOException("数据块文件不存在: " + hash);
+        }
+        return new StoredBlob(hash, size);
+    }
+
+    /**
+     * 校验抽样块；未提供抽样时不通过（只凭哈希不能证明持有内容）
+     */
+    public boolean verifySamples(String hash, List<BlockSample> samples) throws IOException {
+        if (samples == null || samples.isEmpty()) {
+            return false;
+        }
+        if (samples.size() > MAX_SAMPLES) {
+            return false;
+        }
+        Path path = blobPath(hash);
+        try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(path)) {
+            for (BlockSample sample : samples) {
+                if (sample.offset() < 0 || sample.length() <= 0 || sample.length() > MAX_SAMPLE_LENGTH
+                        || sample.hash() == null || sample.offset() + sample.length() > channel.size()) {
+                    return false;
+                }
+                java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(sample.length());
+                long position = sample.offset();
+                while (buffer.hasRemaining()) {
+                    int n = channel.read(buffer, position);
+                    if (n < 0) {
+                        return false;
+                    }
+                    position += n;
+                }
+                buffer.flip();
+                MessageDigest digest = newDigest();
+                digest.update(buffer);
+                if (!HexFormat.of().formatHex(digest.digest()).equalsIgnoreCase(sample.hash().trim())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 减少一次引用（在调用方事务中执行），物理删除由回收任务完成
+     */
+    public void release(String hash) {
+        if (hash == null || hash.isEmpty()) {
+            return;
+        }
+        fileBlobRepository.release(hash);
+    }
+
+    /**
+     * 回收未被引用的数据块
+     */
+    @Scheduled(cron = "${app.cloud-disk.blob.gc-cron:0 20 4 * * ?}")
+    public void collectGarbage() {
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(gcGraceMinutes);
+        int deleted = 0;
+        try {
+            List<String> hashes;
+            do {
+                hashes = fileBlobRepository.findUnreferencedBefore(cutoff, PageRequest.of(0, gcBatchSize));
+                for (String hash : hashes) {
+                    if (deleteBlob(hash)) {
+                        deleted++;
+                    }
+                }
+            } while (hashes.size() == gcBatchSize);
+            int orphans = sweepOrphanFiles(cutoff);
+            log.info("云盘数据块回收完成 - 删除={}, 清理无记录文件={}", deleted, orphans);
+        } catch (Exception e) {
+            log.error("云盘数据块回收失败", e);
+        }
+    }
+
+    /**
+     * 先增加引用再检查文件：引用行锁与回收任务的条件删除互斥，
+     * 因此一旦计数成功，回收任务不会再删除该数据块，缺失时补写即可
+     */
+    private void publish(Path tmp, String hash, long size) throws IOException {
+        fileBlobRepository.acquire(hash, size);
+        Path target = blobPath(hash);
+        if (Files.exists(target)) {
+            return;
+        }
+        Files.createDirectories(target.getParent());
+        if (fsync) {
+            // 先落盘再改名：崩溃后数据块要么不存在，要么内容完整
+            force(tmp);
+        }
+        // 非原子移动会先出现不完整的文件，意图覆盖整个写入过程，中途退出时由变更日志对账
+        try (StorageIntentLog.Intent intent = intentLog.begin(StorageIntentLog.OP_CREATE, target)) {
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (java.nio.file.FileAlreadyExistsException ignore) {
+            // 并发写入了相同内容
+            return;
+        }
+        if (fsync) {
+            forceDirectory(target.getParent());
+        }
+    }
+
+    private static void force(Path file) throws IOException {
+        try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(file,
+                java.nio.file.StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * 持久化目录项（改名本身）；部分平台不支持打开目录，此时忽略
+     */
+    private static void forceDirectory(Path dir) {
+        try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(dir,
+                java.nio.file.StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignore) {
+            // Windows 等平台无法打开目录
+        }
+    }
+
+    private boolean deleteBlob(String hash) {
+        Boolean deleted = requiresNew.execute(status -> {
+            if (fileBlobRepository.deleteIfUnreferenced(hash) == 0) {
+                return false;
+            }
+            try (StorageIntentLog.Intent intent = intentLog.begin(StorageIntentLog.OP_DELETE, blobPath(hash))) {
+                Files.deleteIfExists(blobPath(hash));
+            } catch (IOException e) {
+                log.warn("删除数据块文件失败 - hash={}: {}", hash, e.getMessage());
+            }
+            return true;
+        });
+        return Boolean.TRUE.equals(deleted);
+    }
+
+    /**
+     * 删除超过宽限期、却没有对应记录的文件（写入后事务回滚）以及残留的临时文件
+     */
+    private int sweepOrphanFiles(LocalDateTime cutoff) throws IOException {
+        Path root = blobRoot();
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+        FileTime threshold = FileTime.from(cutoff.atZone(java.time.ZoneId.systemDefault()).toInstant());
+        int removed = 0;
+        try (Stream<Path> walk = Files.walk(root, 3)) {
+            for (Path p : (Iterable<Path>) walk::iterator) {
+                if (!Files.isRegularFile(p) || Files.getLastModifiedTime(p).compareTo(threshold) >= 0) {
+                    continue;
+                }
+                boolean tmp = p.getParent() != null && TMP_DIR.equals(p.getParent().getFileName().toString());
+                if (tmp) {
+                    Files.deleteIfExists(p);
+                    removed++;
+                } else if (!fileBlobRepository.existsById(p.getFileName().toString())) {
+                    try (StorageIntentLog.Intent intent = intentLog.begin(StorageIntentLog.OP_DELETE, p)) {
+                        Files.deleteIfExists(p);
+                    }
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    private Path blobRoot() {
+        return Paths.get(storageProperties.getCloudDiskAbsolute()).resolve(BLOB_DIR);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.aispring.service;
+
+import com.aispring.entity.ChatRecord;
+import com.aispring.entity.ChatSession;
+import com.aispring.exception.CustomException;
+import com.aispring.repository.ChatRecordRepository;
+import com.aispring.repository.ChatSessionRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 聊天记录导出服务
+ * 按会话逐页（键集分页）读取并直接写入响应流，内存占用不随历史记录大小增长；
+ * 不开启长事务，每页查询完即归还连接，慢速下载不会长期占用连接池
+ */
+@Service
+@RequiredArgsConstructor
+public class ChatExportService {
+
+    public static final String FORMAT_NDJSON = "ndjson";
+    public static final String FORMAT_MARKDOWN = "markdown";
+    public static final String FORMAT_ZIP = "zip";
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /** 每页读取的消息条数 */
+    private static final int PAGE_SIZE = 500;
+
+    private final ChatRecordRepository chatRecordRepository;
+    private final ChatSessionRepository chatSessionRepository;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * 规范化导出格式，不支持的格式抛出异常
+     */
+    public String normalizeFormat(String format) {
+        String f = format == null ? FORMAT_NDJSON : format.trim().toLowerCase();
+        if ("md".equals(f)) {
+            f = FORMAT_MARKDOWN;
+        }
+        if (!FORMAT_NDJSON.equals(f) && !FORMAT_MARKDOWN.equals(f) && !FORMAT_ZIP.equals(f)) {
+            throw new CustomException("不支持的导出格式: " + format);
+        }
+        return f;
+    }
+
+    /**
+     * 导出会话到输出流
+     * @param sessionId 为空时导出用户的全部会话
+     */
+    public void export(Long userId, String sessionId, String format, OutputStream out) throws IOException {
+        Map<String, String> titles = new HashMap<>();
+        Set<String> hidden = new HashSet<>();
+        for (ChatSession session : chatSessionRepository.findByUserId(userId)) {
+            titles.put(session.getSessionId(), session.getTitle());
+            if (session.getDeletedAt() != null) {
+                hidden.add(session.getSessionId());
+            }
+        }
+
+        List<String> sessionIds = (sessionId != null && !sessionId.isEmpty())
+            ? List.of(sessionId)
+            : chatRecordRepository.findExportSessionIds(userId);
+        Iterator<ChatRecord> records = new PagedRecords(userId,
+            sessionIds.stream().filter(id -> !hidden.contains(id)).iterator());
+        switch (format) {
+            case FORMAT_MARKDOWN -> writeMarkdown(records, titles, out);
+            case FORMAT_ZIP -> writeZip(records, titles, out);
+            default -> writeNdjson(records, out);
+        }
+    }
+
+    /**
+     * 依次按会话键集分页读取消息，读完一页再查下一页
+     */
+    private final class PagedRecords implements Iterator<ChatRecord> {
+
+        private final Long userId;
+        private final Iterator<String> sessionIds;
+        private String sessionId;
+        private Iterator<ChatRecord> page = Collections.emptyIterator();
+        private ChatRecord last;
+        private boolean lastPage = true;
+
+        PagedRecords(Long userId, Iterator<String> sessionIds) {
+            this.userId = userId;
+            this.sessionIds = sessionIds;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!page.hasNext()) {
+                if (lastPage) {
+                    if (!sessionIds.hasNext()) {
+                        return false;
+                    }
+                    sessionId = sessionIds.next();
+                    last = null;
+                }
+                List<ChatRecord> rows = chatRecordRepository.findExportPage(userId, sessionId,
+                    last == null ? Integer.MIN_VALUE : last.getMessageOrder(),
+                    last == null ? Long.MIN_VALUE : last.getId(),
+                    PageRequest.of(0, PAGE_SIZE));
+                lastPage = rows.size() < PAGE_SIZE;
+                page = rows.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public ChatRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = page.next();
+            return last;
+        }
+    }
+
+    private void writeNdjson(Iterator<ChatRecord> records, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        while (records.hasNext()) {
+            ChatRecord record = records.next();
+            writer.write(objectMapper.writeValueAsString(record.toMap()));
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    private void writeMarkdown(Iterator<ChatRecord> records, Map<String, String> titles, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        String currentSession = null;
+        while (records.hasNext()) {
+            ChatRecord record = records.next();
+            if (!record.getSessionId().equals(currentSession)) {
+                currentSession = record.getSessionId();
+                writer.write("# " + titleOf(titles, currentSession) + "\n\n");
+            }
+            writeMarkdownMessage(writer, record);
+        }
+        writer.flush();
+    }
+
+    private void writeZip(Iterator<ChatRecord> records, Map<String, String> titles, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+        Writer writer = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+        String currentSession = null;
+        while (records.hasNext()) {
+            ChatRecord record = records.next();
+            if (!record.getSessionId().equals(currentSession)) {
+                if (currentSession != null) {
+                    writer.flush();
+                    zip.closeEntry();
+                }
+                currentSession = record.getSessionId();
+                String title = titleOf(titles, currentSession);
+                zip.putNextEntry(new ZipEntry(safeFileName(title) + "-" + currentSession + ".md"));
+                writer.write("# " + title + "\n\n");
+            }
+            writeMarkdownMessage(writer, record);
+        }
+        if (currentSession != null) {
+            writer.flush();
+            zip.closeEntry();
+        }
+        zip.finish();
+    }
+
+    private void writeMarkdownMessage(Writer writer, ChatRecord record) throws IOException {
+        String role = record.getSenderType() != null && record.getSenderType() == 2 ? "AI" : "用户";
+        if (record.getSenderType() != null && record.getSenderType() == 3) {
+            role = "工具";
+        }
+        String time = record.getSendTime() != null ? record.getSendTime().format(FORMATTER) : "";
+        writer.write("### " + role + (time.isEmpty() ? "" : " · " + time) + "\n\n");
+        if (record.getReasoningContent() != null && !record.getReasoningContent().isEmpty()) {
+            writer.write("> " + record.getReasoningContent().replace("\n", "\n> ") + "\n\n");
+        }
+        writer.write(record.getContent() != null ? record.getContent() : "");
+        writer.write("\n\n");
+    }
+
+    private String titleOf(Map<String, String> titles, String sessionId) {
+        String title = titles.get(sessionId);
+        return (title == null || title.isEmpty()) ? "新对话" : title;
+    }
+
+    private String safeFileName(String name) {
+        String cleaned = name.replaceAll("[\\\\/:*?\"<>|\\s]+", "_");
+        return cleaned.length() > 50 ? cleaned.substring(0, 50) : cleaned;
+    }
+}
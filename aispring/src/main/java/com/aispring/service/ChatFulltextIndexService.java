@@ -0,0 +1,67 @@
+package com.aispring.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * 聊天全文检索索引
+ * V2_5 迁移只能为已有的表建索引：新库中 Flyway 先于 Hibernate 建表运行，迁移会跳过，
+ * 因此应用就绪后再检查一次，缺失的 ngram 索引在这里补建。索引就绪前检索走 LIKE 兜底查询。
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ChatFulltextIndexService {
+
+    private static final String RECORDS_INDEX = "ft_chat_records_content";
+    private static final String SESSIONS_INDEX = "ft_chat_sessions_title";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile boolean ready;
+
+    /**
+     * 全文索引是否可用（MATCH ... AGAINST 需要对应的 FULLTEXT 索引，否则直接报错）
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        try {
+            boolean records = ensureIndex("chat_records", RECORDS_INDEX, "content");
+            boolean sessions = ensureIndex("chat_sessions", SESSIONS_INDEX, "title");
+            ready = records && sessions;
+        } catch (Exception e) {
+            log.warn("创建聊天全文索引失败，检索使用 LIKE 兜底查询: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return 索引是否存在（或已创建）
+     */
+    private boolean ensureIndex(String table, String index, String column) {
+        Integer tables = jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?",
+            Integer.class, table);
+        if (tables == null || tables == 0) {
+            return false;
+        }
+        Integer indexes = jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM information_schema.STATISTICS " +
+            "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME = ?",
+            Integer.class, table, index);
+        if (indexes != null && indexes > 0) {
+            return true;
+        }
+        long start = System.currentTimeMillis();
+        jdbcTemplate.execute("ALTER TABLE " + table + " ADD FULLTEXT INDEX " + index + " (" + column + ") WITH PARSER ngram");
+        log.info("已创建全文索引 {}.{}，耗时 {} ms", table, index, System.currentTimeMillis() - start);
+        return true;
+    }
+}
@@ -6,9 +6,9 @@ import com.aispring.entity.User;
 import com.aispring.repository.ChatRecordRepository;
 import com.aispring.repository.ChatSessionRepository;
 import com.aispring.repository.UserRepository;
-import com.aispring.repository.AnonymousChatRecordRepository;
 import com.aispring.entity.AnonymousChatRecord;
 import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -28,10 +28,21 @@ public class ChatRecordService {
     private final ChatRecordRepository chatRecordRepository;
     private final ChatSessionRepository chatSessionRepository;
     private final UserRepository userRepository;
-    private final AnonymousChatRecordRepository anonymousChatRecordRepository;
+    private final AnonymousChatStore anonymousChatStore;
+    private final ChatSessionPurgeService chatSessionPurgeService;
+    private final JdbcTemplate jdbcTemplate;
+    private final ChatFulltextIndexService chatFulltextIndexService;
     
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
+    /** MySQL ngram_token_size 默认值，短于该长度的关键词无法命中全文索引 */
+    private static final int NGRAM_TOKEN_SIZE = 2;
+    private static final int SNIPPET_RADIUS = 40;
+    private static final int SNIPPET_LENGTH = 160;
+    private static final String FULLTEXT_OPERATORS = "+-<>()~*\"@";
+    private static final String LIKE_FROM = "FROM chat_records c " +
+        "LEFT JOIN chat_sessions s ON c.session_id COLLATE utf8mb4_unicode_ci = s.session_id COLLATE utf8mb4_unicode_ci ";
+
     /**
      * 创建聊天记录
      */
@@ -79,7 +90,7 @@ public class ChatRecordService {
                 .createdAt(LocalDateTime.now())
                 .build();
             
-            anonymousChatRecordRepository.save(anonymousRecord);
+            anonymousChatStore.append(anonymousRecord);
             
             return mapToChatRecord(anonymousRecord);
         }
@@ -207,12 +218,14 @@ public class ChatRecordService {
      */
     public List<ChatRecord> getSessionMessages(Long userId, String sessionId, String ipAddress) {
         if (userId != null) {
+            // 与会话列表一致：已逻辑删除的会话按 ID 访问也不再返回消息
+            if (chatSessionRepository.existsByUserIdAndSessionIdAndDeletedAtIsNotNull(userId, sessionId)) {
+                return Collections.emptyList();
+            }
             return chatRecordRepository.findByUserIdAndSessionIdOrderByMessageOrderAsc(userId, sessionId);
         }
 
-        List<AnonymousChatRecord> records = (ipAddress == null || ipAddress.isEmpty())
-            ? anonymousChatRecordRepository.findBySessionIdOrderByCreatedAtAsc(sessionId)
-            : anonymousChatRecordRepository.findBySessionIdAndIpAddressOrderByCreatedAtAsc(sessionId, ipAddress);
+        List<AnonymousChatRecord> records = anonymousChatStore.findAllAsc(sessionId, ipAddress);
         return records.stream().map(this::mapToChatRecord).collect(Collectors.toList());
     }
      
@@ -229,6 +242,148 @@ public class ChatRecordService {
             .build();
     }
 
+    /**
+     * 全文检索当前用户的聊天记录与会话标题
+     * 命中片段中的关键词以 &lt;mark&gt; 标记
+     */
+    public ChatSearchResult searchMessages(Long userId, String keyword, Integer page, Integer size) {
+        int safePage = page == null ? 1 : Math.max(1, page);
+        int safeSize = size == null ? 20 : Math.min(Math.max(1, size), 100);
+        int offset = (safePage - 1) * safeSize;
+
+        List<String> terms = splitSearchTerms(keyword);
+        if (terms.isEmpty()) {
+            return new ChatSearchResult(Collections.emptyList(), Collections.emptyList(), 0, safePage, safeSize);
+        }
+
+        // 新库在全文索引补建完成前也走 LIKE 兜底
+        boolean fulltext = chatFulltextIndexService.isReady()
+            && terms.stream().allMatch(t -> t.length() >= NGRAM_TOKEN_SIZE);
+        List<Object[]> rows;
+        long total;
+        List<Map<String, Object>> sessions = Collections.emptyList();
+        if (fulltext) {
+            String query = terms.stream().map(t -> "+\"" + t + "\"").collect(Collectors.joining(" "));
+            rows = chatRecordRepository.searchContentByUserId(userId, query, terms.get(0),
+                SNIPPET_RADIUS, SNIPPET_LENGTH, safeSize, offset);
+            total = chatRecordRepository.countContentSearchByUserId(userId, query);
+            if (safePage == 1) {
+                sessions = chatSessionRepository.searchTitleByUserId(userId, query, 10).stream().map(row -> {
+                    Map<String, Object> item = new HashMap<>();
+                    item.put("session_id", row[0]);
+                    item.put("title", highlight(row[1] != null ? row[1].toString() : "", terms));
+                    item.put("updated_at", formatTime(row[2]));
+                    return item;
+                }).collect(Collectors.toList());
+            }
+        } else {
+            rows = searchContentLike(userId, terms, safeSize, offset);
+            total = countContentLike(userId, terms);
+        }
+
+        List<Map<String, Object>> results = rows.stream().map(row -> {
+            Map<String, Object> item = new HashMap<>();
+            item.put("id", row[0]);
+            item.put("session_id", row[1]);
+            item.put("sender_type", row[2]);
+            item.put("snippet", highlight(row[3] != null ? row[3].toString() : "", terms));
+            item.put("send_time", formatTime(row[4]));
+            item.put("session_title", row[5]);
+            return item;
+        }).collect(Collectors.toList());
+
+        return new ChatSearchResult(results, sessions, total, safePage, safeSize);
+    }
+
+    /**
+     * 关键词短于 ngram 分词长度时的兜底查询（仅扫描该用户自己的记录）
+     * 与全文检索的 +"词" 语义一致：所有关键词都须出现
+     */
+    private List<Object[]> searchContentLike(Long userId, List<String> terms, int limit, int offset) {
+        List<Object> args = new ArrayList<>();
+        args.add(terms.get(0));
+        args.add(SNIPPET_RADIUS);
+        args.add(SNIPPET_LENGTH);
+        args.add(userId);
+        String where = likeConditions(terms, args);
+        args.add(limit);
+        args.add(offset);
+        String sql = "SELECT c.id, c.session_id, c.sender_type, " +
+            "SUBSTRING(c.content, GREATEST(1, LOCATE(?, c.content) - ?), ?) AS snippet, " +
+            "c.send_time, s.title " +
+            LIKE_FROM + where +
+            " ORDER BY c.id DESC LIMIT ? OFFSET ?";
+        return jdbcTemplate.query(sql, (rs, i) -> new Object[] {
+            rs.getLong(1), rs.getString(2), rs.getObject(3), rs.getString(4), rs.getTimestamp(5), rs.getString(6)
+        }, args.toArray());
+    }
+
+    private long countContentLike(Long userId, List<String> terms) {
+        List<Object> args = new ArrayList<>();
+        args.add(userId);
+        String where = likeConditions(terms, args);
+        Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) " + LIKE_FROM + where, Long.class, args.toArray());
+        return count != null ? count : 0L;
+    }
+
+    private static String likeConditions(List<String> terms, List<Object> args) {
+        StringBuilder where = new StringBuilder("WHERE c.user_id = ? AND s.deleted_at IS NULL");
+        for (String term : terms) {
+            where.append(" AND c.content LIKE CONCAT('%', ?, '%')");
+            args.add(escapeLike(term));
+        }
+        return where.toString();
+    }
+
+    /**
+     * 转义 LIKE 通配符，关键词中的 % 与 _ 按字面匹配
+     */
+    private static String escapeLike(String term) {
+        return term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    public record ChatSearchResult(List<Map<String, Object>> results, List<Map<String, Object>> sessions,
+                                   long total, int page, int size) {}
+
+    private List<String> splitSearchTerms(String keyword) {
+        if (keyword == null || keyword.isBlank()) {
+            return Collections.emptyList();
+        }
+        List<String> terms = new ArrayList<>();
+        for (String raw : keyword.trim().split("\\s+")) {
+            StringBuilder sb = new StringBuilder();
+            for (char ch : raw.toCharArray()) {
+                if (FULLTEXT_OPERATORS.indexOf(ch) < 0) {
+                    sb.append(ch);
+                }
+            }
+            if (sb.length() > 0 && terms.size() < 8) {
+                terms.add(sb.toString());
+            }
+        }
+        return terms;
+    }
+
+    private String highlight(String text, List<String> terms) {
+        String pattern = terms.stream()
+            .map(t -> java.util.regex.Pattern.quote(escapeHtml(t)))
+            .collect(Collectors.joining("|"));
+        return escapeHtml(text.replaceAll("\\s+", " ")).replaceAll("(?i)(" + pattern + ")", "<mark>$1</mark>");
+    }
+
+    private String escapeHtml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private String formatTime(Object value) {
+        if (value == null) {
+            return "";
+        }
+        LocalDateTime dt = (value instanceof LocalDateTime) ? (LocalDateTime) value
+                : (value instanceof java.sql.Timestamp) ? ((java.sql.Timestamp) value).toLocalDateTime() : null;
+        return dt != null ? dt.format(FORMATTER) : "";
+    }
+
     /**
      * 获取会话详情
      */
@@ -280,15 +435,10 @@ public class ChatRecordService {
 
     /**
      * 删除特定会话
+     * 小会话单语句批量删除；大会话立即隐藏，后台分块清理
      */
-    @Transactional
     public void deleteSession(Long userId, String sessionId) {
-        chatRecordRepository.deleteByUserIdAndSessionId(userId, sessionId);
-        chatSessionRepository.findBySessionId(sessionId).ifPresent(session -> {
-            if (Objects.equals(session.getUserId(), userId)) {
-                chatSessionRepository.deleteBySessionId(sessionId);
-            }
-        });
+        chatSessionPurgeService.deleteSession(userId, sessionId);
     }
     
     /**
@@ -394,13 +544,8 @@ public class ChatRecordService {
     /**
      * 管理员：删除指定用户的会话
      */
-    @Transactional
     public int deleteUserSession(Long userId, String sessionId) {
-        List<ChatRecord> records = chatRecordRepository
-            .findByUserIdAndSessionIdOrderByMessageOrderAsc(userId, sessionId);
-        int count = records.size();
-        chatRecordRepository.deleteByUserIdAndSessionId(userId, sessionId);
-        return count;
+        return chatSessionPurgeService.deleteSession(userId, sessionId);
     }
     
     /**
@@ -0,0 +1,145 @@
+package com.aispring.service;
+
+import com.aispring.entity.ChatSession;
+import com.aispring.repository.ChatRecordRepository;
+import com.aispring.repository.ChatSessionRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 会话异步清理服务
+ * 小会话的消息与会话行在同一事务中删除；
+ * 大会话先逻辑删除（立即对用户隐藏），再由后台线程分块物理删除，
+ * 每块独立提交，避免单个大事务长时间锁表。
+ */
+@Service
+@Slf4j
+public class ChatSessionPurgeService {
+
+    private final ChatRecordRepository chatRecordRepository;
+    private final ChatSessionRepository chatSessionRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${app.chat.purge.sync-threshold:500}")
+    private int syncThreshold;
+
+    @Value("${app.chat.purge.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${app.chat.purge.chunk-pause-ms:20}")
+    private long chunkPauseMs;
+
+    /** 正在清理中的会话，避免重复提交 */
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService purgeExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r);
+        t.setName("chat-purge");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ChatSessionPurgeService(ChatRecordRepository chatRecordRepository,
+                                   ChatSessionRepository chatSessionRepository,
+                                   PlatformTransactionManager transactionManager) {
+        this.chatRecordRepository = chatRecordRepository;
+        this.chatSessionRepository = chatSessionRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @PreDestroy
+    public void shutdownExecutor() {
+        purgeExecutor.shutdownNow();
+    }
+
+    /**
+     * 删除会话：小会话直接单语句批量删除，大会话逻辑删除后异步分块清理
+     * @return 被删除（或待删除）的消息数量
+     */
+    public int deleteSession(Long userId, String sessionId) {
+        long count = chatRecordRepository.countByUserIdAndSessionId(userId, sessionId);
+        if (count <= syncThreshold) {
+            // 同一事务：不会出现消息已删而会话行仍在（或相反）的中间状态
+            transactionTemplate.executeWithoutResult(status -> {
+                chatRecordRepository.deleteByUserIdAndSessionId(userId, sessionId);
+                chatSessionRepository.deleteByUserIdAndSessionId(userId, sessionId);
+            });
+            return (int) count;
+        }
+
+        hideSession(userId, sessionId);
+        schedulePurge(userId, sessionId);
+        return (int) count;
+    }
+
+    private void hideSession(Long userId, String sessionId) {
+        int updated = chatSessionRepository.markDeleted(userId, sessionId, LocalDateTime.now());
+        if (updated == 0) {
+            // 旧数据可能没有 chat_sessions 行，补一条已删除的会话以便列表过滤和后续续跑
+            ChatSession tombstone = ChatSession.builder()
+                .sessionId(sessionId)
+                .userId(userId)
+                .title("新对话")
+                .build();
+            tombstone.setDeletedAt(LocalDateTime.now());
+            chatSessionRepository.save(tombstone);
+        }
+    }
+
+    private void schedulePurge(Long userId, String sessionId) {
+        String key = userId + ":" + sessionId;
+        if (!inFlight.add(key)) {
+            return;
+        }
+        purgeExecutor.execute(() -> {
+            try {
+                purgeInChunks(userId, sessionId);
+            } catch (Exception e) {
+                log.error("会话清理失败，将由定时任务重试 - userId={}, sessionId={}", userId, sessionId, e);
+            } finally {
+                inFlight.remove(key);
+            }
+        });
+    }
+
+    private void purgeInChunks(Long userId, String sessionId) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        int total = 0;
+        int deleted;
+        do {
+            deleted = chatRecordRepository.deleteChunkByUserIdAndSessionId(userId, sessionId, chunkSize);
+            total += deleted;
+            if (deleted > 0 && chunkPauseMs > 0) {
+                Thread.sleep(chunkPauseMs);
+            }
+        } while (deleted >= chunkSize);
+        chatSessionRepository.deleteByUserIdAndSessionId(userId, sessionId);
+        log.info("会话清理完成 - userId={}, sessionId={}, 删除消息 {} 条, 耗时 {} ms",
+            userId, sessionId, total, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 定时续跑：重启或清理失败后遗留的已逻辑删除会话
+     */
+    @Scheduled(fixedDelayString = "${app.chat.purge.sweep-interval-ms:600000}", initialDelay = 60000)
+    public void sweepPendingPurges() {
+        List<ChatSession> pending = chatSessionRepository.findByDeletedAtBeforeOrderByDeletedAtAsc(
+            LocalDateTime.now().minusMinutes(1), PageRequest.of(0, 50));
+        for (ChatSession session : pending) {
+            schedulePurge(session.getUserId(), session.getSessionId());
+        }
+    }
+}
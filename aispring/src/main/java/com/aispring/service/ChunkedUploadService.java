@@ -0,0 +1,453 @@
+package com.aispring.service;
+
+import com.aispring.config.StorageProperties;
+import com.aispring.entity.UploadSession;
+import com.aispring.entity.User;
+import com.aispring.entity.UserFile;
+import com.aispring.exception.CustomException;
+import com.aispring.repository.UploadSessionRepository;
+import com.aispring.repository.UserFileRepository;
+import com.aispring.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * 分片上传服务
+ * 流程：init 创建会话并预留配额 → 并行、任意顺序 PUT 分片（可带分片 SHA-256）→ complete 合并。
+ * 分片落盘后会话目录即为进度，断线后查询会话只需补传缺失分片；
+ * 合并使用 FileChannel.transferTo 直接在文件间拷贝，不经过堆内存。
+ * 合并期间会话持有租约（completing_until），合并进程崩溃后租约过期，会话可被重新合并、取消或由清理任务回收。
+ * 合并前先把分片移入会话下的合并目录：已通过状态检查、仍在写入的 PUT 只会落下新的 .part，不会替换正在拼接的分片。
+ */
+@Service
+@Slf4j
+public class ChunkedUploadService {
+
+    private static final String UPLOAD_DIR = ".uploads";
+    private static final String PART_SUFFIX = ".part";
+    private static final String MERGING_DIR = "merging";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 会话状态
+     * @param uploadedChunks 已收到的分片序号（升序）
+     */
+    public record SessionStatus(String uploadId, long size, int chunkSize, int totalChunks,
+                                List<Integer> uploadedChunks, String status, Long fileId) {}
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final UserRepository userRepository;
+    private final UserFileRepository userFileRepository;
+    private final StorageQuotaService storageQuotaService;
+    private final CloudDiskService cloudDiskService;
+    private final BlobStoreService blobStoreService;
+    private final StorageProperties storageProperties;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${app.cloud-disk.chunked-upload.default-chunk-size:8388608}")
+    private int defaultChunkSize;
+
+    @Value("${app.cloud-disk.chunked-upload.min-chunk-size:1048576}")
+    private int minChunkSize;
+
+    @Value("${app.cloud-disk.chunked-upload.max-chunk-size:67108864}")
+    private int maxChunkSize;
+
+    @Value("${app.cloud-disk.chunked-upload.session-ttl-hours:24}")
+    private long sessionTtlHours;
+
+    @Value("${app.cloud-disk.chunked-upload.completing-lease-minutes:30}")
+    private long completingLeaseMinutes;
+
+    public ChunkedUploadService(UploadSessionRepository uploadSessionRepository,
+                                UserRepository userRepository,
+                                UserFileRepository userFileRepository,
+                                StorageQuotaService storageQuotaService,
+                                CloudDiskService cloudDiskService,
+                                BlobStoreService blobStoreService,
+                                StorageProperties storageProperties,
+                                PlatformTransactionManager transactionManager) {
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.userRepository = userRepository;
+        this.userFileRepository = userFileRepository;
+        this.storageQuotaService = storageQuotaService;
+        this.cloudDiskService = cloudDiskService;
+        this.blobStoreService = blobStoreService;
+        this.storageProperties = storageProperties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * 创建上传会话并预留配额
+     * @param chunkSize 客户端期望的分片大小，为空时使用默认值，超出范围时截断
+     */
+    public SessionStatus init(Long userId, String filename, String folderPath, long size, Integer chunkSize,
+                              String expectedHash, String conflictStrategy) throws IOException {
+        if (filename == null || filename.trim().isEmpty()) {
+            throw new CustomException("文件名不能为空");
+        }
+        if (size < 0) {
+            throw new CustomException("文件大小无效");
+        }
+        String hash = expectedHash == null || expectedHash.isBlank() ? null : expectedHash.trim().toLowerCase();
+        if (hash != null && !hash.matches("[0-9a-f]{64}")) {
+            throw new CustomException("无效的文件哈希");
+        }
+        User user = userRepository.findById(userId)
+            .orElseThrow(() -> new CustomException("用户不存在"));
+
+        int chunk = chunkSize == null || chunkSize <= 0 ? defaultChunkSize : Math.max(minChunkSize, Math.min(maxChunkSize, chunkSize));
+        int totalChunks = (int) Math.max(1, (size + chunk - 1) / chunk);
+
+        try {
+            storageQuotaService.reserveDetached(userId, size, user.isAdmin());
+        } catch (IllegalArgumentException e) {
+            throw new CustomException(e.getMessage());
+        }
+
+        UploadSession session = new UploadSession();
+        session.setUploadId(UUID.randomUUID().toString());
+        session.setUserId(userId);
+        session.setFilename(filename.trim());
+        session.setFolderPath(folderPath);
+        session.setConflictStrategy(conflictStrategy != null ? conflictStrategy : "RENAME");
+        session.setTotalSize(size);
+        session.setChunkSize(chunk);
+        session.setTotalChunks(totalChunks);
+        session.setExpectedHash(hash);
+        session.setReservedBytes(size);
+        session.setStatus(UploadSession.STATUS_UPLOADING);
+        session.setCreatedAt(LocalDateTime.now());
+        session.setExpiresAt(LocalDateTime.now().plusHours(sessionTtlHours));
+        try {
+            uploadSessionRepository.save(session);
+            Files.createDirectories(sessionDir(session.getUploadId()));
+        } catch (RuntimeException | IOException e) {
+            storageQuotaService.releaseDetached(userId, size);
+            throw e;
+        }
+        return toStatus(session);
+    }
+
+    /**
+     * 查询会话进度（断点续传）
+     */
+    public SessionStatus status(Long userId, String uploadId) throws IOException {
+        return toStatus(requireSession(userId, uploadId));
+    }
+
+    /**
+     * 写入一个分片；重复上传同一分片会覆盖，分片之间可以并行
+     * @param chunkHash 可选的分片 SHA-256，不一致时拒绝该分片
+     */
+    public void putChunk(Long userId, String uploadId, int index, InputStream body, String chunkHash) throws IOException {
+        UploadSession session = requireSession(userId, uploadId);
+        if (!UploadSession.STATUS_UPLOADING.equals(session.getStatus())) {
+            throw new CustomException("上传会话已结束或正在合并");
+        }
+        if (index < 0 || index >= session.getTotalChunks()) {
+            throw new CustomException("分片序号超出范围: " + index);
+        }
+        long expectedLength = index == session.getTotalChunks() - 1
+            ? session.getTotalSize() - (long) index * session.getChunkSize()
+            : session.getChunkSize();
+
+        Path dir = sessionDir(uploadId);
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, index + "-", ".tmp");
+        try {
+            MessageDigest digest = newDigest();
+            long written = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                int n;
+                while ((n = body.read(buffer)) != -1) {
+                    written += n;
+                    if (written > expectedLength) {
+                        throw new CustomException("分片大小超出预期: " + index);
+                    }
+                    digest.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                }
+            }
+            if (written != expectedLength) {
+                throw new CustomException("分片大小不正确: 期望 " + expectedLength + "，实际 " + written);
+            }
+            if (chunkHash != null && !chunkHash.isBlank()
+                    && !HexFormat.of().formatHex(digest.digest()).equalsIgnoreCase(chunkHash.trim())) {
+                throw new CustomException("分片校验失败: " + index);
+            }
+            moveReplacing(tmp, dir.resolve(index + PART_SUFFIX));
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        uploadSessionRepository.touch(uploadId, LocalDateTime.now().plusHours(sessionTtlHours));
+    }
+
+    /**
+     * 合并全部分片并创建文件记录；已完成的会话重复调用时返回同一文件
+     */
+    public UserFile complete(Long userId, String uploadId) throws IOException {
+        UploadSession session = requireSession(userId, uploadId);
+        if (UploadSession.STATUS_COMPLETED.equals(session.getStatus())) {
+            return userFileRepository.findById(session.getFileId())
+                .orElseThrow(() -> new CustomException("文件不存在"));
+        }
+        LocalDateTime now = LocalDateTime.now();
+        if (uploadSessionRepository.claimCompleting(uploadId, now, now.plusMinutes(completingLeaseMinutes)) == 0) {
+            throw new CustomException("上传会话正在合并，请稍后查询");
+        }
+
+        Path dir = sessionDir(uploadId);
+        Path merging = dir.resolve(MERGING_DIR);
+        Path assembled = null;
+        boolean completed = false;
+        try {
+            snapshotParts(dir, merging, session.getTotalChunks());
+            List<Integer> missing = new ArrayList<>();
+            for (int i = 0; i < session.getTotalChunks(); i++) {
+                if (!Files.isRegularFile(merging.resolve(i + PART_SUFFIX))) {
+                    missing.add(i);
+                }
+            }
+            if (!missing.isEmpty()) {
+                throw new CustomException("分片未上传完整，缺少 " + missing.size() + " 个分片");
+            }
+
+            assembled = blobStoreService.newTempFile();
+            try (FileChannel out = FileChannel.open(assembled, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (int i = 0; i < session.getTotalChunks(); i++) {
+                    try (FileChannel in = FileChannel.open(merging.resolve(i + PART_SUFFIX), StandardOpenOption.READ)) {
+                        long position = 0;
+                        long size = in.size();
+                        while (position < size) {
+                            position += in.transferTo(position, size - position, out);
+                        }
+                    }
+                }
+            }
+            if (Files.size(assembled) != session.getTotalSize()) {
+                throw new CustomException("合并后的文件大小不正确");
+            }
+
+            Path source = assembled;
+            UserFile file = transactionTemplate.execute(status -> {
+                try {
+                    UserFile stored = cloudDiskService.storeAssembledFile(userId, session.getFolderPath(), session.getFilename(),
+                        session.getConflictStrategy(), source, session.getExpectedHash(), session.getReservedBytes());
+                    uploadSessionRepository.markCompleted(uploadId, stored.getId(), UploadSession.STATUS_COMPLETED);
+                    return stored;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            completed = true;
+            deleteDirectory(dir);
+            return file;
+        } catch (UncheckedIOException e) {
+            restoreParts(dir, merging);
+            uploadSessionRepository.transitionStatus(uploadId, UploadSession.STATUS_COMPLETING, UploadSession.STATUS_UPLOADING);
+            throw e.getCause();
+        } catch (IllegalArgumentException e) {
+            restoreParts(dir, merging);
+            uploadSessionRepository.transitionStatus(uploadId, UploadSession.STATUS_COMPLETING, UploadSession.STATUS_UPLOADING);
+            throw new CustomException(e.getMessage());
+        } catch (RuntimeException | IOException e) {
+            if (!completed) {
+                restoreParts(dir, merging);
+                uploadSessionRepository.transitionStatus(uploadId, UploadSession.STATUS_COMPLETING, UploadSession.STATUS_UPLOADING);
+            }
+            throw e;
+        } finally {
+            if (assembled != null) {
+                Files.deleteIfExists(assembled);
+            }
+        }
+    }
+
+    /**
+     * 把会话目录中的分片移入合并目录；合并目录中已有的分片（上次合并中断时留下）被更新的分片替换
+     */
+    private void snapshotParts(Path dir, Path merging, int totalChunks) throws IOException {
+        Files.createDirectories(merging);
+        for (int i = 0; i < totalChunks; i++) {
+            Path part = dir.resolve(i + PART_SUFFIX);
+            if (Files.isRegularFile(part)) {
+                moveReplacing(part, merging.resolve(i + PART_SUFFIX));
+            }
+        }
+    }
+
+    /**
+     * 合并失败时把分片移回会话目录，合并期间重新上传的同序号分片优先保留
+     */
+    private void restoreParts(Path dir, Path merging) {
+        if (!Files.isDirectory(merging)) {
+            return;
+        }
+        try (Stream<Path> parts = Files.list(merging)) {
+            for (Path part : parts.toList()) {
+                Path target = dir.resolve(part.getFileName().toString());
+                if (Files.exists(target)) {
+                    Files.deleteIfExists(part);
+                } else {
+                    Files.move(part, target);
+                }
+            }
+        } catch (IOException e) {
+            // 留在合并目录中的分片在查询进度与下次合并时仍然有效
+            log.warn("恢复合并分片失败 - dir={}: {}", dir, e.getMessage());
+        }
+    }
+
+    private static void moveReplacing(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 放弃上传：删除分片并释放预留
+     */
+    public void abort(Long userId, String uploadId) throws IOException {
+        UploadSession session = requireSession(userId, uploadId);
+        if (UploadSession.STATUS_COMPLETING.equals(session.getStatus())) {
+            // 合并租约已过期（合并进程崩溃）时允许取消
+            if (uploadSessionRepository.recoverStaleCompleting(uploadId, LocalDateTime.now()) == 0) {
+                throw new CustomException("上传会话正在合并，无法取消");
+            }
+            session.setStatus(UploadSession.STATUS_UPLOADING);
+        }
+        if (!discard(session)) {
+            throw new CustomException("上传会话状态已变化，请刷新后重试");
+        }
+    }
+
+    /**
+     * 清理过期会话（长时间没有新分片），并恢复合并租约过期的会话
+     */
+    @Scheduled(fixedDelayString = "${app.cloud-disk.chunked-upload.cleanup-interval-ms:3600000}", initialDelay = 300000)
+    public void expireSessions() {
+        LocalDateTime now = LocalDateTime.now();
+        // 合并中断：文件记录与 COMPLETED 在同一事务中提交，仍为 COMPLETING 说明合并未生效，分片仍在，退回 UPLOADING
+        for (UploadSession stale : uploadSessionRepository.findStaleCompleting(now)) {
+            if (uploadSessionRepository.recoverStaleCompleting(stale.getUploadId(), now) > 0) {
+                log.warn("恢复合并中断的上传会话 - uploadId={}", stale.getUploadId());
+            }
+        }
+
+        List<UploadSession> expired = uploadSessionRepository.findByExpiresAtBefore(now);
+        int removed = 0;
+        for (UploadSession session : expired) {
+            if (UploadSession.STATUS_COMPLETING.equals(session.getStatus())) {
+                continue;
+            }
+            try {
+                if (discard(session)) {
+                    removed++;
+                }
+            } catch (Exception e) {
+                log.warn("清理过期上传会话失败 - uploadId={}: {}", session.getUploadId(), e.getMessage());
+            }
+        }
+        if (removed > 0) {
+            log.info("已清理过期上传会话 {} 个", removed);
+        }
+    }
+
+    /**
+     * 删除会话、释放预留并删除分片；会话状态在读取后被其他请求改变（如开始合并）时不做任何操作
+     * @return 是否已删除
+     */
+    private boolean discard(UploadSession session) throws IOException {
+        if (uploadSessionRepository.deleteIfStatus(session.getUploadId(), session.getStatus()) == 0) {
+            return false;
+        }
+        if (!UploadSession.STATUS_COMPLETED.equals(session.getStatus())) {
+            storageQuotaService.releaseDetached(session.getUserId(), session.getReservedBytes());
+        }
+        deleteDirectory(sessionDir(session.getUploadId()));
+        return true;
+    }
+
+    private UploadSession requireSession(Long userId, String uploadId) {
+        UploadSession session = uploadSessionRepository.findByUploadIdAndUserId(uploadId, userId)
+            .orElseThrow(() -> new CustomException("上传会话不存在或已过期"));
+        if (session.getExpiresAt().isBefore(LocalDateTime.now())
+                && !UploadSession.STATUS_COMPLETED.equals(session.getStatus())) {
+            throw new CustomException("上传会话已过期");
+        }
+        return session;
+    }
+
+    private SessionStatus toStatus(UploadSession session) throws IOException {
+        java.util.TreeSet<Integer> uploaded = new java.util.TreeSet<>();
+        Path dir = sessionDir(session.getUploadId());
+        // 合并中（或合并中断后）的分片位于合并目录
+        for (Path source : List.of(dir, dir.resolve(MERGING_DIR))) {
+            if (!Files.isDirectory(source)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.list(source)) {
+                files.map(p -> p.getFileName().toString())
+                    .filter(name -> name.endsWith(PART_SUFFIX))
+                    .forEach(name -> {
+                        try {
+                            uploaded.add(Integer.parseInt(name.substring(0, name.length() - PART_SUFFIX.length())));
+                        } catch (NumberFormatException ignore) {}
+                    });
+            }
+        }
+        return new SessionStatus(session.getUploadId(), session.getTotalSize(), session.getChunkSize(),
+            session.getTotalChunks(), new ArrayList<>(uploaded), session.getStatus(), session.getFileId());
+    }
+
+    private Path sessionDir(String uploadId) {
+        return Paths.get(storageProperties.getCloudDiskAbsolute()).resolve(UPLOAD_DIR).resolve(uploadId);
+    }
+
+    private void deleteDirectory(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path p : walk.sorted(java.util.Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.aispring.service;
+
+import com.aispring.dto.response.CursorPage;
+import com.aispring.dto.response.FileListItem;
+import com.aispring.dto.response.FolderListItem;
+import com.aispring.entity.UserFolder;
+import com.aispring.repository.UserFolderRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 云盘分页列表
+ * - 键集分页：按（排序列, id）定位下一页，翻页代价与页码无关，列表在翻页期间变化也不会重复或遗漏
+ * - 排序在数据库完成，(user_id, folder_id, deleted_at, 排序列) 复合索引同时覆盖过滤、排序与定位，
+ *   不限文件夹时使用 (user_id, deleted_at, 排序列, id)，每页只按主键读取当页的行
+ * - 排序列均为非空列，键集比较不会因 NULL 漏行
+ * - 只查询列表需要的列，返回投影 DTO 而不是实体
+ */
+@Service
+public class CloudDiskListingService {
+
+    private static final String FILE_COLUMNS = "SELECT id, filename, file_size, file_type, folder_id, upload_time FROM user_files ";
+    private static final String FOLDER_COLUMNS = "SELECT id, folder_name, parent_id, created_at FROM user_folders ";
+
+    /**
+     * 排序方式：列名只来自这里，不拼接客户端输入
+     */
+    private enum SortKey {
+        NAME("filename", "folder_name"),
+        SIZE("file_size", "folder_name"),
+        TIME("upload_time", "created_at");
+
+        private final String fileColumn;
+        private final String folderColumn;
+
+        SortKey(String fileColumn, String folderColumn) {
+            this.fileColumn = fileColumn;
+            this.folderColumn = folderColumn;
+        }
+
+        static SortKey parse(String sort) {
+            if (sort == null || sort.isBlank()) {
+                return TIME;
+            }
+            return switch (sort.trim().toLowerCase()) {
+                case "name", "filename", "folder_name" -> NAME;
+                case "size", "file_size" -> SIZE;
+                case "time", "upload_time", "created_at" -> TIME;
+                default -> throw new IllegalArgumentException("不支持的排序字段: " + sort);
+            };
+        }
+    }
+
+    /**
+     * 解析后的游标：上一页最后一行的排序值与 id
+     */
+    private record Cursor(SortKey sort, boolean ascending, long id, String value) {
+
+        String encode() {
+            String raw = sort.name() + ":" + (ascending ? "asc" : "desc") + ":" + id + ":" + value;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String token, SortKey sort, boolean ascending) {
+            Cursor cursor;
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+                String[] parts = raw.split(":", 4);
+                cursor = new Cursor(SortKey.valueOf(parts[0]), "asc".equals(parts[1]),
+                    Long.parseLong(parts[2]), parts[3]);
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("分页游标无效");
+            }
+            // 游标只能用于生成它的排序方式
+            if (cursor.sort != sort || cursor.ascending != ascending) {
+                throw new IllegalArgumentException("分页游标与排序方式不一致");
+            }
+            return cursor;
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final UserFolderRepository userFolderRepository;
+    private final FolderTreeService folderTreeService;
+
+    @Value("${app.cloud-disk.listing.default-limit:100}")
+    private int defaultLimit;
+
+    @Value("${app.cloud-disk.listing.max-limit:500}")
+    private int maxLimit;
+
+    public CloudDiskListingService(JdbcTemplate jdbcTemplate,
+                                   UserFolderRepository userFolderRepository,
+                                   FolderTreeService folderTreeService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.userFolderRepository = userFolderRepository;
+        this.folderTreeService = folderTreeService;
+    }
+
+    /**
+     * 分页列出文件
+     * @param folderId 文件夹 ID，优先于 folderPath
+     * @param folderPath 文件夹路径；folderId 与 folderPath 都为空时列出用户的全部文件
+     * @param sort name / size / time，默认 time
+     * @param order asc / desc，默认名称升序，大小与时间降序
+     * @param cursor 上一页返回的 nextCursor，为空表示第一页
+     */
+    public CursorPage<FileListItem> listFiles(Long userId, Long folderId, String folderPath,
+                                              String sort, String order, String cursor, Integer limit) {
+        SortKey sortKey = SortKey.parse(sort);
+        boolean ascending = isAscending(order, sortKey);
+        Cursor after = cursor == null || cursor.isBlank() ? null : Cursor.decode(cursor, sortKey, ascending);
+        int pageSize = pageSize(limit);
+
+        UserFolder folder = null;
+        if (folderId != null) {
+            folder = userFolderRepository.findByIdAndUser_Id(folderId, userId)
+                .orElseThrow(() -> new IllegalArgumentException("文件夹不存在"));
+        } else if (folderPath != null) {
+            Optional<UserFolder> found = folderTreeService.find(userId, folderPath);
+            if (found.isEmpty()) {
+                return new CursorPage<>(new ArrayList<>(), null, false);
+            }
+            folder = found.get();
+        }
+
+        StringBuilder sql = new StringBuilder(FILE_COLUMNS).append("WHERE user_id = ? AND deleted_at IS NULL");
+        List<Object> args = new ArrayList<>();
+        args.add(userId);
+        if (folder != null) {
+            sql.append(" AND folder_id = ?");
+            args.add(folder.getId());
+        }
+        appendKeyset(sql, args, sortKey.fileColumn, ascending, after, sortKey);
+        args.add(pageSize + 1);
+
+        List<FileListItem> items = jdbcTemplate.query(sql.toString(), (rs, rowNum) -> {
+            Long size = rs.getObject("file_size", Long.class);
+            Timestamp uploaded = rs.getTimestamp("upload_time");
+            return FileListItem.builder()
+                .id(rs.getLong("id"))
+                .filename(rs.getString("filename"))
+                .fileSize(size)
+                .fileType(rs.getString("file_type"))
+                .folderId(rs.getObject("folder_id", Long.class))
+                .uploadTime(uploaded == null ? null : uploaded.toLocalDateTime())
+                .build();
+        }, args.toArray());
+
+        boolean hasMore = items.size() > pageSize;
+        if (hasMore) {
+            items = new ArrayList<>(items.subList(0, pageSize));
+        }
+        if (folder != null) {
+            String path = folderTreeService.pathOf(folder);
+            items.forEach(item -> item.setFolderPath(path));
+        } else if (!items.isEmpty()) {
+            Map<Long, String> paths = folderTreeService.paths(userFolderRepository.findByUser_IdOrderByIdAsc(userId));
+            items.forEach(item -> item.setFolderPath(paths.getOrDefault(item.getFolderId(), "/")));
+        }
+
+        String next = null;
+        if (hasMore) {
+            FileListItem last = items.get(items.size() - 1);
+            String value = switch (sortKey) {
+                case NAME -> last.getFilename();
+                case SIZE -> String.valueOf(last.getFileSize() == null ? 0L : last.getFileSize());
+                case TIME -> String.valueOf(last.getUploadTime());
+            };
+            next = new Cursor(sortKey, ascending, last.getId(), value).encode();
+        }
+        return new CursorPage<>(items, next, hasMore);
+    }
+
+    /**
+     * 分页列出子文件夹
+     * @param parentId 父文件夹 ID，优先于 parentPath；都为空时列出根目录下的文件夹
+     * @param sort name / time（文件夹没有大小，size 按名称排序）
+     */
+    public CursorPage<FolderListItem> listFolders(Long userId, Long parentId, String parentPath,
+                                                  String sort, String order, String cursor, Integer limit) {
+        SortKey sortKey = SortKey.parse(sort);
+        if (sortKey == SortKey.SIZE) {
+            sortKey = SortKey.NAME;
+        }
+        boolean ascending = isAscending(order, sortKey);
+        Cursor after = cursor == null || cursor.isBlank() ? null : Cursor.decode(cursor, sortKey, ascending);
+        int pageSize = pageSize(limit);
+
+        Optional<UserFolder> parent = parentId != null
+            ? userFolderRepository.findByIdAndUser_Id(parentId, userId)
+            : folderTreeService.find(userId, parentPath);
+        if (parent.isEmpty()) {
+            if (parentId != null) {
+                throw new IllegalArgumentException("文件夹不存在");
+            }
+            return new CursorPage<>(new ArrayList<>(), null, false);
+        }
+
+        StringBuilder sql = new StringBuilder(FOLDER_COLUMNS)
+            .append("WHERE user_id = ? AND parent_id = ? AND deleted_at IS NULL");
+        List<Object> args = new ArrayList<>();
+        args.add(userId);
+        args.add(parent.get().getId());
+        appendKeyset(sql, args, sortKey.folderColumn, ascending, after, sortKey);
+        args.add(pageSize + 1);
+
+        String basePath = folderTreeService.pathOf(parent.get());
+        List<FolderListItem> items = jdbcTemplate.query(sql.toString(), (rs, rowNum) -> {
+            Timestamp created = rs.getTimestamp("created_at");
+            String name = rs.getString("folder_name");
+            return FolderListItem.builder()
+                .id(rs.getLong("id"))
+                .folderName(name)
+                .parentId(rs.getLong("parent_id"))
+                .folderPath(FolderTreeService.join(basePath, name))
+                .createdAt(created == null ? null : created.toLocalDateTime())
+                .build();
+        }, args.toArray());
+
+        boolean hasMore = items.size() > pageSize;
+        if (hasMore) {
+            items = new ArrayList<>(items.subList(0, pageSize));
+        }
+        String next = null;
+        if (hasMore) {
+            FolderListItem last = items.get(items.size() - 1);
+            String value = sortKey == SortKey.TIME ? String.valueOf(last.getCreatedAt()) : last.getFolderName();
+            next = new Cursor(sortKey, ascending, last.getId(), value).encode();
+        }
+        return new CursorPage<>(items, next, hasMore);
+    }
+
+    /**
+     * 追加键集条件与排序：(col, id) 严格位于游标之后；行构造器比较可以直接用于索引范围扫描
+     */
+    private static void appendKeyset(StringBuilder sql, List<Object> args, String column, boolean ascending,
+                                     Cursor after, SortKey sortKey) {
+        String op = ascending ? ">" : "<";
+        String dir = ascending ? "ASC" : "DESC";
+        if (after != null) {
+            sql.append(" AND (").append(column).append(", id) ").append(op).append(" (?, ?)");
+            args.add(cursorValue(sortKey, after.value()));
+            args.add(after.id());
+        }
+        sql.append(" ORDER BY ").append(column).append(' ').append(dir).append(", id ").append(dir).append(" LIMIT ?");
+    }
+
+    private static Object cursorValue(SortKey sortKey, String value) {
+        try {
+            return switch (sortKey) {
+                case NAME -> value;
+                case SIZE -> Long.parseLong(value);
+                case TIME -> Timestamp.valueOf(LocalDateTime.parse(value));
+            };
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("分页游标无效");
+        }
+    }
+
+    /**
+     * 未指定顺序时名称升序，大小与时间降序
+     */
+    private static boolean isAscending(String order, SortKey sortKey) {
+        if (order == null || order.isBlank()) {
+            return sortKey == SortKey.NAME;
+        }
+        return order.trim().equalsIgnoreCase("asc");
+    }
+
+    private int pageSize(Integer limit) {
+        if (limit == null || limit <= 0) {
+            return defaultLimit;
+        }
+        return Math.min(limit, maxLimit);
+    }
+}
@@ -0,0 +1,303 @@
+package com.aispring.service;
+
+import com.aispring.config.StorageProperties;
+import com.aispring.entity.User;
+import com.aispring.entity.UserFile;
+import com.aispring.entity.UserFolder;
+import com.aispring.repository.UserFileRepository;
+import com.aispring.repository.UserFolderRepository;
+import com.aispring.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 云盘回收站
+ * - 删除文件夹时用一条多表 UPDATE 把整个子树（文件夹与文件）标记为已删除，请求立即返回
+ * - 保留期内可恢复；原位置已不存在时恢复到根目录，重名时自动追加序号
+ * - 后台任务在保留期后分块清理：每块独立事务，块间暂停，先清理文件再自下而上清理文件夹
+ * - 回收站中的文件仍占用配额，物理清理时才释放
+ */
+@Service
+@Slf4j
+public class CloudDiskTrashService {
+
+    private final UserFileRepository userFileRepository;
+    private final UserFolderRepository userFolderRepository;
+    private final UserRepository userRepository;
+    private final FolderTreeService folderTreeService;
+    private final BlobStoreService blobStoreService;
+    private final StorageQuotaService storageQuotaService;
+    private final StorageProperties storageProperties;
+    private final StorageIntentLog intentLog;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${app.cloud-disk.trash.retention-days:30}")
+    private int retentionDays;
+
+    @Value("${app.cloud-disk.trash.chunk-size:200}")
+    private int chunkSize;
+
+    @Value("${app.cloud-disk.trash.chunk-pause-ms:50}")
+    private long chunkPauseMs;
+
+    /**
+     * 回收站条目
+     * @param type file 或 folder
+     * @param size 文件大小，文件夹为空
+     * @param expiresAt 预计被清理的时间
+     */
+    public record TrashEntry(String type, Long id, String name, Long size,
+                             LocalDateTime deletedAt, LocalDateTime expiresAt) {}
+
+    public CloudDiskTrashService(UserFileRepository userFileRepository,
+                                 UserFolderRepository userFolderRepository,
+                                 UserRepository userRepository,
+                                 FolderTreeService folderTreeService,
+                                 BlobStoreService blobStoreService,
+                                 StorageQuotaService storageQuotaService,
+                                 StorageProperties storageProperties,
+                                 StorageIntentLog intentLog,
+                                 PlatformTransactionManager transactionManager) {
+        this.userFileRepository = userFileRepository;
+        this.userFolderRepository = userFolderRepository;
+        this.userRepository = userRepository;
+        this.folderTreeService = folderTreeService;
+        this.blobStoreService = blobStoreService;
+        this.storageQuotaService = storageQuotaService;
+        this.storageProperties = storageProperties;
+        this.intentLog = intentLog;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * 删除时间精确到微秒（与 DATETIME(6) 一致），恢复时按相等比较找回同一次删除的子项
+     */
+    private static LocalDateTime now() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+    }
+
+    /**
+     * 把文件夹子树移入回收站
+     * @return 被标记的文件夹与文件行数
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public int trashFolder(Long userId, Long folderId) {
+        UserFolder folder = userFolderRepository.findByIdAndUser_Id(folderId, userId)
+            .orElseThrow(() -> new IllegalArgumentException("文件夹不存在"));
+        if (folder.getParentId() == null) {
+            throw new IllegalArgumentException("不能删除根目录");
+        }
+        return userFolderRepository.trashSubtree(folder.getId(), now());
+    }
+
+    /**
+     * 把单个文件移入回收站
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void trashFile(Long userId, Long fileId) {
+        if (userFileRepository.trash(fileId, userId, now()) == 0) {
+            throw new IllegalArgumentException("文件不存在");
+        }
+    }
+
+    /**
+     * 回收站列表：每次删除只列出一条（文件夹子树只列根）
+     */
+    public List<TrashEntry> list(Long userId) {
+        List<TrashEntry> entries = new ArrayList<>();
+        for (UserFolder folder : userFolderRepository.findTrashRoots(userId)) {
+            entries.add(new TrashEntry("folder", folder.getId(), folder.getFolderName(), null,
+                folder.getDeletedAt(), folder.getDeletedAt().plusDays(retentionDays)));
+        }
+        for (UserFile file : userFileRepository.findTrashRoots(userId)) {
+            entries.add(new TrashEntry("file", file.getId(), file.getFilename(), file.getFileSize(),
+                file.getDeletedAt(), file.getDeletedAt().plusDays(retentionDays)));
+        }
+        entries.sort((a, b) -> b.deletedAt().compareTo(a.deletedAt()));
+        return entries;
+    }
+
+    /**
+     * 恢复文件夹及同一次删除的子项；原父文件夹已不存在时恢复到根目录
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public UserFolder restoreFolder(Long userId, Long folderId) {
+        UserFolder trashed = userFolderRepository.findTrashedByIdAndUserId(folderId, userId)
+            .orElseThrow(() -> new IllegalArgumentException("回收站中不存在该文件夹"));
+        User user = userRepository.findById(userId)
+            .orElseThrow(() -> new IllegalArgumentException("用户不存在"));
+        Optional<UserFolder> originalParent = trashed.getParentId() == null
+            ? Optional.empty()
+            : userFolderRepository.findById(trashed.getParentId());
+        UserFolder parent = originalParent.orElseGet(() -> folderTreeService.root(user));
+
+        // 仍处于删除状态时先改名，避免恢复时与同级文件夹冲突
+        String name = freeFolderName(userId, parent.getId(), trashed.getFolderName());
+        if (!name.equals(trashed.getFolderName())) {
+            userFolderRepository.renameTrashed(trashed.getId(), name);
+        }
+        userFolderRepository.restoreSubtree(trashed.getId(), trashed.getDeletedAt());
+
+        UserFolder restored = userFolderRepository.findById(trashed.getId())
+            .orElseThrow(() -> new IllegalStateException("恢复文件夹失败: " + folderId));
+        if (originalParent.isEmpty()) {
+            folderTreeService.move(restored, parent);
+        }
+        return folderTreeService.withPath(restored);
+    }
+
+    /**
+     * 恢复单个文件；所在文件夹已不存在时恢复到根目录
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public UserFile restoreFile(Long userId, Long fileId) {
+        UserFile trashed = userFileRepository.findTrashedByIdAndUserId(fileId, userId)
+            .orElseThrow(() -> new IllegalArgumentException("回收站中不存在该文件"));
+        User user = userRepository.findById(userId)
+            .orElseThrow(() -> new IllegalArgumentException("用户不存在"));
+        UserFolder folder = (trashed.getFolderId() == null
+            ? Optional.<UserFolder>empty()
+            : userFolderRepository.findById(trashed.getFolderId()))
+            .orElseGet(() -> folderTreeService.root(user));
+
+        String name = freeFileName(userId, folder.getId(), trashed.getFilename());
+        userFileRepository.restore(trashed.getId(), folder.getId(), name);
+
+        UserFile restored = userFileRepository.findById(trashed.getId())
+            .orElseThrow(() -> new IllegalStateException("恢复文件失败: " + fileId));
+        restored.setFolderPath(folderTreeService.pathOf(folder));
+        return restored;
+    }
+
+    private String freeFolderName(Long userId, Long parentId, String name) {
+        String candidate = name;
+        int i = 1;
+        while (userFolderRepository.existsByUser_IdAndParentIdAndFolderName(userId, parentId, candidate)) {
+            candidate = name + "(" + i + ")";
+            i++;
+        }
+        return candidate;
+    }
+
+    private String freeFileName(Long userId, Long folderId, String name) {
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        String candidate = name;
+        int i = 1;
+        while (userFileRepository.existsByUser_IdAndFolderIdAndFilename(userId, folderId, candidate)) {
+            candidate = base + "(" + i + ")" + ext;
+            i++;
+        }
+        return candidate;
+    }
+
+    /**
+     * 定时清理超过保留期的回收站内容
+     */
+    @Scheduled(fixedDelayString = "${app.cloud-disk.trash.reap-interval-ms:600000}", initialDelay = 180000)
+    public void reap() {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(retentionDays);
+        long start = System.currentTimeMillis();
+        int files = 0;
+        int folders = 0;
+        try {
+            int reaped;
+            do {
+                reaped = reapFileChunk(cutoff);
+                files += reaped;
+                pause(reaped);
+            } while (reaped >= chunkSize);
+            do {
+                reaped = reapFolderChunk(cutoff);
+                folders += reaped;
+                pause(reaped);
+            } while (reaped > 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("回收站清理失败，将在下次调度时继续", e);
+        }
+        if (files > 0 || folders > 0) {
+            log.info("回收站清理完成 - 文件={}, 文件夹={}, 耗时 {} ms",
+                files, folders, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * 清理一块文件：同一事务内释放数据块引用、扣减配额并删除记录，提交后再删除旧布局的物理文件
+     */
+    private int reapFileChunk(LocalDateTime cutoff) {
+        List<Path> legacyPaths = new ArrayList<>();
+        Integer reaped = transactionTemplate.execute(status -> {
+            List<UserFile> chunk = userFileRepository.findReapable(cutoff, chunkSize);
+            if (chunk.isEmpty()) {
+                return 0;
+            }
+            Map<Long, Long> freed = new HashMap<>();
+            List<Long> ids = new ArrayList<>(chunk.size());
+            for (UserFile file : chunk) {
+                Long userId = file.getUser().getId();
+                if (file.getContentHash() != null) {
+                    blobStoreService.release(file.getContentHash());
+                } else if (file.getFilepath() != null) {
+                    // 与下载相同的定位规则，历史布局中的旧文件也能被删除
+                    Path legacy = CloudDiskService.findLegacyFile(storageProperties.getCloudDiskAbsolute(),
+                        file.getFilepath(), userId);
+                    if (legacy != null) {
+                        legacyPaths.add(legacy);
+                    }
+                }
+                freed.merge(userId, file.getFileSize() == null ? 0L : file.getFileSize(), Long::sum);
+                ids.add(file.getId());
+            }
+            userFileRepository.deleteTrashed(ids);
+            freed.forEach((userId, bytes) -> storageQuotaService.adjustUsed(userId, -bytes));
+            return chunk.size();
+        });
+        for (Path path : legacyPaths) {
+            try (StorageIntentLog.Intent intent = intentLog.begin(StorageIntentLog.OP_DELETE, path)) {
+                Files.deleteIfExists(path);
+            } catch (Exception e) {
+                log.warn("删除回收站文件失败: {} - {}", path, e.getMessage());
+            }
+        }
+        return reaped == null ? 0 : reaped;
+    }
+
+    /**
+     * 清理一块文件夹：只清理已没有文件和子文件夹的，逐轮自下而上
+     */
+    private int reapFolderChunk(LocalDateTime cutoff) {
+        Integer reaped = transactionTemplate.execute(status -> {
+            List<Long> ids = userFolderRepository.findReapableIds(cutoff, chunkSize);
+            if (ids.isEmpty()) {
+                return 0;
+            }
+            userFolderRepository.deleteClosure(ids);
+            return userFolderRepository.deleteTrashed(ids);
+        });
+        return reaped == null ? 0 : reaped;
+    }
+
+    private void pause(int reaped) throws InterruptedException {
+        if (reaped > 0 && chunkPauseMs > 0) {
+            Thread.sleep(chunkPauseMs);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.aispring.service;
+
+import com.aispring.repository.UserFileRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * 内容哈希回填任务（同时是旧存储布局的迁移任务）
+ * 分批为尚无 content_hash 的旧文件计算 SHA-256 并从任一历史目录布局迁入数据块存储，
+ * 完成后这些文件也能参与去重与秒传，并且只需一次文件检查即可定位；
+ * 每轮处理一批，按ID游标推进，已迁移的文件不再被查出，因此中断后可直接续跑
+ */
+@Service
+@Slf4j
+public class ContentHashBackfillService {
+
+    private final UserFileRepository userFileRepository;
+    private final CloudDiskService cloudDiskService;
+
+    @Value("${app.cloud-disk.hash-backfill.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.cloud-disk.hash-backfill.batch-size:100}")
+    private int batchSize;
+
+    /** 下一轮从该ID之后继续；一遍扫描结束后归零，重试物理文件暂时缺失的记录 */
+    private volatile long cursor = 0;
+
+    /** 手动触发的完整一遍迁移，即使定时回填被禁用也会执行到本遍结束 */
+    private volatile boolean fullPassRequested = false;
+
+    public ContentHashBackfillService(UserFileRepository userFileRepository, CloudDiskService cloudDiskService) {
+        this.userFileRepository = userFileRepository;
+        this.cloudDiskService = cloudDiskService;
+    }
+
+    /**
+     * 从头开始一遍迁移（由下一轮定时任务在后台执行）
+     */
+    public void requestFullPass() {
+        cursor = 0;
+        fullPassRequested = true;
+        log.info("已请求完整的旧存储布局迁移");
+    }
+
+    @Scheduled(fixedDelayString = "${app.cloud-disk.hash-backfill.interval-ms:60000}", initialDelay = 120000)
+    public void backfillBatch() {
+        if (!enabled && !fullPassRequested) {
+            return;
+        }
+        List<Long> ids = userFileRepository.findIdsWithoutContentHash(cursor, PageRequest.of(0, batchSize));
+        if (ids.isEmpty()) {
+            if (cursor > 0 || fullPassRequested) {
+                log.info("文件内容哈希回填一遍结束 - 剩余未迁移={}", userFileRepository.countByContentHashIsNull());
+            }
+            cursor = 0;
+            fullPassRequested = false;
+            return;
+        }
+        int done = 0;
+        for (Long id : ids) {
+            try {
+                if (cloudDiskService.backfillContentHash(id)) {
+                    done++;
+                }
+            } catch (Exception e) {
+                log.warn("文件内容哈希回填失败 - fileId={}: {}", id, e.getMessage());
+            }
+        }
+        cursor = ids.get(ids.size() - 1);
+        log.info("文件内容哈希回填 - 本批={}, 成功={}, 游标={}", ids.size(), done, cursor);
+    }
+}
@@ -0,0 +1,303 @@
+package com.aispring.service;
+
+import com.aispring.entity.EmailOutbox;
+import com.aispring.repository.EmailOutboxRepository;
+import com.aispring.util.EmailUtil;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 邮件发件箱服务
+ * 1. 业务方在自己的事务中调用 enqueue，只写一行发件箱记录，HTTP 请求不再等待 SMTP
+ * 2. 事务提交后唤醒投递线程，按批次发送（同一批次复用一个 SMTP 连接）
+ * 3. 发送失败按指数退避重试，超过最大次数标记为 FAILED
+ * 4. 认领时写入租约，只有租约过期的“发送中”邮件才会被恢复，多实例启动时不会重复投递
+ * 5. 验证码邮件只保存带占位符的正文和验证码用途，发送时从验证码存储读取验证码填入，验证码不落库；
+ *    验证码已过期、已使用或已作废时不再发送
+ */
+@Service
+@Slf4j
+public class EmailOutboxService {
+
+    /** 验证码邮件正文中的占位符 */
+    static final String CODE_PLACEHOLDER = "{code}";
+
+    private final EmailOutboxRepository emailOutboxRepository;
+    private final EmailUtil emailUtil;
+    private final VerificationCodeStore verificationCodeStore;
+
+    /** 单投递线程；队列容量为 1，多次唤醒合并为一次 */
+    private final ThreadPoolExecutor dispatchExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1), r -> {
+                Thread t = new Thread(r);
+                t.setName("email-outbox");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    private final ReentrantLock dispatchLock = new ReentrantLock();
+
+    @Value("${app.mail.outbox.batch-size:20}")
+    private int batchSize;
+
+    @Value("${app.mail.outbox.max-attempts:6}")
+    private int maxAttempts;
+
+    @Value("${app.mail.outbox.retry-base-seconds:10}")
+    private long retryBaseSeconds;
+
+    @Value("${app.mail.outbox.lease-seconds:300}")
+    private long leaseSeconds;
+
+    @Value("${app.mail.outbox.retention-days:7}")
+    private int retentionDays;
+
+    public EmailOutboxService(EmailOutboxRepository emailOutboxRepository, EmailUtil emailUtil,
+                              VerificationCodeStore verificationCodeStore) {
+        this.emailOutboxRepository = emailOutboxRepository;
+        this.emailUtil = emailUtil;
+        this.verificationCodeStore = verificationCodeStore;
+    }
+
+    @PreDestroy
+    public void shutdownExecutor() {
+        dispatchExecutor.shutdownNow();
+    }
+
+    /**
+     * 写入验证码邮件：只保存验证码用途，验证码在发送时从验证码存储读取
+     */
+    public void enqueueVerificationCode(String toEmail, String usage, String purpose) {
+        save(EmailOutbox.builder()
+                .toEmail(toEmail)
+                .subject(emailUtil.buildVerificationEmailSubject(purpose))
+                .content(emailUtil.buildVerificationEmailContent(CODE_PLACEHOLDER, purpose))
+                .codeUsage(usage)
+                .build());
+    }
+
+    /**
+     * 写入一封邮件；在调用方事务中执行，事务提交后才会投递
+     */
+    public void enqueue(String toEmail, String subject, String content) {
+        save(EmailOutbox.builder()
+                .toEmail(toEmail)
+                .subject(subject)
+                .content(content)
+                .build());
+    }
+
+    private void save(EmailOutbox mail) {
+        emailOutboxRepository.save(mail);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    wakeUp();
+                }
+            });
+        } else {
+            wakeUp();
+        }
+    }
+
+    /**
+     * 唤醒投递线程（非阻塞）
+     */
+    public void wakeUp() {
+        dispatchExecutor.execute(this::dispatchPending);
+    }
+
+    /**
+     * 启动时恢复租约已过期的“发送中”邮件（上次进程或其他失联实例遗留）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverOnStartup() {
+        recoverExpiredLeases();
+        wakeUp();
+    }
+
+    /**
+     * 定时唤醒，处理到期的重试与过期租约
+     */
+    @Scheduled(fixedDelayString = "${app.mail.outbox.poll-interval-ms:10000}", initialDelay = 15000)
+    public void pollDueRetries() {
+        recoverExpiredLeases();
+        wakeUp();
+    }
+
+    void recoverExpiredLeases() {
+        try {
+            int recovered = emailOutboxRepository.resetExpiredLeases(LocalDateTime.now());
+            if (recovered > 0) {
+                log.info("恢复 {} 封租约过期的未完成投递邮件", recovered);
+            }
+        } catch (Exception e) {
+            log.error("恢复发件箱失败", e);
+        }
+    }
+
+    /**
+     * 清理已发送的历史记录
+     */
+    @Scheduled(cron = "${app.mail.outbox.cleanup-cron:0 30 3 * * ?}")
+    public void cleanupSent() {
+        try {
+            int deleted = emailOutboxRepository.deleteSentBefore(LocalDateTime.now().minusDays(retentionDays));
+            if (deleted > 0) {
+                log.info("清理已发送邮件记录 {} 条", deleted);
+            }
+        } catch (Exception e) {
+            log.error("清理发件箱失败", e);
+        }
+    }
+
+    void dispatchPending() {
+        if (!dispatchLock.tryLock()) {
+            return;
+        }
+        try {
+            while (true) {
+                List<EmailOutbox> due = emailOutboxRepository.findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(
+                        EmailOutbox.STATUS_PENDING, LocalDateTime.now(), PageRequest.of(0, batchSize));
+                if (due.isEmpty()) {
+                    return;
+                }
+                // 逐条认领，多实例部署时同一封邮件只会被一个实例发送
+                LocalDateTime leaseUntil = LocalDateTime.now().plusSeconds(leaseSeconds);
+                List<EmailOutbox> claimed = new ArrayList<>(due.size());
+                for (EmailOutbox mail : due) {
+                    if (emailOutboxRepository.claim(List.of(mail.getId()), leaseUntil) == 1) {
+                        mail.setStatus(EmailOutbox.STATUS_SENDING);
+                        mail.setLeaseUntil(leaseUntil);
+                        claimed.add(mail);
+                    }
+                }
+                if (!claimed.isEmpty()) {
+                    sendBatch(claimed);
+                }
+                if (due.size() < batchSize) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            log.error("邮件投递失败", e);
+        } finally {
+            dispatchLock.unlock();
+        }
+    }
+
+    private void sendBatch(List<EmailOutbox> batch) {
+        LocalDateTime now = LocalDateTime.now();
+        List<EmailOutbox> updated = new ArrayList<>(batch.size());
+        List<EmailOutbox> sending = new ArrayList<>(batch.size());
+        List<SimpleMailMessage> messages = new ArrayList<>(batch.size());
+        for (EmailOutbox mail : batch) {
+            String content;
+            try {
+                content = render(mail);
+            } catch (Exception e) {
+                // 验证码存储暂不可用，按发送失败退避重试
+                mail.setLeaseUntil(null);
+                markFailed(mail, e, now);
+                updated.add(mail);
+                continue;
+            }
+            if (content == null) {
+                mail.setLeaseUntil(null);
+                mail.setStatus(EmailOutbox.STATUS_FAILED);
+                mail.setLastError("验证码已过期或已使用，不再发送");
+                log.info("验证码已失效，跳过验证码邮件 - to={}", mail.getToEmail());
+                updated.add(mail);
+                continue;
+            }
+            SimpleMailMessage message = new SimpleMailMessage();
+            message.setTo(mail.getToEmail());
+            message.setSubject(mail.getSubject());
+            message.setText(content);
+            sending.add(mail);
+            messages.add(message);
+        }
+
+        Map<Object, Exception> failed = Collections.emptyMap();
+        Exception batchError = null;
+        if (!messages.isEmpty()) {
+            try {
+                emailUtil.sendBatch(messages.toArray(new SimpleMailMessage[0]));
+            } catch (MailSendException e) {
+                failed = e.getFailedMessages();
+                if (failed.isEmpty()) {
+                    batchError = e;
+                }
+            } catch (Exception e) {
+                // 连接或认证失败，整批重试
+                batchError = e;
+            }
+        }
+
+        now = LocalDateTime.now();
+        for (int i = 0; i < sending.size(); i++) {
+            EmailOutbox mail = sending.get(i);
+            mail.setLeaseUntil(null);
+            Exception error = batchError != null ? batchError : failed.get(messages.get(i));
+            if (error == null) {
+                mail.setStatus(EmailOutbox.STATUS_SENT);
+                mail.setSentAt(now);
+                mail.setLastError(null);
+                log.info("邮件已发送到: {}", mail.getToEmail());
+            } else {
+                markFailed(mail, error, now);
+            }
+            updated.add(mail);
+        }
+        emailOutboxRepository.saveAll(updated);
+    }
+
+    /**
+     * 生成发送用的正文：验证码邮件从验证码存储读取当前验证码，验证码已失效时返回 null
+     */
+    private String render(EmailOutbox mail) {
+        if (mail.getCodeUsage() == null) {
+            return mail.getContent();
+        }
+        String code = verificationCodeStore.peek(mail.getCodeUsage(), mail.getToEmail());
+        return code != null ? mail.getContent().replace(CODE_PLACEHOLDER, code) : null;
+    }
+
+    private void markFailed(EmailOutbox mail, Exception error, LocalDateTime now) {
+        int attempts = mail.getAttempts() + 1;
+        mail.setAttempts(attempts);
+        String message = error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+        mail.setLastError(message.length() > 500 ? message.substring(0, 500) : message);
+        if (attempts >= maxAttempts) {
+            mail.setStatus(EmailOutbox.STATUS_FAILED);
+            log.error("邮件发送失败且不再重试 - to={}, attempts={}: {}", mail.getToEmail(), attempts, message);
+        } else {
+            long delay = retryBaseSeconds * (1L << Math.min(attempts - 1, 10));
+            mail.setStatus(EmailOutbox.STATUS_PENDING);
+            mail.setNextAttemptAt(now.plusSeconds(delay));
+            log.warn("邮件发送失败，{} 秒后重试 - to={}, attempts={}: {}", delay, mail.getToEmail(), attempts, message);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.aispring.service;
+
+import com.aispring.entity.User;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 文件夹批量导入（文件夹上传、ZIP 上传共用）
+ * - 每次导入开始时一次性加载用户已有的文件夹路径索引，缺失的父目录在内存中判断，不再逐条查询
+ * - 文件记录攒批后用多行 INSERT 写入（IDENTITY 主键下 Hibernate 的批量插入不生效）；
+ *   新文件夹需要立即拿到 ID 供子项引用，随用随建（数量远少于文件）
+ * - 按条目数 / 字节数分段提交：每段的数据块引用、文件记录与配额提交在同一事务中，
+ *   失败时只回滚当前段，之前已提交的文件保留
+ */
+@Service
+@Slf4j
+public class FolderIngestService {
+
+    /** 单条 INSERT 语句的最大行数 */
+    private static final int ROWS_PER_STATEMENT = 500;
+
+    private static final String FILE_INSERT =
+        "INSERT INTO user_files (user_id, filename, original_filename, file_path, file_size, file_type, " +
+        "folder_id, content_hash, upload_time, modified_at) VALUES ";
+    private static final String FILE_ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * 文件内容写入（流式写入数据块并增加一次引用）
+     */
+    @FunctionalInterface
+    public interface ContentSource {
+        BlobStoreService.StoredBlob write() throws IOException;
+    }
+
+    /**
+     * 分段提交回调：在分段事务提交前执行，调用方可在同一事务中记录进度
+     * @param files 本次导入累计已提交（含当前段）的文件数
+     * @param bytes 本次导入累计已提交（含当前段）的字节数
+     */
+    @FunctionalInterface
+    public interface ChunkListener {
+        void beforeCommit(int files, long bytes);
+    }
+
+    /**
+     * 导入结果
+     * @param filesPerSecond 整个导入过程的平均速度
+     */
+    public record Result(int files, int folders, long bytes, long millis, double filesPerSecond) {}
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final FolderTreeService folderTreeService;
+    private final StorageQuotaService storageQuotaService;
+
+    @Value("${app.cloud-disk.ingest.chunk-files:500}")
+    private int chunkFiles;
+
+    @Value("${app.cloud-disk.ingest.chunk-bytes:268435456}")
+    private long chunkBytes;
+
+    public FolderIngestService(JdbcTemplate jdbcTemplate,
+                               PlatformTransactionManager transactionManager,
+                               FolderTreeService folderTreeService,
+                               StorageQuotaService storageQuotaService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionManager = transactionManager;
+        this.folderTreeService = folderTreeService;
+        this.storageQuotaService = storageQuotaService;
+    }
+
+    /**
+     * 开始一次导入；调用方负责 finish()，并在 try-with-resources 中关闭以回滚未提交的分段
+     * @param targetFolder 导入到的文件夹路径，空表示根目录
+     */
+    public Session open(User user, String targetFolder) {
+        folderTreeService.root(user);
+        Map<String, Long> known = folderTreeService.pathIndex(user.getId());
+        Session session = new Session(user, joinPath("/", targetFolder), known);
+        session.ensureFolder(session.root);
+        return session;
+    }
+
+    /**
+     * 拼接并规范化文件夹路径：统一分隔符，去掉空段、"." 与 ".."，结果以 / 开头且不以 / 结尾
+     */
+    static String joinPath(String base, String relative) {
+        StringBuilder sb = new StringBuilder();
+        appendSegments(sb, base);
+        appendSegments(sb, relative);
+        return sb.length() == 0 ? "/" : sb.toString();
+    }
+
+    private static void appendSegments(StringBuilder sb, String path) {
+        if (path == null) {
+            return;
+        }
+        for (String segment : path.replace('\\', '/').split("/")) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+                continue;
+            }
+            sb.append('/').append(segment);
+        }
+    }
+
+    private static String normalizeMime(String mime) {
+        if (mime == null || mime.isEmpty()) {
+            return null;
+        }
+        int semi = mime.indexOf(';');
+        if (semi > 0) mime = mime.substring(0, semi).trim();
+        if (mime.length() > 50) mime = mime.substring(0, 50);
+        return mime;
+    }
+
+    /**
+     * 一次导入的状态；非线程安全。分段回滚后（异常抛出）会话不可继续使用
+     */
+    public final class Session implements AutoCloseable {
+
+        private final User user;
+        private final String root;
+        private final Map<String, Long> knownFolders;
+        private final long startNanos = System.nanoTime();
+
+        private final List<Object[]> pendingFiles = new ArrayList<>();
+        private TransactionStatus chunkTx;
+        private StorageQuotaService.Reservation chunkReservation;
+        private long chunkUsedBytes;
+        private ChunkListener chunkListener;
+
+        private int files;
+        private int folders;
+        private long bytes;
+
+        private Session(User user, String root, Map<String, Long> knownFolders) {
+            this.user = user;
+            this.root = root;
+            this.knownFolders = knownFolders;
+        }
+
+        public void setChunkListener(ChunkListener chunkListener) {
+            this.chunkListener = chunkListener;
+        }
+
+        /**
+         * 确保相对导入根目录的文件夹存在（目录条目）
+         */
+        public void addFolder(String relativeDir) {
+            beginChunk();
+            ensureFolder(joinPath(root, relativeDir));
+        }
+
+        /**
+         * 导入一个文件
+         * @param relativePath 相对导入根目录的路径（含文件名）
+         * @param contentType 客户端提供的类型，为空时按文件名推断
+         * @param declaredSize 写入前已知的内容大小，用于在写入数据块之前预留配额
+         */
+        public void addFile(String relativePath, String contentType, long declaredSize,
+                            ContentSource source) throws IOException {
+            String normalized = joinPath("/", relativePath);
+            int slash = normalized.lastIndexOf('/');
+            String filename = normalized.substring(slash + 1);
+            if (filename.isEmpty()) {
+                return;
+            }
+            String folderPath = joinPath(root, normalized.substring(0, slash));
+
+            beginChunk();
+            // 先按声明大小预留，超出配额时不写入数据块；多预留的部分在分段提交时释放
+            long reserved = Math.max(declaredSize, 0);
+            chunkReservation.extend(reserved);
+            BlobStoreService.StoredBlob blob = source.write();
+            // 实际内容比声明的大时补齐预留，超出配额时当前分段回滚，已写入的数据块由回收任务清理
+            chunkReservation.extend(blob.size() - reserved);
+            Long folderId = ensureFolder(folderPath);
+
+            String extension = filename.contains(".") ? filename.substring(filename.lastIndexOf('.')) : "";
+            String uniqueFilename = UUID.randomUUID() + extension;
+            String mime = normalizeMime(contentType);
+            if (mime == null) {
+                try {
+                    mime = normalizeMime(Files.probeContentType(Paths.get(uniqueFilename)));
+                } catch (Exception ignore) {
+                    // 无法推断时留空
+                }
+            }
+            String filepath = folderPath.equals("/") ? "/" + uniqueFilename : folderPath + "/" + uniqueFilename;
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            pendingFiles.add(new Object[]{user.getId(), filename, filename, filepath, blob.size(), mime,
+                folderId, blob.hash(), now, now});
+            chunkUsedBytes += blob.size();
+            files++;
+            bytes += blob.size();
+
+            if (pendingFiles.size() >= chunkFiles || chunkUsedBytes >= chunkBytes) {
+                commitChunk();
+            }
+        }
+
+        /**
+         * 提交最后一段并返回统计
+         */
+        public Result finish() {
+            commitChunk();
+            long millis = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+            Result result = new Result(files, folders, bytes, millis, files * 1000.0 / millis);
+            log.info("文件夹导入完成 - userId={}, root={}, 文件={}, 新建文件夹={}, 字节={}, 耗时={}ms, 速度={} 文件/秒",
+                user.getId(), root, files, folders, bytes, millis, String.format("%.1f", result.filesPerSecond()));
+            return result;
+        }
+
+        /**
+         * 回滚尚未提交的分段
+         */
+        @Override
+        public void close() {
+            if (chunkTx != null) {
+                TransactionStatus tx = chunkTx;
+                chunkTx = null;
+                pendingFiles.clear();
+                try {
+                    transactionManager.rollback(tx);
+                } catch (Exception e) {
+                    log.warn("回滚导入分段失败 - userId={}: {}", user.getId(), e.getMessage());
+                }
+            }
+            if (chunkReservation != null) {
+                chunkReservation.close();
+                chunkReservation = null;
+            }
+        }
+
+        /**
+         * 返回文件夹 ID，缺失时先补齐父目录再创建（自上而下）
+         */
+        private Long ensureFolder(String path) {
+            Long id = knownFolders.get(path);
+            if (id != null) {
+                return id;
+            }
+            // 根目录在 open() 中已确保存在
+            int slash = path.lastIndexOf('/');
+            Long parentId = ensureFolder(slash == 0 ? "/" : path.substring(0, slash));
+            beginChunk();
+            FolderTreeService.Child child = folderTreeService.ensureChild(user.getId(), parentId, path.substring(slash + 1));
+            knownFolders.put(path, child.id());
+            if (child.created()) {
+                folders++;
+            }
+            return child.id();
+        }
+
+        private void beginChunk() {
+            if (chunkTx == null) {
+                chunkTx = transactionManager.getTransaction(
+                    new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+                chunkReservation = storageQuotaService.reserve(user.getId(), 0, user.isAdmin());
+                chunkUsedBytes = 0;
+            }
+        }
+
+        private void commitChunk() {
+            if (chunkTx == null) {
+                return;
+            }
+            TransactionStatus tx = chunkTx;
+            chunkTx = null;
+            try {
+                insertRows(FILE_INSERT, FILE_ROW, pendingFiles);
+                // 提交后的预留由事务同步负责：回滚时自动释放
+                chunkReservation.commit(chunkUsedBytes);
+                chunkReservation = null;
+                if (chunkListener != null) {
+                    chunkListener.beforeCommit(files, bytes);
+                }
+            } catch (RuntimeException e) {
+                chunkTx = tx;
+                throw e;
+            }
+            pendingFiles.clear();
+            transactionManager.commit(tx);
+        }
+    }
+
+    private void insertRows(String head, String rowPlaceholder, List<Object[]> rows) {
+        for (int from = 0; from < rows.size(); from += ROWS_PER_STATEMENT) {
+            List<Object[]> part = rows.subList(from, Math.min(rows.size(), from + ROWS_PER_STATEMENT));
+            StringBuilder sql = new StringBuilder(head);
+            List<Object> args = new ArrayList<>(part.size() * part.get(0).length);
+            for (int i = 0; i < part.size(); i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(rowPlaceholder);
+                java.util.Collections.addAll(args, part.get(i));
+            }
+            jdbcTemplate.update(sql.toString(), args.toArray());
+        }
+    }
+}
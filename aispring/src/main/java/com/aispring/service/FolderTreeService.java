@@ -0,0 +1,320 @@
+package com.aispring.service;
+
+import com.aispring.entity.User;
+import com.aispring.entity.UserFolder;
+import com.aispring.repository.UserFolderRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * 文件夹树
+ * - 文件夹只记录名称与父文件夹 ID，路径按名称沿父链拼出；重命名、移动只修改一行文件夹记录
+ * - 子树查询走 user_folder_closure 闭包表：移动时只重建子树与新旧祖先之间的闭包行
+ * - 文件通过 folderId 关联文件夹，文件夹的重命名、移动不涉及文件记录
+ */
+@Service
+@RequiredArgsConstructor
+public class FolderTreeService {
+
+    public static final String ROOT_NAME = "根目录";
+
+    /** 并发导入可能同时创建同名子文件夹，唯一约束冲突时忽略并回查 */
+    private static final String CHILD_INSERT =
+        "INSERT IGNORE INTO user_folders (user_id, folder_name, parent_id, created_at) VALUES (?, ?, ?, ?)";
+
+    /** 并发的首次上传可能同时创建根目录，由 uk_folder_root 保证只有一个，冲突时忽略并回查 */
+    private static final String ROOT_INSERT =
+        "INSERT IGNORE INTO user_folders (user_id, folder_name, parent_id, created_at) VALUES (?, ?, NULL, ?)";
+
+    /** 嵌套层数上限，防止异常数据形成环时无限递归 */
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * @param created 是否为本次新建
+     */
+    public record Child(Long id, boolean created) {}
+
+    private final UserFolderRepository userFolderRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 把路径拆分为名称段：统一分隔符，去掉空段、"." 与 ".."；"-"、"null" 视为根目录
+     */
+    public static List<String> segments(String path) {
+        List<String> segments = new ArrayList<>();
+        if (path == null) {
+            return segments;
+        }
+        String trimmed = path.trim();
+        if (trimmed.equals("-") || trimmed.equalsIgnoreCase("null")) {
+            return segments;
+        }
+        for (String segment : trimmed.replace('\\', '/').split("/")) {
+            if (!segment.isEmpty() && !segment.equals(".") && !segment.equals("..")) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    public static String join(String parentPath, String name) {
+        return parentPath == null || parentPath.equals("/") ? "/" + name : parentPath + "/" + name;
+    }
+
+    /**
+     * 校验文件夹名称：不能为空，不能包含路径分隔符
+     */
+    public static String validName(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("文件夹名称不能为空");
+        }
+        String trimmed = name.trim();
+        if (trimmed.contains("/") || trimmed.contains("\\") || trimmed.equals(".") || trimmed.equals("..")) {
+            throw new IllegalArgumentException("文件夹名称不能包含 / 或 \\");
+        }
+        return trimmed;
+    }
+
+    /**
+     * 用户根目录，不存在时创建；并发创建时只有一个插入成功，其余回查已有的根目录
+     */
+    public UserFolder root(User user) {
+        Optional<UserFolder> existing = userFolderRepository.findFirstByUser_IdAndParentIdIsNullOrderByIdAsc(user.getId());
+        if (existing.isPresent()) {
+            return existing.get();
+        }
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        int inserted = jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(ROOT_INSERT, Statement.RETURN_GENERATED_KEYS);
+            ps.setLong(1, user.getId());
+            ps.setString(2, ROOT_NAME);
+            ps.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
+            return ps;
+        }, keyHolder);
+        if (inserted > 0 && keyHolder.getKey() != null) {
+            Long id = keyHolder.getKey().longValue();
+            jdbcTemplate.update("INSERT INTO user_folder_closure (ancestor_id, descendant_id, depth) VALUES (?, ?, 0)",
+                id, id);
+            return userFolderRepository.findById(id)
+                .orElseThrow(() -> new IllegalStateException("创建根目录失败"));
+        }
+        // 并发事务刚提交的根目录不在本事务的一致性快照中：加锁读取拿到它的 ID，其余字段都是固定值
+        Long id = jdbcTemplate.queryForObject(
+            "SELECT id FROM user_folders WHERE user_id = ? AND parent_id IS NULL AND deleted_at IS NULL " +
+            "LOCK IN SHARE MODE", Long.class, user.getId());
+        UserFolder root = new UserFolder();
+        root.setId(id);
+        root.setUser(user);
+        root.setFolderName(ROOT_NAME);
+        root.setParentId(null);
+        return root;
+    }
+
+    /**
+     * 按路径逐段查找文件夹（每段一次按唯一索引的查询）
+     */
+    public Optional<UserFolder> find(Long userId, String path) {
+        Optional<UserFolder> current = userFolderRepository.findFirstByUser_IdAndParentIdIsNullOrderByIdAsc(userId);
+        for (String name : segments(path)) {
+            if (current.isEmpty()) {
+                break;
+            }
+            current = userFolderRepository.findByUser_IdAndParentIdAndFolderName(userId, current.get().getId(), name);
+        }
+        return current;
+    }
+
+    /**
+     * 按路径查找文件夹，缺失的各级文件夹依次创建
+     */
+    public UserFolder ensure(User user, String path) {
+        UserFolder current = root(user);
+        for (String name : segments(path)) {
+            Optional<UserFolder> child = userFolderRepository.findByUser_IdAndParentIdAndFolderName(user.getId(), current.getId(), name);
+            if (child.isPresent()) {
+                current = child.get();
+            } else {
+                Long id = ensureChild(user.getId(), current.getId(), name).id();
+                current = userFolderRepository.findById(id)
+                    .orElseThrow(() -> new IllegalStateException("创建文件夹失败: " + name));
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 确保子文件夹存在并返回其 ID；新建时同时写入闭包行
+     */
+    public Child ensureChild(Long userId, Long parentId, String name) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        int inserted = jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(CHILD_INSERT, Statement.RETURN_GENERATED_KEYS);
+            ps.setLong(1, userId);
+            ps.setString(2, name);
+            ps.setLong(3, parentId);
+            ps.setTimestamp(4, Timestamp.valueOf(LocalDateTime.now()));
+            return ps;
+        }, keyHolder);
+        if (inserted > 0 && keyHolder.getKey() != null) {
+            Long id = keyHolder.getKey().longValue();
+            userFolderRepository.insertClosure(id, parentId);
+            return new Child(id, true);
+        }
+        Long id = jdbcTemplate.queryForObject(
+            "SELECT id FROM user_folders WHERE user_id = ? AND parent_id = ? AND folder_name = ? AND deleted_at IS NULL",
+            Long.class, userId, parentId, name);
+        return new Child(id, false);
+    }
+
+    /**
+     * 新建子文件夹（调用方已检查重名）
+     */
+    public UserFolder createChild(User user, UserFolder parent, String name) {
+        UserFolder folder = new UserFolder();
+        folder.setUser(user);
+        folder.setFolderName(name);
+        folder.setParentId(parent.getId());
+        folder = userFolderRepository.save(folder);
+        userFolderRepository.insertClosure(folder.getId(), parent.getId());
+        return folder;
+    }
+
+    /**
+     * 把文件夹移动到新的父文件夹下：改一行父 ID，并重建子树与祖先之间的闭包行
+     */
+    public void move(UserFolder folder, UserFolder newParent) {
+        if (folder.getParentId() == null) {
+            throw new IllegalArgumentException("不能移动根目录");
+        }
+        if (Objects.equals(folder.getParentId(), newParent.getId())) {
+            return;
+        }
+        if (userFolderRepository.countClosure(folder.getId(), newParent.getId()) > 0) {
+            throw new IllegalArgumentException("不能移动到自身或其子文件夹中");
+        }
+        List<Long> subtree = userFolderRepository.findSubtreeIds(folder.getId());
+        List<Long> oldAncestors = userFolderRepository.findAncestorIds(folder.getId());
+        if (!oldAncestors.isEmpty()) {
+            userFolderRepository.detachClosure(subtree, oldAncestors);
+        }
+        userFolderRepository.attachClosure(folder.getId(), newParent.getId());
+        folder.setParentId(newParent.getId());
+        userFolderRepository.save(folder);
+    }
+
+    /**
+     * 删除一组文件夹及其闭包行（调用方传入完整子树）
+     */
+    public void deleteAll(Collection<Long> folderIds) {
+        if (folderIds.isEmpty()) {
+            return;
+        }
+        userFolderRepository.deleteClosure(folderIds);
+        userFolderRepository.deleteAllByIdInBatch(folderIds);
+    }
+
+    /**
+     * 单个文件夹的路径（按闭包表一次取出祖先链）
+     */
+    public String pathOf(UserFolder folder) {
+        if (folder.getParentId() == null) {
+            return "/";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (UserFolder ancestor : userFolderRepository.findAncestors(folder.getId())) {
+            if (ancestor.getParentId() != null) {
+                sb.append('/').append(ancestor.getFolderName());
+            }
+        }
+        return sb.length() == 0 ? "/" : sb.toString();
+    }
+
+    /**
+     * 填充单个文件夹的 folderPath / parentPath
+     */
+    public UserFolder withPath(UserFolder folder) {
+        String path = pathOf(folder);
+        folder.setFolderPath(path);
+        folder.setParentPath(parentOf(path));
+        return folder;
+    }
+
+    /**
+     * 填充一组文件夹的 folderPath / parentPath；folders 需包含各自的祖先（通常为用户的全部文件夹）
+     */
+    public List<UserFolder> withPaths(List<UserFolder> folders) {
+        Map<Long, String> paths = paths(folders);
+        for (UserFolder folder : folders) {
+            String path = paths.get(folder.getId());
+            folder.setFolderPath(path);
+            folder.setParentPath(parentOf(path));
+        }
+        return folders;
+    }
+
+    /**
+     * 用户全部文件夹的路径 → ID 索引（批量导入时一次性加载）
+     */
+    public Map<String, Long> pathIndex(Long userId) {
+        Map<String, Long> index = new HashMap<>();
+        paths(userFolderRepository.findByUser_IdOrderByIdAsc(userId)).forEach((id, path) -> index.putIfAbsent(path, id));
+        return index;
+    }
+
+    /**
+     * 在内存中按父链拼出路径
+     */
+    public Map<Long, String> paths(Collection<UserFolder> folders) {
+        Map<Long, UserFolder> byId = new HashMap<>();
+        for (UserFolder folder : folders) {
+            byId.put(folder.getId(), folder);
+        }
+        Map<Long, String> paths = new HashMap<>();
+        for (UserFolder folder : folders) {
+            resolve(folder, byId, paths, 0);
+        }
+        return paths;
+    }
+
+    private String resolve(UserFolder folder, Map<Long, UserFolder> byId, Map<Long, String> paths, int depth) {
+        String cached = paths.get(folder.getId());
+        if (cached != null) {
+            return cached;
+        }
+        String path;
+        if (folder.getParentId() == null) {
+            path = "/";
+        } else {
+            UserFolder parent = byId.get(folder.getParentId());
+            // 父文件夹不在集合中（数据异常）时按根目录下处理
+            path = parent == null || depth >= MAX_DEPTH
+                ? join("/", folder.getFolderName())
+                : join(resolve(parent, byId, paths, depth + 1), folder.getFolderName());
+        }
+        paths.put(folder.getId(), path);
+        return path;
+    }
+
+    private static String parentOf(String path) {
+        if (path == null || path.equals("/")) {
+            return null;
+        }
+        int slash = path.lastIndexOf('/');
+        return slash <= 0 ? "/" : path.substring(0, slash);
+    }
+}
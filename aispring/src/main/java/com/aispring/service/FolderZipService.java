@@ -0,0 +1,284 @@
+package com.aispring.service;
+
+import com.aispring.util.StreamingZipWriter;
+import com.aispring.util.StreamingZipWriter.Entry;
+import com.aispring.util.StreamingZipWriter.Prepared;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 文件夹 ZIP 打包服务
+ * - 直接写入响应流，不生成临时文件，第一个条目准备好即开始输出
+ * - 条目由共享线程池并行压缩，写出线程按原顺序依次写出；每次下载的在途条目数有上限，内存占用有界
+ * - 图片、音视频、压缩包等已压缩格式以 STORED 写出
+ * - 大文件按块切分后并行压缩：写出线程顺序读取并计算 CRC，各块以前一块末尾 32KB 为字典独立压缩，
+ *   非末块以 SYNC_FLUSH 结束，按顺序拼接即为一个完整的 deflate 流；在途块数有上限，内存占用有界
+ */
+@Service
+@Slf4j
+public class FolderZipService {
+
+    /** 已压缩格式：再次 deflate 几乎没有收益 */
+    private static final Set<String> STORED_EXTENSIONS = Set.of(
+        "jpg", "jpeg", "png", "gif", "webp", "heic", "avif",
+        "mp3", "m4a", "aac", "ogg", "opus", "flac",
+        "mp4", "m4v", "mov", "mkv", "webm", "avi",
+        "zip", "rar", "7z", "gz", "tgz", "bz2", "xz", "zst", "jar", "apk",
+        "pdf", "docx", "xlsx", "pptx");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** deflate 的回溯窗口大小，也是分块压缩时预设字典的长度 */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final ThreadPoolExecutor compressExecutor;
+
+    /** 单个条目在内存中压缩的最大原始大小，超过时由写出线程流式压缩 */
+    @Value("${app.cloud-disk.zip.in-memory-limit-bytes:4194304}")
+    private long inMemoryLimit;
+
+    /** 每次下载最多同时准备的条目数 */
+    @Value("${app.cloud-disk.zip.max-in-flight:8}")
+    private int maxInFlight;
+
+    @Value("${app.cloud-disk.zip.compression-level:6}")
+    private int compressionLevel;
+
+    /** 大文件并行压缩的分块大小 */
+    @Value("${app.cloud-disk.zip.chunk-bytes:1048576}")
+    private int chunkBytes;
+
+    public FolderZipService(@Value("${app.cloud-disk.zip.workers:0}") int workers) {
+        int threads = workers > 0 ? workers : Math.max(2, Runtime.getRuntime().availableProcessors());
+        AtomicInteger seq = new AtomicInteger();
+        this.compressExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r);
+                t.setName("zip-compress-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        this.compressExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdownExecutor() {
+        compressExecutor.shutdownNow();
+    }
+
+    /**
+     * 把条目按顺序打包写入输出流；写出失败（包括客户端断开）时取消尚未完成的压缩任务并抛出异常
+     */
+    public void write(List<Entry> entries, OutputStream out) throws IOException {
+        StreamingZipWriter zip = new StreamingZipWriter(new BufferedOutputStream(out, BUFFER_SIZE));
+        Deque<Pending> window = new ArrayDeque<>();
+        Iterator<Entry> it = entries.iterator();
+        long start = System.currentTimeMillis();
+        try {
+            while (it.hasNext() || !window.isEmpty()) {
+                while (window.size() < Math.max(1, maxInFlight) && it.hasNext()) {
+                    Entry entry = it.next();
+                    Future<Prepared> future = entry.isDirectory() ? null : compressExecutor.submit(() -> prepare(entry));
+                    window.addLast(new Pending(entry, future));
+                }
+                Pending next = window.pollFirst();
+                writeEntry(zip, next);
+            }
+            zip.finish();
+            log.info("文件夹打包完成 - 条目数={}, 耗时={}ms", entries.size(), System.currentTimeMillis() - start);
+        } finally {
+            for (Pending pending : window) {
+                if (pending.future() != null) {
+                    pending.future().cancel(true);
+                }
+            }
+        }
+    }
+
+    private record Pending(Entry entry, Future<Prepared> future) {}
+
+    private void writeEntry(StreamingZipWriter zip, Pending pending) throws IOException {
+        Entry entry = pending.entry();
+        if (entry.isDirectory()) {
+            zip.writeDirectory(entry.name(), entry.lastModified());
+            return;
+        }
+        Prepared prepared = await(pending.future(), entry);
+        if (prepared == null) {
+            zip.writeDeflated(entry.name(), entry.lastModified(), Files.size(entry.source()),
+                (o, crc) -> deflateInChunks(entry, o, crc));
+        } else {
+            zip.writePrepared(entry.name(), entry.lastModified(), prepared, entry.source());
+        }
+        // 每个文件条目后推送一次，尽早把数据交给客户端
+        zip.flush();
+    }
+
+    private <T> T await(Future<T> future, Entry entry) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("打包被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("压缩失败: " + entry.name(), cause);
+        }
+    }
+
+    /**
+     * 分块并行压缩大文件：本线程顺序读取并更新 CRC，压缩交给线程池，压缩结果按块顺序写出
+     * @return 原始内容字节数
+     */
+    private long deflateInChunks(Entry entry, OutputStream out, CRC32 crc) throws IOException {
+        int chunkSize = Math.max(chunkBytes, 2 * DICTIONARY_SIZE);
+        Deque<Future<byte[]>> window = new ArrayDeque<>();
+        long size = 0;
+        try (InputStream in = Files.newInputStream(entry.source())) {
+            byte[] dictionary = null;
+            byte[] chunk = in.readNBytes(chunkSize);
+            while (true) {
+                // 多读一块才能知道当前块是否为末块；末块以 finish 结束
+                byte[] next = chunk.length == chunkSize ? in.readNBytes(chunkSize) : new byte[0];
+                boolean last = next.length == 0;
+                crc.update(chunk);
+                size += chunk.length;
+                byte[] input = chunk;
+                byte[] dict = dictionary;
+                window.addLast(compressExecutor.submit(() -> deflateChunk(input, dict, last)));
+                while (window.size() >= Math.max(1, maxInFlight)) {
+                    out.write(await(window.pollFirst(), entry));
+                }
+                if (last) {
+                    break;
+                }
+                dictionary = Arrays.copyOfRange(chunk, chunk.length - DICTIONARY_SIZE, chunk.length);
+                chunk = next;
+            }
+            while (!window.isEmpty()) {
+                out.write(await(window.pollFirst(), entry));
+            }
+        } finally {
+            for (Future<byte[]> future : window) {
+                future.cancel(true);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 压缩一个块：以前一块末尾作为预设字典，非末块以 SYNC_FLUSH 对齐到字节边界且不设置结束标记
+     */
+    private byte[] deflateChunk(byte[] input, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, input.length / 2));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    out.write(buffer, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 在线程池中准备条目数据
+     * @return 需要分块并行压缩的大文件返回 null
+     */
+    private Prepared prepare(Entry entry) throws IOException {
+        long size = Files.size(entry.source());
+        boolean store = isStored(entry.name());
+        if (size > inMemoryLimit) {
+            if (!store) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long read = 0;
+            try (InputStream in = Files.newInputStream(entry.source())) {
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, n);
+                    read += n;
+                }
+            }
+            return new Prepared(StreamingZipWriter.STORED, crc.getValue(), read, read, null);
+        }
+
+        byte[] raw = Files.readAllBytes(entry.source());
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+        if (!store) {
+            byte[] deflated = deflate(raw);
+            if (deflated.length < raw.length) {
+                return new Prepared(StreamingZipWriter.DEFLATED, crc.getValue(), raw.length, deflated.length, deflated);
+            }
+        }
+        return new Prepared(StreamingZipWriter.STORED, crc.getValue(), raw.length, raw.length, raw);
+    }
+
+    private byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 2));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static boolean isStored(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && STORED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+}
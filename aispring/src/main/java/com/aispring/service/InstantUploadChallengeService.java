@@ -0,0 +1,130 @@
+package com.aispring.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * 秒传挑战
+ * 只知道文件哈希不能证明持有文件内容：客户端先协商挑战，服务器随机选择若干偏移并签发一次性 nonce，
+ * 秒传时必须带上 nonce 以及这些偏移处内容块的 SHA-256。
+ * 挑战与数据块是否存在无关（不存在时同样签发），协商接口不会泄露其他用户的文件是否存在。
+ */
+@Service
+@Slf4j
+public class InstantUploadChallengeService {
+
+    private static final String KEY_PREFIX = "instant_upload:challenge:";
+
+    /** 读取并删除（一次性） */
+    private static final DefaultRedisScript<String> TAKE_SCRIPT = new DefaultRedisScript<>(
+        "local v = redis.call('GET', KEYS[1]) " +
+        "if v then redis.call('DEL', KEYS[1]) end " +
+        "return v",
+        String.class);
+
+    /**
+     * 签发的挑战
+     * @param samples 需要回答的内容块（偏移与长度）
+     */
+    public record Challenge(String nonce, List<SampleRange> samples, long expiresInSeconds) {}
+
+    public record SampleRange(long offset, int length) {}
+
+    private final StringRedisTemplate redisTemplate;
+    private final SecureRandom random = new SecureRandom();
+
+    @Value("${app.cloud-disk.instant-upload.sample-count:4}")
+    private int sampleCount;
+
+    @Value("${app.cloud-disk.instant-upload.sample-bytes:65536}")
+    private int sampleBytes;
+
+    @Value("${app.cloud-disk.instant-upload.challenge-ttl-seconds:300}")
+    private long ttlSeconds;
+
+    public InstantUploadChallengeService(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * 为 (用户, 哈希, 大小) 签发挑战；空文件不支持秒传
+     */
+    public Challenge issue(Long userId, String hash, long size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("空文件不支持秒传");
+        }
+        List<SampleRange> samples = pickSamples(size);
+        byte[] nonceBytes = new byte[16];
+        random.nextBytes(nonceBytes);
+        String nonce = HexFormat.of().formatHex(nonceBytes);
+
+        StringBuilder value = new StringBuilder()
+            .append(userId).append('|').append(hash).append('|').append(size).append('|');
+        for (int i = 0; i < samples.size(); i++) {
+            if (i > 0) {
+                value.append(',');
+            }
+            value.append(samples.get(i).offset()).append(':').append(samples.get(i).length());
+        }
+        redisTemplate.opsForValue().set(KEY_PREFIX + nonce, value.toString(), Duration.ofSeconds(ttlSeconds));
+        return new Challenge(nonce, samples, ttlSeconds);
+    }
+
+    /**
+     * 消费挑战（无论后续校验是否通过，nonce 都只能使用一次）
+     * @return 挑战要求的内容块；nonce 不存在、已使用、已过期或与本次请求的用户 / 哈希 / 大小不符时返回 null
+     */
+    public List<SampleRange> take(String nonce, Long userId, String hash, long size) {
+        if (nonce == null || !nonce.matches("[0-9a-f]{32}")) {
+            return null;
+        }
+        String value;
+        try {
+            value = redisTemplate.execute(TAKE_SCRIPT, List.of(KEY_PREFIX + nonce));
+        } catch (Exception e) {
+            log.warn("读取秒传挑战失败: {}", e.getMessage());
+            return null;
+        }
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.split("\\|", -1);
+        if (parts.length != 4 || !parts[0].equals(String.valueOf(userId)) || !parts[1].equals(hash)
+                || !parts[2].equals(String.valueOf(size)) || parts[3].isEmpty()) {
+            return null;
+        }
+        return Arrays.stream(parts[3].split(","))
+            .map(s -> s.split(":"))
+            .map(p -> new SampleRange(Long.parseLong(p[0]), Integer.parseInt(p[1])))
+            .toList();
+    }
+
+    /**
+     * 随机选择互不相同的偏移；文件不大于一个块时整文件作为唯一的块
+     */
+    List<SampleRange> pickSamples(long size) {
+        int length = (int) Math.min(sampleBytes, size);
+        long positions = size - length + 1;
+        int count = (int) Math.min(Math.max(1, sampleCount), positions);
+        TreeSet<Long> offsets = new TreeSet<>();
+        while (offsets.size() < count) {
+            offsets.add(positions == 1 ? 0 : Math.floorMod(random.nextLong(), positions));
+        }
+        List<SampleRange> samples = new ArrayList<>(count);
+        for (Long offset : offsets) {
+            samples.add(new SampleRange(offset, length));
+        }
+        return samples;
+    }
+}
@@ -1,70 +1,326 @@
 package com.aispring.service;
 
+import com.aispring.config.RateLimitProperties;
+import com.aispring.config.RateLimitProperties.Algorithm;
+import com.aispring.config.RateLimitProperties.Policy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
-import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * 限流服务
+ * - 滑动窗口 / 令牌桶两种算法，各由一个 Lua 脚本在一次 Redis 往返内原子完成判断、计数与过期设置
+ * - 本地近端缓存记录已耗尽的 key，在解禁前直接拒绝，不访问 Redis
+ * - Redis 不可用时回退到进程内限流器，而不是直接放行
+ */
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class RateLimitService {
 
+    public enum Tier {
+        ANONYMOUS("anonymous"), USER("user"), ADMIN("admin");
+
+        private final String key;
+
+        Tier(String key) { this.key = key; }
+
+        public String key() { return key; }
+    }
+
+    /**
+     * 限流结果
+     * @param retryAfterMs 被拒绝时距离可重试的毫秒数
+     */
+    public record Decision(boolean allowed, long remaining, long retryAfterMs, int limit) {
+        static Decision unlimited() {
+            return new Decision(true, Long.MAX_VALUE, 0, 0);
+        }
+    }
+
+    private static final String KEY_PREFIX = "rate_limit:";
+    /**
+     * 旧版匿名聊天计数（固定窗口 INCR 计数器）。新 key 首次使用时把其中已用次数迁移过来并删除旧 key，
+     * 避免发布新版本时所有 IP 的计数被清零
+     */
+    private static final String LEGACY_CHAT_KEY_PREFIX = "chat_limit:";
+    private static final String DEFAULT_ROUTE = "chat";
+
+    /**
+     * 有序集合记录窗口内每次请求；返回 {allowed, remaining, retryAfterMs}
+     * 可选 KEYS[2] 为旧版计数 key：按其剩余 TTL 补入等量的请求记录，使其在旧窗口结束时一并过期
+     */
+    private static final DefaultRedisScript<List<Long>> SLIDING_WINDOW_SCRIPT = listScript(
+        "local now = tonumber(ARGV[1]) " +
+        "local window = tonumber(ARGV[2]) " +
+        "local limit = tonumber(ARGV[3]) " +
+        "if KEYS[2] and redis.call('EXISTS', KEYS[1]) == 0 then " +
+        "  local used = tonumber(redis.call('GET', KEYS[2]) or '0') or 0 " +
+        "  local ttl = redis.call('PTTL', KEYS[2]) " +
+        "  if used > 0 and ttl > 0 then " +
+        "    local score = math.min(now, now - window + ttl) " +
+        "    for i = 1, math.min(used, limit) do redis.call('ZADD', KEYS[1], score, 'legacy-' .. i) end " +
+        "    redis.call('PEXPIRE', KEYS[1], window) " +
+        "  end " +
+        "  redis.call('DEL', KEYS[2]) " +
+        "end " +
+        "redis.call('ZREMRANGEBYSCORE', KEYS[1], 0, now - window) " +
+        "local count = redis.call('ZCARD', KEYS[1]) " +
+        "if count < limit then " +
+        "  redis.call('ZADD', KEYS[1], now, ARGV[4]) " +
+        "  redis.call('PEXPIRE', KEYS[1], window) " +
+        "  return {1, limit - count - 1, 0} " +
+        "end " +
+        "local oldest = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES') " +
+        "local retry = window " +
+        "if oldest[2] then retry = window - (now - tonumber(oldest[2])) end " +
+        "return {0, 0, retry}");
+
+    /**
+     * 令牌桶：哈希保存剩余令牌与上次补充时间；返回 {allowed, remaining, retryAfterMs}
+     * 可选 KEYS[2] 为旧版计数 key：新桶从 capacity 减去已用次数开始
+     */
+    private static final DefaultRedisScript<List<Long>> TOKEN_BUCKET_SCRIPT = listScript(
+        "local capacity = tonumber(ARGV[1]) " +
+        "local period = tonumber(ARGV[2]) " +
+        "local now = tonumber(ARGV[3]) " +
+        "local rate = capacity / period " +
+        "local data = redis.call('HMGET', KEYS[1], 'tokens', 'ts') " +
+        "local tokens = tonumber(data[1]) " +
+        "local ts = tonumber(data[2]) " +
+        "if tokens == nil or ts == nil then " +
+        "  tokens = capacity ts = now " +
+        "  if KEYS[2] then " +
+        "    tokens = math.max(0, capacity - (tonumber(redis.call('GET', KEYS[2]) or '0') or 0)) " +
+        "    redis.call('DEL', KEYS[2]) " +
+        "  end " +
+        "end " +
+        "tokens = math.min(capacity, tokens + math.max(0, now - ts) * rate) " +
+        "local allowed = 0 " +
+        "local retry = 0 " +
+        "if tokens >= 1 then tokens = tokens - 1 allowed = 1 " +
+        "else retry = math.ceil((1 - tokens) / rate) end " +
+        "redis.call('HSET', KEYS[1], 'tokens', tostring(tokens), 'ts', tostring(now)) " +
+        "redis.call('PEXPIRE', KEYS[1], period) " +
+        "return {allowed, math.floor(tokens), retry}");
+
     private final StringRedisTemplate redisTemplate;
-    
-    private static final String KEY_PREFIX = "chat_limit:";
-    private static final int MAX_REQUESTS = 5;
-    private static final Duration EXPIRATION = Duration.ofHours(24);
+    private final RateLimitProperties properties;
+
+    /** 近端缓存：已耗尽的 key -> 解禁时间（毫秒时间戳） */
+    private final Map<String, Long> exhaustedUntil = new ConcurrentHashMap<>();
+
+    /** Redis 不可用时使用的进程内限流状态 */
+    private final Map<String, LocalBucket> localBuckets = new ConcurrentHashMap<>();
 
     /**
-     * Check if the IP is allowed to make a request.
+     * 按路由和用户等级检查并计数
+     * @param identity 限流主体，匿名用户为 IP，登录用户为用户ID
+     */
+    public Decision check(String route, Tier tier, String identity) {
+        Policy policy = properties.resolve(route, tier.key());
+        if (policy.isUnlimited()) {
+            return Decision.unlimited();
+        }
+
+        String key = KEY_PREFIX + route + ":" + tier.key() + ":" + identity;
+        long now = System.currentTimeMillis();
+
+        Long until = exhaustedUntil.get(key);
+        if (until != null) {
+            if (until > now) {
+                return new Decision(false, 0, until - now, policy.getLimit());
+            }
+            exhaustedUntil.remove(key, until);
+        }
+
+        Decision decision;
+        try {
+            decision = checkRedis(key, policy, now);
+        } catch (Exception e) {
+            log.warn("Redis 限流不可用，使用进程内限流 - key={}: {}", key, e.getMessage());
+            decision = checkLocal(key, policy, now);
+        }
+
+        if (!decision.allowed()) {
+            log.warn("Rate limit exceeded: {} (retry after {} ms)", key, decision.retryAfterMs());
+            rememberExhausted(key, now + decision.retryAfterMs());
+        }
+        return decision;
+    }
+
+    /**
+     * Check if the IP is allowed to make an anonymous chat request.
      * If allowed, increments the counter.
      * @param ip Client IP address
      * @return true if allowed, false if limit exceeded
      */
     public boolean checkAndIncrement(String ip) {
-        String key = KEY_PREFIX + ip;
-        
+        return check(DEFAULT_ROUTE, Tier.ANONYMOUS, ip).allowed();
+    }
+
+    /**
+     * Get remaining anonymous chat requests for an IP (does not consume a request)
+     * @param ip Client IP address
+     * @return remaining requests count
+     */
+    public int getRemainingRequests(String ip) {
+        Policy policy = properties.resolve(DEFAULT_ROUTE, Tier.ANONYMOUS.key());
+        String key = KEY_PREFIX + DEFAULT_ROUTE + ":" + Tier.ANONYMOUS.key() + ":" + ip;
         try {
-            Long count = redisTemplate.opsForValue().increment(key);
-            
-            // If it's the first request (count == 1), set expiration
-            if (count != null && count == 1) {
-                redisTemplate.expire(key, EXPIRATION);
+            if (!Boolean.TRUE.equals(redisTemplate.hasKey(key))) {
+                String legacy = redisTemplate.opsForValue().get(LEGACY_CHAT_KEY_PREFIX + ip);
+                return legacy == null ? policy.getLimit() : Math.max(0, policy.getLimit() - Integer.parseInt(legacy));
             }
-            
-            if (count != null && count > MAX_REQUESTS) {
-                log.warn("Rate limit exceeded for IP: {} (Count: {})", ip, count);
-                return false;
+            if (policy.getAlgorithm() == Algorithm.TOKEN_BUCKET) {
+                Object tokens = redisTemplate.opsForHash().get(key, "tokens");
+                return tokens == null ? policy.getLimit() : (int) Math.floor(Double.parseDouble(tokens.toString()));
             }
-            
-            return true;
+            long windowMs = policy.getWindowSeconds() * 1000;
+            Long used = redisTemplate.opsForZSet().count(key, System.currentTimeMillis() - windowMs, Double.MAX_VALUE);
+            return Math.max(0, policy.getLimit() - (used == null ? 0 : used.intValue()));
         } catch (Exception e) {
-            log.error("Error accessing Redis for rate limiting", e);
-            // If Redis fails, allow the request to avoid blocking users due to system error
-            // Or deny it? Safe failure usually means allow.
-            return true;
+            return policy.getLimit();
+        }
+    }
+
+    private Decision checkRedis(String key, Policy policy, long now) {
+        long windowMs = policy.getWindowSeconds() * 1000;
+        List<String> keys = legacyKey(key)
+            .map(legacy -> List.of(key, legacy))
+            .orElseGet(() -> List.of(key));
+        List<Long> result;
+        if (policy.getAlgorithm() == Algorithm.TOKEN_BUCKET) {
+            result = redisTemplate.execute(TOKEN_BUCKET_SCRIPT, keys,
+                String.valueOf(policy.getLimit()), String.valueOf(windowMs), String.valueOf(now));
+        } else {
+            result = redisTemplate.execute(SLIDING_WINDOW_SCRIPT, keys,
+                String.valueOf(now), String.valueOf(windowMs), String.valueOf(policy.getLimit()),
+                now + "-" + UUID.randomUUID());
+        }
+        if (result == null || result.size() < 3) {
+            throw new IllegalStateException("Unexpected rate limit script result: " + result);
         }
+        boolean allowed = result.get(0) == 1L;
+        long remaining = result.get(1);
+        long retryAfter = result.get(2);
+        return new Decision(allowed, remaining, retryAfter, policy.getLimit());
     }
-    
+
     /**
-     * Get remaining requests for an IP
-     * @param ip Client IP address
-     * @return remaining requests count
+     * 匿名聊天 key 对应的旧版计数 key
      */
-    public int getRemainingRequests(String ip) {
-        String key = KEY_PREFIX + ip;
-        String val = redisTemplate.opsForValue().get(key);
-        if (val == null) {
-            return MAX_REQUESTS;
+    private Optional<String> legacyKey(String key) {
+        String prefix = KEY_PREFIX + DEFAULT_ROUTE + ":" + Tier.ANONYMOUS.key() + ":";
+        return key.startsWith(prefix)
+            ? Optional.of(LEGACY_CHAT_KEY_PREFIX + key.substring(prefix.length()))
+            : Optional.empty();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static DefaultRedisScript<List<Long>> listScript(String source) {
+        DefaultRedisScript<List<Long>> script = new DefaultRedisScript<>();
+        script.setScriptText(source);
+        script.setResultType((Class<List<Long>>) (Class<?>) List.class);
+        return script;
+    }
+
+    private Decision checkLocal(String key, Policy policy, long now) {
+        if (localBuckets.size() > properties.getNearCacheMaxEntries()) {
+            evictLocalBuckets(now);
         }
-        try {
-            int used = Integer.parseInt(val);
-            return Math.max(0, MAX_REQUESTS - used);
-        } catch (NumberFormatException e) {
-            return MAX_REQUESTS;
+        LocalBucket bucket = localBuckets.computeIfAbsent(key, k -> new LocalBucket());
+        synchronized (bucket) {
+            return bucket.acquire(policy, now);
+        }
+    }
+
+    /**
+     * 本地桶超出上限时只淘汰部分桶，不重置其他客户端的限流状态：
+     * 先删除已完全恢复的桶（窗口内无请求、令牌已满，与新建等价），仍超出时淘汰最久未使用的桶，
+     * 一次降到上限的 90%，避免每个请求都重新排序
+     */
+    private void evictLocalBuckets(long now) {
+        localBuckets.entrySet().removeIf(e -> e.getValue().idle(now));
+        int excess = localBuckets.size() - properties.getNearCacheMaxEntries() * 9 / 10;
+        if (excess <= 0) {
+            return;
+        }
+        localBuckets.entrySet().stream()
+            .sorted(Comparator.comparingLong(e -> e.getValue().lastUsed))
+            .limit(excess)
+            .map(Map.Entry::getKey)
+            .toList()
+            .forEach(localBuckets::remove);
+    }
+
+    private void rememberExhausted(String key, long until) {
+        if (exhaustedUntil.size() >= properties.getNearCacheMaxEntries()) {
+            long now = System.currentTimeMillis();
+            exhaustedUntil.entrySet().removeIf(e -> e.getValue() <= now);
+            if (exhaustedUntil.size() >= properties.getNearCacheMaxEntries()) {
+                return;
+            }
+        }
+        exhaustedUntil.put(key, until);
+    }
+
+    /**
+     * 进程内限流状态，与 Redis 脚本语义一致（仅在 Redis 故障期间使用，不跨实例共享）
+     */
+    private static final class LocalBucket {
+        private final Deque<Long> hits = new ArrayDeque<>();
+        private double tokens = -1;
+        private long lastRefill;
+        private volatile long lastUsed;
+        private volatile long windowMs;
+
+        /**
+         * 距上次请求已超过一个窗口：滑动窗口已清空、令牌桶已回满
+         */
+        boolean idle(long now) {
+            return now - lastUsed >= windowMs;
+        }
+
+        Decision acquire(Policy policy, long now) {
+            long windowMs = policy.getWindowSeconds() * 1000;
+            this.windowMs = windowMs;
+            this.lastUsed = now;
+            int limit = policy.getLimit();
+            if (policy.getAlgorithm() == Algorithm.TOKEN_BUCKET) {
+                double rate = (double) limit / windowMs;
+                if (tokens < 0) {
+                    tokens = limit;
+                    lastRefill = now;
+                }
+                tokens = Math.min(limit, tokens + Math.max(0, now - lastRefill) * rate);
+                lastRefill = now;
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return new Decision(true, (long) Math.floor(tokens), 0, limit);
+                }
+                return new Decision(false, 0, (long) Math.ceil((1 - tokens) / rate), limit);
+            }
+
+            while (!hits.isEmpty() && hits.peekFirst() <= now - windowMs) {
+                hits.pollFirst();
+            }
+            if (hits.size() < limit) {
+                hits.addLast(now);
+                return new Decision(true, limit - hits.size(), 0, limit);
+            }
+            return new Decision(false, 0, windowMs - (now - hits.peekFirst()), limit);
         }
     }
 }
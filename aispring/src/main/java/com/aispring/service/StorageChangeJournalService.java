@@ -0,0 +1,461 @@
+package com.aispring.service;
+
+import com.aispring.config.StorageProperties;
+import com.aispring.entity.FileBlob;
+import com.aispring.entity.StorageChangeEntry;
+import com.aispring.repository.FileBlobRepository;
+import com.aispring.repository.StorageChangeEntryRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * 云盘变更日志：增量发现并对账磁盘与数据库的分歧，全量扫描只作为兜底
+ * - WatchService（Linux 下为 inotify）监听云盘根目录、数据块分片目录与旧布局的用户目录
+ * - 自身的磁盘变更先写入 {@link StorageIntentLog}，落在意图上的事件直接忽略；
+ *   上次运行中途退出的意图在启动后按同样的方式对账
+ * - 事件按路径合并，稳定一段时间后再对账：只查询引用该路径的文件记录，在行锁下确认缺失后按配置删除
+ * - 事件溢出、根目录或数据块目录整体消失、未能监听全部目录时，退回到后台全量扫描
+ */
+@Service
+@Slf4j
+public class StorageChangeJournalService {
+
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+    private static final Pattern HASH_PREFIX = Pattern.compile("[0-9a-f]{2,4}");
+    private static final Pattern USER_DIR = Pattern.compile("\\d+");
+    private static final String BLOB_TMP_DIR = "tmp";
+    private static final String RENAME_TEMP_DIR = "__temp";
+
+    /**
+     * 待对账的路径
+     * @param firstSeen 首次收到事件的时间（毫秒），0 表示立即对账
+     */
+    private record PendingChange(String eventType, long firstSeen) {}
+
+    /**
+     * 监听状态
+     * @param degraded 未能监听全部目录，依赖定期全量扫描兜底
+     */
+    public record Status(boolean enabled, boolean watching, boolean degraded, int watchedDirectories,
+                         int pendingChanges, LocalDateTime lastEventAt, LocalDateTime lastFallbackScanAt) {}
+
+    private final StorageIntentLog intentLog;
+    private final StorageIntegrityScanService integrityScanService;
+    private final StorageChangeEntryRepository entryRepository;
+    private final FileBlobRepository fileBlobRepository;
+    private final StorageProperties storageProperties;
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Map<Path, PendingChange> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger watchedDirectories = new AtomicInteger();
+    private volatile WatchService watchService;
+    private volatile Path root;
+    private volatile boolean degraded;
+    private volatile boolean overflowed;
+    private volatile boolean shuttingDown;
+    private volatile LocalDateTime lastEventAt;
+    private volatile LocalDateTime lastFallbackScanAt;
+
+    @Value("${app.cloud-disk.journal.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.cloud-disk.journal.max-watches:100000}")
+    private int maxWatches;
+
+    @Value("${app.cloud-disk.journal.settle-ms:1000}")
+    private long settleMs;
+
+    @Value("${app.cloud-disk.journal.max-files-per-change:10000}")
+    private int maxFilesPerChange;
+
+    @Value("${app.cloud-disk.journal.fallback-min-interval-minutes:60}")
+    private long fallbackMinIntervalMinutes;
+
+    @Value("${app.cloud-disk.journal.degraded-scan-interval-hours:24}")
+    private long degradedScanIntervalHours;
+
+    @Value("${app.cloud-disk.journal.retention-days:30}")
+    private long retentionDays;
+
+    /** 默认只报告；未设置新配置项时沿用旧的 app.file.auto-cleanup-on-startup */
+    @Value("${app.file.integrity.auto-cleanup:${app.file.auto-cleanup-on-startup:false}}")
+    private boolean autoCleanup;
+
+    public StorageChangeJournalService(StorageIntentLog intentLog,
+                                       StorageIntegrityScanService integrityScanService,
+                                       StorageChangeEntryRepository entryRepository,
+                                       FileBlobRepository fileBlobRepository,
+                                       StorageProperties storageProperties,
+                                       JdbcTemplate jdbcTemplate) {
+        this.intentLog = intentLog;
+        this.integrityScanService = integrityScanService;
+        this.entryRepository = entryRepository;
+        this.fileBlobRepository = fileBlobRepository;
+        this.storageProperties = storageProperties;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shuttingDown = true;
+        WatchService service = watchService;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException ignore) {
+                // 关闭时忽略
+            }
+        }
+    }
+
+    /**
+     * 应用就绪后登记上次运行未完成的意图并开始监听
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            log.info("云盘变更日志已禁用，磁盘与数据库的一致性只由定期全量扫描保证");
+            return;
+        }
+        root = Paths.get(storageProperties.getCloudDiskAbsolute()).toAbsolutePath().normalize();
+        for (StorageIntentLog.Unfinished unfinished : intentLog.drainRecovered()) {
+            for (Path path : unfinished.paths()) {
+                pending.put(path.toAbsolutePath().normalize(), new PendingChange(StorageChangeEntry.EVENT_RECOVERY, 0));
+            }
+        }
+        Thread watcher = new Thread(this::watch, "storage-watch");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watch() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            long start = System.currentTimeMillis();
+            registerTree(root);
+            log.info("云盘变更监听已启动 - 目录数={}, 耗时={}ms{}", watchedDirectories.get(),
+                System.currentTimeMillis() - start, degraded ? "（未能监听全部目录）" : "");
+        } catch (IOException e) {
+            degraded = true;
+            log.warn("无法启动云盘变更监听，改为依赖定期全量扫描: {}", e.getMessage());
+            return;
+        }
+        while (!shuttingDown) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                lastEventAt = LocalDateTime.now();
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    overflowed = true;
+                    continue;
+                }
+                Path path = dir.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    // 新建的文件不会造成分歧；新目录需要加入监听
+                    if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS) && shouldWatch(path)) {
+                        registerTree(path);
+                    }
+                    continue;
+                }
+                if (intentLog.isOwnChange(path)) {
+                    continue;
+                }
+                String type = event.kind() == StandardWatchEventKinds.ENTRY_DELETE
+                    ? StorageChangeEntry.EVENT_DELETE : StorageChangeEntry.EVENT_MODIFY;
+                // 同一路径合并为一条，删除优先于修改
+                pending.merge(path, new PendingChange(type, System.currentTimeMillis()), (old, now) ->
+                    StorageChangeEntry.EVENT_MODIFY.equals(old.eventType()) ? new PendingChange(now.eventType(), old.firstSeen()) : old);
+            }
+            if (!key.reset()) {
+                // 目录已被删除或移走
+                watchedDirectories.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 监听目录及其需要监听的子目录；超过上限或系统监听数耗尽时标记为降级
+     */
+    private void registerTree(Path start) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!shouldWatch(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (watchedDirectories.get() >= maxWatches) {
+                        degraded = true;
+                        return FileVisitResult.TERMINATE;
+                    }
+                    try {
+                        dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                        watchedDirectories.incrementAndGet();
+                        return FileVisitResult.CONTINUE;
+                    } catch (IOException e) {
+                        degraded = true;
+                        log.warn("监听目录失败，其余目录依赖全量扫描 - {}: {}", dir, e.getMessage());
+                        return FileVisitResult.TERMINATE;
+                    }
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            degraded = true;
+            log.warn("遍历云盘目录失败 - {}: {}", start, e.getMessage());
+        }
+    }
+
+    /**
+     * 只监听与数据库记录对应的目录：根目录、数据块分片目录（不含临时目录）、旧布局的用户目录（不含重命名暂存目录）
+     */
+    private boolean shouldWatch(Path dir) {
+        if (dir.equals(root)) {
+            return true;
+        }
+        if (!dir.startsWith(root)) {
+            return false;
+        }
+        Path rel = root.relativize(dir);
+        String first = rel.getName(0).toString();
+        int depth = rel.getNameCount();
+        if (BlobStoreService.BLOB_DIR.equals(first)) {
+            return depth <= 3 && !(depth >= 2 && BLOB_TMP_DIR.equals(rel.getName(1).toString()));
+        }
+        if (USER_DIR.matcher(first).matches()) {
+            return !(depth >= 2 && RENAME_TEMP_DIR.equals(rel.getName(1).toString()));
+        }
+        return false;
+    }
+
+    /**
+     * 对账已稳定的变更，处理事件溢出与降级时的兜底扫描
+     */
+    @Scheduled(fixedDelayString = "${app.cloud-disk.journal.reconcile-interval-ms:2000}", initialDelay = 30000)
+    public void reconcilePending() {
+        if (!enabled || root == null) {
+            return;
+        }
+        intentLog.expire();
+        if (overflowed) {
+            overflowed = false;
+            record("/", StorageChangeEntry.EVENT_OVERFLOW, "监听事件溢出，已退回全量扫描", 0, 0, 0, LocalDateTime.now());
+            requestFallbackScan("监听事件溢出");
+        }
+        if (degraded && (lastFallbackScanAt == null
+                || lastFallbackScanAt.isBefore(LocalDateTime.now().minusHours(degradedScanIntervalHours)))) {
+            requestFallbackScan("未能监听全部目录");
+        }
+        long settledBefore = System.currentTimeMillis() - settleMs;
+        for (Map.Entry<Path, PendingChange> entry : pending.entrySet()) {
+            PendingChange change = entry.getValue();
+            if (change.firstSeen() > settledBefore || !pending.remove(entry.getKey(), change)) {
+                continue;
+            }
+            Path path = entry.getKey();
+            if (!StorageChangeEntry.EVENT_RECOVERY.equals(change.eventType()) && intentLog.isOwnChange(path)) {
+                continue;
+            }
+            try {
+                reconcile(path, change);
+            } catch (Exception e) {
+                log.warn("变更对账失败 - {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    private void reconcile(Path path, PendingChange change) throws IOException {
+        if (path.equals(root) || !path.startsWith(root)) {
+            if (path.equals(root) && !Files.isDirectory(root)) {
+                requestFallbackScan("云盘根目录被删除或移走");
+            }
+            return;
+        }
+        Path rel = root.relativize(path);
+        String first = rel.getName(0).toString();
+        int depth = rel.getNameCount();
+        List<Long> ids;
+        if (BlobStoreService.BLOB_DIR.equals(first)) {
+            if (depth == 1) {
+                if (!Files.isDirectory(path)) {
+                    requestFallbackScan("数据块目录被删除或移走");
+                }
+                return;
+            }
+            if (BLOB_TMP_DIR.equals(rel.getName(1).toString())) {
+                return;
+            }
+            if (depth == 4) {
+                String hash = rel.getName(3).toString();
+                if (!HASH.matcher(hash).matches()) {
+                    return;
+                }
+                if (Files.isRegularFile(path)) {
+                    checkBlobSize(rel, path, hash, detectedAt(change));
+                    return;
+                }
+                ids = jdbcTemplate.queryForList(
+                    "SELECT id FROM user_files WHERE content_hash = ? AND deleted_at IS NULL LIMIT ?",
+                    Long.class, hash, maxFilesPerChange + 1);
+            } else {
+                // 分片目录整体消失
+                String prefix = rel.getName(1).toString() + (depth >= 3 ? rel.getName(2).toString() : "");
+                if (Files.isDirectory(path) || !HASH_PREFIX.matcher(prefix).matches()) {
+                    return;
+                }
+                ids = jdbcTemplate.queryForList(
+                    "SELECT id FROM user_files WHERE content_hash LIKE ? AND deleted_at IS NULL LIMIT ?",
+                    Long.class, prefix + "%", maxFilesPerChange + 1);
+            }
+        } else if (USER_DIR.matcher(first).matches()) {
+            // 旧布局文件没有内容哈希，内容变化不构成分歧；只处理消失的文件或目录
+            if ((depth >= 2 && RENAME_TEMP_DIR.equals(rel.getName(1).toString())) || Files.exists(path)) {
+                return;
+            }
+            long userId = Long.parseLong(first);
+            if (depth == 1) {
+                ids = jdbcTemplate.queryForList(
+                    "SELECT id FROM user_files WHERE user_id = ? AND content_hash IS NULL AND deleted_at IS NULL LIMIT ?",
+                    Long.class, userId, maxFilesPerChange + 1);
+            } else {
+                String filePath = "/" + rel.subpath(1, depth).toString().replace('\\', '/');
+                ids = jdbcTemplate.queryForList(
+                    "SELECT id FROM user_files WHERE user_id = ? AND content_hash IS NULL AND deleted_at IS NULL " +
+                    "AND (file_path = ? OR file_path LIKE ?) LIMIT ?",
+                    Long.class, userId, filePath, escapeLike(filePath) + "/%", maxFilesPerChange + 1);
+            }
+        } else {
+            return;
+        }
+
+        if (ids.isEmpty()) {
+            return;
+        }
+        if (ids.size() > maxFilesPerChange) {
+            requestFallbackScan("单次变更涉及的文件过多: " + rel);
+            return;
+        }
+        StorageIntegrityScanService.Reconciled result = integrityScanService.reconcile(ids, autoCleanup);
+        if (result.missing() > 0) {
+            log.warn("检测到磁盘外部变更 - path={}, 引用记录={}, 缺失={}, 已清理={}",
+                rel, ids.size(), result.missing(), result.cleaned());
+            record(relative(rel), change.eventType(), null, ids.size(), result.missing(), result.cleaned(),
+                detectedAt(change));
+        }
+    }
+
+    /**
+     * 数据块内容不可变：大小与记录不一致说明被外部改写或写入不完整，只记录不自动处理
+     */
+    private void checkBlobSize(Path rel, Path path, String hash, LocalDateTime detectedAt) throws IOException {
+        Long expected = fileBlobRepository.findById(hash).map(FileBlob::getSize).orElse(null);
+        if (expected == null) {
+            // 没有记录的文件等待数据块回收任务清理
+            return;
+        }
+        long actual = Files.size(path);
+        if (actual != expected) {
+            Integer affected = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM user_files WHERE content_hash = ? AND deleted_at IS NULL", Integer.class, hash);
+            log.warn("数据块大小与记录不一致 - hash={}, 记录={}, 实际={}", hash, expected, actual);
+            record(relative(rel), StorageChangeEntry.EVENT_MODIFY,
+                "数据块大小与记录不一致: 记录 " + expected + " 字节, 实际 " + actual + " 字节",
+                affected == null ? 0 : affected, 0, 0, detectedAt);
+        }
+    }
+
+    private void requestFallbackScan(String reason) {
+        LocalDateTime now = LocalDateTime.now();
+        if (lastFallbackScanAt != null && lastFallbackScanAt.isAfter(now.minusMinutes(fallbackMinIntervalMinutes))) {
+            return;
+        }
+        lastFallbackScanAt = now;
+        log.warn("变更日志无法增量对账（{}），发起全量完整性扫描", reason);
+        integrityScanService.requestScan(StorageIntegrityScanService.TRIGGER_JOURNAL, autoCleanup);
+    }
+
+    private void record(String path, String eventType, String detail, int affected, int missing, int cleaned,
+                        LocalDateTime detectedAt) {
+        entryRepository.save(new StorageChangeEntry(null, path, eventType, detail, affected, missing, cleaned,
+            detectedAt, LocalDateTime.now()));
+    }
+
+    private static LocalDateTime detectedAt(PendingChange change) {
+        return change.firstSeen() <= 0
+            ? LocalDateTime.now()
+            : LocalDateTime.ofInstant(java.time.Instant.ofEpochMilli(change.firstSeen()), java.time.ZoneId.systemDefault());
+    }
+
+    private static String relative(Path rel) {
+        return "/" + rel.toString().replace('\\', '/');
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /**
+     * 删除超过保留期的变更记录
+     */
+    @Scheduled(cron = "${app.cloud-disk.journal.purge-cron:0 50 3 * * ?}")
+    public void purgeExpired() {
+        int deleted = entryRepository.deleteDetectedBefore(LocalDateTime.now().minusDays(retentionDays));
+        if (deleted > 0) {
+            log.info("清理过期的云盘变更记录 - {} 条", deleted);
+        }
+    }
+
+    /**
+     * 最近的分歧记录，按 ID 倒序分页
+     * @param beforeId 上一页最后一条的 ID，为空表示第一页
+     */
+    public List<StorageChangeEntry> recent(Long beforeId, int limit) {
+        PageRequest page = PageRequest.of(0, Math.max(1, Math.min(limit, 500)));
+        return beforeId == null
+            ? entryRepository.findByOrderByIdDesc(page)
+            : entryRepository.findByIdLessThanOrderByIdDesc(beforeId, page);
+    }
+
+    public Status status() {
+        return new Status(enabled, watchService != null && !shuttingDown, degraded, watchedDirectories.get(),
+            pending.size(), lastEventAt, lastFallbackScanAt);
+    }
+}
@@ -0,0 +1,530 @@
+package com.aispring.service;
+
+import com.aispring.config.StorageProperties;
+import com.aispring.entity.StorageIntegrityIssue;
+import com.aispring.entity.StorageIntegrityScan;
+import com.aispring.entity.UserFile;
+import com.aispring.repository.StorageIntegrityIssueRepository;
+import com.aispring.repository.StorageIntegrityScanRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 存储完整性后台扫描（取代启动时的全量同步检查）
+ * - 应用就绪后在后台线程执行，不阻塞启动；结果写入扫描报告供管理端查看
+ * - 按文件 ID 键集分页读取所需列，每批在独立的 ForkJoinPool 中并行检查物理内容
+ * - 每批的检查点、发现的问题与（可选的）记录清理在同一事务中提交，重启后从检查点继续
+ * - 按每秒检查文件数限速，避免扫描占满磁盘 I/O
+ * - 清理前在行锁下再次确认内容缺失，存储目录不可用时拒绝扫描，避免误删整库记录
+ */
+@Service
+@Slf4j
+public class StorageIntegrityScanService {
+
+    public static final String TRIGGER_STARTUP = "STARTUP";
+    public static final String TRIGGER_SCHEDULED = "SCHEDULED";
+    public static final String TRIGGER_ADMIN = "ADMIN";
+    public static final String TRIGGER_JOURNAL = "JOURNAL";
+
+    private static final String FILE_COLUMNS =
+        "SELECT id, user_id, filename, file_path, content_hash, file_size FROM user_files ";
+    private static final String PAGE_SQL = FILE_COLUMNS +
+        "WHERE id > ? AND deleted_at IS NULL ORDER BY id LIMIT ?";
+    private static final String LOCK_SQL = FILE_COLUMNS +
+        "WHERE id = ? AND deleted_at IS NULL FOR UPDATE";
+
+    private static final RowMapper<FileRow> ROW_MAPPER = (rs, rowNum) -> new FileRow(
+        rs.getLong("id"),
+        rs.getLong("user_id"),
+        rs.getString("filename"),
+        rs.getString("file_path"),
+        rs.getString("content_hash"),
+        rs.getLong("file_size"));
+
+    /**
+     * 扫描只需要的文件列
+     */
+    private record FileRow(long id, long userId, String filename, String filepath, String contentHash, long size) {}
+
+    /**
+     * 一条缺失记录
+     * @param attemptedPath 规范位置（数据块或用户目录），路径为空时为 null
+     */
+    private record Finding(FileRow row, String reason, String attemptedPath) {}
+
+    /**
+     * 扫描报告
+     * @param nextCursor 下一页问题的游标（问题 ID），没有更多时为 null
+     */
+    public record Report(StorageIntegrityScan scan, List<StorageIntegrityIssue> issues, Long nextCursor) {}
+
+    private final StorageIntegrityScanRepository scanRepository;
+    private final StorageIntegrityIssueRepository issueRepository;
+    private final CloudDiskService cloudDiskService;
+    private final BlobStoreService blobStoreService;
+    private final StorageQuotaService storageQuotaService;
+    private final StorageProperties storageProperties;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    private final ExecutorService scanExecutor;
+    private final ForkJoinPool checkPool;
+    private final AtomicBoolean scanning = new AtomicBoolean();
+    private volatile boolean shuttingDown;
+
+    @Value("${app.file.integrity.enabled:true}")
+    private boolean enabled;
+
+    /** 默认只报告；未设置新配置项时沿用旧的 app.file.auto-cleanup-on-startup */
+    @Value("${app.file.integrity.auto-cleanup:${app.file.auto-cleanup-on-startup:false}}")
+    private boolean autoCleanup;
+
+    @Value("${app.file.integrity.startup-min-interval-hours:24}")
+    private long startupMinIntervalHours;
+
+    @Value("${app.file.integrity.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.file.integrity.max-files-per-second:2000}")
+    private int maxFilesPerSecond;
+
+    @Value("${app.file.integrity.stale-minutes:5}")
+    private long staleMinutes;
+
+    @Value("${app.file.integrity.retention-days:30}")
+    private long retentionDays;
+
+    public StorageIntegrityScanService(StorageIntegrityScanRepository scanRepository,
+                                       StorageIntegrityIssueRepository issueRepository,
+                                       CloudDiskService cloudDiskService,
+                                       BlobStoreService blobStoreService,
+                                       StorageQuotaService storageQuotaService,
+                                       StorageProperties storageProperties,
+                                       JdbcTemplate jdbcTemplate,
+                                       PlatformTransactionManager transactionManager,
+                                       @Value("${app.file.integrity.parallelism:0}") int parallelism) {
+        this.scanRepository = scanRepository;
+        this.issueRepository = issueRepository;
+        this.cloudDiskService = cloudDiskService;
+        this.blobStoreService = blobStoreService;
+        this.storageQuotaService = storageQuotaService;
+        this.storageProperties = storageProperties;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.scanExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "integrity-scan");
+            t.setDaemon(true);
+            return t;
+        });
+        int threads = parallelism > 0 ? parallelism : Math.max(2, Runtime.getRuntime().availableProcessors());
+        this.checkPool = new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("integrity-check-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+    }
+
+    @PreDestroy
+    public void shutdownExecutor() {
+        // 未完成的扫描保持 RUNNING，心跳超时后由重启后的实例从检查点继续
+        shuttingDown = true;
+        scanExecutor.shutdownNow();
+        checkPool.shutdownNow();
+    }
+
+    /**
+     * 应用就绪后在后台决定是否开始新的扫描；距上次扫描不足最小间隔时只继续未完成的扫描
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!enabled) {
+            log.info("存储完整性扫描已禁用");
+            return;
+        }
+        scanExecutor.execute(() -> {
+            try {
+                Optional<StorageIntegrityScan> latest = scanRepository.findFirstByOrderByIdDesc();
+                boolean due = latest.isEmpty() || latest.get().getCreatedAt()
+                    .isBefore(LocalDateTime.now().minusHours(startupMinIntervalHours));
+                if (due) {
+                    requestScan(TRIGGER_STARTUP, autoCleanup);
+                } else {
+                    dispatch();
+                }
+            } catch (Exception e) {
+                log.error("启动存储完整性扫描失败: {}", e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * 定期全量扫描（运行期间的变更由变更日志增量对账，这里只是兜底）
+     */
+    @Scheduled(cron = "${app.file.integrity.scan-cron:0 30 3 * * SUN}")
+    public void scheduledScan() {
+        if (enabled) {
+            requestScan(TRIGGER_SCHEDULED, autoCleanup);
+        }
+    }
+
+    /**
+     * 登记一次扫描；已有等待中或运行中的扫描时直接返回该扫描
+     * @param cleanup 发现缺失时是否直接删除记录
+     */
+    public StorageIntegrityScan requestScan(String trigger, boolean cleanup) {
+        Optional<StorageIntegrityScan> active = scanRepository.findFirstByStatusInOrderByIdDesc(
+            List.of(StorageIntegrityScan.STATUS_PENDING, StorageIntegrityScan.STATUS_RUNNING));
+        if (active.isPresent()) {
+            dispatch();
+            return active.get();
+        }
+        LocalDateTime now = LocalDateTime.now();
+        StorageIntegrityScan scan = new StorageIntegrityScan();
+        scan.setTriggerSource(trigger);
+        scan.setAutoCleanup(cleanup);
+        scan.setTotalFiles(Optional.ofNullable(jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM user_files WHERE deleted_at IS NULL", Long.class)).orElse(0L));
+        scan.setCreatedAt(now);
+        scan.setUpdatedAt(now);
+        scan = scanRepository.save(scan);
+        log.info("已登记存储完整性扫描 - scanId={}, trigger={}, 文件数={}", scan.getId(), trigger, scan.getTotalFiles());
+        dispatch();
+        return scan;
+    }
+
+    /**
+     * 认领并执行等待中或心跳超时的扫描；同一实例同时只执行一个扫描
+     */
+    @Scheduled(fixedDelayString = "${app.file.integrity.dispatch-interval-ms:60000}", initialDelay = 60000)
+    public void dispatch() {
+        if (!enabled || shuttingDown || !scanning.compareAndSet(false, true)) {
+            return;
+        }
+        boolean submitted = false;
+        try {
+            purgeExpired();
+            LocalDateTime staleBefore = LocalDateTime.now().minusMinutes(staleMinutes);
+            for (Long scanId : scanRepository.findClaimable(staleBefore)) {
+                if (scanRepository.claim(scanId, LocalDateTime.now(), staleBefore) == 0) {
+                    continue;
+                }
+                scanExecutor.execute(() -> {
+                    try {
+                        run(scanId);
+                    } finally {
+                        scanning.set(false);
+                    }
+                });
+                submitted = true;
+                return;
+            }
+        } catch (Exception e) {
+            log.error("调度存储完整性扫描失败: {}", e.getMessage(), e);
+        } finally {
+            if (!submitted) {
+                scanning.set(false);
+            }
+        }
+    }
+
+    private void run(Long scanId) {
+        StorageIntegrityScan scan = scanRepository.findById(scanId).orElse(null);
+        if (scan == null) {
+            return;
+        }
+        if (!Files.isDirectory(Paths.get(storageProperties.getCloudDiskAbsolute()))) {
+            // 存储未挂载时所有文件都会被判定为缺失，不能据此清理
+            scanRepository.finish(scanId, StorageIntegrityScan.STATUS_FAILED,
+                "存储目录不可用: " + storageProperties.getCloudDiskAbsolute(), LocalDateTime.now());
+            log.error("存储目录不可用，跳过完整性扫描 - scanId={}, dir={}", scanId, storageProperties.getCloudDiskAbsolute());
+            return;
+        }
+
+        boolean cleanup = Boolean.TRUE.equals(scan.getAutoCleanup());
+        long cursor = scan.getCursorId();
+        long startNanos = System.nanoTime();
+        long checked = 0;
+        int missing = 0;
+        int cleaned = 0;
+        log.info("开始存储完整性扫描 - scanId={}, 检查点={}, 已检查={}/{}",
+            scanId, cursor, scan.getScanned(), scan.getTotalFiles());
+        try {
+            while (!shuttingDown) {
+                List<FileRow> batch = jdbcTemplate.query(PAGE_SQL, ROW_MAPPER, cursor, batchSize);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                List<Finding> findings = checkPool.submit(() -> batch.parallelStream()
+                    .map(this::inspect)
+                    .filter(Objects::nonNull)
+                    .toList()).get();
+                long lastId = batch.get(batch.size() - 1).id();
+                Integer removed = transactionTemplate.execute(status ->
+                    commitBatch(scanId, lastId, batch.size(), findings, cleanup));
+                cursor = lastId;
+                checked += batch.size();
+                missing += findings.size();
+                cleaned += removed == null ? 0 : removed;
+                throttle(startNanos, checked);
+            }
+            if (shuttingDown) {
+                return;
+            }
+            scanRepository.finish(scanId, StorageIntegrityScan.STATUS_COMPLETED, null, LocalDateTime.now());
+            long millis = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+            log.info("存储完整性扫描完成 - scanId={}, 本轮检查={}, 缺失={}, 已清理={}, 耗时={}ms",
+                scanId, checked, missing, cleaned, millis);
+        } catch (InterruptedException e) {
+            // 关闭实例时中断，保持 RUNNING 以便继续
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            log.error("存储完整性扫描失败 - scanId={}, 检查点={}: {}", scanId, cursor, cause.getMessage(), cause);
+            String message = cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage();
+            scanRepository.finish(scanId, StorageIntegrityScan.STATUS_FAILED,
+                message.length() > 500 ? message.substring(0, 500) : message, LocalDateTime.now());
+        }
+    }
+
+    /**
+     * 提交一批：记录问题、按需清理并推进检查点
+     * @return 本批删除的记录数
+     */
+    private int commitBatch(Long scanId, long lastId, int size, List<Finding> findings, boolean cleanup) {
+        LocalDateTime now = LocalDateTime.now();
+        int removed = 0;
+        List<StorageIntegrityIssue> issues = new ArrayList<>(findings.size());
+        for (Finding finding : findings) {
+            boolean deleted = cleanup && removeIfMissing(finding.row().id());
+            if (deleted) {
+                removed++;
+            }
+            FileRow row = finding.row();
+            issues.add(new StorageIntegrityIssue(null, scanId, row.id(), row.userId(), row.filename(),
+                row.filepath(), finding.reason(), finding.attemptedPath(), deleted, now));
+        }
+        if (!issues.isEmpty()) {
+            issueRepository.saveAll(issues);
+        }
+        scanRepository.updateProgress(scanId, lastId, size, findings.size(), removed, now);
+        return removed;
+    }
+
+    /**
+     * 检查一条记录的物理内容，存在时返回 null（在检查线程池中并行调用）
+     */
+    private Finding inspect(FileRow row) {
+        if (row.contentHash() == null && row.filepath() == null) {
+            return new Finding(row, "文件路径为空", null);
+        }
+        UserFile file = toUserFile(row);
+        try {
+            cloudDiskService.locateContent(file, row.userId());
+            return null;
+        } catch (IOException e) {
+            return new Finding(row, "物理文件不存在",
+                cloudDiskService.resolveStoredPath(file, row.userId()).toString());
+        } catch (Exception e) {
+            // 无法判断时按正常处理，下次扫描再检查
+            log.warn("检查文件失败 - fileId={}: {}", row.id(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static UserFile toUserFile(FileRow row) {
+        UserFile file = new UserFile();
+        file.setId(row.id());
+        file.setFilepath(row.filepath());
+        file.setContentHash(row.contentHash());
+        file.setFileSize(row.size());
+        return file;
+    }
+
+    /**
+     * 在行锁下再次确认内容缺失后删除记录，释放数据块引用并扣减配额（须在事务中调用）
+     */
+    private boolean removeIfMissing(long fileId) {
+        FileRow row = lockIfMissing(fileId);
+        if (row == null) {
+            return false;
+        }
+        remove(row);
+        return true;
+    }
+
+    /**
+     * 锁定记录并确认内容仍然缺失，记录已不存在或内容存在时返回 null（须在事务中调用）
+     */
+    private FileRow lockIfMissing(long fileId) {
+        List<FileRow> locked = jdbcTemplate.query(LOCK_SQL, ROW_MAPPER, fileId);
+        if (locked.isEmpty()) {
+            return null;
+        }
+        FileRow current = locked.get(0);
+        if (current.contentHash() != null || current.filepath() != null) {
+            try {
+                cloudDiskService.locateContent(toUserFile(current), current.userId());
+                return null;
+            } catch (IOException e) {
+                // 仍然缺失
+            }
+        }
+        return current;
+    }
+
+    private void remove(FileRow row) {
+        jdbcTemplate.update("DELETE FROM user_files WHERE id = ?", row.id());
+        if (row.contentHash() != null) {
+            blobStoreService.release(row.contentHash());
+        }
+        storageQuotaService.adjustUsed(row.userId(), -row.size());
+    }
+
+    /**
+     * 增量对账结果
+     */
+    public record Reconciled(int missing, int cleaned) {}
+
+    /**
+     * 对账指定的文件记录（变更日志调用）：逐条在行锁下确认内容缺失，按需删除；每块独立事务
+     */
+    public Reconciled reconcile(List<Long> fileIds, boolean cleanup) {
+        int missing = 0;
+        int cleaned = 0;
+        for (int from = 0; from < fileIds.size(); from += batchSize) {
+            List<Long> chunk = fileIds.subList(from, Math.min(fileIds.size(), from + batchSize));
+            int[] counts = transactionTemplate.execute(status -> {
+                int[] c = new int[2];
+                for (Long fileId : chunk) {
+                    FileRow row = lockIfMissing(fileId);
+                    if (row == null) {
+                        continue;
+                    }
+                    c[0]++;
+                    if (cleanup) {
+                        remove(row);
+                        c[1]++;
+                    }
+                }
+                return c;
+            });
+            if (counts != null) {
+                missing += counts[0];
+                cleaned += counts[1];
+            }
+        }
+        return new Reconciled(missing, cleaned);
+    }
+
+    private void throttle(long startNanos, long checked) throws InterruptedException {
+        if (maxFilesPerSecond <= 0) {
+            return;
+        }
+        long expectedNanos = checked * 1_000_000_000L / maxFilesPerSecond;
+        long aheadNanos = expectedNanos - (System.nanoTime() - startNanos);
+        if (aheadNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(aheadNanos);
+        }
+    }
+
+    /**
+     * 扫描报告
+     * @param scanId 为空时返回最近一次扫描
+     * @param afterIssueId 上一页最后一个问题的 ID，为空表示第一页
+     */
+    public Optional<Report> report(Long scanId, Long afterIssueId, int limit) {
+        Optional<StorageIntegrityScan> scan = scanId != null
+            ? scanRepository.findById(scanId)
+            : scanRepository.findFirstByOrderByIdDesc();
+        if (scan.isEmpty()) {
+            return Optional.empty();
+        }
+        int pageSize = Math.max(1, Math.min(limit, 1000));
+        List<StorageIntegrityIssue> issues = issueRepository.findByScanIdAndIdGreaterThanOrderByIdAsc(
+            scan.get().getId(), afterIssueId == null ? 0L : afterIssueId, PageRequest.of(0, pageSize + 1));
+        Long next = null;
+        if (issues.size() > pageSize) {
+            issues = new ArrayList<>(issues.subList(0, pageSize));
+            next = issues.get(pageSize - 1).getId();
+        }
+        return Optional.of(new Report(scan.get(), issues, next));
+    }
+
+    /**
+     * 清理指定扫描（为空时为最近一次扫描）中尚未清理的问题记录；每块独立事务，删除前再次确认
+     * @return 删除的记录数
+     */
+    public int cleanup(Long scanId) {
+        StorageIntegrityScan scan = (scanId != null
+            ? scanRepository.findById(scanId)
+            : scanRepository.findFirstByOrderByIdDesc())
+            .orElseThrow(() -> new IllegalArgumentException("尚未执行存储完整性扫描"));
+        long after = 0L;
+        int total = 0;
+        while (true) {
+            List<StorageIntegrityIssue> chunk = issueRepository.findByScanIdAndCleanedFalseAndIdGreaterThanOrderByIdAsc(
+                scan.getId(), after, PageRequest.of(0, batchSize));
+            if (chunk.isEmpty()) {
+                break;
+            }
+            Integer removed = transactionTemplate.execute(status -> {
+                List<Long> cleanedIds = new ArrayList<>();
+                for (StorageIntegrityIssue issue : chunk) {
+                    if (removeIfMissing(issue.getFileId())) {
+                        cleanedIds.add(issue.getId());
+                    }
+                }
+                if (!cleanedIds.isEmpty()) {
+                    issueRepository.markCleaned(cleanedIds);
+                    scanRepository.addCleaned(scan.getId(), cleanedIds.size());
+                }
+                return cleanedIds.size();
+            });
+            total += removed == null ? 0 : removed;
+            after = chunk.get(chunk.size() - 1).getId();
+        }
+        log.info("清理完整性问题记录 - scanId={}, 删除={}", scan.getId(), total);
+        return total;
+    }
+
+    /**
+     * 删除超过保留期的扫描报告
+     */
+    private void purgeExpired() {
+        List<Long> expired = scanRepository.findFinishedIdsBefore(LocalDateTime.now().minusDays(retentionDays));
+        if (expired.isEmpty()) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            issueRepository.deleteByScanIds(expired);
+            scanRepository.deleteAllByIdInBatch(expired);
+        });
+    }
+}
@@ -0,0 +1,271 @@
+package com.aispring.service;
+
+import com.aispring.config.StorageProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 云盘磁盘变更的预写意图日志
+ * - 本服务自己修改磁盘（写入 / 删除数据块、移动或删除旧布局文件）前先追加一条 B 记录，完成后追加 E 记录
+ * - 变更日志监听到的事件若落在进行中或刚完成的意图上，视为自身变更，不做对账
+ * - 启动时回放上次运行的日志：只有 B 没有 E 的意图说明进程在操作中途退出，交给变更日志对账
+ * 日志位于 {cloudDisk}/.journal/intents.log，超过上限时只保留进行中的意图重写
+ * - B 记录默认在返回前 fsync，断电后回放仍能看到写到一半的操作；关闭后断电可能丢失最近的意图
+ * - 意图日志只属于当前进程：多个实例共享同一存储目录时会互相截断日志，也看不到彼此的意图，
+ *   对方的写入会被当作外部变更对账。多实例部署必须为每个实例配置独立的存储目录，或关闭变更日志
+ */
+@Component
+@Slf4j
+public class StorageIntentLog {
+
+    public static final String JOURNAL_DIR = ".journal";
+    private static final String LOG_FILE = "intents.log";
+
+    public static final String OP_CREATE = "CREATE";
+    public static final String OP_DELETE = "DELETE";
+    public static final String OP_MOVE = "MOVE";
+
+    /**
+     * 上次运行中未完成的意图
+     */
+    public record Unfinished(String op, List<Path> paths) {}
+
+    private final StorageProperties storageProperties;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<Long, Intent> open = new ConcurrentHashMap<>();
+    private final Map<Path, Integer> inFlight = new ConcurrentHashMap<>();
+    private final Map<Path, Long> recent = new ConcurrentHashMap<>();
+    private final List<Unfinished> recovered = new ArrayList<>();
+    private final Object writeLock = new Object();
+    private FileChannel channel;
+
+    @Value("${app.cloud-disk.journal.intent-max-bytes:8388608}")
+    private long maxBytes;
+
+    @Value("${app.cloud-disk.journal.intent-fsync:true}")
+    private boolean fsync;
+
+    @Value("${app.cloud-disk.journal.echo-window-ms:30000}")
+    private long echoWindowMs;
+
+    public StorageIntentLog(StorageProperties storageProperties) {
+        this.storageProperties = storageProperties;
+    }
+
+    /**
+     * 回放上次运行的日志并开始新日志
+     */
+    @PostConstruct
+    public void open() {
+        Path file = logFile();
+        try {
+            Files.createDirectories(file.getParent());
+            if (Files.isRegularFile(file)) {
+                replay(file);
+            }
+            synchronized (writeLock) {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            }
+        } catch (IOException e) {
+            // 日志不可用时只失去崩溃恢复能力，不影响正常读写
+            log.warn("打开云盘意图日志失败，本次运行不记录意图 - {}: {}", file, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        synchronized (writeLock) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignore) {
+                    // 关闭时忽略
+                }
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * 记录一次即将进行的磁盘变更；调用方在 try-with-resources 中完成变更
+     */
+    public Intent begin(String op, Path... paths) {
+        List<Path> normalized = new ArrayList<>(paths.length);
+        for (Path path : paths) {
+            Path p = path.toAbsolutePath().normalize();
+            normalized.add(p);
+            inFlight.merge(p, 1, Integer::sum);
+        }
+        Intent intent = new Intent(sequence.incrementAndGet(), op, normalized);
+        open.put(intent.id, intent);
+        append(beginLine(intent), fsync);
+        return intent;
+    }
+
+    /**
+     * 路径上是否有进行中或刚完成的自身变更（监听事件可能在变更完成后才到达）
+     */
+    public boolean isOwnChange(Path path) {
+        Path p = path.toAbsolutePath().normalize();
+        if (inFlight.containsKey(p)) {
+            return true;
+        }
+        Long finished = recent.get(p);
+        return finished != null && System.currentTimeMillis() - finished <= echoWindowMs;
+    }
+
+    /**
+     * 清理超过回声窗口的已完成记录
+     */
+    public void expire() {
+        long before = System.currentTimeMillis() - echoWindowMs;
+        recent.values().removeIf(finished -> finished < before);
+    }
+
+    /**
+     * 取出上次运行中未完成的意图（只返回一次）
+     */
+    public List<Unfinished> drainRecovered() {
+        synchronized (recovered) {
+            List<Unfinished> result = new ArrayList<>(recovered);
+            recovered.clear();
+            return result;
+        }
+    }
+
+    /**
+     * 一次进行中的磁盘变更
+     */
+    public final class Intent implements AutoCloseable {
+
+        private final long id;
+        private final String op;
+        private final List<Path> paths;
+        private boolean closed;
+
+        private Intent(long id, String op, List<Path> paths) {
+            this.id = id;
+            this.op = op;
+            this.paths = paths;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            long now = System.currentTimeMillis();
+            for (Path p : paths) {
+                recent.put(p, now);
+                inFlight.computeIfPresent(p, (k, n) -> n > 1 ? n - 1 : null);
+            }
+            open.remove(id);
+            append("E " + id + "\n", false);
+        }
+    }
+
+    private static String beginLine(Intent intent) {
+        StringBuilder sb = new StringBuilder("B ").append(intent.id).append(' ').append(intent.op);
+        for (Path p : intent.paths) {
+            // 路径中的换行与制表符无法出现在本服务写入的路径中，这里只做防御
+            sb.append('\t').append(p.toString().replace('\n', ' ').replace('\t', ' '));
+        }
+        return sb.append('\n').toString();
+    }
+
+    private void append(String line, boolean force) {
+        synchronized (writeLock) {
+            if (channel == null) {
+                return;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (force) {
+                    channel.force(false);
+                }
+                if (channel.size() > maxBytes) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                log.warn("写入云盘意图日志失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 只保留进行中的意图重写日志（在 writeLock 内调用）
+     */
+    private void rotate() throws IOException {
+        Path file = logFile();
+        Path tmp = file.resolveSibling(LOG_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Intent intent : open.values()) {
+                ByteBuffer buffer = ByteBuffer.wrap(beginLine(intent).getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            out.force(false);
+        }
+        channel.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void replay(Path file) throws IOException {
+        Map<Long, Unfinished> pending = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            try {
+                if (line.startsWith("B ")) {
+                    String[] parts = line.split("\t");
+                    String[] head = parts[0].split(" ");
+                    List<Path> paths = new ArrayList<>();
+                    for (int i = 1; i < parts.length; i++) {
+                        paths.add(Paths.get(parts[i]));
+                    }
+                    pending.put(Long.parseLong(head[1]), new Unfinished(head[2], paths));
+                } else if (line.startsWith("E ")) {
+                    pending.remove(Long.parseLong(line.substring(2).trim()));
+                }
+            } catch (RuntimeException e) {
+                // 进程退出时最后一行可能只写了一半
+                log.debug("跳过无法解析的意图日志行: {}", line);
+            }
+        }
+        if (!pending.isEmpty()) {
+            log.warn("上次运行有 {} 个未完成的磁盘变更，将由变更日志对账", pending.size());
+            synchronized (recovered) {
+                recovered.addAll(pending.values());
+            }
+        }
+    }
+
+    private Path logFile() {
+        return Paths.get(storageProperties.getCloudDiskAbsolute()).resolve(JOURNAL_DIR).resolve(LOG_FILE);
+    }
+}
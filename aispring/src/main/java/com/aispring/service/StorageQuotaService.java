@@ -0,0 +1,199 @@
+package com.aispring.service;
+
+import com.aispring.repository.UserStorageUsageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 存储配额服务
+ * 每个用户一行计数（user_storage_usage），上传流程为 预留 → 提交/释放：
+ * - 预留在独立事务中立即提交，并发上传能互相看到彼此的预留，不会超额
+ * - 提交与文件记录写入在同一事务中；外层事务回滚时自动释放预留
+ * - 定时任务用 user_files 的实际总和校正已用空间，用未完成分片上传会话的预留总和校正遗留预留
+ */
+@Service
+@Slf4j
+public class StorageQuotaService {
+
+    /** 普通用户配额：1GB；管理员不限制 */
+    public static final long DEFAULT_LIMIT_BYTES = 1024L * 1024L * 1024L;
+
+    private final UserStorageUsageRepository usageRepository;
+    private final TransactionTemplate requiresNew;
+
+    @Value("${app.cloud-disk.quota.stale-reservation-minutes:120}")
+    private long staleReservationMinutes;
+
+    public StorageQuotaService(UserStorageUsageRepository usageRepository,
+                               PlatformTransactionManager transactionManager) {
+        this.usageRepository = usageRepository;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * 获取用户已用空间（字节）
+     */
+    public long getUsedBytes(Long userId) {
+        ensureInitialized(userId);
+        return usageRepository.findById(userId).map(u -> u.getUsedBytes()).orElse(0L);
+    }
+
+    /**
+     * 预留空间，超出配额时抛出 IllegalArgumentException
+     * @param unlimited 管理员不受配额限制，但仍然计数
+     */
+    public Reservation reserve(Long userId, long bytes, boolean unlimited) {
+        Reservation reservation = new Reservation(userId, unlimited, true);
+        reservation.extend(bytes);
+        return reservation;
+    }
+
+    /**
+     * 跨请求的预留（分片上传）：预留立即生效且不随调用结束释放，
+     * 之后通过 {@link #resume} 提交，或通过 {@link #releaseDetached} 释放
+     */
+    public void reserveDetached(Long userId, long bytes, boolean unlimited) {
+        new Reservation(userId, unlimited, false).extend(bytes);
+    }
+
+    /**
+     * 恢复一次跨请求预留用于提交；提交失败或回滚时不释放，预留仍归原会话所有
+     */
+    public Reservation resume(Long userId, long reservedBytes) {
+        Reservation reservation = new Reservation(userId, true, false);
+        reservation.reservedBytes = reservedBytes;
+        return reservation;
+    }
+
+    public void releaseDetached(Long userId, long bytes) {
+        new Reservation(userId, true, false).releaseQuietly(bytes);
+    }
+
+    /**
+     * 直接调整已用空间（删除文件等），在调用方事务中执行
+     */
+    public void adjustUsed(Long userId, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        ensureInitialized(userId);
+        usageRepository.adjustUsed(userId, delta);
+    }
+
+    /**
+     * 定时校正：以 user_files 为准修正计数，并按未完成的分片上传会话重新汇总长时间未变化的预留
+     */
+    @Scheduled(cron = "${app.cloud-disk.quota.reconcile-cron:0 40 3 * * ?}")
+    public void reconcile() {
+        try {
+            int cleared = usageRepository.recomputeStaleReservations(LocalDateTime.now().minusMinutes(staleReservationMinutes));
+            List<Long> userIds = usageRepository.findAllUserIds();
+            int drifted = 0;
+            for (Long userId : userIds) {
+                drifted += usageRepository.reconcileUsed(userId);
+            }
+            log.info("存储用量校正完成 - 用户数={}, 校正={}, 校正过期预留={}", userIds.size(), drifted, cleared);
+        } catch (Exception e) {
+            log.error("存储用量校正失败", e);
+        }
+    }
+
+    private void ensureInitialized(Long userId) {
+        if (!usageRepository.existsById(userId)) {
+            requiresNew.executeWithoutResult(status -> usageRepository.initIfAbsent(userId));
+        }
+    }
+
+    private static String formatQuotaError(long used, long requested, long limit) {
+        return String.format("存储空间不足。已使用: %.2f MB，本次上传: %.2f MB，配额: %.2f MB",
+            used / (1024.0 * 1024.0),
+            requested / (1024.0 * 1024.0),
+            limit / (1024.0 * 1024.0));
+    }
+
+    /**
+     * 一次上传的配额预留；配合 try-with-resources 使用，未提交时 close() 释放预留
+     */
+    public class Reservation implements AutoCloseable {
+
+        private final Long userId;
+        private final boolean unlimited;
+        /** 失败时是否自动释放；跨请求预留由所属会话负责释放 */
+        private final boolean releaseOnFailure;
+        private long reservedBytes;
+        private boolean committed;
+
+        private Reservation(Long userId, boolean unlimited, boolean releaseOnFailure) {
+            this.userId = userId;
+            this.unlimited = unlimited;
+            this.releaseOnFailure = releaseOnFailure;
+        }
+
+        /**
+         * 追加预留（大小事先未知的上传，如 ZIP 解压，按条目逐步预留）
+         */
+        public void extend(long bytes) {
+            if (bytes <= 0) {
+                return;
+            }
+            ensureInitialized(userId);
+            long limit = unlimited ? Long.MAX_VALUE / 4 : DEFAULT_LIMIT_BYTES;
+            Integer updated = requiresNew.execute(status -> usageRepository.reserve(userId, bytes, limit));
+            if (updated == null || updated == 0) {
+                long used = usageRepository.findById(userId).map(u -> u.getUsedBytes() + u.getReservedBytes()).orElse(0L);
+                throw new IllegalArgumentException(formatQuotaError(used, reservedBytes + bytes, limit));
+            }
+            reservedBytes += bytes;
+        }
+
+        /**
+         * 提交：在当前事务中把预留转为已用，usedDelta 为已用空间的实际变化量（覆盖时为新旧大小之差）
+         */
+        public void commit(long usedDelta) {
+            ensureInitialized(userId);
+            usageRepository.commit(userId, reservedBytes, usedDelta);
+            committed = true;
+            if (releaseOnFailure && TransactionSynchronizationManager.isSynchronizationActive()) {
+                long toRelease = reservedBytes;
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        // 外层事务回滚时提交也被回滚，预留仍在，需要单独释放
+                        if (status == STATUS_ROLLED_BACK) {
+                            releaseQuietly(toRelease);
+                        }
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!committed && releaseOnFailure) {
+                releaseQuietly(reservedBytes);
+            }
+        }
+
+        private void releaseQuietly(long bytes) {
+            if (bytes <= 0) {
+                return;
+            }
+            try {
+                requiresNew.executeWithoutResult(status -> usageRepository.release(userId, bytes));
+            } catch (Exception e) {
+                log.warn("释放存储预留失败 - userId={}, bytes={}: {}", userId, bytes, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,806 @@
+package com.aispring.service;
+
+import com.aispring.config.StorageProperties;
+import com.aispring.dto.response.TextPage;
+import com.aispring.exception.CustomException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * 文本文件分页读取与增量编辑
+ * - 编码只根据文件开头的样本检测（BOM → UTF-16 零字节特征 → UTF-8 → GBK → UTF-8 降级），不读取整个文件
+ * - 每个内容版本建立一次行偏移索引（每 stride 行记录一个起始位置），持久化在 {cloudDisk}/.text-index 下；
+ *   数据块内容不可变，按内容哈希建立的索引可被引用同一数据块的所有文件共用
+ * - 按行或按字节窗口读取时用 FileChannel 位置读，只读取当前页附近的字节，内存占用与文件大小无关
+ * - 在线编辑按编辑列表流式改写到临时文件，由调用方迁入数据块存储
+ */
+@Service
+@Slf4j
+public class TextContentService {
+
+    private static final String INDEX_DIR = ".text-index";
+    private static final int INDEX_MAGIC = 0x54494458;
+    private static final int INDEX_FORMAT = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int CHARSET_FIELD_OFFSET = 40;
+    private static final int CHARSET_FIELD_BYTES = HEADER_BYTES - CHARSET_FIELD_OFFSET;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 检测到的编码
+     * @param bomLength 文件开头 BOM 的字节数
+     */
+    public record Detected(Charset charset, int bomLength) {
+
+        boolean utf16() {
+            return charset.equals(StandardCharsets.UTF_16LE) || charset.equals(StandardCharsets.UTF_16BE);
+        }
+
+        boolean bigEndian() {
+            return charset.equals(StandardCharsets.UTF_16BE);
+        }
+    }
+
+    /**
+     * 一处文本编辑：把 [start, end) 替换为 text
+     * 偏移按字符计（UTF-16 代码单元，与浏览器中的字符串一致），\r\n、\r、\n 都计为一个换行字符，
+     * 与编辑器文本框中换行被统一为 \n 后的偏移一致
+     */
+    public record TextEdit(long start, long end, String text) {}
+
+    /**
+     * 编辑结果
+     * @param bytes 写入的字节数
+     */
+    public record EditResult(long bytes, Charset charset) {}
+
+    /**
+     * 已持久化的行偏移索引（只保存头部，偏移按需位置读）
+     */
+    private record TextIndex(Path file, Detected detected, long fileSize, long lineCount, int stride, long entries) {}
+
+    private final StorageProperties storageProperties;
+    private final Map<String, Object> building = new ConcurrentHashMap<>();
+
+    @Value("${app.cloud-disk.text.sample-bytes:65536}")
+    private int sampleBytes;
+
+    @Value("${app.cloud-disk.text.index-stride:256}")
+    private int indexStride;
+
+    @Value("${app.cloud-disk.text.default-lines:500}")
+    private int defaultLines;
+
+    @Value("${app.cloud-disk.text.max-lines:5000}")
+    private int maxLines;
+
+    @Value("${app.cloud-disk.text.max-page-bytes:1048576}")
+    private int maxPageBytes;
+
+    @Value("${app.cloud-disk.text.max-full-bytes:52428800}")
+    private long maxFullBytes;
+
+    @Value("${app.cloud-disk.text.max-edits:1000}")
+    private int maxEdits;
+
+    @Value("${app.cloud-disk.text.index-ttl-days:30}")
+    private long indexTtlDays;
+
+    public TextContentService(StorageProperties storageProperties) {
+        this.storageProperties = storageProperties;
+    }
+
+    /**
+     * 读取整个文件（在线编辑使用）：按样本检测编码后只解码一次
+     */
+    public String readAll(Path path) throws IOException {
+        long size = Files.size(path);
+        if (size > maxFullBytes) {
+            throw new IOException("文件过大，无法直接读取，请分页查看。文件大小: " +
+                String.format("%.2f MB", size / (1024.0 * 1024.0)));
+        }
+        if (size == 0) {
+            return "";
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Detected detected = detect(channel, size);
+            ByteBuffer bytes = ByteBuffer.allocate((int) (size - detected.bomLength()));
+            readFully(channel, bytes, detected.bomLength());
+            bytes.flip();
+            return decoder(detected.charset()).decode(bytes).toString();
+        }
+    }
+
+    /**
+     * 把编辑应用到 source 并流式写入 target，内存占用与文件大小无关
+     * - 编辑须按位置排序且互不重叠；编码与 BOM 保持原文件不变，未编辑的部分（包括原有换行风格）原样保留
+     * - 插入文本中的换行按原文件的换行风格写出
+     * - 原文件无法按检测到的编码严格解码，或插入的字符无法用该编码表示时拒绝编辑（避免悄悄改动未编辑的内容）
+     */
+    public EditResult applyEdits(Path source, List<TextEdit> edits, Path target) throws IOException {
+        validate(edits);
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = in.size();
+            Detected detected = size == 0 ? new Detected(StandardCharsets.UTF_8, 0) : detect(in, size);
+            String separator = lineSeparator(in, size, detected);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target), BUFFER_SIZE)) {
+                if (detected.bomLength() > 0) {
+                    ByteBuffer bom = ByteBuffer.allocate(detected.bomLength());
+                    readFully(in, bom, 0);
+                    out.write(bom.array());
+                }
+                in.position(detected.bomLength());
+                Reader reader = Channels.newReader(in, detected.charset().newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT), BUFFER_SIZE);
+                Writer writer = new OutputStreamWriter(out, detected.charset().newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT));
+                copyWithEdits(reader, writer, edits, separator);
+                // close 而不是 flush：编码器在结束时才报告末尾落单的高代理项，flush 会把它静默丢掉
+                writer.close();
+            } catch (CharacterCodingException e) {
+                throw new CustomException("文件内容或插入的文本无法按 " + detected.charset().name() + " 编码处理，无法增量编辑");
+            }
+            return new EditResult(Files.size(target), detected.charset());
+        }
+    }
+
+    private void validate(List<TextEdit> edits) {
+        if (edits == null || edits.isEmpty()) {
+            throw new CustomException("编辑内容不能为空");
+        }
+        if (edits.size() > maxEdits) {
+            throw new CustomException("单次编辑最多 " + maxEdits + " 处");
+        }
+        long previousEnd = 0;
+        for (TextEdit edit : edits) {
+            if (edit.start() < previousEnd || edit.end() < edit.start()) {
+                throw new CustomException("编辑位置须按顺序排列且互不重叠");
+            }
+            previousEnd = edit.end();
+        }
+    }
+
+    /**
+     * 边复制边应用编辑；pos 为按统一换行计算的字符位置
+     */
+    private static void copyWithEdits(Reader reader, Writer writer, List<TextEdit> edits, String separator)
+            throws IOException {
+        char[] buf = new char[BUFFER_SIZE / 2];
+        long pos = 0;
+        long deleteEnd = 0;
+        int next = 0;
+        boolean pendingCr = false;
+        boolean crDeleted = false;
+        int n;
+        while ((n = reader.read(buf)) != -1) {
+            int run = 0;
+            for (int i = 0; i < n; i++) {
+                char c = buf[i];
+                if (pendingCr) {
+                    pendingCr = false;
+                    if (c == '\n') {
+                        // \r\n 中的 \n 不单独占位置，随前面的 \r 保留或删除
+                        if (crDeleted) {
+                            writer.write(buf, run, i - run);
+                            run = i + 1;
+                        }
+                        continue;
+                    }
+                }
+                if (next < edits.size() && edits.get(next).start() == pos) {
+                    writer.write(buf, run, i - run);
+                    run = i;
+                    while (next < edits.size() && edits.get(next).start() == pos) {
+                        TextEdit edit = edits.get(next++);
+                        writer.write(withSeparator(edit.text(), separator));
+                        deleteEnd = Math.max(deleteEnd, edit.end());
+                    }
+                }
+                boolean deleted = pos < deleteEnd;
+                if (deleted) {
+                    writer.write(buf, run, i - run);
+                    run = i + 1;
+                }
+                if (c == '\r') {
+                    pendingCr = true;
+                    crDeleted = deleted;
+                }
+                pos++;
+            }
+            writer.write(buf, run, n - run);
+        }
+        while (next < edits.size() && edits.get(next).start() == pos) {
+            TextEdit edit = edits.get(next++);
+            writer.write(withSeparator(edit.text(), separator));
+            deleteEnd = Math.max(deleteEnd, edit.end());
+        }
+        if (next < edits.size() || deleteEnd > pos) {
+            throw new CustomException("编辑位置超出文件长度（共 " + pos + " 个字符）");
+        }
+    }
+
+    private static String withSeparator(String text, String separator) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+        String normalized = text.replace("\r\n", "\n").replace('\r', '\n');
+        return "\n".equals(separator) ? normalized : normalized.replace("\n", separator);
+    }
+
+    /**
+     * 从样本中第一个换行判断文件的换行风格，没有换行时使用 \n
+     */
+    private String lineSeparator(FileChannel channel, long size, Detected detected) throws IOException {
+        ByteBuffer sample = ByteBuffer.allocate((int) Math.min(sampleBytes, size - detected.bomLength()));
+        readFully(channel, sample, detected.bomLength());
+        String text = new String(sample.array(), 0, sample.position(), detected.charset());
+        int lf = text.indexOf('\n');
+        int cr = text.indexOf('\r');
+        if (cr >= 0 && (lf < 0 || cr < lf)) {
+            return cr + 1 >= text.length() || text.charAt(cr + 1) == '\n' ? "\r\n" : "\r";
+        }
+        return "\n";
+    }
+
+    /**
+     * 按行读取
+     * @param version 内容版本（数据块哈希或旧文件的大小与修改时间），用作索引的键
+     * @param start 起始行号（从 0 开始）
+     * @param count 行数，为空时使用默认值
+     */
+    public TextPage readLines(Path path, String version, long start, Integer count) throws IOException {
+        if (start < 0) {
+            throw new IllegalArgumentException("起始行号不能小于 0");
+        }
+        int limit = count == null || count <= 0 ? defaultLines : Math.min(count, maxLines);
+        TextIndex index = index(path, version);
+        Detected detected = index.detected();
+
+        List<String> lines = new ArrayList<>();
+        long startByte = index.fileSize();
+        long endByte = index.fileSize();
+        boolean truncated = false;
+        if (start < index.lineCount()) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long entry = Math.min(start / index.stride(), index.entries() - 1);
+                LineCursor cursor = new LineCursor(channel, offsetOf(index, entry), index.fileSize(), detected);
+                for (long line = entry * index.stride(); line < start; line++) {
+                    cursor.readLine(null, 0);
+                }
+                startByte = cursor.position();
+                int bytes = 0;
+                while (lines.size() < limit && start + lines.size() < index.lineCount()) {
+                    int budget = Math.max(maxPageBytes - bytes, 0);
+                    if (budget == 0) {
+                        break;
+                    }
+                    long lineStart = cursor.position();
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    cursor.readLine(out, budget);
+                    if (cursor.truncated() && !lines.isEmpty()) {
+                        // 超长的行留到下一页单独返回
+                        cursor.reset(lineStart);
+                        break;
+                    }
+                    truncated |= cursor.truncated();
+                    lines.add(decodeLine(out.toByteArray(), detected));
+                    bytes += out.size();
+                }
+                endByte = cursor.position();
+            }
+        }
+        long endLine = Math.min(start, index.lineCount()) + lines.size();
+        return TextPage.builder()
+            .version(version)
+            .charset(detected.charset().name())
+            .fileSize(index.fileSize())
+            .totalLines(index.lineCount())
+            .startLine(Math.min(start, index.lineCount()))
+            .endLine(endLine)
+            .startByte(startByte)
+            .endByte(endByte)
+            .lines(lines)
+            .hasMore(endLine < index.lineCount())
+            .truncated(truncated)
+            .build();
+    }
+
+    /**
+     * 按字节窗口读取：窗口两端对齐到行边界（窗口内没有换行时对齐到字符边界）
+     * @param offset 起始字节位置
+     * @param length 窗口字节数，为空或超过上限时使用上限
+     */
+    public TextPage readRange(Path path, String version, long offset, Integer length) throws IOException {
+        if (offset < 0) {
+            throw new IllegalArgumentException("起始位置不能小于 0");
+        }
+        int window = length == null || length <= 0 ? maxPageBytes : Math.min(length, maxPageBytes);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            Detected detected = detect(channel, size);
+            int unit = detected.utf16() ? 2 : 1;
+            long from = Math.max(offset, detected.bomLength());
+            if (detected.utf16()) {
+                from += (from - detected.bomLength()) % 2;
+            }
+            if (from >= size) {
+                return TextPage.builder().version(version).charset(detected.charset().name()).fileSize(size)
+                    .startByte(size).endByte(size).text("").hasMore(false).build();
+            }
+            // 多读一个编码单元，用来判断起点是否正好位于行首
+            long readFrom = from > detected.bomLength() ? from - unit : from;
+            int toRead = (int) Math.min(window + (from - readFrom), size - readFrom);
+            ByteBuffer buffer = ByteBuffer.allocate(toRead);
+            readFully(channel, buffer, readFrom);
+            byte[] bytes = buffer.array();
+
+            int begin = (int) (from - readFrom);
+            int end = bytes.length;
+            if (begin > 0 && !isNewline(bytes, begin - unit, detected)) {
+                int next = nextLineStart(bytes, begin, end, detected);
+                if (next > 0 && next < end) {
+                    begin = next;
+                } else {
+                    begin = alignStart(bytes, begin, end, detected);
+                }
+            }
+            if (readFrom + end < size) {
+                int last = lastLineEnd(bytes, begin, end, detected);
+                end = last > begin ? last : alignEnd(bytes, begin, end, detected);
+            }
+            String text = new String(bytes, begin, end - begin, detected.charset());
+            return TextPage.builder()
+                .version(version)
+                .charset(detected.charset().name())
+                .fileSize(size)
+                .startByte(readFrom + begin)
+                .endByte(readFrom + end)
+                .text(text)
+                .hasMore(readFrom + end < size)
+                .build();
+        }
+    }
+
+    /**
+     * 只读取开头的样本检测编码
+     */
+    public Detected detect(FileChannel channel, long size) throws IOException {
+        ByteBuffer sample = ByteBuffer.allocate((int) Math.min(sampleBytes, size));
+        readFully(channel, sample, 0);
+        sample.flip();
+        byte[] b = new byte[sample.remaining()];
+        sample.get(b);
+
+        if (b.length >= 3 && (b[0] & 0xFF) == 0xEF && (b[1] & 0xFF) == 0xBB && (b[2] & 0xFF) == 0xBF) {
+            return new Detected(StandardCharsets.UTF_8, 3);
+        }
+        if (b.length >= 2 && (b[0] & 0xFF) == 0xFF && (b[1] & 0xFF) == 0xFE) {
+            return new Detected(StandardCharsets.UTF_16LE, 2);
+        }
+        if (b.length >= 2 && (b[0] & 0xFF) == 0xFE && (b[1] & 0xFF) == 0xFF) {
+            return new Detected(StandardCharsets.UTF_16BE, 2);
+        }
+        // 无 BOM 的 UTF-16：ASCII 字符的高字节为 0，同时也是合法的 UTF-8，必须先于 UTF-8 判断
+        if (b.length >= 4 && b.length % 2 == 0) {
+            int evenZeros = 0;
+            int oddZeros = 0;
+            for (int i = 0; i < b.length; i += 2) {
+                if (b[i] == 0) evenZeros++;
+                if (b[i + 1] == 0) oddZeros++;
+            }
+            int pairs = b.length / 2;
+            if (oddZeros * 10 >= pairs * 3 && evenZeros * 20 < pairs) {
+                return new Detected(StandardCharsets.UTF_16LE, 0);
+            }
+            if (evenZeros * 10 >= pairs * 3 && oddZeros * 20 < pairs) {
+                return new Detected(StandardCharsets.UTF_16BE, 0);
+            }
+        }
+        boolean partial = b.length < size;
+        if (decodes(b, StandardCharsets.UTF_8, partial)) {
+            return new Detected(StandardCharsets.UTF_8, 0);
+        }
+        Charset gbk = Charset.forName("GBK");
+        if (decodes(b, gbk, partial)) {
+            return new Detected(gbk, 0);
+        }
+        return new Detected(StandardCharsets.UTF_8, 0);
+    }
+
+    /**
+     * 样本能否按指定编码严格解码；样本只是文件开头时，末尾被截断的多字节字符不算错误
+     */
+    private static boolean decodes(byte[] sample, Charset charset, boolean partial) {
+        CharsetDecoder decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+        ByteBuffer in = ByteBuffer.wrap(sample);
+        CharBuffer out = CharBuffer.allocate(BUFFER_SIZE);
+        while (true) {
+            CoderResult result = decoder.decode(in, out, !partial);
+            if (result.isError()) {
+                return false;
+            }
+            if (result.isOverflow()) {
+                out.clear();
+                continue;
+            }
+            return true;
+        }
+    }
+
+    private static CharsetDecoder decoder(Charset charset) {
+        return charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * 取得行偏移索引：版本已有索引且文件大小一致时直接使用，否则扫描一遍文件重建
+     */
+    private TextIndex index(Path path, String version) throws IOException {
+        Path file = indexPath(version);
+        TextIndex index = readIndex(file, Files.size(path));
+        if (index != null) {
+            return index;
+        }
+        Object lock = building.computeIfAbsent(version, k -> new Object());
+        try {
+            synchronized (lock) {
+                index = readIndex(file, Files.size(path));
+                if (index == null) {
+                    index = buildIndex(path, file);
+                }
+                return index;
+            }
+        } finally {
+            building.remove(version, lock);
+        }
+    }
+
+    private TextIndex buildIndex(Path path, Path file) throws IOException {
+        long start = System.currentTimeMillis();
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), "index-", ".tmp");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            Detected detected = size == 0 ? new Detected(StandardCharsets.UTF_8, 0) : detect(channel, size);
+            long lines = 0;
+            long entries = 0;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE))) {
+                out.write(new byte[HEADER_BYTES]);
+                LineCursor cursor = new LineCursor(channel, detected.bomLength(), size, detected);
+                while (cursor.position() < size) {
+                    if (lines % indexStride == 0) {
+                        out.writeLong(cursor.position());
+                        entries++;
+                    }
+                    cursor.readLine(null, 0);
+                    lines++;
+                }
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(INDEX_MAGIC).putInt(INDEX_FORMAT).putLong(size).putLong(lines)
+                .putInt(indexStride).putInt(detected.bomLength()).putLong(entries);
+            byte[] name = detected.charset().name().getBytes(StandardCharsets.US_ASCII);
+            header.put(name, 0, Math.min(name.length, CHARSET_FIELD_BYTES));
+            header.clear();
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (header.hasRemaining()) {
+                    out.write(header, header.position());
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            log.debug("建立文本行索引 - {}, 行数={}, 索引项={}, 耗时={}ms",
+                file.getFileName(), lines, entries, System.currentTimeMillis() - start);
+            return new TextIndex(file, detected, size, lines, indexStride, entries);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static TextIndex readIndex(Path file, long expectedSize) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != INDEX_MAGIC || header.getInt() != INDEX_FORMAT) {
+                return null;
+            }
+            long size = header.getLong();
+            long lines = header.getLong();
+            int stride = header.getInt();
+            int bom = header.getInt();
+            long entries = header.getLong();
+            byte[] name = new byte[CHARSET_FIELD_BYTES];
+            header.get(name);
+            int len = 0;
+            while (len < name.length && name[len] != 0) len++;
+            if (size != expectedSize || stride <= 0 || channel.size() != HEADER_BYTES + entries * 8) {
+                return null;
+            }
+            Charset charset = Charset.forName(new String(name, 0, len, StandardCharsets.US_ASCII));
+            return new TextIndex(file, new Detected(charset, bom), size, lines, stride, entries);
+        } catch (IOException | RuntimeException e) {
+            log.debug("文本行索引无效，将重建 - {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 第 entry 个索引项（第 entry * stride 行）的起始位置
+     */
+    private static long offsetOf(TextIndex index, long entry) throws IOException {
+        if (entry < 0) {
+            return index.detected().bomLength();
+        }
+        try (FileChannel channel = FileChannel.open(index.file(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            readFully(channel, buffer, HEADER_BYTES + entry * 8);
+            buffer.flip();
+            return buffer.getLong();
+        }
+    }
+
+    private Path indexPath(String version) {
+        String safe = version.replaceAll("[^0-9A-Za-z._-]", "_");
+        String shard = safe.length() >= 2 ? safe.substring(0, 2) : "_";
+        return Paths.get(storageProperties.getCloudDiskAbsolute()).resolve(INDEX_DIR).resolve(shard).resolve(safe + ".idx");
+    }
+
+    /**
+     * 删除超过保留期的索引（再次读取时重建）
+     */
+    @Scheduled(cron = "${app.cloud-disk.text.index-cleanup-cron:0 10 5 * * ?}")
+    public void cleanupIndexes() {
+        Path root = Paths.get(storageProperties.getCloudDiskAbsolute()).resolve(INDEX_DIR);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        FileTime threshold = FileTime.from(Instant.now().minus(indexTtlDays, ChronoUnit.DAYS));
+        int removed = 0;
+        try (Stream<Path> walk = Files.walk(root, 2)) {
+            for (Path p : (Iterable<Path>) walk::iterator) {
+                if (Files.isRegularFile(p) && Files.getLastModifiedTime(p).compareTo(threshold) < 0) {
+                    Files.deleteIfExists(p);
+                    removed++;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("清理文本行索引失败: {}", e.getMessage());
+        }
+        if (removed > 0) {
+            log.info("清理过期的文本行索引 - {} 个", removed);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, pos);
+            if (n < 0) {
+                break;
+            }
+            pos += n;
+        }
+    }
+
+    private static String decodeLine(byte[] bytes, Detected detected) {
+        int len = bytes.length;
+        if (detected.utf16()) {
+            if (len >= 2 && (detected.bigEndian()
+                    ? bytes[len - 2] == 0 && bytes[len - 1] == '\r'
+                    : bytes[len - 2] == '\r' && bytes[len - 1] == 0)) {
+                len -= 2;
+            }
+        } else if (len >= 1 && bytes[len - 1] == '\r') {
+            len--;
+        }
+        return new String(bytes, 0, len, detected.charset());
+    }
+
+    private static boolean isNewline(byte[] b, int i, Detected detected) {
+        if (!detected.utf16()) {
+            return b[i] == '\n';
+        }
+        return detected.bigEndian() ? b[i] == 0 && b[i + 1] == '\n' : b[i] == '\n' && b[i + 1] == 0;
+    }
+
+    /**
+     * [from, to) 中第一个换行之后的位置，没有换行时返回 -1
+     */
+    private static int nextLineStart(byte[] b, int from, int to, Detected detected) {
+        int unit = detected.utf16() ? 2 : 1;
+        for (int i = from; i + unit <= to; i += unit) {
+            if (isNewline(b, i, detected)) {
+                return i + unit;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * [from, to) 中最后一个换行之后的位置，没有换行时返回 -1
+     */
+    private static int lastLineEnd(byte[] b, int from, int to, Detected detected) {
+        int unit = detected.utf16() ? 2 : 1;
+        int last = to - unit - (detected.utf16() ? (to - from) % 2 : 0);
+        for (int i = last; i >= from; i -= unit) {
+            if (isNewline(b, i, detected)) {
+                return i + unit;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 窗口内没有换行时把起点移到字符边界（跳过 UTF-8 的后续字节）；GBK 无法从中间判断边界，保持原位
+     */
+    private static int alignStart(byte[] b, int from, int to, Detected detected) {
+        int i = from;
+        if (StandardCharsets.UTF_8.equals(detected.charset())) {
+            while (i < to && (b[i] & 0xC0) == 0x80) i++;
+        }
+        return i;
+    }
+
+    /**
+     * 把终点移到字符边界，避免截断多字节字符
+     */
+    private static int alignEnd(byte[] b, int from, int to, Detected detected) {
+        if (detected.utf16()) {
+            return to - (to - from) % 2;
+        }
+        if (StandardCharsets.UTF_8.equals(detected.charset())) {
+            int i = to;
+            while (i > from && (b[i - 1] & 0xC0) == 0x80) i--;
+            // i - 1 为多字节字符的首字节时检查该字符是否完整
+            if (i > from && (b[i - 1] & 0x80) != 0) {
+                int lead = b[i - 1] & 0xFF;
+                int need = lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : 2;
+                if (to - (i - 1) < need) {
+                    return i - 1;
+                }
+            }
+        }
+        return to;
+    }
+
+    /**
+     * 按行顺序读取文件（位置读，不改变通道位置）；换行按编码单元识别，UTF-16 为两字节
+     */
+    private static final class LineCursor {
+
+        private final FileChannel channel;
+        private final long end;
+        private final boolean utf16;
+        private final boolean bigEndian;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private long readOffset;
+        private boolean truncated;
+
+        LineCursor(FileChannel channel, long start, long end, Detected detected) {
+            this.channel = channel;
+            this.end = end;
+            this.utf16 = detected.utf16();
+            this.bigEndian = detected.bigEndian();
+            reset(start);
+        }
+
+        /**
+         * 下一行的起始位置
+         */
+        long position() {
+            return readOffset - buffer.remaining();
+        }
+
+        void reset(long position) {
+            readOffset = position;
+            buffer.clear().limit(0);
+        }
+
+        /**
+         * 上一次读取的行是否超过上限被截断
+         */
+        boolean truncated() {
+            return truncated;
+        }
+
+        /**
+         * 读取一行（不含换行符）；out 为空时只跳过该行，超过 maxBytes 的部分丢弃
+         */
+        void readLine(ByteArrayOutputStream out, int maxBytes) throws IOException {
+            truncated = false;
+            int unit = utf16 ? 2 : 1;
+            while (true) {
+                if (buffer.remaining() < unit && !fill(unit)) {
+                    // 文件末尾：UTF-16 文件可能剩下不成对的一个字节
+                    if (buffer.hasRemaining()) {
+                        append(out, maxBytes, buffer.position(), buffer.remaining());
+                        buffer.position(buffer.limit());
+                    }
+                    return;
+                }
+                int p = buffer.position();
+                boolean newline = utf16
+                    ? (bigEndian ? buffer.get(p) == 0 && buffer.get(p + 1) == '\n'
+                                 : buffer.get(p) == '\n' && buffer.get(p + 1) == 0)
+                    : buffer.get(p) == '\n';
+                buffer.position(p + unit);
+                if (newline) {
+                    return;
+                }
+                append(out, maxBytes, p, unit);
+            }
+        }
+
+        private void append(ByteArrayOutputStream out, int maxBytes, int from, int length) {
+            if (out == null) {
+                return;
+            }
+            if (out.size() + length > maxBytes) {
+                truncated = true;
+                return;
+            }
+            out.write(buffer.array(), from, length);
+        }
+
+        private boolean fill(int unit) throws IOException {
+            if (readOffset >= end) {
+                return false;
+            }
+            buffer.compact();
+            int n = channel.read(buffer, readOffset);
+            buffer.flip();
+            if (n <= 0) {
+                return false;
+            }
+            readOffset += n;
+            return buffer.remaining() >= unit || fill(unit);
+        }
+    }
+}
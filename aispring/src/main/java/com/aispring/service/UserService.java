@@ -5,6 +5,7 @@ import com.aispring.entity.User;
 import com.aispring.repository.AdminRepository;
 import com.aispring.repository.UserRepository;
 import com.aispring.exception.CustomException;
+import com.aispring.security.UserPrincipalCache;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -21,6 +22,7 @@ public class UserService {
     
     private final UserRepository userRepository;
     private final AdminRepository adminRepository;
+    private final UserPrincipalCache userPrincipalCache;
     
     /**
      * 更新用户头像
@@ -31,7 +33,9 @@ public class UserService {
     public User updateAvatar(Long userId, String avatarPath) {
         User user = getUserById(userId);
         user.setAvatar(avatarPath);
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        userPrincipalCache.evict(saved.getEmail());
+        return saved;
     }
 
     /**
@@ -43,7 +47,9 @@ public class UserService {
     public User updateUsername(Long userId, String username) {
         User user = getUserById(userId);
         user.setUsername(username);
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        userPrincipalCache.evict(saved.getEmail());
+        return saved;
     }
     
     /**
@@ -66,8 +72,7 @@ public class UserService {
     public Admin setAsAdmin(String email) {
         User user = userRepository.findByEmail(email)
                 .orElseThrow(() -> new CustomException("用户不存在: " + email));
-        
-        return adminRepository.findByUser(user)
+        Admin result = adminRepository.findByUser(user)
                 .orElseGet(() -> {
                     Admin admin = new Admin();
                     admin.setUser(user);
@@ -76,6 +81,9 @@ public class UserService {
                     admin.setCreatedAt(LocalDateTime.now());
                     return adminRepository.save(admin);
                 });
+        // 管理员身份影响权限，需使缓存的认证主体失效（事务提交后执行）
+        userPrincipalCache.evict(email);
+        return result;
     }
 
     /**
@@ -96,10 +104,17 @@ public class UserService {
     public void setDefaultAvatar(User user) {
         // 如果用户没有头像，设置默认头像URL
         if (user.getAvatar() == null || user.getAvatar().isEmpty()) {
-            // 使用随机默认头像服务，根据用户名生成唯一头像
-            String defaultAvatarUrl = String.format("https://ui-avatars.com/api/?name=%s&background=random&color=fff&size=128", 
-                                                   user.getUsername().replace(" ", "+"));
-            user.setAvatar(defaultAvatarUrl);
+            user.setAvatar(defaultAvatarUrl(user.getUsername()));
         }
     }
+    
+    /**
+     * 生成默认头像URL
+     * @param username 用户名
+     */
+    public String defaultAvatarUrl(String username) {
+        // 使用随机默认头像服务，根据用户名生成唯一头像
+        return String.format("https://ui-avatars.com/api/?name=%s&background=random&color=fff&size=128", 
+                             username.replace(" ", "+"));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,185 @@
+package com.aispring.service;
+
+import com.aispring.exception.CustomException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+
+/**
+ * 验证码存储
+ * 验证码保存在 Redis 中，依靠 TTL 自动过期，不再写入 verification_codes_v2 表：
+ * - 签发：邮箱冷却与 IP 计数检查、验证码写入在同一个 Lua 脚本中完成
+ * - 校验：比对成功即删除（一次性），连续输错超过上限后作废；
+ *   在业务事务开头消费，验证码错误的请求不产生任何业务开销；事务回滚后恢复验证码，业务失败不会让用户的验证码作废
+ */
+@Service
+@Slf4j
+public class VerificationCodeStore {
+
+    public static final String USAGE_REGISTER = "register";
+    public static final String USAGE_RESET_PASSWORD = "reset_password";
+
+    private static final String CODE_KEY_PREFIX = "verify_code:";
+    private static final String EMAIL_THROTTLE_PREFIX = "verify_code:throttle:email:";
+    private static final String IP_THROTTLE_PREFIX = "verify_code:throttle:ip:";
+
+    /**
+     * KEYS: 验证码 / 邮箱冷却 / IP 计数；ARGV: code, ttl, 邮箱冷却秒数, IP 上限, IP 窗口秒数
+     * 返回 {status, retryAfterMs}：1 成功，0 邮箱冷却中，-1 IP 超限
+     */
+    private static final DefaultRedisScript<List<Long>> ISSUE_SCRIPT = listScript(
+        "if redis.call('EXISTS', KEYS[2]) == 1 then " +
+        "  return {0, redis.call('PTTL', KEYS[2])} " +
+        "end " +
+        "local count = tonumber(redis.call('GET', KEYS[3]) or '0') " +
+        "if count >= tonumber(ARGV[4]) then " +
+        "  return {-1, redis.call('PTTL', KEYS[3])} " +
+        "end " +
+        "if redis.call('INCR', KEYS[3]) == 1 then redis.call('EXPIRE', KEYS[3], tonumber(ARGV[5])) end " +
+        "redis.call('DEL', KEYS[1]) " +
+        "redis.call('HSET', KEYS[1], 'code', ARGV[1], 'fails', 0) " +
+        "redis.call('EXPIRE', KEYS[1], tonumber(ARGV[2])) " +
+        "redis.call('SET', KEYS[2], '1', 'EX', tonumber(ARGV[3])) " +
+        "return {1, 0}");
+
+    /**
+     * ARGV: 输入的验证码, 最大错误次数
+     * 返回正数表示校验通过（已删除，值为删除前的剩余毫秒数），0 验证码错误，-1 不存在或已过期
+     */
+    private static final DefaultRedisScript<Long> CONSUME_SCRIPT = new DefaultRedisScript<>(
+        "local code = redis.call('HGET', KEYS[1], 'code') " +
+        "if not code then return -1 end " +
+        "if code == ARGV[1] then " +
+        "  local ttl = redis.call('PTTL', KEYS[1]) " +
+        "  redis.call('DEL', KEYS[1]) " +
+        "  if ttl < 1 then ttl = 1 end " +
+        "  return ttl " +
+        "end " +
+        "if redis.call('HINCRBY', KEYS[1], 'fails', 1) >= tonumber(ARGV[2]) then redis.call('DEL', KEYS[1]) end " +
+        "return 0",
+        Long.class);
+
+    /**
+     * 恢复已消费的验证码（事务回滚时）；期间已签发新验证码则保持新验证码。ARGV: code, 剩余毫秒数
+     */
+    private static final DefaultRedisScript<Long> RESTORE_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('EXISTS', KEYS[1]) == 1 then return 0 end " +
+        "redis.call('HSET', KEYS[1], 'code', ARGV[1], 'fails', 0) " +
+        "redis.call('PEXPIRE', KEYS[1], tonumber(ARGV[2])) " +
+        "return 1",
+        Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    @Value("${app.auth.verification-code-expire-minutes:5}")
+    private int expireMinutes;
+
+    @Value("${app.auth.code-email-interval-seconds:60}")
+    private int emailIntervalSeconds;
+
+    @Value("${app.auth.code-ip-limit:20}")
+    private int ipLimit;
+
+    @Value("${app.auth.code-ip-window-seconds:3600}")
+    private int ipWindowSeconds;
+
+    @Value("${app.auth.code-max-failures:5}")
+    private int maxFailures;
+
+    public VerificationCodeStore(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * 签发验证码；邮箱处于冷却期或 IP 超出发送上限时抛出异常
+     */
+    public void issue(String usage, String email, String ip, String code) {
+        List<Long> result;
+        try {
+            result = redisTemplate.execute(ISSUE_SCRIPT,
+                List.of(CODE_KEY_PREFIX + usage + ":" + email, EMAIL_THROTTLE_PREFIX + email,
+                        IP_THROTTLE_PREFIX + (ip != null ? ip : "unknown")),
+                code, String.valueOf(expireMinutes * 60L), String.valueOf(emailIntervalSeconds),
+                String.valueOf(ipLimit), String.valueOf(ipWindowSeconds));
+        } catch (Exception e) {
+            log.error("写入验证码失败 - email={}: {}", email, e.getMessage());
+            throw new CustomException("验证码服务暂不可用，请稍后重试");
+        }
+        if (result == null || result.size() < 2) {
+            throw new CustomException("验证码服务暂不可用，请稍后重试");
+        }
+        long status = result.get(0);
+        long seconds = Math.max(1, (result.get(1) + 999) / 1000);
+        if (status == 0) {
+            throw new CustomException("验证码发送过于频繁，请 " + seconds + " 秒后再试");
+        }
+        if (status == -1) {
+            log.warn("IP 验证码发送次数超限: {}", ip);
+            throw new CustomException("验证码发送次数过多，请 " + seconds + " 秒后再试");
+        }
+    }
+
+    /**
+     * 校验并消费验证码，失败时抛出异常。
+     * 应在业务事务的第一步调用，校验通过前不做任何加密或写入；校验通过后事务回滚时，验证码会被恢复
+     */
+    public void consume(String usage, String email, String code) {
+        String key = CODE_KEY_PREFIX + usage + ":" + email;
+        Long result;
+        try {
+            result = redisTemplate.execute(CONSUME_SCRIPT, List.of(key),
+                code != null ? code : "", String.valueOf(maxFailures));
+        } catch (Exception e) {
+            log.error("校验验证码失败 - email={}: {}", email, e.getMessage());
+            throw new CustomException("验证码服务暂不可用，请稍后重试");
+        }
+        if (result == null || result < 0) {
+            throw new CustomException("验证码无效或已过期");
+        }
+        if (result == 0) {
+            throw new CustomException("验证码错误");
+        }
+        restoreOnRollback(key, code, result);
+    }
+
+    /**
+     * 读取当前有效的验证码但不消费（发送验证码邮件时填充正文），不存在或已过期时返回 null
+     */
+    public String peek(String usage, String email) {
+        Object code = redisTemplate.opsForHash().get(CODE_KEY_PREFIX + usage + ":" + email, "code");
+        return code != null ? code.toString() : null;
+    }
+
+    private void restoreOnRollback(String key, String code, long remainingMs) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    return;
+                }
+                try {
+                    redisTemplate.execute(RESTORE_SCRIPT, List.of(key), code, String.valueOf(remainingMs));
+                } catch (Exception e) {
+                    log.warn("事务回滚后恢复验证码失败 - key={}: {}", key, e.getMessage());
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static DefaultRedisScript<List<Long>> listScript(String source) {
+        DefaultRedisScript<List<Long>> script = new DefaultRedisScript<>();
+        script.setScriptText(source);
+        script.setResultType((Class<List<Long>>) (Class<?>) List.class);
+        return script;
+    }
+}
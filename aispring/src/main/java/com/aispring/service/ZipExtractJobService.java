@@ -0,0 +1,489 @@
+package com.aispring.service;
+
+import com.aispring.config.StorageProperties;
+import com.aispring.entity.User;
+import com.aispring.entity.ZipExtractJob;
+import com.aispring.exception.CustomException;
+import com.aispring.repository.UserRepository;
+import com.aispring.repository.ZipExtractJobRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * ZIP 后台解压服务
+ * 流程：上传压缩包 → 读取中央目录校验并登记任务 → 后台线程认领并导入 → 客户端轮询进度。
+ * - 使用 ZipFile 随机读取，条目由工作线程并行解压到临时文件并计算哈希，导入线程按原顺序登记
+ * - 进度（下一个条目序号）与文件记录在同一事务中提交，重启或实例崩溃后由其他线程从断点继续
+ * - 中央目录中的大小不可信：每个条目解压时不得超过声明大小，整个任务不得超过总大小上限，
+ *   条目解压前先按声明大小预留配额，临时文件占用的空间同样受配额约束
+ */
+@Service
+@Slf4j
+public class ZipExtractJobService {
+
+    private static final String JOB_DIR = ".extract-jobs";
+
+    /**
+     * 任务进度
+     * @param etaSeconds 按本轮运行速度估算的剩余秒数，无法估算时为 null
+     */
+    public record JobStatus(String jobId, String status, int totalEntries, int entriesDone,
+                            long totalBytes, long bytesDone, int filesImported,
+                            Long etaSeconds, String errorMessage) {}
+
+    /** 本实例正在执行的任务的实时进度（比数据库中已提交的进度更新） */
+    private static final class LiveProgress {
+        volatile int entriesDone;
+        volatile long bytesDone;
+        volatile int filesImported;
+        final long runStartBytes;
+        final long runStartNanos = System.nanoTime();
+
+        LiveProgress(int entriesDone, long bytesDone, int filesImported) {
+            this.entriesDone = entriesDone;
+            this.bytesDone = bytesDone;
+            this.filesImported = filesImported;
+            this.runStartBytes = bytesDone;
+        }
+    }
+
+    /**
+     * 在途条目
+     * @param reservation 解压前按声明大小预留的配额，导入时交给导入分段重新预留
+     */
+    private record Pending(ZipEntry entry, Future<BlobStoreService.StagedBlob> future,
+                           StorageQuotaService.Reservation reservation) {}
+
+    private final ZipExtractJobRepository jobRepository;
+    private final UserRepository userRepository;
+    private final FolderIngestService folderIngestService;
+    private final BlobStoreService blobStoreService;
+    private final StorageQuotaService storageQuotaService;
+    private final StorageProperties storageProperties;
+
+    private final ExecutorService jobExecutor;
+    private final ThreadPoolExecutor extractExecutor;
+    private final Map<String, LiveProgress> running = new ConcurrentHashMap<>();
+    private volatile boolean shuttingDown;
+
+    @Value("${app.cloud-disk.extract.max-concurrent-jobs:2}")
+    private int maxConcurrentJobs;
+
+    /** 每个任务最多同时解压的条目数 */
+    @Value("${app.cloud-disk.extract.max-in-flight:8}")
+    private int maxInFlight;
+
+    @Value("${app.cloud-disk.extract.stale-minutes:5}")
+    private long staleMinutes;
+
+    @Value("${app.cloud-disk.extract.retention-days:7}")
+    private long retentionDays;
+
+    /** 单个压缩包解压后的总大小上限 */
+    @Value("${app.cloud-disk.extract.max-total-bytes:10737418240}")
+    private long maxTotalBytes;
+
+    public ZipExtractJobService(ZipExtractJobRepository jobRepository,
+                                UserRepository userRepository,
+                                FolderIngestService folderIngestService,
+                                BlobStoreService blobStoreService,
+                                StorageQuotaService storageQuotaService,
+                                StorageProperties storageProperties,
+                                @Value("${app.cloud-disk.extract.workers:0}") int workers) {
+        this.jobRepository = jobRepository;
+        this.userRepository = userRepository;
+        this.folderIngestService = folderIngestService;
+        this.blobStoreService = blobStoreService;
+        this.storageQuotaService = storageQuotaService;
+        this.storageProperties = storageProperties;
+        AtomicInteger seq = new AtomicInteger();
+        this.jobExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r);
+            t.setName("zip-extract-job-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        int threads = workers > 0 ? workers : Math.max(2, Runtime.getRuntime().availableProcessors());
+        this.extractExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r);
+                t.setName("zip-extract-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        this.extractExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdownExecutor() {
+        // 未完成的任务保持 RUNNING，心跳超时后由重启后的实例继续
+        shuttingDown = true;
+        jobExecutor.shutdownNow();
+        extractExecutor.shutdownNow();
+    }
+
+    /**
+     * 保存压缩包并登记任务；压缩包无效或解压后大小超出配额时直接拒绝
+     */
+    public JobStatus submit(Long userId, String folderPath, MultipartFile zipFile) throws IOException {
+        User user = userRepository.findById(userId)
+            .orElseThrow(() -> new CustomException("用户不存在"));
+        String jobId = UUID.randomUUID().toString();
+        Path archive = archivePath(jobId);
+        Files.createDirectories(archive.getParent());
+        zipFile.transferTo(archive);
+
+        int totalEntries;
+        long totalBytes = 0;
+        try (ZipFile zip = new ZipFile(archive.toFile(), StandardCharsets.UTF_8)) {
+            totalEntries = zip.size();
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (entry.getSize() < 0) {
+                    throw new IOException("条目大小未知: " + entry.getName());
+                }
+                totalBytes += entry.getSize();
+                if (totalBytes > maxTotalBytes) {
+                    throw new CustomException("压缩包解压后超过 " + maxTotalBytes / (1024 * 1024) + "MB 上限");
+                }
+            }
+            // 仅用于预检，关闭时释放；实际预留由导入的各分段完成
+            try (StorageQuotaService.Reservation ignored = storageQuotaService.reserve(userId, totalBytes, user.isAdmin())) {
+                log.debug("ZIP 解压任务配额预检通过 - userId={}, bytes={}", userId, totalBytes);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(archive);
+            throw new CustomException("无效的 ZIP 文件: " + e.getMessage());
+        } catch (RuntimeException e) {
+            Files.deleteIfExists(archive);
+            throw e;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        ZipExtractJob job = new ZipExtractJob();
+        job.setJobId(jobId);
+        job.setUserId(userId);
+        job.setFolderPath(folderPath);
+        job.setArchiveName(zipFile.getOriginalFilename());
+        job.setTotalEntries(totalEntries);
+        job.setTotalBytes(totalBytes);
+        job.setCreatedAt(now);
+        job.setUpdatedAt(now);
+        jobRepository.save(job);
+        log.info("ZIP 解压任务已登记 - jobId={}, userId={}, 条目={}, 字节={}", jobId, userId, totalEntries, totalBytes);
+
+        dispatch();
+        return toStatus(job);
+    }
+
+    public JobStatus status(Long userId, String jobId) {
+        ZipExtractJob job = jobRepository.findByJobIdAndUserId(jobId, userId)
+            .orElseThrow(() -> new CustomException("解压任务不存在"));
+        return toStatus(job);
+    }
+
+    /**
+     * 启动后立即接管上次未完成的任务，不必等到第一次定时调度
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeOnStartup() {
+        dispatch();
+    }
+
+    /**
+     * 认领并执行可运行的任务；同时刷新本实例运行中任务的心跳、清理过期的任务记录
+     */
+    @Scheduled(fixedDelayString = "${app.cloud-disk.extract.dispatch-interval-ms:30000}", initialDelay = 30000)
+    public synchronized void dispatch() {
+        if (shuttingDown) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            if (!running.isEmpty()) {
+                jobRepository.heartbeat(running.keySet(), now);
+            }
+            LocalDateTime staleBefore = now.minusMinutes(staleMinutes);
+            for (String jobId : jobRepository.findClaimable(staleBefore)) {
+                if (running.size() >= maxConcurrentJobs) {
+                    break;
+                }
+                if (running.containsKey(jobId) || jobRepository.claim(jobId, now, staleBefore) == 0) {
+                    continue;
+                }
+                running.put(jobId, new LiveProgress(0, 0, 0));
+                jobExecutor.execute(() -> run(jobId));
+            }
+            jobRepository.deleteFinishedBefore(now.minusDays(retentionDays));
+        } catch (Exception e) {
+            log.error("ZIP 解压任务调度失败", e);
+        }
+    }
+
+    private void run(String jobId) {
+        try {
+            ZipExtractJob job = jobRepository.findById(jobId).orElse(null);
+            if (job == null) {
+                return;
+            }
+            execute(job);
+            jobRepository.finish(jobId, ZipExtractJob.STATUS_COMPLETED, null, LocalDateTime.now());
+            Files.deleteIfExists(archivePath(jobId));
+            log.info("ZIP 解压任务完成 - jobId={}", jobId);
+        } catch (Exception e) {
+            if (shuttingDown) {
+                log.info("应用关闭，ZIP 解压任务将在重启后继续 - jobId={}", jobId);
+                return;
+            }
+            log.error("ZIP 解压任务失败 - jobId={}: {}", jobId, e.getMessage(), e);
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            jobRepository.finish(jobId, ZipExtractJob.STATUS_FAILED,
+                message.length() > 500 ? message.substring(0, 500) : message, LocalDateTime.now());
+            try {
+                Files.deleteIfExists(archivePath(jobId));
+            } catch (IOException ignore) {
+                // 由人工清理
+            }
+        } finally {
+            running.remove(jobId);
+        }
+    }
+
+    private void execute(ZipExtractJob job) throws IOException {
+        String jobId = job.getJobId();
+        User user = userRepository.findById(job.getUserId())
+            .orElseThrow(() -> new CustomException("用户不存在"));
+        LiveProgress live = new LiveProgress(job.getNextEntry(), job.getBytesDone(), job.getFilesImported());
+        running.put(jobId, live);
+
+        try (ZipFile zip = new ZipFile(archivePath(jobId).toFile(), StandardCharsets.UTF_8);
+             FolderIngestService.Session session = folderIngestService.open(user, job.getFolderPath())) {
+            List<? extends ZipEntry> entries = Collections.list(zip.entries());
+            // 断点续传时已导入的字节计入总大小上限
+            AtomicLong budget = new AtomicLong(maxTotalBytes - job.getBytesDone());
+            int start = Math.min(job.getNextEntry(), entries.size());
+            int baseFiles = job.getFilesImported();
+            long baseBytes = job.getBytesDone();
+            int[] current = {start};
+            session.setChunkListener((files, bytes) -> jobRepository.updateProgress(
+                jobId, current[0] + 1, baseBytes + bytes, baseFiles + files, LocalDateTime.now()));
+
+            Deque<Pending> window = new ArrayDeque<>();
+            int submitted = start;
+            try {
+                for (int i = start; i < entries.size(); i++) {
+                    while (submitted < entries.size() && submitted - i < Math.max(1, maxInFlight)) {
+                        ZipEntry entry = entries.get(submitted++);
+                        if (entry.isDirectory()) {
+                            window.addLast(new Pending(entry, null, null));
+                            continue;
+                        }
+                        if (entry.getSize() < 0) {
+                            throw new IOException("条目大小未知: " + entry.getName());
+                        }
+                        // 先预留再解压：超出配额时不再产生临时文件
+                        StorageQuotaService.Reservation reservation =
+                            storageQuotaService.reserve(user.getId(), entry.getSize(), user.isAdmin());
+                        try {
+                            window.addLast(new Pending(entry,
+                                extractExecutor.submit(() -> stage(zip, entry, budget)), reservation));
+                        } catch (RuntimeException e) {
+                            reservation.close();
+                            throw e;
+                        }
+                    }
+                    Pending pending = window.pollFirst();
+                    current[0] = i;
+                    if (pending.entry().isDirectory()) {
+                        session.addFolder(pending.entry().getName());
+                    } else {
+                        BlobStoreService.StagedBlob staged;
+                        try {
+                            staged = await(pending);
+                        } finally {
+                            // 导入分段按同样的大小重新预留
+                            pending.reservation().close();
+                        }
+                        try {
+                            session.addFile(pending.entry().getName(), null, pending.entry().getSize(),
+                                () -> blobStoreService.commitStaged(staged));
+                        } catch (IOException | RuntimeException e) {
+                            blobStoreService.discardStaged(staged);
+                            throw e;
+                        }
+                        live.bytesDone += staged.size();
+                        live.filesImported++;
+                    }
+                    live.entriesDone = i + 1;
+                }
+                current[0] = entries.size() - 1;
+                session.finish();
+            } finally {
+                for (Pending pending : window) {
+                    discard(pending);
+                }
+            }
+        }
+    }
+
+    private BlobStoreService.StagedBlob stage(ZipFile zip, ZipEntry entry, AtomicLong budget) throws IOException {
+        try (InputStream in = new BoundedEntryStream(zip.getInputStream(entry), entry, budget)) {
+            return blobStoreService.stage(in);
+        }
+    }
+
+    /**
+     * 按中央目录声明的大小限制条目内容：多出或缺少都视为压缩包损坏，
+     * 同时从任务共享的总字节额度中扣减，防止声明大小被伪造时解压出超量数据
+     */
+    static final class BoundedEntryStream extends FilterInputStream {
+
+        private final String name;
+        private final AtomicLong budget;
+        private long remaining;
+
+        BoundedEntryStream(InputStream in, ZipEntry entry, AtomicLong budget) {
+            super(in);
+            this.name = entry.getName();
+            this.budget = budget;
+            this.remaining = entry.getSize();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining == 0) {
+                if (in.read() != -1) {
+                    throw new IOException("条目实际大小超过声明大小: " + name);
+                }
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) {
+                throw new IOException("条目实际大小小于声明大小: " + name);
+            }
+            remaining -= n;
+            if (budget.addAndGet(-n) < 0) {
+                throw new IOException("压缩包解压后超过总大小上限");
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // 跳过的内容同样计入限制
+            byte[] buffer = new byte[(int) Math.min(8192, Math.max(n, 1))];
+            long skipped = 0;
+            while (skipped < n) {
+                int r = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (r == -1) {
+                    break;
+                }
+                skipped += r;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private BlobStoreService.StagedBlob await(Pending pending) throws IOException {
+        try {
+            return pending.future().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("解压被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("解压失败: " + pending.entry().getName(), cause);
+        }
+    }
+
+    /**
+     * 丢弃未导入的条目：取消未开始的解压，删除已解压的临时文件
+     */
+    private void discard(Pending pending) {
+        if (pending.future() == null) {
+            return;
+        }
+        pending.reservation().close();
+        if (!pending.future().cancel(true) && pending.future().isDone()) {
+            try {
+                blobStoreService.discardStaged(pending.future().get());
+            } catch (Exception ignore) {
+                // 解压本身失败，没有临时文件
+            }
+        }
+    }
+
+    private JobStatus toStatus(ZipExtractJob job) {
+        LiveProgress live = ZipExtractJob.STATUS_RUNNING.equals(job.getStatus()) ? running.get(job.getJobId()) : null;
+        int entriesDone = live != null ? live.entriesDone : job.getNextEntry();
+        long bytesDone = live != null ? live.bytesDone : job.getBytesDone();
+        int filesImported = live != null ? live.filesImported : job.getFilesImported();
+        Long eta = null;
+        if (live != null && bytesDone > live.runStartBytes && job.getTotalBytes() > bytesDone) {
+            long elapsedNanos = System.nanoTime() - live.runStartNanos;
+            double nanosPerByte = (double) elapsedNanos / (bytesDone - live.runStartBytes);
+            eta = Duration.ofNanos((long) (nanosPerByte * (job.getTotalBytes() - bytesDone))).toSeconds();
+        }
+        return new JobStatus(job.getJobId(), job.getStatus(), job.getTotalEntries(), entriesDone,
+            job.getTotalBytes(), bytesDone, filesImported, eta, job.getErrorMessage());
+    }
+
+    private Path archivePath(String jobId) {
+        return Paths.get(storageProperties.getCloudDiskAbsolute()).resolve(JOB_DIR).resolve(jobId + ".zip");
+    }
+}
@@ -2,7 +2,6 @@ package com.aispring.service.impl;
 
 import com.aispring.service.AiChatService;
 import com.aispring.repository.ChatRecordRepository;
-import com.aispring.repository.AnonymousChatRecordRepository;
 import com.aispring.entity.ChatRecord;
 import com.aispring.entity.AnonymousChatRecord;
 import com.aispring.entity.ChatSession;
@@ -59,7 +58,7 @@ public class AiChatServiceImpl implements AiChatService {
     private final ObjectProvider<ChatClient> chatClientProvider;
     private final ObjectProvider<StreamingChatClient> streamingChatClientProvider;
     private final ChatRecordRepository chatRecordRepository;
-    private final AnonymousChatRecordRepository anonymousChatRecordRepository;
+    private final com.aispring.service.AnonymousChatStore anonymousChatStore;
     private final com.aispring.service.ChatRecordService chatRecordService; // 注入 ChatRecordService
     private final OkHttpClient okHttpClient;
     
@@ -147,7 +146,7 @@ public class AiChatServiceImpl implements AiChatService {
     public AiChatServiceImpl(ObjectProvider<ChatClient> chatClientProvider,
                              ObjectProvider<StreamingChatClient> streamingChatClientProvider,
                              ChatRecordRepository chatRecordRepository,
-                             AnonymousChatRecordRepository anonymousChatRecordRepository,
+                             com.aispring.service.AnonymousChatStore anonymousChatStore,
                              com.aispring.service.ChatRecordService chatRecordService, // 添加到构造函数
                              @Value("${ai.doubao.api-key:}") String doubaoApiKey,
                              @Value("${ai.doubao.api-url:}") String doubaoApiUrl,
@@ -156,7 +155,7 @@ public class AiChatServiceImpl implements AiChatService {
         this.chatClientProvider = chatClientProvider;
         this.streamingChatClientProvider = streamingChatClientProvider;
         this.chatRecordRepository = chatRecordRepository;
-        this.anonymousChatRecordRepository = anonymousChatRecordRepository;
+        this.anonymousChatStore = anonymousChatStore;
         this.chatRecordService = chatRecordService; // 初始化
         
         this.doubaoApiKey = doubaoApiKey;
@@ -293,7 +292,7 @@ public class AiChatServiceImpl implements AiChatService {
                         .model(model)
                         .createdAt(java.time.LocalDateTime.now())
                         .build();
-                    anonymousChatRecordRepository.save(userRecord);
+                    anonymousChatStore.append(userRecord);
                     
                     // 保存AI消息
                     AnonymousChatRecord aiRecord = AnonymousChatRecord.builder()
@@ -305,7 +304,7 @@ public class AiChatServiceImpl implements AiChatService {
                         .model(model)
                         .createdAt(java.time.LocalDateTime.now())
                         .build();
-                    anonymousChatRecordRepository.save(aiRecord);
+                    anonymousChatStore.append(aiRecord);
                 }
 
                 // 发送完成事件
@@ -437,16 +436,11 @@ public class AiChatServiceImpl implements AiChatService {
                     reversedIncluded.add(msg);
                 }
             } else {
-                List<AnonymousChatRecord> history = (ipAddress == null || ipAddress.isEmpty())
-                    ? anonymousChatRecordRepository.findBySessionIdOrderByCreatedAtDesc(
-                        sessionId,
-                        PageRequest.of(0, maxHistoryMessages == null ? 0 : Math.max(0, maxHistoryMessages))
-                    )
-                    : anonymousChatRecordRepository.findBySessionIdAndIpAddressOrderByCreatedAtDesc(
-                        sessionId,
-                        ipAddress,
-                        PageRequest.of(0, maxHistoryMessages == null ? 0 : Math.max(0, maxHistoryMessages))
-                    );
+                List<AnonymousChatRecord> history = anonymousChatStore.findRecentDesc(
+                    sessionId,
+                    ipAddress,
+                    maxHistoryMessages == null ? 0 : Math.max(0, maxHistoryMessages)
+                );
                 for (AnonymousChatRecord record : history) {
                     if (budget <= 0) break;
                     String role = "user".equalsIgnoreCase(record.getRole()) ? "user" : "assistant";
@@ -741,16 +735,11 @@ public class AiChatServiceImpl implements AiChatService {
                 messages.addAll(reversedIncluded);
             } else {
                 // 匿名用户：查询 AnonymousChatRecord
-                List<AnonymousChatRecord> history = (ipAddress == null || ipAddress.isEmpty())
-                    ? anonymousChatRecordRepository.findBySessionIdOrderByCreatedAtDesc(
-                        sessionId,
-                        PageRequest.of(0, maxHistoryMessages == null ? 0 : Math.max(0, maxHistoryMessages))
-                    )
-                    : anonymousChatRecordRepository.findBySessionIdAndIpAddressOrderByCreatedAtDesc(
-                        sessionId,
-                        ipAddress,
-                        PageRequest.of(0, maxHistoryMessages == null ? 0 : Math.max(0, maxHistoryMessages))
-                    );
+                List<AnonymousChatRecord> history = anonymousChatStore.findRecentDesc(
+                    sessionId,
+                    ipAddress,
+                    maxHistoryMessages == null ? 0 : Math.max(0, maxHistoryMessages)
+                );
                 List<Message> reversedIncluded = new ArrayList<>();
                 for (AnonymousChatRecord record : history) {
                     if (budget <= 0) break;
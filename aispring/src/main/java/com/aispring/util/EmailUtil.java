@@ -25,7 +25,7 @@ public class EmailUtil {
             SimpleMailMessage message = new SimpleMailMessage();
             message.setFrom(fromEmail);
             message.setTo(toEmail);
-            message.setSubject("【AI智能学习助手】" + purpose + "验证码");
+            message.setSubject(buildVerificationEmailSubject(purpose));
             message.setText(buildVerificationEmailContent(code, purpose));
             
             mailSender.send(message);
@@ -36,10 +36,17 @@ public class EmailUtil {
         }
     }
     
+    /**
+     * 构建验证码邮件主题
+     */
+    public String buildVerificationEmailSubject(String purpose) {
+        return "【AI智能学习助手】" + purpose + "验证码";
+    }
+    
     /**
      * 构建验证码邮件内容
      */
-    private String buildVerificationEmailContent(String code, String purpose) {
+    public String buildVerificationEmailContent(String code, String purpose) {
         return String.format("""
             尊敬的用户：
             
@@ -75,5 +82,15 @@ public class EmailUtil {
             throw new RuntimeException("发送邮件失败: " + e.getMessage());
         }
     }
+    
+    /**
+     * 批量发送邮件：同一批次复用一个 SMTP 连接
+     * 部分失败时抛出 MailSendException，可通过 getFailedMessages() 获取失败的邮件
+     */
+    public void sendBatch(SimpleMailMessage... messages) {
+        for (SimpleMailMessage message : messages) {
+            message.setFrom(fromEmail);
+        }
+        mailSender.send(messages);
+    }
 }
-
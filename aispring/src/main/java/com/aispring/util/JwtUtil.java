@@ -1,8 +1,10 @@
 package com.aispring.util;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
@@ -23,7 +25,17 @@ public class JwtUtil {
     @Value("${jwt.expiration}")
     private Long expiration;
     
-    private SecretKey getSigningKey() {
+    /** 签名密钥与解析器只构建一次，二者均线程安全 */
+    private SecretKey signingKey;
+    private JwtParser jwtParser;
+    
+    @PostConstruct
+    void init() {
+        this.signingKey = buildSigningKey();
+        this.jwtParser = Jwts.parser().verifyWith(signingKey).build();
+    }
+    
+    private SecretKey buildSigningKey() {
         // 确保密钥长度足够（至少256位）
         byte[] keyBytes = secret.getBytes(StandardCharsets.UTF_8);
         if (keyBytes.length < 32) {
@@ -35,6 +47,10 @@ public class JwtUtil {
         return Keys.hmacShaKeyFor(keyBytes);
     }
     
+    private SecretKey getSigningKey() {
+        return signingKey;
+    }
+    
     public String extractUsername(String token) {
         return extractClaim(token, Claims::getSubject);
     }
@@ -48,11 +64,18 @@ public class JwtUtil {
         return claimsResolver.apply(claims);
     }
     
+    /**
+     * 校验签名与过期时间并返回全部声明（一次解析）
+     * @throws io.jsonwebtoken.ExpiredJwtException 令牌已过期
+     * @throws io.jsonwebtoken.JwtException 签名或格式无效
+     */
+    public Claims parseClaims(String token) {
+        return extractAllClaims(token);
+    }
+    
     private Claims extractAllClaims(String token) {
         // jjwt 0.12.x 使用新的 API
-        return Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
+        return jwtParser
                 .parseSignedClaims(token)
                 .getPayload();
     }
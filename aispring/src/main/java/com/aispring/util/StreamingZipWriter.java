@@ -0,0 +1,362 @@
+package com.aispring.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 流式 ZIP 写出器
+ * - 条目按调用顺序直接写入输出流，不经过临时文件
+ * - 条目数据可以由调用方预先压缩好（便于多线程并行压缩），也可以边压缩边写出（由调用方提供压缩后的数据流）
+ * - 文件名使用 UTF-8；条目大小、偏移超过 4GB 或条目数超过 65535 时自动使用 ZIP64
+ * 非线程安全，只能由一个线程写出
+ */
+public class StreamingZipWriter {
+
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+
+    /**
+     * 待打包条目
+     * @param source 文件内容路径，为空表示目录
+     * @param lastModified 毫秒时间戳
+     */
+    public record Entry(String name, Path source, long lastModified) {
+        public boolean isDirectory() {
+            return source == null;
+        }
+    }
+
+    /**
+     * 预先准备好的条目数据
+     * @param data 不为空时直接写出；为空时从文件原样读取 compressedSize 字节（仅 STORED）
+     */
+    public record Prepared(int method, long crc, long size, long compressedSize, byte[] data) {}
+
+    /**
+     * 边压缩边写出的条目数据
+     */
+    @FunctionalInterface
+    public interface DeflateSource {
+        /**
+         * 把原始 deflate 数据（不含 zlib 头）按顺序写入 out，同时用原始内容更新 crc
+         * @return 原始内容字节数
+         */
+        long writeTo(OutputStream out, CRC32 crc) throws IOException;
+    }
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final class CentralRecord {
+        byte[] name;
+        int flags;
+        int method;
+        long dosTime;
+        long crc;
+        long size;
+        long compressedSize;
+        long offset;
+        boolean directory;
+        /** 本地头使用了 ZIP64 格式，中央目录必须同样给出 ZIP64 扩展字段 */
+        boolean zip64;
+    }
+
+    private final CountingOutputStream out;
+    private final List<CentralRecord> central = new ArrayList<>();
+    private boolean finished;
+
+    public StreamingZipWriter(OutputStream out) {
+        this.out = new CountingOutputStream(out);
+    }
+
+    public void writeDirectory(String name, long lastModified) throws IOException {
+        CentralRecord r = newRecord(name.endsWith("/") ? name : name + "/", STORED, lastModified);
+        r.directory = true;
+        writeLocalHeader(r, false);
+        central.add(r);
+    }
+
+    /**
+     * 写出大小与 CRC 已知的条目
+     */
+    public void writePrepared(String name, long lastModified, Prepared prepared, Path source) throws IOException {
+        CentralRecord r = newRecord(name, prepared.method(), lastModified);
+        r.crc = prepared.crc();
+        r.size = prepared.size();
+        r.compressedSize = prepared.compressedSize();
+        writeLocalHeader(r, r.size >= ZIP64_MAGIC || r.compressedSize >= ZIP64_MAGIC);
+        if (prepared.data() != null) {
+            out.write(prepared.data());
+        } else {
+            long copied = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = Files.newInputStream(source)) {
+                int n;
+                while (copied < r.compressedSize
+                        && (n = in.read(buffer, 0, (int) Math.min(buffer.length, r.compressedSize - copied))) != -1) {
+                    out.write(buffer, 0, n);
+                    copied += n;
+                }
+            }
+            if (copied != r.compressedSize) {
+                throw new IOException("文件在打包期间被修改: " + name);
+            }
+        }
+        central.add(r);
+    }
+
+    /**
+     * 边读边压缩写出（大文件），CRC 与大小写在数据描述符中
+     * @param sizeHint 预估的原始大小，用于决定是否提前使用 ZIP64 格式
+     */
+    public void writeDeflated(String name, long lastModified, Path source, long sizeHint, int level) throws IOException {
+        writeDeflated(name, lastModified, sizeHint, (o, crc) -> {
+            Deflater deflater = new Deflater(level, true);
+            long size = 0;
+            try (InputStream in = Files.newInputStream(source)) {
+                byte[] input = new byte[BUFFER_SIZE];
+                byte[] output = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(input)) != -1) {
+                    crc.update(input, 0, n);
+                    size += n;
+                    deflater.setInput(input, 0, n);
+                    while (!deflater.needsInput()) {
+                        int len = deflater.deflate(output);
+                        o.write(output, 0, len);
+                    }
+                }
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int len = deflater.deflate(output);
+                    o.write(output, 0, len);
+                }
+            } finally {
+                deflater.end();
+            }
+            return size;
+        });
+    }
+
+    /**
+     * 写出由调用方压缩的条目（例如分块并行压缩），CRC 与大小写在数据描述符中
+     * @param sizeHint 预估的原始大小，用于决定是否提前使用 ZIP64 格式
+     */
+    public void writeDeflated(String name, long lastModified, long sizeHint, DeflateSource source) throws IOException {
+        CentralRecord r = newRecord(name, DEFLATED, lastModified);
+        r.flags |= FLAG_DATA_DESCRIPTOR;
+        // 预留 deflate 最坏情况下的膨胀量
+        boolean zip64 = sizeHint + sizeHint / 100 + 65536 >= ZIP64_MAGIC;
+        writeLocalHeader(r, zip64);
+
+        CRC32 crc = new CRC32();
+        long start = out.count;
+        long size = source.writeTo(out, crc);
+        r.crc = crc.getValue();
+        r.size = size;
+        r.compressedSize = out.count - start;
+        if (!zip64 && (r.size >= ZIP64_MAGIC || r.compressedSize >= ZIP64_MAGIC)) {
+            throw new IOException("文件在打包期间变大，超出预估: " + name);
+        }
+
+        writeInt(0x08074b50L);
+        writeInt(r.crc);
+        if (zip64) {
+            writeLong(r.compressedSize);
+            writeLong(r.size);
+        } else {
+            writeInt(r.compressedSize);
+            writeInt(r.size);
+        }
+        central.add(r);
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * 写出中央目录；不关闭底层输出流
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        long cdOffset = out.count;
+        for (CentralRecord r : central) {
+            writeCentralHeader(r);
+        }
+        long cdSize = out.count - cdOffset;
+        int count = central.size();
+
+        if (count >= ZIP64_MAGIC_COUNT || cdOffset >= ZIP64_MAGIC || cdSize >= ZIP64_MAGIC) {
+            long zip64EndOffset = out.count;
+            writeInt(0x06064b50L);
+            writeLong(44);
+            writeShort(VERSION_ZIP64);
+            writeShort(VERSION_ZIP64);
+            writeInt(0);
+            writeInt(0);
+            writeLong(count);
+            writeLong(count);
+            writeLong(cdSize);
+            writeLong(cdOffset);
+            // ZIP64 结束记录定位器
+            writeInt(0x07064b50L);
+            writeInt(0);
+            writeLong(zip64EndOffset);
+            writeInt(1);
+        }
+
+        writeInt(0x06054b50L);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeInt(Math.min(cdSize, ZIP64_MAGIC));
+        writeInt(Math.min(cdOffset, ZIP64_MAGIC));
+        writeShort(0);
+        out.flush();
+    }
+
+    private CentralRecord newRecord(String name, int method, long lastModified) {
+        CentralRecord r = new CentralRecord();
+        r.name = name.getBytes(StandardCharsets.UTF_8);
+        r.flags = FLAG_UTF8;
+        r.method = method;
+        r.dosTime = toDosTime(lastModified);
+        r.offset = out.count;
+        return r;
+    }
+
+    private void writeLocalHeader(CentralRecord r, boolean zip64) throws IOException {
+        boolean descriptor = (r.flags & FLAG_DATA_DESCRIPTOR) != 0;
+        r.zip64 = zip64;
+        writeInt(0x04034b50L);
+        writeShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        writeShort(r.flags);
+        writeShort(r.method);
+        writeInt(r.dosTime);
+        writeInt(descriptor ? 0 : r.crc);
+        if (zip64) {
+            writeInt(ZIP64_MAGIC);
+            writeInt(ZIP64_MAGIC);
+        } else {
+            writeInt(descriptor ? 0 : r.compressedSize);
+            writeInt(descriptor ? 0 : r.size);
+        }
+        writeShort(r.name.length);
+        writeShort(zip64 ? 20 : 0);
+        out.write(r.name);
+        if (zip64) {
+            // 本地头中的 ZIP64 扩展字段必须同时包含原始大小与压缩大小
+            writeShort(0x0001);
+            writeShort(16);
+            writeLong(descriptor ? 0 : r.size);
+            writeLong(descriptor ? 0 : r.compressedSize);
+        }
+    }
+
+    private void writeCentralHeader(CentralRecord r) throws IOException {
+        // 本地头用了 ZIP64 时两个大小都走扩展字段，与本地头保持一致，部分解压工具会校验两者
+        boolean sizesZip64 = r.zip64 || r.size >= ZIP64_MAGIC || r.compressedSize >= ZIP64_MAGIC;
+        boolean offsetOver = r.offset >= ZIP64_MAGIC;
+        int extraLength = (sizesZip64 ? 16 : 0) + (offsetOver ? 8 : 0);
+        boolean zip64 = extraLength > 0;
+        int version = zip64 ? VERSION_ZIP64 : VERSION_DEFAULT;
+
+        writeInt(0x02014b50L);
+        writeShort(version);
+        writeShort(version);
+        writeShort(r.flags);
+        writeShort(r.method);
+        writeInt(r.dosTime);
+        writeInt(r.crc);
+        writeInt(sizesZip64 ? ZIP64_MAGIC : r.compressedSize);
+        writeInt(sizesZip64 ? ZIP64_MAGIC : r.size);
+        writeShort(r.name.length);
+        writeShort(zip64 ? extraLength + 4 : 0);
+        writeShort(0);
+        writeShort(0);
+        writeShort(0);
+        writeInt(r.directory ? 0x10 : 0);
+        writeInt(offsetOver ? ZIP64_MAGIC : r.offset);
+        out.write(r.name);
+        if (zip64) {
+            writeShort(0x0001);
+            writeShort(extraLength);
+            if (sizesZip64) {
+                writeLong(r.size);
+                writeLong(r.compressedSize);
+            }
+            if (offsetOver) writeLong(r.offset);
+        }
+    }
+
+    private static long toDosTime(long millis) {
+        LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (t.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (t.getYear() - 1980) << 25) | ((long) t.getMonthValue() << 21) | ((long) t.getDayOfMonth() << 16)
+            | ((long) t.getHour() << 11) | ((long) t.getMinute() << 5) | (t.getSecond() >> 1);
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v & 0xFF);
+        out.write((v >>> 8) & 0xFF);
+    }
+
+    private void writeInt(long v) throws IOException {
+        out.write((int) (v & 0xFF));
+        out.write((int) ((v >>> 8) & 0xFF));
+        out.write((int) ((v >>> 16) & 0xFF));
+        out.write((int) ((v >>> 24) & 0xFF));
+    }
+
+    private void writeLong(long v) throws IOException {
+        writeInt(v & 0xFFFFFFFFL);
+        writeInt(v >>> 32);
+    }
+
+    /**
+     * 记录已写出字节数（即下一个条目的偏移）
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
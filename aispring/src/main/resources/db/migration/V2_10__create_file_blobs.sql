@@ -0,0 +1,28 @@
+-- 云盘内容寻址存储：数据块引用计数表，以及 user_files 指向数据块的内容哈希
+CREATE TABLE IF NOT EXISTS file_blobs (
+    content_hash CHAR(64) NOT NULL,
+    size BIGINT NOT NULL,
+    ref_count INT NOT NULL DEFAULT 0,
+    created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    released_at DATETIME,
+    PRIMARY KEY (content_hash),
+    INDEX idx_blob_ref_released (ref_count, released_at)
+);
+
+DROP PROCEDURE IF EXISTS AddUserFileContentHash;
+DELIMITER //
+CREATE PROCEDURE AddUserFileContentHash()
+BEGIN
+    IF EXISTS (
+        SELECT * FROM information_schema.TABLES
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files'
+    ) AND NOT EXISTS (
+        SELECT * FROM information_schema.COLUMNS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files' AND COLUMN_NAME = 'content_hash'
+    ) THEN
+        ALTER TABLE user_files ADD COLUMN content_hash CHAR(64) NULL, ADD INDEX idx_content_hash (content_hash);
+    END IF;
+END //
+DELIMITER ;
+CALL AddUserFileContentHash();
+DROP PROCEDURE AddUserFileContentHash;
@@ -0,0 +1,20 @@
+-- 云盘分片上传会话（分片文件保存在 .uploads/{upload_id}/ 下）
+CREATE TABLE IF NOT EXISTS upload_sessions (
+    upload_id VARCHAR(36) NOT NULL,
+    user_id BIGINT NOT NULL,
+    filename VARCHAR(255) NOT NULL,
+    folder_path VARCHAR(500),
+    conflict_strategy VARCHAR(20),
+    total_size BIGINT NOT NULL,
+    chunk_size INT NOT NULL,
+    total_chunks INT NOT NULL,
+    expected_hash CHAR(64),
+    reserved_bytes BIGINT NOT NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'UPLOADING',
+    file_id BIGINT,
+    created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    expires_at DATETIME NOT NULL,
+    PRIMARY KEY (upload_id),
+    INDEX idx_upload_user (user_id),
+    INDEX idx_upload_expires (expires_at)
+);
@@ -0,0 +1,21 @@
+-- 云盘 ZIP 后台解压任务（压缩包保存在 .extract-jobs/{job_id}.zip）
+CREATE TABLE IF NOT EXISTS zip_extract_jobs (
+    job_id VARCHAR(36) NOT NULL,
+    user_id BIGINT NOT NULL,
+    folder_path VARCHAR(500),
+    archive_name VARCHAR(255),
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    total_entries INT NOT NULL,
+    next_entry INT NOT NULL DEFAULT 0,
+    total_bytes BIGINT NOT NULL,
+    bytes_done BIGINT NOT NULL DEFAULT 0,
+    files_imported INT NOT NULL DEFAULT 0,
+    error_message VARCHAR(500),
+    created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    started_at DATETIME,
+    updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    finished_at DATETIME,
+    PRIMARY KEY (job_id),
+    INDEX idx_extract_user (user_id),
+    INDEX idx_extract_status (status)
+);
@@ -0,0 +1,139 @@
+-- 云盘文件夹改为按 ID 组织：文件夹记录父文件夹 ID，文件记录所在文件夹 ID，
+-- 子树查询使用闭包表（每对祖先/后代一行，含自身，depth 为层级差）。
+-- 路径不再存储，由名称沿父链拼出，重命名、移动只修改一行记录。
+CREATE TABLE IF NOT EXISTS user_folder_closure (
+    ancestor_id BIGINT NOT NULL,
+    descendant_id BIGINT NOT NULL,
+    depth INT NOT NULL,
+    PRIMARY KEY (ancestor_id, descendant_id),
+    INDEX idx_closure_descendant (descendant_id, depth)
+);
+
+DROP PROCEDURE IF EXISTS MigrateFolderTree;
+DELIMITER //
+CREATE PROCEDURE MigrateFolderTree()
+BEGIN
+    DECLARE inserted INT DEFAULT 1;
+    DECLARE lvl INT DEFAULT 0;
+    DECLARE uk_name VARCHAR(64);
+
+    IF EXISTS (
+        SELECT * FROM information_schema.COLUMNS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_folders' AND COLUMN_NAME = 'folder_path'
+    ) THEN
+        -- 1. 规范化文件所在路径，补齐文件引用到但不存在的文件夹记录
+        IF EXISTS (
+            SELECT * FROM information_schema.COLUMNS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files' AND COLUMN_NAME = 'folder_path'
+        ) THEN
+            UPDATE user_files SET folder_path = '/'
+                WHERE folder_path IS NULL OR TRIM(folder_path) IN ('', '/', '-', 'null');
+            UPDATE user_files SET folder_path = CONCAT('/', folder_path) WHERE folder_path NOT LIKE '/%';
+            UPDATE user_files SET folder_path = TRIM(TRAILING '/' FROM folder_path)
+                WHERE folder_path LIKE '%/' AND folder_path <> '/';
+
+            INSERT INTO user_folders (user_id, folder_name, folder_path, parent_path, created_at)
+            SELECT DISTINCT uf.user_id,
+                   IF(uf.folder_path = '/', '根目录', SUBSTRING_INDEX(uf.folder_path, '/', -1)),
+                   uf.folder_path, NULL, NOW()
+            FROM user_files uf
+            LEFT JOIN user_folders f ON f.user_id = uf.user_id AND f.folder_path = uf.folder_path
+            WHERE f.id IS NULL;
+        END IF;
+
+        -- 2. 重新计算父路径，并逐层补齐缺失的上级文件夹
+        UPDATE user_folders SET parent_path = NULL WHERE folder_path = '/';
+        UPDATE user_folders SET parent_path = IF(
+                LOCATE('/', folder_path, 2) = 0, '/',
+                LEFT(folder_path, LENGTH(folder_path) - LENGTH(SUBSTRING_INDEX(folder_path, '/', -1)) - 1))
+            WHERE folder_path <> '/';
+        WHILE inserted > 0 DO
+            INSERT INTO user_folders (user_id, folder_name, folder_path, parent_path, created_at)
+            SELECT DISTINCT f.user_id,
+                   IF(f.parent_path = '/', '根目录', SUBSTRING_INDEX(f.parent_path, '/', -1)),
+                   f.parent_path,
+                   IF(f.parent_path = '/', NULL, IF(LOCATE('/', f.parent_path, 2) = 0, '/',
+                       LEFT(f.parent_path, LENGTH(f.parent_path) - LENGTH(SUBSTRING_INDEX(f.parent_path, '/', -1)) - 1))),
+                   NOW()
+            FROM user_folders f
+            LEFT JOIN user_folders p ON p.user_id = f.user_id AND p.folder_path = f.parent_path
+            WHERE f.parent_path IS NOT NULL AND p.id IS NULL;
+            SET inserted = ROW_COUNT();
+        END WHILE;
+
+        -- 3. 父文件夹 ID
+        IF NOT EXISTS (
+            SELECT * FROM information_schema.COLUMNS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_folders' AND COLUMN_NAME = 'parent_id'
+        ) THEN
+            ALTER TABLE user_folders ADD COLUMN parent_id BIGINT NULL;
+        END IF;
+        UPDATE user_folders f
+            JOIN user_folders p ON p.user_id = f.user_id AND p.folder_path = f.parent_path
+            SET f.parent_id = p.id;
+
+        -- 4. 闭包表：先写自身，再逐层向下展开
+        DELETE FROM user_folder_closure;
+        INSERT INTO user_folder_closure (ancestor_id, descendant_id, depth)
+            SELECT id, id, 0 FROM user_folders;
+        SET inserted = 1;
+        WHILE inserted > 0 AND lvl < 64 DO
+            INSERT INTO user_folder_closure (ancestor_id, descendant_id, depth)
+            SELECT c.ancestor_id, f.id, lvl + 1
+            FROM user_folder_closure c
+            JOIN user_folders f ON f.parent_id = c.descendant_id
+            WHERE c.depth = lvl;
+            SET inserted = ROW_COUNT();
+            SET lvl = lvl + 1;
+        END WHILE;
+
+        -- 5. 文件所在文件夹 ID
+        IF EXISTS (
+            SELECT * FROM information_schema.COLUMNS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files' AND COLUMN_NAME = 'folder_path'
+        ) THEN
+            IF NOT EXISTS (
+                SELECT * FROM information_schema.COLUMNS
+                WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files' AND COLUMN_NAME = 'folder_id'
+            ) THEN
+                ALTER TABLE user_files ADD COLUMN folder_id BIGINT NULL;
+            END IF;
+            UPDATE user_files uf
+                JOIN user_folders f ON f.user_id = uf.user_id AND f.folder_path = uf.folder_path
+                SET uf.folder_id = f.id;
+            IF EXISTS (
+                SELECT * FROM information_schema.STATISTICS
+                WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files' AND INDEX_NAME = 'idx_folder_path'
+            ) THEN
+                ALTER TABLE user_files DROP INDEX idx_folder_path;
+            END IF;
+            ALTER TABLE user_files DROP COLUMN folder_path, ADD INDEX idx_file_folder (folder_id, upload_time);
+        END IF;
+
+        -- 6. 去掉按路径的唯一约束与路径列，改为同一父文件夹下名称唯一
+        SELECT s.INDEX_NAME INTO uk_name
+        FROM information_schema.STATISTICS s
+        WHERE s.TABLE_SCHEMA = DATABASE() AND s.TABLE_NAME = 'user_folders'
+          AND s.NON_UNIQUE = 0 AND s.COLUMN_NAME = 'folder_path'
+        LIMIT 1;
+        IF uk_name IS NOT NULL THEN
+            SET @drop_uk = CONCAT('ALTER TABLE user_folders DROP INDEX `', uk_name, '`');
+            PREPARE stmt FROM @drop_uk;
+            EXECUTE stmt;
+            DEALLOCATE PREPARE stmt;
+        END IF;
+        IF EXISTS (
+            SELECT * FROM information_schema.STATISTICS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_folders' AND INDEX_NAME = 'idx_folder_path'
+        ) THEN
+            ALTER TABLE user_folders DROP INDEX idx_folder_path;
+        END IF;
+        ALTER TABLE user_folders
+            DROP COLUMN folder_path,
+            DROP COLUMN parent_path,
+            ADD UNIQUE INDEX uk_folder_parent_name (user_id, parent_id, folder_name);
+    END IF;
+END //
+DELIMITER ;
+CALL MigrateFolderTree();
+DROP PROCEDURE MigrateFolderTree;
@@ -0,0 +1,66 @@
+-- 云盘回收站：删除只标记 deleted_at，由后台任务在保留期后分块清理物理内容与记录。
+-- 同级文件夹名称唯一约束改为只作用于未删除的文件夹：live_key 对已删除行为 NULL，不参与唯一性比较。
+-- 新库由 Hibernate 按实体建表，这里只处理已有的表。
+DROP PROCEDURE IF EXISTS AddCloudDiskTrash;
+DELIMITER //
+CREATE PROCEDURE AddCloudDiskTrash()
+BEGIN
+    IF EXISTS (
+        SELECT * FROM information_schema.TABLES
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files'
+    ) AND NOT EXISTS (
+        SELECT * FROM information_schema.COLUMNS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files' AND COLUMN_NAME = 'deleted_at'
+    ) THEN
+        ALTER TABLE user_files ADD COLUMN deleted_at DATETIME(6) NULL;
+    END IF;
+    IF EXISTS (
+        SELECT * FROM information_schema.TABLES
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files'
+    ) AND NOT EXISTS (
+        SELECT * FROM information_schema.STATISTICS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files' AND INDEX_NAME = 'idx_file_deleted_at'
+    ) THEN
+        ALTER TABLE user_files ADD INDEX idx_file_deleted_at (deleted_at);
+    END IF;
+
+    IF EXISTS (
+        SELECT * FROM information_schema.TABLES
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_folders'
+    ) THEN
+        IF NOT EXISTS (
+            SELECT * FROM information_schema.COLUMNS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_folders' AND COLUMN_NAME = 'deleted_at'
+        ) THEN
+            ALTER TABLE user_folders ADD COLUMN deleted_at DATETIME(6) NULL;
+        END IF;
+        IF NOT EXISTS (
+            SELECT * FROM information_schema.STATISTICS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_folders' AND INDEX_NAME = 'idx_folder_deleted_at'
+        ) THEN
+            ALTER TABLE user_folders ADD INDEX idx_folder_deleted_at (deleted_at);
+        END IF;
+
+        IF NOT EXISTS (
+            SELECT * FROM information_schema.COLUMNS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_folders' AND COLUMN_NAME = 'live_key'
+        ) THEN
+            ALTER TABLE user_folders ADD COLUMN live_key TINYINT AS (IF(deleted_at IS NULL, 1, NULL)) VIRTUAL;
+        END IF;
+        IF EXISTS (
+            SELECT * FROM information_schema.STATISTICS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_folders' AND INDEX_NAME = 'uk_folder_parent_name'
+        ) THEN
+            ALTER TABLE user_folders DROP INDEX uk_folder_parent_name;
+        END IF;
+        IF NOT EXISTS (
+            SELECT * FROM information_schema.STATISTICS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_folders' AND INDEX_NAME = 'uk_folder_live_name'
+        ) THEN
+            ALTER TABLE user_folders ADD UNIQUE INDEX uk_folder_live_name (user_id, parent_id, folder_name, live_key);
+        END IF;
+    END IF;
+END //
+DELIMITER ;
+CALL AddCloudDiskTrash();
+DROP PROCEDURE AddCloudDiskTrash;
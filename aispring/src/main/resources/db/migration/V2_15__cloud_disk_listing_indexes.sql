@@ -0,0 +1,46 @@
+-- 云盘分页列表的复合索引：等值过滤 (user_id, folder_id, deleted_at) 之后紧跟排序列，
+-- 键集分页的定位与排序都在索引上完成，每页只按主键读取当页的行。
+-- 文件大小为空的旧记录按 0 处理，避免键集比较遇到 NULL 时漏行。
+DROP PROCEDURE IF EXISTS AddCloudDiskListingIndexes;
+DELIMITER //
+CREATE PROCEDURE AddCloudDiskListingIndexes()
+BEGIN
+    IF EXISTS (
+        SELECT * FROM information_schema.TABLES
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files'
+    ) THEN
+        UPDATE user_files SET file_size = 0 WHERE file_size IS NULL;
+        IF NOT EXISTS (
+            SELECT * FROM information_schema.STATISTICS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files' AND INDEX_NAME = 'idx_file_list_time'
+        ) THEN
+            ALTER TABLE user_files ADD INDEX idx_file_list_time (user_id, folder_id, deleted_at, upload_time);
+        END IF;
+        IF NOT EXISTS (
+            SELECT * FROM information_schema.STATISTICS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files' AND INDEX_NAME = 'idx_file_list_name'
+        ) THEN
+            ALTER TABLE user_files ADD INDEX idx_file_list_name (user_id, folder_id, deleted_at, filename);
+        END IF;
+        IF NOT EXISTS (
+            SELECT * FROM information_schema.STATISTICS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files' AND INDEX_NAME = 'idx_file_list_size'
+        ) THEN
+            ALTER TABLE user_files ADD INDEX idx_file_list_size (user_id, folder_id, deleted_at, file_size);
+        END IF;
+    END IF;
+
+    -- 子文件夹按名称排序使用唯一索引 uk_folder_live_name，按创建时间排序使用下面的索引
+    IF EXISTS (
+        SELECT * FROM information_schema.TABLES
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_folders'
+    ) AND NOT EXISTS (
+        SELECT * FROM information_schema.STATISTICS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_folders' AND INDEX_NAME = 'idx_folder_list_time'
+    ) THEN
+        ALTER TABLE user_folders ADD INDEX idx_folder_list_time (user_id, parent_id, deleted_at, created_at);
+    END IF;
+END //
+DELIMITER ;
+CALL AddCloudDiskListingIndexes();
+DROP PROCEDURE AddCloudDiskListingIndexes;
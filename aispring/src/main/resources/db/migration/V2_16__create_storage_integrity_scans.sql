@@ -0,0 +1,34 @@
+-- 存储完整性后台扫描：扫描进度（按文件 ID 的检查点）与发现的问题
+CREATE TABLE IF NOT EXISTS storage_integrity_scans (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    trigger_source VARCHAR(20) NOT NULL,
+    auto_cleanup BIT(1) NOT NULL DEFAULT 0,
+    cursor_id BIGINT NOT NULL DEFAULT 0,
+    total_files BIGINT NOT NULL DEFAULT 0,
+    scanned BIGINT NOT NULL DEFAULT 0,
+    missing INT NOT NULL DEFAULT 0,
+    cleaned INT NOT NULL DEFAULT 0,
+    error_message VARCHAR(500),
+    created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    started_at DATETIME,
+    updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    finished_at DATETIME,
+    PRIMARY KEY (id),
+    INDEX idx_integrity_scan_status (status)
+);
+
+CREATE TABLE IF NOT EXISTS storage_integrity_issues (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    scan_id BIGINT NOT NULL,
+    file_id BIGINT NOT NULL,
+    user_id BIGINT NOT NULL,
+    filename VARCHAR(255),
+    filepath VARCHAR(500),
+    reason VARCHAR(100) NOT NULL,
+    attempted_path VARCHAR(1000),
+    cleaned BIT(1) NOT NULL DEFAULT 0,
+    detected_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id),
+    INDEX idx_integrity_issue_scan (scan_id, id)
+);
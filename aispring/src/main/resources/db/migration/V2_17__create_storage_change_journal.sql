@@ -0,0 +1,14 @@
+-- 云盘变更日志：文件系统监听与意图日志发现的磁盘 / 数据库分歧及其对账结果
+CREATE TABLE IF NOT EXISTS storage_change_journal (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    path VARCHAR(1000) NOT NULL,
+    event_type VARCHAR(20) NOT NULL,
+    detail VARCHAR(500),
+    affected_files INT NOT NULL DEFAULT 0,
+    missing INT NOT NULL DEFAULT 0,
+    cleaned INT NOT NULL DEFAULT 0,
+    detected_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    reconciled_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id),
+    INDEX idx_change_detected_at (detected_at)
+);
@@ -0,0 +1,5 @@
+-- 发件箱认领租约：只有租约过期的“发送中”邮件才会被恢复为待发送，避免多实例启动时重复投递
+ALTER TABLE email_outbox ADD COLUMN lease_until DATETIME NULL;
+
+-- 升级时仍在发送中的邮件给一个保守的租约，由旧实例完成投递或到期后再恢复
+UPDATE email_outbox SET lease_until = DATE_ADD(CURRENT_TIMESTAMP, INTERVAL 10 MINUTE) WHERE status = 'SENDING';
@@ -0,0 +1,8 @@
+-- 分片上传合并租约：合并中的会话超过该时间仍未完成，视为合并进程已崩溃，由清理任务恢复
+ALTER TABLE upload_sessions ADD COLUMN completing_until DATETIME NULL;
+
+-- 升级时正在合并的会话给一个保守的租约
+UPDATE upload_sessions SET completing_until = DATE_ADD(CURRENT_TIMESTAMP, INTERVAL 30 MINUTE) WHERE status = 'COMPLETING';
+
+-- 预留校正按用户汇总未完成会话的预留
+CREATE INDEX idx_upload_user_status ON upload_sessions (user_id, status);
@@ -0,0 +1,22 @@
+-- 内容修改时间：upload_time 是创建时间且不可更新，覆盖上传与在线编辑后由 modified_at 记录内容变化，
+-- 下载的 Last-Modified 与旧文件的 ETag 都以它为准。
+-- 新库由 Hibernate 按实体建表，这里只处理已有的表。
+DROP PROCEDURE IF EXISTS AddUserFileModifiedAt;
+DELIMITER //
+CREATE PROCEDURE AddUserFileModifiedAt()
+BEGIN
+    IF EXISTS (
+        SELECT * FROM information_schema.TABLES
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files'
+    ) AND NOT EXISTS (
+        SELECT * FROM information_schema.COLUMNS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files' AND COLUMN_NAME = 'modified_at'
+    ) THEN
+        ALTER TABLE user_files ADD COLUMN modified_at DATETIME(6) NULL;
+        UPDATE user_files SET modified_at = upload_time WHERE modified_at IS NULL;
+        ALTER TABLE user_files MODIFY COLUMN modified_at DATETIME(6) NOT NULL;
+    END IF;
+END //
+DELIMITER ;
+CALL AddUserFileModifiedAt();
+DROP PROCEDURE AddUserFileModifiedAt;
@@ -0,0 +1,37 @@
+-- 全部文件列表（不限文件夹）的键集分页索引：等值过滤 (user_id, deleted_at) 之后紧跟排序列与 id，
+-- 行构造器比较 (排序列, id) < (?, ?) 可以直接在索引上定位。
+-- file_size 改为非空：V2_15 回填后仍可能写入空值，键集比较遇到 NULL 会漏行。
+-- 新库由 Hibernate 按实体建表，这里只处理已有的表。
+DROP PROCEDURE IF EXISTS AddAllFilesListingIndexes;
+DELIMITER //
+CREATE PROCEDURE AddAllFilesListingIndexes()
+BEGIN
+    IF EXISTS (
+        SELECT * FROM information_schema.TABLES
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files'
+    ) THEN
+        UPDATE user_files SET file_size = 0 WHERE file_size IS NULL;
+        ALTER TABLE user_files MODIFY COLUMN file_size BIGINT NOT NULL DEFAULT 0;
+        IF NOT EXISTS (
+            SELECT * FROM information_schema.STATISTICS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files' AND INDEX_NAME = 'idx_file_all_time'
+        ) THEN
+            ALTER TABLE user_files ADD INDEX idx_file_all_time (user_id, deleted_at, upload_time, id);
+        END IF;
+        IF NOT EXISTS (
+            SELECT * FROM information_schema.STATISTICS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files' AND INDEX_NAME = 'idx_file_all_name'
+        ) THEN
+            ALTER TABLE user_files ADD INDEX idx_file_all_name (user_id, deleted_at, filename, id);
+        END IF;
+        IF NOT EXISTS (
+            SELECT * FROM information_schema.STATISTICS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files' AND INDEX_NAME = 'idx_file_all_size'
+        ) THEN
+            ALTER TABLE user_files ADD INDEX idx_file_all_size (user_id, deleted_at, file_size, id);
+        END IF;
+    END IF;
+END //
+DELIMITER ;
+CALL AddAllFilesListingIndexes();
+DROP PROCEDURE AddAllFilesListingIndexes;
@@ -0,0 +1,5 @@
+-- 验证码邮件只记录验证码用途，发送时再从 Redis 读取验证码，验证码不再写入发件箱
+ALTER TABLE email_outbox ADD COLUMN code_usage VARCHAR(40) NULL;
+
+-- 清除历史验证码邮件正文中的明文验证码（已发送或已放弃的记录不会再用到正文）
+UPDATE email_outbox SET content = '' WHERE status IN ('SENT', 'FAILED') AND subject LIKE '%验证码';
@@ -0,0 +1,73 @@
+-- 每个用户只能有一个根目录：根目录的 parent_id 为 NULL，不受同级名称唯一约束，
+-- 生成列 root_key 只对未删除的根目录为 1，(user_id, root_key) 唯一索引保证并发创建时只有一个成功。
+-- 已有的重复根目录先合并到 ID 最小的根目录：子文件夹与文件移过去（同名子文件夹加上 ID 后缀），闭包行改挂到保留的根目录。
+-- 新库由 Hibernate 按实体建表，这里只处理已有的表。
+DROP PROCEDURE IF EXISTS EnforceSingleRootFolder;
+DELIMITER //
+CREATE PROCEDURE EnforceSingleRootFolder()
+BEGIN
+    IF EXISTS (
+        SELECT * FROM information_schema.TABLES
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_folders'
+    ) THEN
+        DROP TEMPORARY TABLE IF EXISTS tmp_root_merge;
+        CREATE TEMPORARY TABLE tmp_root_merge (
+            dup_id BIGINT NOT NULL PRIMARY KEY,
+            keep_id BIGINT NOT NULL
+        );
+        INSERT INTO tmp_root_merge (dup_id, keep_id)
+            SELECT f.id, k.keep_id
+            FROM user_folders f
+            JOIN (
+                SELECT user_id, MIN(id) AS keep_id FROM user_folders
+                WHERE parent_id IS NULL AND deleted_at IS NULL
+                GROUP BY user_id
+            ) k ON k.user_id = f.user_id
+            WHERE f.parent_id IS NULL AND f.deleted_at IS NULL AND f.id <> k.keep_id;
+
+        IF EXISTS (SELECT * FROM tmp_root_merge) THEN
+            UPDATE user_folders c
+                JOIN tmp_root_merge m ON c.parent_id = m.dup_id
+                JOIN user_folders e ON e.parent_id = m.keep_id AND e.folder_name = c.folder_name
+                    AND e.deleted_at IS NULL
+                SET c.folder_name = CONCAT(c.folder_name, ' (', c.id, ')')
+                WHERE c.deleted_at IS NULL;
+            UPDATE user_folders c
+                JOIN tmp_root_merge m ON c.parent_id = m.dup_id
+                SET c.parent_id = m.keep_id;
+            IF EXISTS (
+                SELECT * FROM information_schema.TABLES
+                WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_files'
+            ) THEN
+                UPDATE user_files f
+                    JOIN tmp_root_merge m ON f.folder_id = m.dup_id
+                    SET f.folder_id = m.keep_id;
+            END IF;
+            DELETE c FROM user_folder_closure c
+                JOIN tmp_root_merge m ON c.descendant_id = m.dup_id;
+            UPDATE user_folder_closure c
+                JOIN tmp_root_merge m ON c.ancestor_id = m.dup_id
+                SET c.ancestor_id = m.keep_id;
+            DELETE f FROM user_folders f
+                JOIN tmp_root_merge m ON f.id = m.dup_id;
+        END IF;
+        DROP TEMPORARY TABLE tmp_root_merge;
+
+        IF NOT EXISTS (
+            SELECT * FROM information_schema.COLUMNS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_folders' AND COLUMN_NAME = 'root_key'
+        ) THEN
+            ALTER TABLE user_folders
+                ADD COLUMN root_key TINYINT AS (IF(parent_id IS NULL AND deleted_at IS NULL, 1, NULL)) VIRTUAL;
+        END IF;
+        IF NOT EXISTS (
+            SELECT * FROM information_schema.STATISTICS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'user_folders' AND INDEX_NAME = 'uk_folder_root'
+        ) THEN
+            ALTER TABLE user_folders ADD UNIQUE INDEX uk_folder_root (user_id, root_key);
+        END IF;
+    END IF;
+END //
+DELIMITER ;
+CALL EnforceSingleRootFolder();
+DROP PROCEDURE EnforceSingleRootFolder;
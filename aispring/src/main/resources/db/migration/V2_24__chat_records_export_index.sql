@@ -0,0 +1,19 @@
+-- 聊天记录导出按会话键集分页：等值过滤 (user_id, session_id) 之后紧跟 message_order（InnoDB 二级索引末尾隐含主键 id），
+-- 每页的定位与排序都在索引上完成。新库由 Hibernate 按实体建表与索引，这里只处理已有的表。
+DROP PROCEDURE IF EXISTS AddChatRecordsExportIndex;
+DELIMITER //
+CREATE PROCEDURE AddChatRecordsExportIndex()
+BEGIN
+    IF EXISTS (
+        SELECT * FROM information_schema.TABLES
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'chat_records'
+    ) AND NOT EXISTS (
+        SELECT * FROM information_schema.STATISTICS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'chat_records' AND INDEX_NAME = 'idx_user_session_order'
+    ) THEN
+        ALTER TABLE chat_records ADD INDEX idx_user_session_order (user_id, session_id, message_order);
+    END IF;
+END //
+DELIMITER ;
+CALL AddChatRecordsExportIndex();
+DROP PROCEDURE AddChatRecordsExportIndex;
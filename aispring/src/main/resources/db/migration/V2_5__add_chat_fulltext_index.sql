@@ -0,0 +1,29 @@
+-- 聊天记录全文检索索引（ngram 分词，支持中文）
+-- InnoDB 在写入时增量维护 FULLTEXT 索引，无需额外同步任务
+DROP PROCEDURE IF EXISTS AddChatFulltextIndexes;
+DELIMITER //
+CREATE PROCEDURE AddChatFulltextIndexes()
+BEGIN
+    IF EXISTS (
+        SELECT * FROM information_schema.TABLES
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'chat_records'
+    ) AND NOT EXISTS (
+        SELECT * FROM information_schema.STATISTICS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'chat_records' AND INDEX_NAME = 'ft_chat_records_content'
+    ) THEN
+        ALTER TABLE chat_records ADD FULLTEXT INDEX ft_chat_records_content (content) WITH PARSER ngram;
+    END IF;
+
+    IF EXISTS (
+        SELECT * FROM information_schema.TABLES
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'chat_sessions'
+    ) AND NOT EXISTS (
+        SELECT * FROM information_schema.STATISTICS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'chat_sessions' AND INDEX_NAME = 'ft_chat_sessions_title'
+    ) THEN
+        ALTER TABLE chat_sessions ADD FULLTEXT INDEX ft_chat_sessions_title (title) WITH PARSER ngram;
+    END IF;
+END //
+DELIMITER ;
+CALL AddChatFulltextIndexes();
+DROP PROCEDURE AddChatFulltextIndexes;
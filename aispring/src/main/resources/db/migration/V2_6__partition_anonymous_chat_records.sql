@@ -0,0 +1,30 @@
+-- 匿名聊天记录按天分区（RANGE on TO_DAYS(created_at)）
+-- 分区键必须包含在主键中，因此主键调整为 (id, created_at)
+-- 后续每日分区由 AnonymousChatArchiveService 从 p_future 中切出，过期分区整块 DROP
+DROP PROCEDURE IF EXISTS PartitionAnonymousChatRecords;
+DELIMITER //
+CREATE PROCEDURE PartitionAnonymousChatRecords()
+BEGIN
+    IF EXISTS (
+        SELECT * FROM information_schema.TABLES
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'anonymous_chat_records'
+    ) AND NOT EXISTS (
+        SELECT * FROM information_schema.PARTITIONS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'anonymous_chat_records' AND PARTITION_NAME IS NOT NULL
+    ) THEN
+        UPDATE anonymous_chat_records SET created_at = NOW() WHERE created_at IS NULL;
+        ALTER TABLE anonymous_chat_records MODIFY COLUMN created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP;
+        ALTER TABLE anonymous_chat_records DROP PRIMARY KEY, ADD PRIMARY KEY (id, created_at);
+
+        SET @ddl = CONCAT(
+            'ALTER TABLE anonymous_chat_records PARTITION BY RANGE (TO_DAYS(created_at)) (',
+            'PARTITION p_legacy VALUES LESS THAN (', TO_DAYS(CURDATE()), '), ',
+            'PARTITION p_future VALUES LESS THAN MAXVALUE)');
+        PREPARE stmt FROM @ddl;
+        EXECUTE stmt;
+        DEALLOCATE PREPARE stmt;
+    END IF;
+END //
+DELIMITER ;
+CALL PartitionAnonymousChatRecords();
+DROP PROCEDURE PartitionAnonymousChatRecords;
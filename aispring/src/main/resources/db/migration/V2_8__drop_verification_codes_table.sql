@@ -0,0 +1,2 @@
+-- 验证码已迁移到 Redis（带 TTL），旧表中只有过期数据
+DROP TABLE IF EXISTS verification_codes_v2;
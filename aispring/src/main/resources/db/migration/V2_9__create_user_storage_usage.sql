@@ -0,0 +1,8 @@
+-- 每用户存储用量计数；行在首次访问时由应用以 user_files 的实际总和初始化
+CREATE TABLE IF NOT EXISTS user_storage_usage (
+    user_id BIGINT NOT NULL,
+    used_bytes BIGINT NOT NULL DEFAULT 0,
+    reserved_bytes BIGINT NOT NULL DEFAULT 0,
+    updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id)
+);
@@ -0,0 +1,259 @@
+package com.aispring.controller;
+
+import com.aispring.config.StorageProperties;
+import com.aispring.entity.User;
+import com.aispring.entity.UserFile;
+import com.aispring.repository.UserFileRepository;
+import com.aispring.repository.UserFolderRepository;
+import com.aispring.repository.UserRepository;
+import com.aispring.security.CustomUserDetails;
+import com.aispring.service.BlobStoreService;
+import com.aispring.service.ChunkedUploadService;
+import com.aispring.service.CloudDiskListingService;
+import com.aispring.service.CloudDiskService;
+import com.aispring.service.CloudDiskTrashService;
+import com.aispring.service.ContentHashBackfillService;
+import com.aispring.service.FolderIngestService;
+import com.aispring.service.FolderTreeService;
+import com.aispring.service.FolderZipService;
+import com.aispring.service.InstantUploadChallengeService;
+import com.aispring.service.StorageIntentLog;
+import com.aispring.service.StorageQuotaService;
+import com.aispring.service.TextContentService;
+import com.aispring.service.ZipExtractJobService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.method.annotation.AuthenticationPrincipalArgumentResolver;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * 下载接口的协商缓存与分段下载：校验值取自 modified_at，If-Range 只接受强 ETag
+ */
+class CloudDiskDownloadTest {
+
+    private static final long USER_ID = 7L;
+    private static final long FILE_ID = 42L;
+    private static final String CONTENT = "0123456789abcdefghij";
+    private static final LocalDateTime UPLOADED = LocalDateTime.now().minusDays(2).truncatedTo(ChronoUnit.SECONDS);
+
+    @TempDir
+    Path tempDir;
+
+    private final UserFileRepository userFileRepository = mock(UserFileRepository.class);
+    private CloudDiskService cloudDiskService;
+    private MockMvc mockMvc;
+    private UserFile file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path stored = Files.writeString(tempDir.resolve("content.txt"), CONTENT, StandardCharsets.UTF_8);
+
+        User user = new User();
+        user.setId(USER_ID);
+        file = new UserFile();
+        file.setId(FILE_ID);
+        file.setUser(user);
+        file.setFilename("notes.txt");
+        file.setFilepath("/notes.txt");
+        file.setFileType("text/plain");
+        file.setFileSize((long) CONTENT.length());
+        file.setUploadTime(UPLOADED);
+        file.setModifiedAt(UPLOADED);
+        when(userFileRepository.findByIdAndUserId(FILE_ID, USER_ID)).thenAnswer(inv -> Optional.of(file));
+
+        cloudDiskService = spy(new CloudDiskService(userFileRepository, mock(UserFolderRepository.class),
+                mock(UserRepository.class), mock(StorageProperties.class), mock(StorageQuotaService.class),
+                mock(BlobStoreService.class), mock(FolderIngestService.class), mock(FolderTreeService.class),
+                mock(CloudDiskTrashService.class), mock(StorageIntentLog.class), mock(TextContentService.class),
+                mock(InstantUploadChallengeService.class)));
+        doReturn(stored).when(cloudDiskService).resolveDownloadPath(eq(USER_ID), any());
+
+        CloudDiskController controller = new CloudDiskController(cloudDiskService, mock(CloudDiskTrashService.class),
+                mock(CloudDiskListingService.class), mock(ChunkedUploadService.class),
+                mock(ContentHashBackfillService.class), mock(FolderZipService.class),
+                mock(ZipExtractJobService.class));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller)
+                .setCustomArgumentResolvers(new AuthenticationPrincipalArgumentResolver())
+                .build();
+
+        CustomUserDetails principal = new CustomUserDetails(user);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void fullDownloadCarriesValidators() throws Exception {
+        MvcResult result = perform(get("/api/cloud_disk/download/" + FILE_ID));
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(200);
+        assertThat(result.getResponse().getContentAsString()).isEqualTo(CONTENT);
+        assertThat(result.getResponse().getHeader(HttpHeaders.ETAG)).isNotBlank();
+        assertThat(result.getResponse().getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(result.getResponse().getDateHeader(HttpHeaders.LAST_MODIFIED)).isEqualTo(millis(UPLOADED));
+    }
+
+    @Test
+    void matchingValidatorsReturnNotModified() throws Exception {
+        String etag = perform(get("/api/cloud_disk/download/" + FILE_ID)).getResponse().getHeader(HttpHeaders.ETAG);
+
+        MvcResult byEtag = perform(get("/api/cloud_disk/download/" + FILE_ID).header(HttpHeaders.IF_NONE_MATCH, etag));
+        HttpHeaders since = new HttpHeaders();
+        since.setIfModifiedSince(millis(UPLOADED));
+        MvcResult byDate = perform(get("/api/cloud_disk/download/" + FILE_ID).headers(since));
+
+        assertThat(byEtag.getResponse().getStatus()).isEqualTo(304);
+        assertThat(byEtag.getResponse().getContentAsByteArray()).isEmpty();
+        assertThat(byDate.getResponse().getStatus()).isEqualTo(304);
+    }
+
+    @Test
+    void editRefreshesLastModifiedAndLegacyEtag() throws Exception {
+        String oldEtag = perform(get("/api/cloud_disk/download/" + FILE_ID)).getResponse().getHeader(HttpHeaders.ETAG);
+
+        // 在线编辑只刷新 modified_at，upload_time 保持创建时间
+        LocalDateTime edited = UPLOADED.plusHours(1);
+        file.setModifiedAt(edited);
+
+        HttpHeaders since = new HttpHeaders();
+        since.setIfModifiedSince(millis(UPLOADED));
+        MvcResult byDate = perform(get("/api/cloud_disk/download/" + FILE_ID).headers(since));
+        MvcResult byEtag = perform(get("/api/cloud_disk/download/" + FILE_ID).header(HttpHeaders.IF_NONE_MATCH, oldEtag));
+
+        assertThat(byDate.getResponse().getStatus()).isEqualTo(200);
+        assertThat(byDate.getResponse().getDateHeader(HttpHeaders.LAST_MODIFIED)).isEqualTo(millis(edited));
+        assertThat(byEtag.getResponse().getStatus()).isEqualTo(200);
+        assertThat(byEtag.getResponse().getHeader(HttpHeaders.ETAG)).isNotEqualTo(oldEtag);
+    }
+
+    @Test
+    void fileWithoutModifiedAtFallsBackToUploadTime() throws Exception {
+        file.setModifiedAt(null);
+
+        MvcResult result = perform(get("/api/cloud_disk/download/" + FILE_ID));
+
+        assertThat(result.getResponse().getDateHeader(HttpHeaders.LAST_MODIFIED)).isEqualTo(millis(UPLOADED));
+    }
+
+    @Test
+    void rangeRequestReturnsPartialContent() throws Exception {
+        MvcResult result = perform(get("/api/cloud_disk/download/" + FILE_ID).header(HttpHeaders.RANGE, "bytes=2-5"));
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(206);
+        assertThat(result.getResponse().getContentAsString()).isEqualTo("2345");
+        assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/" + CONTENT.length());
+    }
+
+    @Test
+    void ifRangeWithCurrentStrongEtagReturnsPartialContent() throws Exception {
+        file.setContentHash("b".repeat(64));
+        String etag = "\"" + "b".repeat(64) + "\"";
+
+        MvcResult result = perform(get("/api/cloud_disk/download/" + FILE_ID)
+                .header(HttpHeaders.RANGE, "bytes=10-")
+                .header(HttpHeaders.IF_RANGE, etag));
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(206);
+        assertThat(result.getResponse().getContentAsString()).isEqualTo(CONTENT.substring(10));
+    }
+
+    @Test
+    void ifRangeWithStaleEtagReturnsWholeFile() throws Exception {
+        file.setContentHash("b".repeat(64));
+
+        MvcResult result = perform(get("/api/cloud_disk/download/" + FILE_ID)
+                .header(HttpHeaders.RANGE, "bytes=10-")
+                .header(HttpHeaders.IF_RANGE, "\"" + "c".repeat(64) + "\""));
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(200);
+        assertThat(result.getResponse().getContentAsString()).isEqualTo(CONTENT);
+        assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE)).isNull();
+        assertThat(result.getResponse().getContentLengthLong()).isEqualTo(CONTENT.length());
+    }
+
+    @Test
+    void ifRangeWithWeakEtagReturnsWholeFile() throws Exception {
+        file.setContentHash("b".repeat(64));
+
+        MvcResult result = perform(get("/api/cloud_disk/download/" + FILE_ID)
+                .header(HttpHeaders.RANGE, "bytes=10-")
+                .header(HttpHeaders.IF_RANGE, "W/\"" + "b".repeat(64) + "\""));
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(200);
+        assertThat(result.getResponse().getContentAsString()).isEqualTo(CONTENT);
+        assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE)).isNull();
+        assertThat(result.getResponse().getContentLengthLong()).isEqualTo(CONTENT.length());
+    }
+
+    @Test
+    void ifRangeWithDateReturnsWholeFile() throws Exception {
+        // 同一秒内的编辑无法用日期区分，即使日期与 Last-Modified 相同也不返回片段
+        HttpHeaders headers = new HttpHeaders();
+        headers.setRange(HttpRange.parseRanges("bytes=10-"));
+        headers.set(HttpHeaders.IF_RANGE, DateTimeFormatter.RFC_1123_DATE_TIME
+                .format(UPLOADED.atZone(ZoneId.systemDefault()).withZoneSameInstant(ZoneOffset.UTC)));
+
+        MvcResult result = perform(get("/api/cloud_disk/download/" + FILE_ID).headers(headers));
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(200);
+        assertThat(result.getResponse().getContentAsString()).isEqualTo(CONTENT);
+        assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE)).isNull();
+        assertThat(result.getResponse().getContentLengthLong()).isEqualTo(CONTENT.length());
+    }
+
+    @Test
+    void notModifiedNeverResolvesThePhysicalPath() throws Exception {
+        file.setContentHash("b".repeat(64));
+
+        MvcResult result = perform(get("/api/cloud_disk/download/" + FILE_ID)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"" + "b".repeat(64) + "\""));
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(304);
+        verify(cloudDiskService, never()).resolveDownloadPath(any(), any());
+    }
+
+    private MvcResult perform(RequestBuilder request) throws Exception {
+        MvcResult result = mockMvc.perform(request).andReturn();
+        // 下载都以 Resource 响应体同步输出，不走异步分派
+        assertThat(result.getRequest().isAsyncStarted()).isFalse();
+        return result;
+    }
+
+    private static long millis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,150 @@
+package com.aispring.controller;
+
+import com.aispring.entity.User;
+import com.aispring.exception.GlobalExceptionHandler;
+import com.aispring.security.CustomUserDetails;
+import com.aispring.service.ChunkedUploadService;
+import com.aispring.service.CloudDiskListingService;
+import com.aispring.service.CloudDiskService;
+import com.aispring.service.CloudDiskTrashService;
+import com.aispring.service.ContentHashBackfillService;
+import com.aispring.service.FolderZipService;
+import com.aispring.service.ZipExtractJobService;
+import com.aispring.util.StreamingZipWriter.Entry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.method.annotation.AuthenticationPrincipalArgumentResolver;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * 文件夹 ZIP 下载：响应体按 StreamingResponseBody 异步输出，开始输出前的错误由全局异常处理器返回
+ */
+class CloudDiskFolderDownloadTest {
+
+    private static final long USER_ID = 7L;
+    private static final long MODIFIED = 1_700_000_000_000L;
+
+    @TempDir
+    Path tempDir;
+
+    private final CloudDiskService cloudDiskService = mock(CloudDiskService.class);
+    private FolderZipService folderZipService;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        folderZipService = new FolderZipService(2);
+        ReflectionTestUtils.setField(folderZipService, "inMemoryLimit", 1024L * 1024);
+        ReflectionTestUtils.setField(folderZipService, "maxInFlight", 2);
+        ReflectionTestUtils.setField(folderZipService, "compressionLevel", 6);
+        ReflectionTestUtils.setField(folderZipService, "chunkBytes", 64 * 1024);
+
+        CloudDiskController controller = new CloudDiskController(cloudDiskService, mock(CloudDiskTrashService.class),
+                mock(CloudDiskListingService.class), mock(ChunkedUploadService.class),
+                mock(ContentHashBackfillService.class), folderZipService, mock(ZipExtractJobService.class));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller)
+                .setCustomArgumentResolvers(new AuthenticationPrincipalArgumentResolver())
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+
+        User user = new User();
+        user.setId(USER_ID);
+        CustomUserDetails principal = new CustomUserDetails(user);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+        folderZipService.shutdownExecutor();
+    }
+
+    @Test
+    void folderIsStreamedAsZip() throws Exception {
+        Path readme = Files.writeString(tempDir.resolve("readme.txt"), "hello ".repeat(500), StandardCharsets.UTF_8);
+        Path photo = Files.write(tempDir.resolve("photo.jpg"), new byte[]{1, 2, 3, 4, 5});
+        when(cloudDiskService.listFolderZipEntries(USER_ID, "/docs/")).thenReturn(List.of(
+                new Entry("sub/", null, MODIFIED),
+                new Entry("readme.txt", readme, MODIFIED),
+                new Entry("sub/photo.jpg", photo, MODIFIED)));
+
+        MvcResult started = mockMvc.perform(get("/api/cloud_disk/download-folder").param("folderPath", "/docs/"))
+                .andReturn();
+        assertThat(started.getRequest().isAsyncStarted()).isTrue();
+        MvcResult result = mockMvc.perform(asyncDispatch(started)).andReturn();
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(200);
+        assertThat(result.getResponse().getContentType()).isEqualTo(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_DISPOSITION))
+                .isEqualTo("attachment; filename=\"docs.zip\"");
+        Map<String, byte[]> entries = unzip(result.getResponse().getContentAsByteArray());
+        assertThat(entries.keySet()).containsExactly("sub/", "readme.txt", "sub/photo.jpg");
+        assertThat(entries.get("readme.txt")).isEqualTo(Files.readAllBytes(readme));
+        assertThat(entries.get("sub/photo.jpg")).isEqualTo(Files.readAllBytes(photo));
+    }
+
+    @Test
+    void rootFolderIsNamedDownload() throws Exception {
+        when(cloudDiskService.listFolderZipEntries(eq(USER_ID), any())).thenReturn(List.of());
+
+        MvcResult started = mockMvc.perform(get("/api/cloud_disk/download-folder")).andReturn();
+        MvcResult result = mockMvc.perform(asyncDispatch(started)).andReturn();
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(200);
+        assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_DISPOSITION))
+                .isEqualTo("attachment; filename=\"download.zip\"");
+        assertThat(unzip(result.getResponse().getContentAsByteArray())).isEmpty();
+    }
+
+    @Test
+    void missingFolderReturnsNotFound() throws Exception {
+        when(cloudDiskService.listFolderZipEntries(USER_ID, "/gone/")).thenThrow(new IOException("目录不存在: /gone/"));
+
+        MvcResult result = mockMvc.perform(get("/api/cloud_disk/download-folder").param("folderPath", "/gone/"))
+                .andReturn();
+
+        assertThat(result.getRequest().isAsyncStarted()).isFalse();
+        assertThat(result.getResponse().getStatus()).isEqualTo(404);
+        assertThat(result.getResponse().getContentAsString(StandardCharsets.UTF_8)).contains("目录不存在");
+    }
+
+    private static Map<String, byte[]> unzip(byte[] zip) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.put(entry.getName(), in.readAllBytes());
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,74 @@
+package com.aispring.service;
+
+import com.aispring.dto.request.LoginRequest;
+import com.aispring.entity.User;
+import com.aispring.repository.UserRepository;
+import com.aispring.security.CredentialVerifier;
+import com.aispring.security.CustomUserDetails;
+import com.aispring.security.UserPrincipalCache;
+import com.aispring.util.JwtUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetailsService;
+
+import java.time.LocalDateTime;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 登录后异步写回最后登录时间，写入提交后失效用户缓存
+ */
+class AuthServiceLoginTest {
+
+    private static final String EMAIL = "someone@example.com";
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final CredentialVerifier credentialVerifier = mock(CredentialVerifier.class);
+    private final UserPrincipalCache userPrincipalCache = mock(UserPrincipalCache.class);
+    private AuthService authService;
+
+    @BeforeEach
+    void setUp() {
+        authService = new AuthService(userRepository, mock(VerificationCodeStore.class), mock(JwtUtil.class),
+                mock(EmailOutboxService.class), credentialVerifier, mock(UserDetailsService.class),
+                mock(UserService.class), userPrincipalCache);
+    }
+
+    @AfterEach
+    void tearDown() {
+        authService.shutdownExecutor();
+    }
+
+    @Test
+    void loginEvictsCachedPrincipalAfterUpdatingLastLogin() {
+        User user = new User();
+        user.setId(11L);
+        user.setEmail(EMAIL);
+        user.setUsername("someone");
+        user.setAvatar("/avatars/someone.png");
+        CustomUserDetails principal = new CustomUserDetails(user);
+        Authentication authenticated =
+                new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities());
+        when(credentialVerifier.authenticate(any())).thenReturn(authenticated);
+        LoginRequest request = new LoginRequest();
+        request.setEmail(EMAIL);
+        request.setPassword("secret-password");
+
+        authService.login(request);
+
+        verify(userPrincipalCache, timeout(2000)).evict(EMAIL);
+        InOrder order = inOrder(userRepository, userPrincipalCache);
+        order.verify(userRepository).updateLastLogin(eq(11L), any(LocalDateTime.class));
+        order.verify(userPrincipalCache).evict(EMAIL);
+    }
+}
@@ -0,0 +1,79 @@
+package com.aispring.service;
+
+import com.aispring.dto.request.RegisterRequest;
+import com.aispring.dto.request.ResetPasswordRequest;
+import com.aispring.exception.CustomException;
+import com.aispring.repository.UserRepository;
+import com.aispring.security.CredentialVerifier;
+import com.aispring.security.UserPrincipalCache;
+import com.aispring.util.JwtUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.userdetails.UserDetailsService;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+/**
+ * 验证码先于任何业务操作校验：错误的验证码不触发密码加密、查询或写入
+ */
+class AuthServiceVerificationCodeTest {
+
+    private static final String EMAIL = "someone@example.com";
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final VerificationCodeStore verificationCodeStore = mock(VerificationCodeStore.class);
+    private final UserService userService = mock(UserService.class);
+    private final UserPrincipalCache userPrincipalCache = mock(UserPrincipalCache.class);
+    private AuthService authService;
+
+    @BeforeEach
+    void setUp() {
+        authService = new AuthService(userRepository, verificationCodeStore, mock(JwtUtil.class),
+                mock(EmailOutboxService.class), mock(CredentialVerifier.class), mock(UserDetailsService.class),
+                userService, userPrincipalCache);
+    }
+
+    @AfterEach
+    void tearDown() {
+        authService.shutdownExecutor();
+    }
+
+    @Test
+    void registerWithWrongCodeDoesNoWork() {
+        doThrow(new CustomException("验证码错误")).when(verificationCodeStore)
+                .consume(VerificationCodeStore.USAGE_REGISTER, EMAIL, "000000");
+        RegisterRequest request = new RegisterRequest();
+        request.setEmail(EMAIL);
+        request.setUsername("someone");
+        request.setPassword("secret-password");
+        request.setCode("000000");
+
+        assertThatThrownBy(() -> authService.register(request))
+                .isInstanceOf(CustomException.class)
+                .hasMessage("验证码错误");
+
+        verify(verificationCodeStore).consume(VerificationCodeStore.USAGE_REGISTER, EMAIL, "000000");
+        verifyNoInteractions(userRepository, userService, userPrincipalCache);
+    }
+
+    @Test
+    void resetPasswordWithWrongCodeDoesNoWork() {
+        doThrow(new CustomException("验证码无效或已过期")).when(verificationCodeStore)
+                .consume(VerificationCodeStore.USAGE_RESET_PASSWORD, EMAIL, "123456");
+        ResetPasswordRequest request = new ResetPasswordRequest();
+        request.setEmail(EMAIL);
+        request.setCode("123456");
+        request.setNewPassword("new-secret-password");
+
+        assertThatThrownBy(() -> authService.resetPassword(request))
+                .isInstanceOf(CustomException.class)
+                .hasMessage("验证码无效或已过期");
+
+        verifyNoInteractions(userRepository, userService, userPrincipalCache);
+    }
+}
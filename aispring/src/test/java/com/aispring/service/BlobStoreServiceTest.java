@@ -0,0 +1,354 @@
+package com.aispring.service;
+
+import com.aispring.config.StorageProperties;
+import com.aispring.entity.FileBlob;
+import com.aispring.repository.FileBlobRepository;
+import com.aispring.support.InMemoryTransactionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 数据块引用计数与回收任务的竞争测试
+ * file_blobs 用内存表代替：写操作按哈希加锁并持有到事务结束，回滚时撤销，与 InnoDB 行锁语义一致
+ */
+class BlobStoreServiceTest {
+
+    @TempDir
+    Path root;
+
+    private final InMemoryTransactionManager transactionManager = new InMemoryTransactionManager();
+    private final BlobTable table = new BlobTable();
+    private BlobStoreService blobStore;
+    private TransactionTemplate transaction;
+    private ExecutorService pool;
+
+    @BeforeEach
+    void setUp() {
+        FileBlobRepository repository = mock(FileBlobRepository.class);
+        when(repository.acquire(anyString(), anyLong()))
+                .thenAnswer(inv -> table.acquire(inv.getArgument(0), inv.getArgument(1)));
+        when(repository.release(anyString())).thenAnswer(inv -> table.release(inv.getArgument(0)));
+        when(repository.deleteIfUnreferenced(anyString()))
+                .thenAnswer(inv -> table.deleteIfUnreferenced(inv.getArgument(0)));
+        when(repository.findById(anyString())).thenAnswer(inv -> table.find(inv.getArgument(0)));
+        when(repository.existsById(anyString())).thenAnswer(inv -> table.find(inv.getArgument(0)).isPresent());
+        when(repository.findUnreferencedBefore(any(LocalDateTime.class), any(Pageable.class)))
+                .thenAnswer(inv -> table.unreferencedBefore(inv.getArgument(0), ((Pageable) inv.getArgument(1)).getPageSize()));
+
+        StorageProperties properties = new StorageProperties();
+        properties.setRootDir(root.toString());
+        properties.setCloudDiskDir("cloud");
+
+        blobStore = new BlobStoreService(repository, properties, mock(StorageIntentLog.class), transactionManager);
+        // 宽限期内的新文件（含上传中的临时文件）不会被清理；测试通过 ageRelease 把释放时间提前
+        ReflectionTestUtils.setField(blobStore, "gcGraceMinutes", 1L);
+        ReflectionTestUtils.setField(blobStore, "gcBatchSize", 500);
+        ReflectionTestUtils.setField(blobStore, "fsync", false);
+        transaction = new TransactionTemplate(transactionManager);
+        pool = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void concurrentStoresOfSameContentShareOneBlob() throws Exception {
+        byte[] content = "same content".getBytes(StandardCharsets.UTF_8);
+        List<String> hashes = java.util.Collections.synchronizedList(new ArrayList<>());
+
+        runConcurrently(16, () -> {
+            hashes.add(transaction.execute(status -> store(content)).hash());
+            return null;
+        });
+
+        assertThat(hashes).hasSize(16).containsOnly(hashes.get(0));
+        String hash = hashes.get(0);
+        assertThat(table.refCount(hash)).isEqualTo(16);
+        assertThat(Files.readAllBytes(blobStore.blobPath(hash))).isEqualTo(content);
+        assertThat(tmpFiles()).isEmpty();
+    }
+
+    @Test
+    void garbageCollectionNeverDeletesContentThatIsReferencedAgain() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            byte[] content = ("round " + round).getBytes(StandardCharsets.UTF_8);
+            String hash = transaction.execute(status -> store(content)).hash();
+            transaction.executeWithoutResult(status -> blobStore.release(hash));
+            table.ageRelease(hash);
+
+            CountDownLatch start = new CountDownLatch(1);
+            Future<?> gc = pool.submit(() -> {
+                start.await();
+                blobStore.collectGarbage();
+                return null;
+            });
+            Future<?> upload = pool.submit(() -> {
+                start.await();
+                return transaction.execute(status -> store(content));
+            });
+            start.countDown();
+            gc.get(30, TimeUnit.SECONDS);
+            upload.get(30, TimeUnit.SECONDS);
+
+            // 无论谁先拿到行锁：新上传之后计数为 1，且文件内容完整
+            assertThat(table.refCount(hash)).isEqualTo(1);
+            assertThat(Files.readAllBytes(blobStore.blobPath(hash))).isEqualTo(content);
+        }
+    }
+
+    @Test
+    void instantReferenceRacingWithGarbageCollectionFailsOrKeepsTheBlob() throws Exception {
+        AtomicInteger referenced = new AtomicInteger();
+        for (int round = 0; round < 50; round++) {
+            byte[] content = ("instant " + round).getBytes(StandardCharsets.UTF_8);
+            String hash = transaction.execute(status -> store(content)).hash();
+            transaction.executeWithoutResult(status -> blobStore.release(hash));
+            table.ageRelease(hash);
+
+            CountDownLatch start = new CountDownLatch(1);
+            Future<?> gc = pool.submit(() -> {
+                start.await();
+                blobStore.collectGarbage();
+                return null;
+            });
+            Future<Boolean> instant = pool.submit(() -> {
+                start.await();
+                try {
+                    transaction.executeWithoutResult(status -> {
+                        try {
+                            blobStore.reference(hash);
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                    return true;
+                } catch (IllegalStateException e) {
+                    return false;
+                }
+            });
+            start.countDown();
+            gc.get(30, TimeUnit.SECONDS);
+            boolean ok = instant.get(30, TimeUnit.SECONDS);
+
+            if (ok) {
+                referenced.incrementAndGet();
+                assertThat(table.refCount(hash)).isEqualTo(1);
+                assertThat(Files.readAllBytes(blobStore.blobPath(hash))).isEqualTo(content);
+            } else {
+                // 秒传失败时其事务回滚，不留下指向缺失文件的引用
+                assertThat(table.refCount(hash)).isLessThanOrEqualTo(0);
+            }
+        }
+        assertThat(referenced.get()).isBetween(0, 50);
+    }
+
+    @Test
+    void rolledBackStoreLeavesOrphanFileThatIsSwept() throws Exception {
+        byte[] content = "rolled back".getBytes(StandardCharsets.UTF_8);
+        String hash = transaction.execute(status -> {
+            BlobStoreService.StoredBlob blob = store(content);
+            status.setRollbackOnly();
+            return blob;
+        }).hash();
+
+        Path path = blobStore.blobPath(hash);
+        assertThat(table.find(hash)).isEmpty();
+        assertThat(path).exists();
+
+        Files.setLastModifiedTime(path, FileTime.from(Instant.now().minusSeconds(3600)));
+        blobStore.collectGarbage();
+
+        assertThat(path).doesNotExist();
+    }
+
+    @Test
+    void concurrentAcquireAndReleaseKeepExactCount() throws Exception {
+        byte[] content = "counted".getBytes(StandardCharsets.UTF_8);
+        String hash = transaction.execute(status -> store(content)).hash();
+
+        runConcurrently(200, () -> {
+            transaction.executeWithoutResult(status -> store(content));
+            transaction.executeWithoutResult(status -> blobStore.release(hash));
+            return null;
+        });
+        blobStore.collectGarbage();
+
+        assertThat(table.refCount(hash)).isEqualTo(1);
+        assertThat(blobStore.blobPath(hash)).exists();
+    }
+
+    @Test
+    void releasedBlobIsCollectedAfterGracePeriodOnly() throws Exception {
+        byte[] content = "grace".getBytes(StandardCharsets.UTF_8);
+        String hash = transaction.execute(status -> store(content)).hash();
+        transaction.executeWithoutResult(status -> blobStore.release(hash));
+
+        ReflectionTestUtils.setField(blobStore, "gcGraceMinutes", 60L);
+        blobStore.collectGarbage();
+        assertThat(table.find(hash)).isPresent();
+        assertThat(blobStore.blobPath(hash)).exists();
+
+        ReflectionTestUtils.setField(blobStore, "gcGraceMinutes", 1L);
+        table.ageRelease(hash);
+        blobStore.collectGarbage();
+        assertThat(table.find(hash)).isEmpty();
+        assertThat(blobStore.blobPath(hash)).doesNotExist();
+    }
+
+    private BlobStoreService.StoredBlob store(byte[] content) {
+        try {
+            return blobStore.store(content);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private List<Path> tmpFiles() throws IOException {
+        Path tmp = root.resolve("cloud").resolve(BlobStoreService.BLOB_DIR).resolve("tmp");
+        if (!Files.isDirectory(tmp)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(tmp)) {
+            return files.toList();
+        }
+    }
+
+    private void runConcurrently(int tasks, Callable<Void> task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        }
+        start.countDown();
+        for (Future<Void> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * file_blobs 的内存实现，每个方法对应 FileBlobRepository 中的一条语句
+     */
+    private final class BlobTable {
+        private final Map<String, FileBlob> rows = new ConcurrentHashMap<>();
+        private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+        int acquire(String hash, long size) {
+            return locked(hash, () -> {
+                FileBlob row = rows.get(hash);
+                if (row == null) {
+                    rows.put(hash, new FileBlob(hash, size, 1, LocalDateTime.now(), null));
+                    transactionManager.recordUndo(() -> rows.remove(hash));
+                } else {
+                    LocalDateTime releasedAt = row.getReleasedAt();
+                    row.setRefCount(row.getRefCount() + 1);
+                    row.setReleasedAt(null);
+                    transactionManager.recordUndo(() -> {
+                        row.setRefCount(row.getRefCount() - 1);
+                        row.setReleasedAt(releasedAt);
+                    });
+                }
+                return 1;
+            });
+        }
+
+        int release(String hash) {
+            return locked(hash, () -> {
+                FileBlob row = rows.get(hash);
+                if (row == null || row.getRefCount() <= 0) {
+                    return 0;
+                }
+                LocalDateTime releasedAt = row.getReleasedAt();
+                row.setRefCount(row.getRefCount() - 1);
+                row.setReleasedAt(LocalDateTime.now());
+                transactionManager.recordUndo(() -> {
+                    row.setRefCount(row.getRefCount() + 1);
+                    row.setReleasedAt(releasedAt);
+                });
+                return 1;
+            });
+        }
+
+        int deleteIfUnreferenced(String hash) {
+            return locked(hash, () -> {
+                FileBlob row = rows.get(hash);
+                if (row == null || row.getRefCount() > 0) {
+                    return 0;
+                }
+                rows.remove(hash);
+                transactionManager.recordUndo(() -> rows.put(hash, row));
+                return 1;
+            });
+        }
+
+        Optional<FileBlob> find(String hash) {
+            return Optional.ofNullable(rows.get(hash));
+        }
+
+        List<String> unreferencedBefore(LocalDateTime before, int limit) {
+            return rows.values().stream()
+                    .filter(b -> b.getRefCount() <= 0 && (b.getReleasedAt() == null || b.getReleasedAt().isBefore(before)))
+                    .map(FileBlob::getContentHash)
+                    .limit(limit)
+                    .toList();
+        }
+
+        int refCount(String hash) {
+            return find(hash).map(FileBlob::getRefCount).orElse(0);
+        }
+
+        void ageRelease(String hash) {
+            find(hash).ifPresent(b -> b.setReleasedAt(LocalDateTime.now().minusDays(1)));
+        }
+
+        private int locked(String hash, java.util.function.IntSupplier statement) {
+            ReentrantLock lock = locks.computeIfAbsent(hash, h -> new ReentrantLock());
+            boolean autocommit = transactionManager.holdLock(lock);
+            try {
+                return statement.getAsInt();
+            } finally {
+                if (autocommit) {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.aispring.service;
+
+import com.aispring.entity.ChatRecord;
+import com.aispring.entity.ChatSession;
+import com.aispring.repository.ChatRecordRepository;
+import com.aispring.repository.ChatSessionRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 导出按会话键集分页：每页从上一页最后一条消息之后继续，已删除的会话不查询
+ */
+class ChatExportServiceTest {
+
+    private static final long USER_ID = 3L;
+    private static final int PAGE_SIZE = 500;
+
+    private final ChatRecordRepository chatRecordRepository = mock(ChatRecordRepository.class);
+    private final ChatSessionRepository chatSessionRepository = mock(ChatSessionRepository.class);
+    private final ChatExportService service =
+            new ChatExportService(chatRecordRepository, chatSessionRepository, new ObjectMapper());
+
+    @Test
+    void pagesThroughEachSessionByKeyset() throws Exception {
+        ChatSession deleted = new ChatSession();
+        deleted.setSessionId("s-deleted");
+        deleted.setDeletedAt(LocalDateTime.now());
+        when(chatSessionRepository.findByUserId(USER_ID)).thenReturn(List.of(deleted));
+        when(chatRecordRepository.findExportSessionIds(USER_ID)).thenReturn(List.of("s-a", "s-b", "s-deleted"));
+
+        List<ChatRecord> firstPage = records("s-a", 1, PAGE_SIZE);
+        ChatRecord lastOfFirst = firstPage.get(PAGE_SIZE - 1);
+        when(chatRecordRepository.findExportPage(eq(USER_ID), eq("s-a"), eq(Integer.MIN_VALUE), eq(Long.MIN_VALUE), any(Pageable.class)))
+                .thenReturn(firstPage);
+        when(chatRecordRepository.findExportPage(eq(USER_ID), eq("s-a"), eq(lastOfFirst.getMessageOrder()),
+                eq(lastOfFirst.getId()), any(Pageable.class)))
+                .thenReturn(records("s-a", PAGE_SIZE + 1, 2));
+        when(chatRecordRepository.findExportPage(eq(USER_ID), eq("s-b"), eq(Integer.MIN_VALUE), eq(Long.MIN_VALUE), any(Pageable.class)))
+                .thenReturn(records("s-b", 1, 3));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.export(USER_ID, null, ChatExportService.FORMAT_NDJSON, out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize(PAGE_SIZE + 2 + 3);
+        assertThat(lines[PAGE_SIZE + 1]).contains("\"message_order\":" + (PAGE_SIZE + 2));
+        assertThat(lines[PAGE_SIZE + 2]).contains("\"session_id\":\"s-b\"");
+        verify(chatRecordRepository, never()).findExportPage(anyLong(), eq("s-deleted"), anyInt(), anyLong(), any(Pageable.class));
+    }
+
+    @Test
+    void singleSessionSkipsSessionListing() throws Exception {
+        when(chatSessionRepository.findByUserId(USER_ID)).thenReturn(List.of());
+        when(chatRecordRepository.findExportPage(eq(USER_ID), eq("s-a"), anyInt(), anyLong(), any(Pageable.class)))
+                .thenReturn(records("s-a", 1, 2));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.export(USER_ID, "s-a", ChatExportService.FORMAT_MARKDOWN, out);
+
+        assertThat(out.toString(StandardCharsets.UTF_8)).startsWith("# 新对话\n\n").contains("message-2");
+        verify(chatRecordRepository, never()).findExportSessionIds(anyLong());
+        verify(chatRecordRepository, never()).findExportPage(anyLong(), anyString(), eq(2), anyLong(), any(Pageable.class));
+    }
+
+    private static List<ChatRecord> records(String sessionId, int firstOrder, int count) {
+        List<ChatRecord> records = new ArrayList<>();
+        IntStream.range(firstOrder, firstOrder + count).forEach(order -> records.add(ChatRecord.builder()
+                .id((long) order * 10)
+                .userId(USER_ID)
+                .sessionId(sessionId)
+                .messageOrder(order)
+                .senderType(1)
+                .content("message-" + order)
+                .status("completed")
+                .sendTime(LocalDateTime.of(2026, 1, 1, 0, 0))
+                .build()));
+        return records;
+    }
+}
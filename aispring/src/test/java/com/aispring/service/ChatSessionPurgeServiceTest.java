@@ -0,0 +1,68 @@
+package com.aispring.service;
+
+import com.aispring.repository.ChatRecordRepository;
+import com.aispring.repository.ChatSessionRepository;
+import com.aispring.support.InMemoryTransactionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 小会话的消息与会话行在同一事务中删除：删除会话行失败时消息删除一并回滚
+ */
+class ChatSessionPurgeServiceTest {
+
+    private static final long USER_ID = 5L;
+    private static final String SESSION_ID = "s-1";
+
+    private final ChatRecordRepository chatRecordRepository = mock(ChatRecordRepository.class);
+    private final ChatSessionRepository chatSessionRepository = mock(ChatSessionRepository.class);
+    private final InMemoryTransactionManager transactionManager = new InMemoryTransactionManager();
+    private ChatSessionPurgeService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new ChatSessionPurgeService(chatRecordRepository, chatSessionRepository, transactionManager);
+        ReflectionTestUtils.setField(service, "syncThreshold", 500);
+        when(chatRecordRepository.countByUserIdAndSessionId(USER_ID, SESSION_ID)).thenReturn(3L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdownExecutor();
+    }
+
+    @Test
+    void smallSessionIsDeletedInOneTransaction() {
+        assertThat(service.deleteSession(USER_ID, SESSION_ID)).isEqualTo(3);
+
+        verify(chatRecordRepository).deleteByUserIdAndSessionId(USER_ID, SESSION_ID);
+        verify(chatSessionRepository).deleteByUserIdAndSessionId(USER_ID, SESSION_ID);
+    }
+
+    @Test
+    void failedSessionDeleteRollsBackRecordDelete() {
+        AtomicBoolean recordsDeleted = new AtomicBoolean();
+        when(chatRecordRepository.deleteByUserIdAndSessionId(USER_ID, SESSION_ID)).thenAnswer(invocation -> {
+            recordsDeleted.set(true);
+            transactionManager.recordUndo(() -> recordsDeleted.set(false));
+            return 3;
+        });
+        when(chatSessionRepository.deleteByUserIdAndSessionId(USER_ID, SESSION_ID))
+                .thenThrow(new IllegalStateException("lock wait timeout"));
+
+        assertThatThrownBy(() -> service.deleteSession(USER_ID, SESSION_ID))
+                .isInstanceOf(IllegalStateException.class);
+
+        assertThat(recordsDeleted).isFalse();
+    }
+}
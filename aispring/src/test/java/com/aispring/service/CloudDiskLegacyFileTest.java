@@ -0,0 +1,60 @@
+package com.aispring.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 旧文件定位：规范位置之外，历史布局（缺少 userId、重复 userId、userId 与首级目录粘连）中的文件也能找到
+ */
+class CloudDiskLegacyFileTest {
+
+    private static final long USER_ID = 7L;
+
+    @TempDir
+    Path root;
+
+    @Test
+    void findsCanonicalLayout() throws Exception {
+        Path file = write(root.resolve("7/docs/a.txt"));
+
+        assertThat(CloudDiskService.findLegacyFile(root.toString(), "/docs/a.txt", USER_ID)).isEqualTo(file);
+    }
+
+    @Test
+    void findsFileWithoutUserDirectory() throws Exception {
+        Path file = write(root.resolve("docs/a.txt"));
+
+        assertThat(CloudDiskService.findLegacyFile(root.toString(), "/docs/a.txt", USER_ID)).isEqualTo(file);
+    }
+
+    @Test
+    void findsFileWithRepeatedUserId() throws Exception {
+        Path file = write(root.resolve("7/docs/a.txt"));
+
+        assertThat(CloudDiskService.findLegacyFile(root.toString(), "/7/docs/a.txt", USER_ID)).isEqualTo(file);
+    }
+
+    @Test
+    void findsFileWithGluedUserId() throws Exception {
+        Path file = write(root.resolve("7docs/a.txt"));
+
+        assertThat(CloudDiskService.findLegacyFile(root.toString(), "docs/a.txt", USER_ID)).isEqualTo(file);
+    }
+
+    @Test
+    void returnsNullWhenMissing() {
+        assertThat(CloudDiskService.findLegacyFile(root.toString(), "/docs/missing.txt", USER_ID)).isNull();
+        assertThat(CloudDiskService.findLegacyFile(root.toString(), "/", USER_ID)).isNull();
+        assertThat(CloudDiskService.findLegacyFile(root.toString(), null, USER_ID)).isNull();
+    }
+
+    private static Path write(Path path) throws Exception {
+        Files.createDirectories(path.getParent());
+        return Files.writeString(path, "legacy");
+    }
+}
@@ -0,0 +1,243 @@
+package com.aispring.service;
+
+import com.aispring.dto.response.CursorPage;
+import com.aispring.dto.response.FileListItem;
+import com.aispring.entity.UserFolder;
+import com.aispring.repository.UserFolderRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 键集分页：游标往返翻页时既不重复也不遗漏，排序值相同的行按 id 继续排序
+ */
+class CloudDiskListingServiceTest {
+
+    private static final long USER_ID = 3L;
+    private static final long FOLDER_ID = 11L;
+    private static final Pattern ORDER_BY = Pattern.compile("ORDER BY (\\w+) (ASC|DESC), id (ASC|DESC) LIMIT \\?$");
+
+    /** 模拟 user_files 表中一行 */
+    private record Row(long id, String filename, long size, LocalDateTime uploaded, long folderId) {}
+
+    private final List<Row> table = new ArrayList<>();
+    private final List<String> executedSql = new ArrayList<>();
+    private CloudDiskListingService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        // 大量重复的排序值，跨页的位置经常落在相同值中间
+        LocalDateTime base = LocalDateTime.of(2024, 3, 1, 8, 0);
+        String[] names = {"alpha.txt", "beta.txt", "gamma.txt"};
+        for (long id = 1; id <= 23; id++) {
+            table.add(new Row(id, names[(int) (id % names.length)], (id % 4) * 1024,
+                    base.plusSeconds(id % 5).plusNanos(id % 2 * 500_000_000L), id % 2 == 0 ? FOLDER_ID : 12L));
+        }
+
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(Object[].class))).thenAnswer(inv -> {
+            String sql = inv.getArgument(0);
+            executedSql.add(sql);
+            Object[] args = Arrays.copyOfRange(inv.getArguments(), 2, inv.getArguments().length);
+            return select(sql, args, inv.getArgument(1));
+        });
+
+        UserFolderRepository folderRepository = mock(UserFolderRepository.class);
+        UserFolder folder = new UserFolder();
+        folder.setId(FOLDER_ID);
+        when(folderRepository.findByIdAndUser_Id(FOLDER_ID, USER_ID)).thenReturn(Optional.of(folder));
+        when(folderRepository.findByUser_IdOrderByIdAsc(anyLong())).thenReturn(List.of());
+        FolderTreeService folderTreeService = mock(FolderTreeService.class);
+        when(folderTreeService.pathOf(any(UserFolder.class))).thenReturn("/docs");
+        when(folderTreeService.paths(anyList())).thenReturn(Map.of());
+
+        service = new CloudDiskListingService(jdbcTemplate, folderRepository, folderTreeService);
+        ReflectionTestUtils.setField(service, "defaultLimit", 5);
+        ReflectionTestUtils.setField(service, "maxLimit", 500);
+    }
+
+    @Test
+    void everySortAndOrderRoundTripsWithoutDuplicatesOrGaps() {
+        assertRoundTrip("name", "asc", null, Row::filename);
+        assertRoundTrip("name", "desc", null, Row::filename);
+        assertRoundTrip("size", "asc", null, Row::size);
+        assertRoundTrip("size", "desc", null, Row::size);
+        assertRoundTrip("time", "asc", null, Row::uploaded);
+        assertRoundTrip("time", "desc", null, Row::uploaded);
+    }
+
+    @Test
+    void folderListingRoundTripsWithinTheFolder() {
+        assertRoundTrip("size", "desc", FOLDER_ID, Row::size);
+        assertRoundTrip("time", "asc", FOLDER_ID, Row::uploaded);
+    }
+
+    @Test
+    void zeroSizedFilesAreNotSkipped() {
+        List<Long> ids = collect("size", "desc", null, 4);
+
+        assertThat(ids).hasSize(table.size());
+        assertThat(ids.subList(ids.size() - 5, ids.size()))
+                .allSatisfy(id -> assertThat(id % 4).isZero());
+    }
+
+    @Test
+    void keysetUsesARowConstructor() {
+        CursorPage<FileListItem> first = service.listFiles(USER_ID, null, null, "size", "desc", null, 5);
+        service.listFiles(USER_ID, null, null, "size", "desc", first.getNextCursor(), 5);
+
+        String second = executedSql.get(executedSql.size() - 1);
+        assertThat(second).contains("AND (file_size, id) < (?, ?)").doesNotContain(" OR ");
+        assertThat(executedSql.get(0)).doesNotContain("(?, ?)");
+    }
+
+    @Test
+    void cursorOnlyWorksForItsOwnSort() {
+        String cursor = service.listFiles(USER_ID, null, null, "size", "desc", null, 5).getNextCursor();
+
+        assertThatThrownBy(() -> service.listFiles(USER_ID, null, null, "name", "asc", cursor, 5))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.listFiles(USER_ID, null, null, "size", "asc", cursor, 5))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void malformedCursorIsRejected() {
+        assertThatThrownBy(() -> service.listFiles(USER_ID, null, null, "time", null, "not-a-cursor", 5))
+                .isInstanceOf(IllegalArgumentException.class);
+        String forged = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString("TIME:desc:5:yesterday".getBytes(StandardCharsets.UTF_8));
+        assertThatThrownBy(() -> service.listFiles(USER_ID, null, null, "time", null, forged, 5))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("分页游标无效");
+    }
+
+    private <C extends Comparable<? super C>> void assertRoundTrip(String sort, String order, Long folderId,
+                                                                   Function<Row, C> key) {
+        Comparator<Row> comparator = Comparator.comparing(key).thenComparingLong(Row::id);
+        if ("desc".equals(order)) {
+            comparator = comparator.reversed();
+        }
+        List<Long> expected = table.stream()
+                .filter(r -> folderId == null || r.folderId() == folderId)
+                .sorted(comparator)
+                .map(Row::id)
+                .toList();
+
+        for (int limit : new int[]{1, 2, 5, 7, 50}) {
+            assertThat(collect(sort, order, folderId, limit))
+                    .as("sort=%s order=%s limit=%d", sort, order, limit)
+                    .containsExactlyElementsOf(expected);
+        }
+    }
+
+    private List<Long> collect(String sort, String order, Long folderId, int limit) {
+        List<Long> ids = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            CursorPage<FileListItem> page = service.listFiles(USER_ID, folderId, null, sort, order, cursor, limit);
+            page.getItems().forEach(item -> ids.add(item.getId()));
+            assertThat(page.getItems().size()).isLessThanOrEqualTo(limit);
+            assertThat(page.isHasMore()).isEqualTo(page.getNextCursor() != null);
+            cursor = page.getNextCursor();
+            assertThat(++pages).isLessThanOrEqualTo(table.size() + 1);
+        } while (cursor != null);
+        return ids;
+    }
+
+    /**
+     * 按 SQL 中的排序列、方向与行构造器条件在内存表上执行查询
+     */
+    private List<FileListItem> select(String sql, Object[] args, RowMapper<FileListItem> mapper) throws Exception {
+        Matcher m = ORDER_BY.matcher(sql);
+        assertThat(m.find()).as(sql).isTrue();
+        String column = m.group(1);
+        boolean ascending = "ASC".equals(m.group(2));
+        Function<Row, Comparable> key = switch (column) {
+            case "filename" -> Row::filename;
+            case "file_size" -> Row::size;
+            case "upload_time" -> r -> Timestamp.valueOf(r.uploaded());
+            default -> throw new AssertionError("未知排序列: " + column);
+        };
+
+        int arg = 0;
+        long userId = (Long) args[arg++];
+        Long folderId = sql.contains("folder_id = ?") ? (Long) args[arg++] : null;
+        Comparable afterValue = null;
+        long afterId = 0;
+        if (sql.contains("(?, ?)")) {
+            afterValue = (Comparable) args[arg++];
+            afterId = (Long) args[arg++];
+        }
+        int limit = (Integer) args[arg];
+
+        Comparator<Row> comparator = (a, b) -> compareKeys(key.apply(a), a.id(), key.apply(b), b.id());
+        if (!ascending) {
+            comparator = comparator.reversed();
+        }
+        List<FileListItem> result = new ArrayList<>();
+        List<Row> rows = table.stream()
+                .filter(r -> userId == USER_ID)
+                .filter(r -> folderId == null || r.folderId() == folderId)
+                .sorted(comparator)
+                .toList();
+        for (Row row : rows) {
+            if (afterValue != null) {
+                int c = compareKeys(key.apply(row), row.id(), afterValue, afterId);
+                if (ascending ? c <= 0 : c >= 0) {
+                    continue;
+                }
+            }
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(mapper.mapRow(resultSet(row), result.size()));
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compareKeys(Comparable a, long aId, Comparable b, long bId) {
+        int c = a.compareTo(b);
+        return c != 0 ? c : Long.compare(aId, bId);
+    }
+
+    private static ResultSet resultSet(Row row) throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getLong("id")).thenReturn(row.id());
+        when(rs.getString("filename")).thenReturn(row.filename());
+        when(rs.getObject("file_size", Long.class)).thenReturn(row.size());
+        when(rs.getString("file_type")).thenReturn("text/plain");
+        when(rs.getObject("folder_id", Long.class)).thenReturn(row.folderId());
+        when(rs.getTimestamp("upload_time")).thenReturn(Timestamp.valueOf(row.uploaded()));
+        return rs;
+    }
+}
@@ -0,0 +1,280 @@
+package com.aispring.service;
+
+import com.aispring.entity.EmailOutbox;
+import com.aispring.repository.EmailOutboxRepository;
+import com.aispring.util.EmailUtil;
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 发件箱投递测试：GreenMail 作为 SMTP 服务，发件箱表用 mock 代替
+ */
+class EmailOutboxServiceTest {
+
+    @RegisterExtension
+    static GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP);
+
+    private EmailOutboxRepository repository;
+    private VerificationCodeStore verificationCodeStore;
+    private EmailOutboxService service;
+    private long nextId = 1;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(EmailOutboxRepository.class);
+        verificationCodeStore = mock(VerificationCodeStore.class);
+        when(repository.claim(anyList(), any())).thenReturn(1);
+        service = newService(ServerSetupTest.SMTP.getPort());
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdownExecutor();
+    }
+
+    @Test
+    void dispatchSendsClaimedMailsAndMarksThemSent() throws Exception {
+        List<EmailOutbox> due = List.of(mail("a@example.com"), mail("b@example.com"));
+        when(repository.findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(eq(EmailOutbox.STATUS_PENDING), any(), any()))
+                .thenReturn(due);
+
+        service.dispatchPending();
+
+        MimeMessage[] received = greenMail.getReceivedMessages();
+        assertThat(received).hasSize(2);
+        assertThat(received[0].getSubject()).isEqualTo("subject a@example.com");
+        assertThat(received[0].getFrom()[0].toString()).isEqualTo("noreply@example.com");
+
+        List<EmailOutbox> saved = captureSaved(1).get(0);
+        assertThat(saved).extracting(EmailOutbox::getStatus).containsOnly(EmailOutbox.STATUS_SENT);
+        assertThat(saved).allSatisfy(m -> {
+            assertThat(m.getSentAt()).isNotNull();
+            assertThat(m.getLeaseUntil()).isNull();
+        });
+    }
+
+    @Test
+    void dispatchClaimsWithLeaseAndSkipsMailsClaimedElsewhere() {
+        EmailOutbox mine = mail("mine@example.com");
+        EmailOutbox theirs = mail("theirs@example.com");
+        when(repository.findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(any(), any(), any()))
+                .thenReturn(List.of(mine, theirs));
+        when(repository.claim(eq(List.of(theirs.getId())), any())).thenReturn(0);
+
+        service.dispatchPending();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<LocalDateTime> lease = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(repository).claim(eq(List.of(mine.getId())), lease.capture());
+        assertThat(lease.getValue()).isCloseTo(LocalDateTime.now().plusSeconds(300), within(5, ChronoUnit.SECONDS));
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(1);
+        assertThat(captureSaved(1).get(0)).containsExactly(mine);
+    }
+
+    @Test
+    void dispatchLoopsOverFullBatches() {
+        ReflectionTestUtils.setField(service, "batchSize", 2);
+        when(repository.findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(any(), any(), any(Pageable.class)))
+                .thenReturn(List.of(mail("1@example.com"), mail("2@example.com")))
+                .thenReturn(List.of(mail("3@example.com")));
+
+        service.dispatchPending();
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(3);
+        List<List<EmailOutbox>> batches = captureSaved(2);
+        assertThat(batches.get(0)).hasSize(2);
+        assertThat(batches.get(1)).hasSize(1);
+        verify(repository, times(2)).findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(any(), any(), any());
+    }
+
+    @Test
+    void connectionFailureSchedulesExponentialRetry() {
+        service = newService(unusedPort());
+        EmailOutbox first = mail("first@example.com");
+        EmailOutbox third = mail("third@example.com");
+        third.setAttempts(2);
+        when(repository.findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(any(), any(), any()))
+                .thenReturn(List.of(first, third));
+
+        LocalDateTime before = LocalDateTime.now();
+        service.dispatchPending();
+
+        assertThat(first.getStatus()).isEqualTo(EmailOutbox.STATUS_PENDING);
+        assertThat(first.getAttempts()).isEqualTo(1);
+        assertThat(first.getNextAttemptAt()).isCloseTo(before.plusSeconds(10), within(5, ChronoUnit.SECONDS));
+        assertThat(first.getLastError()).isNotBlank();
+
+        assertThat(third.getAttempts()).isEqualTo(3);
+        assertThat(third.getNextAttemptAt()).isCloseTo(before.plusSeconds(40), within(5, ChronoUnit.SECONDS));
+        assertThat(third.getLeaseUntil()).isNull();
+    }
+
+    @Test
+    void lastAttemptMarksMailFailed() {
+        service = newService(unusedPort());
+        EmailOutbox mail = mail("last@example.com");
+        mail.setAttempts(5);
+        when(repository.findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(any(), any(), any()))
+                .thenReturn(List.of(mail));
+
+        service.dispatchPending();
+
+        assertThat(mail.getStatus()).isEqualTo(EmailOutbox.STATUS_FAILED);
+        assertThat(mail.getAttempts()).isEqualTo(6);
+    }
+
+    @Test
+    void verificationCodeIsRenderedAtSendTimeAndNeverStored() throws Exception {
+        // 在调用方事务中写入，不提交，避免提交后的异步唤醒与下面的手动投递并发
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            service.enqueueVerificationCode("code@example.com", VerificationCodeStore.USAGE_REGISTER, "注册");
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        ArgumentCaptor<EmailOutbox> stored = ArgumentCaptor.forClass(EmailOutbox.class);
+        verify(repository).save(stored.capture());
+        EmailOutbox mail = stored.getValue();
+        mail.setId(nextId++);
+        assertThat(mail.getCodeUsage()).isEqualTo(VerificationCodeStore.USAGE_REGISTER);
+        assertThat(mail.getContent()).contains(EmailOutboxService.CODE_PLACEHOLDER);
+
+        when(verificationCodeStore.peek(VerificationCodeStore.USAGE_REGISTER, "code@example.com")).thenReturn("482913");
+        when(repository.findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(any(), any(), any()))
+                .thenReturn(List.of(mail));
+        service.dispatchPending();
+
+        MimeMessage[] received = greenMail.getReceivedMessages();
+        assertThat(received).hasSize(1);
+        assertThat(received[0].getContent().toString()).contains("482913")
+                .doesNotContain(EmailOutboxService.CODE_PLACEHOLDER);
+        assertThat(mail.getStatus()).isEqualTo(EmailOutbox.STATUS_SENT);
+        assertThat(mail.getContent()).doesNotContain("482913");
+    }
+
+    @Test
+    void expiredVerificationCodeIsNotSent() {
+        EmailOutbox expired = mail("expired@example.com");
+        expired.setCodeUsage(VerificationCodeStore.USAGE_RESET_PASSWORD);
+        EmailOutbox plain = mail("plain@example.com");
+        when(repository.findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(any(), any(), any()))
+                .thenReturn(List.of(expired, plain));
+
+        service.dispatchPending();
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(1);
+        assertThat(expired.getStatus()).isEqualTo(EmailOutbox.STATUS_FAILED);
+        assertThat(expired.getLeaseUntil()).isNull();
+        assertThat(plain.getStatus()).isEqualTo(EmailOutbox.STATUS_SENT);
+        assertThat(captureSaved(1).get(0)).containsExactlyInAnyOrder(expired, plain);
+    }
+
+    @Test
+    void unavailableCodeStoreRetriesLater() {
+        EmailOutbox mail = mail("retry@example.com");
+        mail.setCodeUsage(VerificationCodeStore.USAGE_REGISTER);
+        when(verificationCodeStore.peek(any(), any())).thenThrow(new IllegalStateException("redis down"));
+        when(repository.findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(any(), any(), any()))
+                .thenReturn(List.of(mail));
+
+        service.dispatchPending();
+
+        assertThat(greenMail.getReceivedMessages()).isEmpty();
+        assertThat(mail.getStatus()).isEqualTo(EmailOutbox.STATUS_PENDING);
+        assertThat(mail.getAttempts()).isEqualTo(1);
+    }
+
+    @Test
+    void startupRecoversOnlyExpiredLeases() {
+        LocalDateTime before = LocalDateTime.now();
+
+        service.recoverOnStartup();
+
+        ArgumentCaptor<LocalDateTime> now = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(repository).resetExpiredLeases(now.capture());
+        assertThat(now.getValue()).isAfterOrEqualTo(before);
+        assertThat(now.getValue()).isBefore(before.plusSeconds(5));
+    }
+
+    @Test
+    void nothingDueSendsNothing() {
+        service.dispatchPending();
+
+        assertThat(greenMail.getReceivedMessages()).isEmpty();
+        verify(repository, never()).saveAll(anyList());
+    }
+
+    private EmailOutboxService newService(int smtpPort) {
+        JavaMailSenderImpl sender = new JavaMailSenderImpl();
+        sender.setHost("127.0.0.1");
+        sender.setPort(smtpPort);
+        Properties props = new Properties();
+        props.put("mail.smtp.connectiontimeout", "2000");
+        props.put("mail.smtp.timeout", "2000");
+        sender.setJavaMailProperties(props);
+
+        EmailUtil emailUtil = new EmailUtil(sender);
+        ReflectionTestUtils.setField(emailUtil, "fromEmail", "noreply@example.com");
+
+        EmailOutboxService outbox = new EmailOutboxService(repository, emailUtil, verificationCodeStore);
+        ReflectionTestUtils.setField(outbox, "batchSize", 20);
+        ReflectionTestUtils.setField(outbox, "maxAttempts", 6);
+        ReflectionTestUtils.setField(outbox, "retryBaseSeconds", 10L);
+        ReflectionTestUtils.setField(outbox, "leaseSeconds", 300L);
+        ReflectionTestUtils.setField(outbox, "retentionDays", 7);
+        return outbox;
+    }
+
+    private EmailOutbox mail(String to) {
+        return EmailOutbox.builder()
+                .id(nextId++)
+                .toEmail(to)
+                .subject("subject " + to)
+                .content("content")
+                .nextAttemptAt(LocalDateTime.now())
+                .build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<EmailOutbox>> captureSaved(int times) {
+        ArgumentCaptor<List<EmailOutbox>> captor = ArgumentCaptor.forClass(List.class);
+        verify(repository, times(times)).saveAll(captor.capture());
+        return new ArrayList<>(captor.getAllValues());
+    }
+
+    private static int unusedPort() {
+        try (java.net.ServerSocket socket = new java.net.ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (java.io.IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.aispring.service;
+
+import com.aispring.util.StreamingZipWriter.Entry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FolderZipServiceTest {
+
+    private static final int CHUNK = 64 * 1024;
+    private static final long MODIFIED = 1_700_000_000_000L;
+
+    @TempDir
+    Path tempDir;
+
+    private FolderZipService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new FolderZipService(3);
+        ReflectionTestUtils.setField(service, "inMemoryLimit", 100L * 1024);
+        ReflectionTestUtils.setField(service, "maxInFlight", 3);
+        ReflectionTestUtils.setField(service, "compressionLevel", 6);
+        ReflectionTestUtils.setField(service, "chunkBytes", CHUNK);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdownExecutor();
+    }
+
+    @Test
+    void largeEntriesAreCompressedInChunksIntoOneValidStream() throws IOException {
+        // 可压缩文本与随机数据交替，跨块的重复内容依赖预设字典
+        byte[] mixed = mixedContent(CHUNK * 7 + 12345, 1);
+        byte[] aligned = mixedContent(CHUNK * 4, 2);
+        Path big = Files.write(tempDir.resolve("big.log"), mixed);
+        Path exact = Files.write(tempDir.resolve("exact.txt"), aligned);
+
+        byte[] zip = write(List.of(
+                new Entry("logs/", null, MODIFIED),
+                new Entry("logs/big.log", big, MODIFIED),
+                new Entry("logs/exact.txt", exact, MODIFIED)));
+
+        try (ZipFile zipFile = open(zip)) {
+            ZipEntry entry = zipFile.getEntry("logs/big.log");
+            assertThat(entry.getMethod()).isEqualTo(ZipEntry.DEFLATED);
+            assertThat(entry.getSize()).isEqualTo(mixed.length);
+            assertThat(entry.getCompressedSize()).isLessThan(mixed.length);
+            assertThat(read(zipFile, entry)).isEqualTo(mixed);
+            assertThat(read(zipFile, zipFile.getEntry("logs/exact.txt"))).isEqualTo(aligned);
+        }
+    }
+
+    @Test
+    void largeAlreadyCompressedFilesAreStored() throws IOException {
+        byte[] random = new byte[300 * 1024];
+        new Random(3).nextBytes(random);
+        Path photo = Files.write(tempDir.resolve("photo.JPG"), random);
+
+        byte[] zip = write(List.of(new Entry("photo.JPG", photo, MODIFIED)));
+
+        try (ZipFile zipFile = open(zip)) {
+            ZipEntry entry = zipFile.getEntry("photo.JPG");
+            assertThat(entry.getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(entry.getCompressedSize()).isEqualTo(random.length);
+            assertThat(read(zipFile, entry)).isEqualTo(random);
+        }
+    }
+
+    @Test
+    void smallIncompressibleFilesFallBackToStored() throws IOException {
+        byte[] random = new byte[4096];
+        new Random(4).nextBytes(random);
+        Path noise = Files.write(tempDir.resolve("noise.bin"), random);
+        Path text = Files.writeString(tempDir.resolve("readme.md"), "# 说明\n".repeat(200), StandardCharsets.UTF_8);
+
+        byte[] zip = write(List.of(new Entry("noise.bin", noise, MODIFIED), new Entry("readme.md", text, MODIFIED)));
+
+        try (ZipFile zipFile = open(zip)) {
+            assertThat(zipFile.getEntry("noise.bin").getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(zipFile.getEntry("readme.md").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+            assertThat(read(zipFile, zipFile.getEntry("noise.bin"))).isEqualTo(random);
+            assertThat(new String(read(zipFile, zipFile.getEntry("readme.md")), StandardCharsets.UTF_8))
+                    .isEqualTo("# 说明\n".repeat(200));
+        }
+    }
+
+    @Test
+    void archiveIsReadableAsAStream() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            byte[] content = mixedContent(i % 3 == 0 ? CHUNK * 3 + i : 1000 + i, 10 + i);
+            entries.add(new Entry("f" + i + ".txt", Files.write(tempDir.resolve("f" + i + ".txt"), content), MODIFIED));
+            contents.add(content);
+        }
+
+        byte[] zip = write(entries);
+
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < entries.size(); i++) {
+                ZipEntry entry = in.getNextEntry();
+                assertThat(entry.getName()).isEqualTo("f" + i + ".txt");
+                assertThat(in.readAllBytes()).isEqualTo(contents.get(i));
+            }
+            assertThat(in.getNextEntry()).isNull();
+        }
+    }
+
+    @Test
+    void emptyFolderProducesAnEmptyArchive() throws IOException {
+        try (ZipFile zipFile = open(write(List.of()))) {
+            assertThat(zipFile.size()).isZero();
+        }
+    }
+
+    private byte[] write(List<Entry> entries) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.write(entries, out);
+        return out.toByteArray();
+    }
+
+    private ZipFile open(byte[] zip) throws IOException {
+        Path file = Files.createTempFile(tempDir, "folder", ".zip");
+        Files.write(file, zip);
+        return new ZipFile(file.toFile(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] read(ZipFile zipFile, ZipEntry entry) throws IOException {
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] mixedContent(int length, long seed) {
+        Random random = new Random(seed);
+        byte[] line = "2024-01-01 INFO request handled in 12ms path=/api/cloud_disk/files\n".getBytes(StandardCharsets.UTF_8);
+        byte[] content = new byte[length];
+        int pos = 0;
+        while (pos < length) {
+            if (random.nextInt(4) == 0) {
+                int n = Math.min(length - pos, 1 + random.nextInt(512));
+                byte[] noise = new byte[n];
+                random.nextBytes(noise);
+                System.arraycopy(noise, 0, content, pos, n);
+                pos += n;
+            } else {
+                int n = Math.min(length - pos, line.length);
+                System.arraycopy(line, 0, content, pos, n);
+                pos += n;
+            }
+        }
+        return content;
+    }
+}
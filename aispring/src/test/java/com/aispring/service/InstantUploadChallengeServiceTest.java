@@ -0,0 +1,118 @@
+package com.aispring.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class InstantUploadChallengeServiceTest {
+
+    private static final String HASH = "a".repeat(64);
+
+    private final Map<String, String> redis = new HashMap<>();
+    private InstantUploadChallengeService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(template.opsForValue()).thenReturn(ops);
+        doAnswer(inv -> redis.put(inv.getArgument(0), inv.getArgument(1)))
+                .when(ops).set(anyString(), anyString(), any(Duration.class));
+        when(template.execute(any(RedisScript.class), anyList()))
+                .thenAnswer(inv -> redis.remove(((List<String>) inv.getArgument(1)).get(0)));
+
+        service = new InstantUploadChallengeService(template);
+        ReflectionTestUtils.setField(service, "sampleCount", 4);
+        ReflectionTestUtils.setField(service, "sampleBytes", 65536);
+        ReflectionTestUtils.setField(service, "ttlSeconds", 300L);
+    }
+
+    @Test
+    void issuedSamplesAreDistinctAndInsideTheFile() {
+        long size = 10L * 1024 * 1024;
+        InstantUploadChallengeService.Challenge challenge = service.issue(1L, HASH, size);
+
+        assertThat(challenge.nonce()).matches("[0-9a-f]{32}");
+        assertThat(challenge.samples()).hasSize(4).doesNotHaveDuplicates();
+        assertThat(challenge.samples()).allSatisfy(s -> {
+            assertThat(s.length()).isEqualTo(65536);
+            assertThat(s.offset()).isBetween(0L, size - 65536);
+        });
+    }
+
+    @Test
+    void smallFileIsChallengedAsAWhole() {
+        assertThat(service.issue(1L, HASH, 100).samples())
+                .containsExactly(new InstantUploadChallengeService.SampleRange(0, 100));
+        assertThat(service.pickSamples(65537)).hasSize(2);
+    }
+
+    @Test
+    void emptyFileIsRejected() {
+        assertThatThrownBy(() -> service.issue(1L, HASH, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void challengeIsSingleUse() {
+        InstantUploadChallengeService.Challenge challenge = service.issue(1L, HASH, 1_000_000);
+
+        assertThat(service.take(challenge.nonce(), 1L, HASH, 1_000_000)).isEqualTo(challenge.samples());
+        assertThat(service.take(challenge.nonce(), 1L, HASH, 1_000_000)).isNull();
+    }
+
+    @Test
+    void challengeIsBoundToUserHashAndSize() {
+        InstantUploadChallengeService.Challenge forOtherUser = service.issue(2L, HASH, 1_000_000);
+        assertThat(service.take(forOtherUser.nonce(), 1L, HASH, 1_000_000)).isNull();
+
+        InstantUploadChallengeService.Challenge forOtherHash = service.issue(1L, "b".repeat(64), 1_000_000);
+        assertThat(service.take(forOtherHash.nonce(), 1L, HASH, 1_000_000)).isNull();
+
+        InstantUploadChallengeService.Challenge forOtherSize = service.issue(1L, HASH, 999_999);
+        assertThat(service.take(forOtherSize.nonce(), 1L, HASH, 1_000_000)).isNull();
+    }
+
+    @Test
+    void unknownOrMalformedNonceIsRejected() {
+        assertThat(service.take(null, 1L, HASH, 10)).isNull();
+        assertThat(service.take("not-a-nonce", 1L, HASH, 10)).isNull();
+        assertThat(service.take("0".repeat(32), 1L, HASH, 10)).isNull();
+    }
+
+    @Test
+    void storedChallengeExpires() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        @SuppressWarnings("unchecked")
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(template.opsForValue()).thenReturn(ops);
+        InstantUploadChallengeService expiring = new InstantUploadChallengeService(template);
+        ReflectionTestUtils.setField(expiring, "sampleCount", 4);
+        ReflectionTestUtils.setField(expiring, "sampleBytes", 65536);
+        ReflectionTestUtils.setField(expiring, "ttlSeconds", 120L);
+
+        expiring.issue(1L, HASH, 5000);
+
+        ArgumentCaptor<Duration> ttl = ArgumentCaptor.forClass(Duration.class);
+        org.mockito.Mockito.verify(ops).set(anyString(), anyString(), ttl.capture());
+        assertThat(ttl.getValue()).isEqualTo(Duration.ofSeconds(120));
+    }
+}
@@ -0,0 +1,265 @@
+package com.aispring.service;
+
+import com.aispring.entity.UserStorageUsage;
+import com.aispring.repository.UserStorageUsageRepository;
+import com.aispring.support.InMemoryTransactionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 配额 预留 → 提交 / 释放 的并发测试
+ * user_storage_usage 用内存中的一行代替，条件 UPDATE 的语义与 Repository 中的 SQL 一致（整行加锁后判断并修改）
+ */
+class StorageQuotaServiceTest {
+
+    private static final long USER_ID = 7L;
+    private static final long MB = 1024L * 1024L;
+
+    private final InMemoryTransactionManager transactionManager = new InMemoryTransactionManager();
+    private final UsageRow row = new UsageRow();
+    private StorageQuotaService quotaService;
+    private TransactionTemplate transaction;
+    private ExecutorService pool;
+
+    @BeforeEach
+    void setUp() {
+        UserStorageUsageRepository repository = mock(UserStorageUsageRepository.class);
+        when(repository.existsById(USER_ID)).thenReturn(true);
+        when(repository.findById(USER_ID)).thenAnswer(inv -> Optional.of(row.snapshot()));
+        when(repository.reserve(anyLong(), anyLong(), anyLong()))
+                .thenAnswer(inv -> row.reserve(inv.getArgument(1), inv.getArgument(2)));
+        when(repository.release(anyLong(), anyLong()))
+                .thenAnswer(inv -> row.apply(-(long) inv.getArgument(1), 0));
+        when(repository.commit(anyLong(), anyLong(), anyLong()))
+                .thenAnswer(inv -> row.apply(-(long) inv.getArgument(1), inv.getArgument(2)));
+        when(repository.adjustUsed(anyLong(), anyLong()))
+                .thenAnswer(inv -> row.apply(0, inv.getArgument(1)));
+
+        quotaService = new StorageQuotaService(repository, transactionManager);
+        transaction = new TransactionTemplate(transactionManager);
+        pool = Executors.newFixedThreadPool(16);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void concurrentReservationsNeverOvercommitTheQuota() throws Exception {
+        List<StorageQuotaService.Reservation> granted = java.util.Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger rejected = new AtomicInteger();
+
+        runConcurrently(64, () -> {
+            try {
+                granted.add(quotaService.reserve(USER_ID, 100 * MB, false));
+            } catch (IllegalArgumentException e) {
+                rejected.incrementAndGet();
+            }
+            return null;
+        });
+
+        // 1GB 配额最多容纳 10 个 100MB 预留
+        assertThat(granted).hasSize(10);
+        assertThat(rejected).hasValue(54);
+        assertThat(row.reserved).isEqualTo(1000 * MB);
+        assertThat(row.maxCommitted).isLessThanOrEqualTo(StorageQuotaService.DEFAULT_LIMIT_BYTES);
+
+        granted.forEach(StorageQuotaService.Reservation::close);
+        assertThat(row.reserved).isZero();
+        assertThat(row.used).isZero();
+    }
+
+    @Test
+    void committedUploadsMoveReservationToUsed() throws Exception {
+        runConcurrently(32, () -> {
+            try (StorageQuotaService.Reservation reservation = quotaService.reserve(USER_ID, 10 * MB, false)) {
+                transaction.executeWithoutResult(status -> reservation.commit(10 * MB));
+            }
+            return null;
+        });
+
+        assertThat(row.used).isEqualTo(320 * MB);
+        assertThat(row.reserved).isZero();
+    }
+
+    @Test
+    void failureBeforeCommitReleasesReservationOnClose() {
+        assertThatThrownBy(() -> {
+            try (StorageQuotaService.Reservation reservation = quotaService.reserve(USER_ID, 50 * MB, false)) {
+                assertThat(row.reserved).isEqualTo(50 * MB);
+                throw new IllegalStateException("写入失败");
+            }
+        }).isInstanceOf(IllegalStateException.class);
+
+        assertThat(row.reserved).isZero();
+        assertThat(row.used).isZero();
+    }
+
+    @Test
+    void outerRollbackAfterCommitReleasesReservationExactlyOnce() {
+        try (StorageQuotaService.Reservation reservation = quotaService.reserve(USER_ID, 40 * MB, false)) {
+            transaction.executeWithoutResult(status -> {
+                reservation.commit(40 * MB);
+                assertThat(row.used).isEqualTo(40 * MB);
+                status.setRollbackOnly();
+            });
+        }
+
+        // 提交随外层事务撤销，预留由回滚回调释放，close() 不再重复释放
+        assertThat(row.used).isZero();
+        assertThat(row.reserved).isZero();
+        assertThat(row.releaseCalls).hasValue(1);
+    }
+
+    @Test
+    void reservationExtendsStopAtTheQuota() {
+        try (StorageQuotaService.Reservation reservation = quotaService.reserve(USER_ID, 600 * MB, false)) {
+            reservation.extend(400 * MB);
+            assertThatThrownBy(() -> reservation.extend(100 * MB))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("存储空间不足");
+            assertThat(row.reserved).isEqualTo(1000 * MB);
+        }
+        assertThat(row.reserved).isZero();
+    }
+
+    @Test
+    void unlimitedReservationsAreCountedButNotCapped() {
+        try (StorageQuotaService.Reservation reservation = quotaService.reserve(USER_ID, 5 * 1024 * MB, true)) {
+            transaction.executeWithoutResult(status -> reservation.commit(5 * 1024 * MB));
+        }
+        assertThat(row.used).isEqualTo(5 * 1024 * MB);
+        assertThat(row.reserved).isZero();
+    }
+
+    @Test
+    void detachedReservationSurvivesRollbackUntilReleased() {
+        quotaService.reserveDetached(USER_ID, 200 * MB, false);
+
+        StorageQuotaService.Reservation resumed = quotaService.resume(USER_ID, 200 * MB);
+        transaction.executeWithoutResult(status -> {
+            resumed.commit(200 * MB);
+            status.setRollbackOnly();
+        });
+        resumed.close();
+
+        // 跨请求预留归会话所有：提交回滚后预留仍在，直到会话显式释放
+        assertThat(row.reserved).isEqualTo(200 * MB);
+        assertThat(row.used).isZero();
+
+        quotaService.releaseDetached(USER_ID, 200 * MB);
+        assertThat(row.reserved).isZero();
+    }
+
+    @Test
+    void mixedCommitsAndRollbacksLeaveConsistentCounters() throws Exception {
+        AtomicInteger committed = new AtomicInteger();
+        AtomicInteger seq = new AtomicInteger();
+
+        runConcurrently(200, () -> {
+            boolean rollback = seq.incrementAndGet() % 3 == 0;
+            try (StorageQuotaService.Reservation reservation = quotaService.reserve(USER_ID, 4 * MB, false)) {
+                transaction.executeWithoutResult(status -> {
+                    reservation.commit(4 * MB);
+                    if (rollback) {
+                        status.setRollbackOnly();
+                    }
+                });
+                if (!rollback) {
+                    committed.incrementAndGet();
+                }
+            } catch (IllegalArgumentException quotaExceeded) {
+                // 配额用尽的请求直接失败
+            }
+            return null;
+        });
+
+        assertThat(row.reserved).isZero();
+        assertThat(row.used).isEqualTo(committed.get() * 4 * MB);
+        assertThat(row.maxCommitted).isLessThanOrEqualTo(StorageQuotaService.DEFAULT_LIMIT_BYTES);
+    }
+
+    private void runConcurrently(int tasks, Callable<Void> task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        }
+        start.countDown();
+        for (Future<Void> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * user_storage_usage 中的一行；每个方法对应 Repository 中的一条条件 UPDATE，
+     * 在事务中执行时登记撤销动作，外层事务回滚时恢复
+     */
+    private final class UsageRow {
+        private long used;
+        private long reserved;
+        private long maxCommitted;
+        private final AtomicInteger releaseCalls = new AtomicInteger();
+
+        synchronized int reserve(long bytes, long limit) {
+            if (used + reserved + bytes > limit) {
+                return 0;
+            }
+            reserved += bytes;
+            maxCommitted = Math.max(maxCommitted, used + reserved);
+            transactionManager.recordUndo(() -> undo(bytes, 0));
+            return 1;
+        }
+
+        synchronized int apply(long reservedDelta, long usedDelta) {
+            if (reservedDelta < 0 && usedDelta == 0) {
+                releaseCalls.incrementAndGet();
+            }
+            long newReserved = Math.max(reserved + reservedDelta, 0);
+            long newUsed = Math.max(used + usedDelta, 0);
+            long appliedReserved = newReserved - reserved;
+            long appliedUsed = newUsed - used;
+            reserved = newReserved;
+            used = newUsed;
+            maxCommitted = Math.max(maxCommitted, used + reserved);
+            transactionManager.recordUndo(() -> undo(appliedReserved, appliedUsed));
+            return 1;
+        }
+
+        private synchronized void undo(long reservedDelta, long usedDelta) {
+            reserved -= reservedDelta;
+            used -= usedDelta;
+        }
+
+        synchronized UserStorageUsage snapshot() {
+            UserStorageUsage usage = new UserStorageUsage();
+            usage.setUserId(USER_ID);
+            usage.setUsedBytes(used);
+            usage.setReservedBytes(reserved);
+            return usage;
+        }
+    }
+}
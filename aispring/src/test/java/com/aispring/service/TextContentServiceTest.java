@@ -0,0 +1,201 @@
+package com.aispring.service;
+
+import com.aispring.config.StorageProperties;
+import com.aispring.exception.CustomException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 增量编辑：CRLF/CR 换行计为一个字符、BOM 原样保留且不计入偏移、代理对按两个代码单元计且不能被拆开
+ */
+class TextContentServiceTest {
+
+    private static final String EMOJI = "😀";
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] UTF16LE_BOM = {(byte) 0xFF, (byte) 0xFE};
+
+    @TempDir
+    Path dir;
+
+    private TextContentService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new TextContentService(mock(StorageProperties.class));
+        ReflectionTestUtils.setField(service, "sampleBytes", 65536);
+        ReflectionTestUtils.setField(service, "maxFullBytes", 52428800L);
+        ReflectionTestUtils.setField(service, "maxEdits", 1000);
+    }
+
+    @Test
+    void insertedNewlinesFollowCrlfAndUntouchedCrlfsArePreserved() throws Exception {
+        byte[] out = apply(utf8("one\r\ntwo\r\nthree"), edit(4, 4, "X\nY\n"));
+
+        assertThat(new String(out, StandardCharsets.UTF_8)).isEqualTo("one\r\nX\r\nY\r\ntwo\r\nthree");
+    }
+
+    @Test
+    void crlfCountsAsOneCharacterAndIsDeletedWhole() throws Exception {
+        assertThat(new String(apply(utf8("one\r\ntwo\r\nthree"), edit(3, 4, "")), StandardCharsets.UTF_8))
+                .isEqualTo("onetwo\r\nthree");
+        assertThat(new String(apply(utf8("one\r\ntwo\r\nthree"), edit(3, 8, "-")), StandardCharsets.UTF_8))
+                .isEqualTo("one-three");
+        assertThat(new String(apply(utf8("one\r\ntwo"), edit(7, 7, "!")), StandardCharsets.UTF_8))
+                .isEqualTo("one\r\ntwo!");
+    }
+
+    @Test
+    void loneCrFilesKeepCrSeparators() throws Exception {
+        byte[] out = apply(utf8("a\rb\rc"), edit(2, 2, "x\r\ny"));
+
+        assertThat(new String(out, StandardCharsets.UTF_8)).isEqualTo("a\rx\ryb\rc");
+    }
+
+    @Test
+    void utf8BomIsPreservedAndNotCountedInOffsets() throws Exception {
+        byte[] out = apply(concat(UTF8_BOM, utf8("héllo\nworld")), edit(0, 1, "J"), edit(6, 6, "big\n"));
+
+        assertThat(out).startsWith(UTF8_BOM);
+        assertThat(new String(out, 3, out.length - 3, StandardCharsets.UTF_8)).isEqualTo("Jéllo\nbig\nworld");
+    }
+
+    @Test
+    void utf16LeWithBomKeepsEncodingBomAndCrlf() throws Exception {
+        Path source = write(concat(UTF16LE_BOM, "ab\r\ncd".getBytes(StandardCharsets.UTF_16LE)));
+        Path target = dir.resolve("out.txt");
+
+        TextContentService.EditResult result = service.applyEdits(source, List.of(edit(3, 3, EMOJI + "\n")), target);
+
+        byte[] out = Files.readAllBytes(target);
+        assertThat(result.charset()).isEqualTo(StandardCharsets.UTF_16LE);
+        assertThat(result.bytes()).isEqualTo(out.length);
+        assertThat(out).startsWith(UTF16LE_BOM);
+        assertThat(new String(out, 2, out.length - 2, StandardCharsets.UTF_16LE))
+                .isEqualTo("ab\r\n" + EMOJI + "\r\ncd");
+    }
+
+    @Test
+    void surrogatePairsCountAsTwoCodeUnits() throws Exception {
+        assertThat(new String(apply(utf8("a" + EMOJI + "b"), edit(3, 3, "X")), StandardCharsets.UTF_8))
+                .isEqualTo("a" + EMOJI + "Xb");
+        assertThat(new String(apply(utf8("a" + EMOJI + "b"), edit(1, 3, "")), StandardCharsets.UTF_8))
+                .isEqualTo("ab");
+    }
+
+    @Test
+    void surrogatePairAcrossReadBuffersIsNotSplit() throws Exception {
+        for (int k = 32760; k < 32775; k++) {
+            String prefix = "x".repeat(k);
+            byte[] out = apply(utf8(prefix + EMOJI + "y\r\nz"), edit(k + 2, k + 3, "Q"), edit(k + 3, k + 4, "\n"));
+
+            assertThat(new String(out, StandardCharsets.UTF_8)).as("prefix=%d", k)
+                    .isEqualTo(prefix + EMOJI + "Q\r\nz");
+        }
+    }
+
+    @Test
+    void editsSplittingASurrogatePairAreRejected() throws Exception {
+        assertRejected(utf8("a" + EMOJI + "b"), edit(1, 2, ""));
+        assertRejected(utf8("a" + EMOJI + "b"), edit(2, 3, ""));
+        assertRejected(utf8("a" + EMOJI + "b"), edit(2, 2, "X"));
+        // 删掉末尾的低代理项后高代理项落单在文件结尾
+        assertRejected(utf8("a" + EMOJI), edit(2, 3, ""));
+        assertRejected(utf8("a" + EMOJI), edit(2, 2, "X"));
+    }
+
+    @Test
+    void loneSurrogatesInInsertedTextAreRejected() throws Exception {
+        assertRejected(utf8("ab"), edit(1, 1, "\uD83D"));
+        assertRejected(utf8("ab"), edit(2, 2, "\uD83D"));
+    }
+
+    @Test
+    void charactersTheFileEncodingCannotRepresentAreRejected() throws Exception {
+        Path source = write("中文\r\n".getBytes(Charset.forName("GBK")));
+
+        assertThatThrownBy(() -> service.applyEdits(source, List.of(edit(2, 2, EMOJI)), dir.resolve("out.txt")))
+                .isInstanceOf(CustomException.class)
+                .hasMessageContaining("GBK");
+    }
+
+    @Test
+    void editsBeyondTheEndAreRejected() throws Exception {
+        Path source = write(utf8("one\r\ntwo"));
+
+        assertThatThrownBy(() -> service.applyEdits(source, List.of(edit(8, 8, "!")), dir.resolve("out.txt")))
+                .isInstanceOf(CustomException.class)
+                .hasMessage("编辑位置超出文件长度（共 7 个字符）");
+        assertThatThrownBy(() -> service.applyEdits(source, List.of(edit(5, 9, "")), dir.resolve("out.txt")))
+                .isInstanceOf(CustomException.class)
+                .hasMessage("编辑位置超出文件长度（共 7 个字符）");
+    }
+
+    @Test
+    void unorderedOrOverlappingEditsAreRejected() throws Exception {
+        Path source = write(utf8("abcdef"));
+        Path target = dir.resolve("out.txt");
+
+        assertThatThrownBy(() -> service.applyEdits(source, List.of(edit(3, 4, ""), edit(1, 2, "")), target))
+                .isInstanceOf(CustomException.class)
+                .hasMessage("编辑位置须按顺序排列且互不重叠");
+        assertThatThrownBy(() -> service.applyEdits(source, List.of(edit(1, 4, ""), edit(3, 5, "")), target))
+                .isInstanceOf(CustomException.class)
+                .hasMessage("编辑位置须按顺序排列且互不重叠");
+        assertThatThrownBy(() -> service.applyEdits(source, List.of(edit(4, 2, "")), target))
+                .isInstanceOf(CustomException.class)
+                .hasMessage("编辑位置须按顺序排列且互不重叠");
+        assertThatThrownBy(() -> service.applyEdits(source, List.of(), target))
+                .isInstanceOf(CustomException.class)
+                .hasMessage("编辑内容不能为空");
+    }
+
+    private void assertRejected(byte[] content, TextContentService.TextEdit edit) throws Exception {
+        Path source = write(content);
+
+        assertThatThrownBy(() -> service.applyEdits(source, List.of(edit), dir.resolve("out.txt")))
+                .isInstanceOf(CustomException.class)
+                .hasMessageContaining("无法增量编辑");
+    }
+
+    private byte[] apply(byte[] content, TextContentService.TextEdit... edits) throws Exception {
+        Path target = dir.resolve("out.txt");
+        TextContentService.EditResult result = service.applyEdits(write(content), List.of(edits), target);
+        byte[] out = Files.readAllBytes(target);
+        assertThat(result.bytes()).isEqualTo(out.length);
+        return out;
+    }
+
+    private Path write(byte[] content) throws Exception {
+        Path source = Files.createTempFile(dir, "source", ".txt");
+        Files.write(source, content);
+        return source;
+    }
+
+    private static TextContentService.TextEdit edit(long start, long end, String text) {
+        return new TextContentService.TextEdit(start, end, text);
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(a);
+        out.writeBytes(b);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,70 @@
+package com.aispring.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ZipExtractBoundedEntryStreamTest {
+
+    @Test
+    void entryMatchingItsDeclaredSizeIsReadCompletely() throws IOException {
+        AtomicLong budget = new AtomicLong(100);
+
+        try (InputStream in = bounded(new byte[40], 40, budget)) {
+            assertThat(in.readAllBytes()).hasSize(40);
+        }
+        assertThat(budget.get()).isEqualTo(60);
+    }
+
+    @Test
+    void entryLargerThanDeclaredIsRejected() {
+        // 中央目录声明 0 字节的条目同样受限
+        assertThatThrownBy(() -> bounded(new byte[10], 0, new AtomicLong(100)).readAllBytes())
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("超过声明大小");
+        assertThatThrownBy(() -> bounded(new byte[41], 40, new AtomicLong(100)).readAllBytes())
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("超过声明大小");
+    }
+
+    @Test
+    void entrySmallerThanDeclaredIsRejected() {
+        assertThatThrownBy(() -> bounded(new byte[39], 40, new AtomicLong(100)).readAllBytes())
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("小于声明大小");
+    }
+
+    @Test
+    void sharedBudgetCapsTheWholeArchive() throws IOException {
+        AtomicLong budget = new AtomicLong(50);
+
+        try (InputStream in = bounded(new byte[30], 30, budget)) {
+            in.readAllBytes();
+        }
+        assertThatThrownBy(() -> bounded(new byte[30], 30, budget).readAllBytes())
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("总大小上限");
+    }
+
+    @Test
+    void skippedBytesCountTowardsTheLimits() {
+        assertThatThrownBy(() -> {
+            try (InputStream in = bounded(new byte[20], 10, new AtomicLong(100))) {
+                in.skip(15);
+            }
+        }).isInstanceOf(IOException.class);
+    }
+
+    private static InputStream bounded(byte[] content, long declared, AtomicLong budget) {
+        ZipEntry entry = new ZipEntry("dir/file.bin");
+        entry.setSize(declared);
+        return new ZipExtractJobService.BoundedEntryStream(new ByteArrayInputStream(content), entry, budget);
+    }
+}
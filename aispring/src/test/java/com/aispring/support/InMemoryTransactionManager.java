@@ -0,0 +1,98 @@
+package com.aispring.support;
+
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 测试用事务管理器：不连接数据库，只提供事务边界、传播行为（含 REQUIRES_NEW 挂起）与事务同步回调。
+ * 内存中的假 Repository 通过 {@link #recordUndo} 登记撤销动作，事务回滚时按逆序执行，
+ * 用来模拟“外层事务回滚时其中的写入一并撤销”；通过 {@link #holdLock} 模拟持有到事务结束的行锁。
+ */
+public class InMemoryTransactionManager extends AbstractPlatformTransactionManager {
+
+    private static final class Tx {
+        private final Deque<Runnable> undo = new ArrayDeque<>();
+        private final Deque<Lock> locks = new ArrayDeque<>();
+    }
+
+    private final ThreadLocal<Deque<Tx>> active = ThreadLocal.withInitial(ArrayDeque::new);
+
+    /**
+     * 在当前线程的事务中登记撤销动作；不在事务中时写入视为已提交
+     */
+    public void recordUndo(Runnable undo) {
+        Tx tx = active.get().peek();
+        if (tx != null) {
+            tx.undo.push(undo);
+        }
+    }
+
+    /**
+     * 加锁并持有到当前事务结束（与 InnoDB 行锁一致）；不在事务中时返回 true，由调用方在语句结束后自行解锁
+     */
+    public boolean holdLock(Lock lock) {
+        lock.lock();
+        Tx tx = active.get().peek();
+        if (tx == null) {
+            return true;
+        }
+        tx.locks.push(lock);
+        return false;
+    }
+
+    @Override
+    protected Object doGetTransaction() {
+        return new Tx();
+    }
+
+    @Override
+    protected boolean isExistingTransaction(Object transaction) {
+        return !active.get().isEmpty();
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        active.get().push((Tx) transaction);
+    }
+
+    @Override
+    protected Object doSuspend(Object transaction) {
+        return null;
+    }
+
+    @Override
+    protected void doResume(Object transaction, Object suspendedResources) {
+    }
+
+    @Override
+    protected void doCommit(DefaultTransactionStatus status) {
+        ((Tx) status.getTransaction()).undo.clear();
+    }
+
+    @Override
+    protected void doRollback(DefaultTransactionStatus status) {
+        Deque<Runnable> undo = ((Tx) status.getTransaction()).undo;
+        while (!undo.isEmpty()) {
+            undo.pop().run();
+        }
+    }
+
+    @Override
+    protected void doSetRollbackOnly(DefaultTransactionStatus status) {
+        // 参与外层事务时由外层统一回滚
+    }
+
+    @Override
+    protected void doCleanupAfterCompletion(Object transaction) {
+        Tx tx = (Tx) transaction;
+        active.get().remove(tx);
+        while (!tx.locks.isEmpty()) {
+            tx.locks.pop().unlock();
+        }
+    }
+}
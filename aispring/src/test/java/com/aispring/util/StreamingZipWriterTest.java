@@ -0,0 +1,150 @@
+package com.aispring.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StreamingZipWriterTest {
+
+    private static final long MODIFIED = 1_700_000_000_000L;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void storedEntryIsCopiedFromTheSourceFile() throws IOException {
+        byte[] content = "already compressed bytes".getBytes(StandardCharsets.UTF_8);
+        Path source = Files.write(tempDir.resolve("photo.jpg"), content);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StreamingZipWriter zip = new StreamingZipWriter(bytes);
+        zip.writePrepared("相册/photo.jpg", MODIFIED, new StreamingZipWriter.Prepared(
+                StreamingZipWriter.STORED, crc.getValue(), content.length, content.length, null), source);
+        zip.finish();
+
+        try (ZipFile zipFile = open(bytes)) {
+            ZipEntry entry = zipFile.getEntry("相册/photo.jpg");
+            assertThat(entry.getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(entry.getSize()).isEqualTo(content.length);
+            assertThat(entry.getCompressedSize()).isEqualTo(content.length);
+            assertThat(read(zipFile, entry)).isEqualTo(content);
+        }
+    }
+
+    @Test
+    void storedEntryFailsWhenTheFileShrinks() throws IOException {
+        Path source = Files.write(tempDir.resolve("photo.jpg"), new byte[10]);
+        StreamingZipWriter zip = new StreamingZipWriter(new ByteArrayOutputStream());
+
+        assertThatThrownBy(() -> zip.writePrepared("photo.jpg", MODIFIED,
+                        new StreamingZipWriter.Prepared(StreamingZipWriter.STORED, 0, 20, 20, null), source))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void zip64LocalHeaderIsMirroredInTheCentralDirectory() throws IOException {
+        byte[] content = "hello zip64 ".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        Path source = Files.write(tempDir.resolve("big.log"), content);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StreamingZipWriter zip = new StreamingZipWriter(bytes);
+        // 预估大小超过 4GB 时本地头提前使用 ZIP64，实际数据很小
+        zip.writeDeflated("big.log", MODIFIED, source, 5L * 1024 * 1024 * 1024, 6);
+        zip.finish();
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        int central = lastIndexOf(buffer, CENTRAL_SIGNATURE);
+        assertThat(central).isPositive();
+        assertThat(buffer.getShort(central + 6)).isEqualTo((short) 45);
+        assertThat(buffer.getInt(central + 20)).isEqualTo(-1);
+        assertThat(buffer.getInt(central + 24)).isEqualTo(-1);
+        int nameLength = buffer.getShort(central + 28);
+        int extraLength = buffer.getShort(central + 30);
+        assertThat(extraLength).isEqualTo(20);
+        int extra = central + 46 + nameLength;
+        assertThat(buffer.getShort(extra)).isEqualTo((short) 0x0001);
+        assertThat(buffer.getShort(extra + 2)).isEqualTo((short) 16);
+        assertThat(buffer.getLong(extra + 4)).isEqualTo(content.length);
+
+        try (ZipFile zipFile = open(bytes)) {
+            ZipEntry entry = zipFile.getEntry("big.log");
+            assertThat(entry.getMethod()).isEqualTo(ZipEntry.DEFLATED);
+            assertThat(entry.getSize()).isEqualTo(content.length);
+            assertThat(entry.getCompressedSize()).isEqualTo(buffer.getLong(extra + 12));
+            assertThat(read(zipFile, entry)).isEqualTo(content);
+        }
+    }
+
+    @Test
+    void smallEntriesDoNotUseZip64() throws IOException {
+        Path source = Files.write(tempDir.resolve("a.txt"), "abc".getBytes(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StreamingZipWriter zip = new StreamingZipWriter(bytes);
+        zip.writeDeflated("a.txt", MODIFIED, source, 3, 6);
+        zip.finish();
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        int central = lastIndexOf(buffer, CENTRAL_SIGNATURE);
+        assertThat(buffer.getShort(central + 6)).isEqualTo((short) 20);
+        assertThat(buffer.getShort(central + 30)).isZero();
+        assertThat(buffer.getInt(central + 24)).isEqualTo(3);
+    }
+
+    @Test
+    void moreThan65535EntriesUseTheZip64EndRecord() throws IOException {
+        int count = 65_600;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StreamingZipWriter zip = new StreamingZipWriter(bytes);
+        for (int i = 0; i < count; i++) {
+            zip.writeDirectory("d" + i, MODIFIED);
+        }
+        zip.finish();
+
+        try (ZipFile zipFile = open(bytes)) {
+            assertThat(zipFile.size()).isEqualTo(count);
+            assertThat(zipFile.getEntry("d" + (count - 1) + "/").isDirectory()).isTrue();
+        }
+    }
+
+    private ZipFile open(ByteArrayOutputStream bytes) throws IOException {
+        Path file = Files.createTempFile(tempDir, "test", ".zip");
+        Files.write(file, bytes.toByteArray());
+        return new ZipFile(file.toFile(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] read(ZipFile zipFile, ZipEntry entry) throws IOException {
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * 从尾部查找，避免压缩数据中偶然出现的签名
+     */
+    private static int lastIndexOf(ByteBuffer buffer, int signature) {
+        for (int i = buffer.limit() - 4; i >= 0; i--) {
+            if (buffer.getInt(i) == signature) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,75 @@
+#!/usr/bin/env python3
+# -*- coding: utf-8 -*-
+"""
+登录吞吐基准脚本
+
+以固定并发持续调用 /api/auth/login，统计每秒成功登录数、503（校验线程池已满）次数和延迟分位数，
+用于观察 app.auth.login-pool-size / login-queue-capacity 的效果。
+
+使用说明：
+1. 确保后端服务已启动，并存在可登录的测试账号（可先调用 POST /api/auth/test/token 创建 test@example.com）
+2. pip install requests
+3. python tools/bench_login.py --base-url http://localhost:5000 --concurrency 64 --duration 30
+"""
+
+import argparse
+import statistics
+import threading
+import time
+
+import requests
+
+
+def worker(args, deadline, stats, lock):
+    session = requests.Session()
+    url = f"{args.base_url}/api/auth/login"
+    payload = {"email": args.email, "password": args.password}
+    while time.time() < deadline:
+        start = time.perf_counter()
+        try:
+            resp = session.post(url, json=payload, timeout=30)
+            status = resp.status_code
+        except requests.RequestException:
+            status = -1
+        elapsed = (time.perf_counter() - start) * 1000
+        with lock:
+            stats["latencies"].append(elapsed)
+            stats["status"][status] = stats["status"].get(status, 0) + 1
+        if status == 503:
+            # 服务端已给出 Retry-After，这里只短暂退避以保持压力
+            time.sleep(0.05)
+
+
+def main():
+    parser = argparse.ArgumentParser(description="登录吞吐基准")
+    parser.add_argument("--base-url", default="http://localhost:5000")
+    parser.add_argument("--email", default="test@example.com")
+    parser.add_argument("--password", default="123456")
+    parser.add_argument("--concurrency", type=int, default=64)
+    parser.add_argument("--duration", type=int, default=30, help="持续时间（秒）")
+    args = parser.parse_args()
+
+    stats = {"latencies": [], "status": {}}
+    lock = threading.Lock()
+    deadline = time.time() + args.duration
+    threads = [threading.Thread(target=worker, args=(args, deadline, stats, lock)) for _ in range(args.concurrency)]
+    begin = time.time()
+    for t in threads:
+        t.start()
+    for t in threads:
+        t.join()
+    wall = time.time() - begin
+
+    latencies = sorted(stats["latencies"])
+    ok = stats["status"].get(200, 0)
+    print(f"并发: {args.concurrency}, 持续: {wall:.1f}s, 总请求: {len(latencies)}")
+    print(f"成功登录/秒: {ok / wall:.1f}")
+    print(f"状态码分布: {dict(sorted(stats['status'].items()))}")
+    if latencies:
+        print(f"延迟 p50={statistics.median(latencies):.1f}ms "
+              f"p95={latencies[int(len(latencies) * 0.95) - 1]:.1f}ms "
+              f"p99={latencies[int(len(latencies) * 0.99) - 1]:.1f}ms")
+
+
+if __name__ == "__main__":
+    main()
@@ -52,22 +52,30 @@ export const API_ENDPOINTS = {
   cloudDisk: {
     initFolderStructure: '/api/cloud_disk/init-folder-structure',
     upload: '/api/cloud_disk/upload',
-    uploadFolder: '/api/cloud_disk/upload-folder',
+    uploadFolderJobs: '/api/cloud_disk/upload-folder/jobs',
     uploadFolderStream: '/api/cloud_disk/upload-folder-stream',
     files: '/api/cloud_disk/files',
+    filesPage: '/api/cloud_disk/files/page',
+    foldersPage: '/api/cloud_disk/folders/page',
     folders: '/api/cloud_disk/folders',
     createFolder: '/api/cloud_disk/create-folder',
     download: (fileId) => `/api/cloud_disk/download/${fileId}`,
     downloadFolder: '/api/cloud_disk/download-folder',
     delete: (fileId) => `/api/cloud_disk/delete/${fileId}`,
     deleteFolder: '/api/cloud_disk/delete-folder',
+    trash: '/api/cloud_disk/trash',
+    restoreFolder: '/api/cloud_disk/trash/restore-folder',
+    restoreFile: '/api/cloud_disk/trash/restore-file',
     moveFile: '/api/cloud_disk/move-file',
+    moveFolder: '/api/cloud_disk/move-folder',
     renameFolder: '/api/cloud_disk/rename-folder',
     renameFile: (fileId) => `/api/cloud_disk/rename-file?fileId=${fileId}`,
     resolveRenameFile: (fileId) => `/api/cloud_disk/resolve-rename-file?fileId=${fileId}`,
     quota: '/api/cloud_disk/quota',
     getContent: (fileId) => `/api/cloud_disk/content/${fileId}`,
-    updateContent: (fileId) => `/api/cloud_disk/content/${fileId}`
+    getContentLines: (fileId) => `/api/cloud_disk/content/${fileId}/lines`,
+    updateContent: (fileId) => `/api/cloud_disk/content/${fileId}`,
+    patchContent: (fileId) => `/api/cloud_disk/content/${fileId}/patch`
   },
   
   // 管理后台
@@ -76,7 +84,9 @@ export const API_ENDPOINTS = {
     users: '/api/admin/users',
     files: '/api/admin/files',
     getFileContent: (fileId) => `/api/admin/files/content/${fileId}`,
+    getFileContentLines: (fileId) => `/api/admin/files/content/${fileId}/lines`,
     updateFileContent: (fileId) => `/api/admin/files/content/${fileId}`,
+    patchFileContent: (fileId) => `/api/admin/files/content/${fileId}/patch`,
     downloadFile: (fileId) => `/api/admin/files/download/${fileId}`
   },
   
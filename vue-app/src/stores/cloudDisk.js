@@ -11,6 +11,11 @@ export const useCloudDiskStore = defineStore('cloudDisk', () => {
   const activeFolderPath = ref('')
   const selectedFiles = ref([])
   const isLoading = ref(false)
+  // 文件列表分页与排序（服务端排序，sort: name / size / time）
+  const fileSort = ref({ sort: 'time', order: 'desc' })
+  const filesCursor = ref(null)
+  const hasMoreFiles = ref(false)
+  const isLoadingMore = ref(false)
   const showCreateFolderDialog = ref(false)
   const showRenameFolderDialog = ref(false)
   const renamingFolder = ref(null)
@@ -86,12 +91,14 @@ export const useCloudDiskStore = defineStore('cloudDisk', () => {
         pathToSend = normalizedPath.startsWith('/') ? normalizedPath : '/' + normalizedPath;
       }
       
-      const response = await request.get(API_ENDPOINTS.cloudDisk.files, {
-        params: { folderPath: pathToSend }
+      const response = await request.get(API_ENDPOINTS.cloudDisk.filesPage, {
+        params: { folderPath: pathToSend, ...fileSort.value }
       })
-      const list = (response && (response.data || response.files)) || (Array.isArray(response) ? response : [])
+      const page = (response && response.data) || {}
       if (token === latestFetchToken) {
-        files.value = list || []
+        files.value = page.items || []
+        filesCursor.value = page.next_cursor || null
+        hasMoreFiles.value = !!page.has_more
       }
       
       // 前端存储时使用不带"/"的格式，便于处理
@@ -421,19 +428,31 @@ export const useCloudDiskStore = defineStore('cloudDisk', () => {
     formData.append('file', zipFile)
     formData.append('folderPath', folderPath)
     try {
-      const response = await request.post(API_ENDPOINTS.cloudDisk.uploadFolder, formData, {
+      // 上传占前一半进度，服务端后台解压占后一半
+      const response = await request.post(API_ENDPOINTS.cloudDisk.uploadFolderJobs, formData, {
         headers: { 'Content-Type': 'multipart/form-data' },
         onUploadProgress: (progressEvent) => {
           if (onProgress && progressEvent.total) {
-            const percentCompleted = Math.round((progressEvent.loaded * 100) / progressEvent.total)
-            onProgress(percentCompleted)
+            onProgress(Math.round((progressEvent.loaded * 50) / progressEvent.total))
           }
         }
       })
+      let job = response?.data
+      while (job && (job.status === 'PENDING' || job.status === 'RUNNING')) {
+        await new Promise(resolve => setTimeout(resolve, 1000))
+        const statusResponse = await request.get(`${API_ENDPOINTS.cloudDisk.uploadFolderJobs}/${job.jobId}`)
+        job = statusResponse?.data
+        if (onProgress && job?.totalEntries) {
+          onProgress(50 + Math.round((job.entriesDone * 50) / job.totalEntries))
+        }
+      }
       await fetchFiles(folderPath)
       await fetchFolders()
       await fetchQuota()
-      return { success: true, filesImported: response?.data || 0 }
+      if (job?.status === 'FAILED') {
+        return { success: false, message: job.errorMessage || '解压文件夹失败', filesImported: job.filesImported }
+      }
+      return { success: true, filesImported: job?.filesImported || 0 }
     } catch (error) {
       return { success: false, message: error.response?.data?.message || '上传文件夹失败' }
     }
@@ -488,6 +507,44 @@ export const useCloudDiskStore = defineStore('cloudDisk', () => {
     }
   }
   
+  // 加载下一页文件
+  async function loadMoreFiles() {
+    if (!hasMoreFiles.value || !filesCursor.value || isLoadingMore.value) {
+      return { success: true }
+    }
+    const token = latestFetchToken
+    isLoadingMore.value = true
+    try {
+      const folder = currentFolder.value
+      const response = await request.get(API_ENDPOINTS.cloudDisk.filesPage, {
+        params: { folderPath: folder ? '/' + folder : '', cursor: filesCursor.value, ...fileSort.value }
+      })
+      const page = (response && response.data) || {}
+      // 加载期间切换了文件夹或排序时丢弃结果
+      if (token === latestFetchToken) {
+        files.value = [...files.value, ...(page.items || [])]
+        filesCursor.value = page.next_cursor || null
+        hasMoreFiles.value = !!page.has_more
+      }
+      return { success: true }
+    } catch (error) {
+      console.error('Load more files error:', error)
+      return { success: false, message: error.response?.data?.message || '加载更多文件失败' }
+    } finally {
+      isLoadingMore.value = false
+    }
+  }
+  
+  // 切换排序字段：同一字段再次点击时反转顺序，然后从第一页重新加载
+  async function setFileSort(sort) {
+    if (fileSort.value.sort === sort) {
+      fileSort.value = { sort, order: fileSort.value.order === 'asc' ? 'desc' : 'asc' }
+    } else {
+      fileSort.value = { sort, order: sort === 'name' ? 'asc' : 'desc' }
+    }
+    return fetchFiles(currentFolder.value || null)
+  }
+  
   // 删除文件
   async function deleteFile(fileId) {
     try {
@@ -536,6 +593,37 @@ export const useCloudDiskStore = defineStore('cloudDisk', () => {
     }
   }
   
+  // 获取回收站列表
+  async function fetchTrash() {
+    try {
+      const response = await request.get(API_ENDPOINTS.cloudDisk.trash)
+      return { success: true, entries: response.data || [] }
+    } catch (error) {
+      console.error('Fetch trash error:', error)
+      return { success: false, message: error.response?.data?.message || '获取回收站失败' }
+    }
+  }
+  
+  // 从回收站恢复（type: folder / file）
+  async function restoreFromTrash(type, id) {
+    try {
+      const isFolder = type === 'folder'
+      const response = await request.post(
+        isFolder ? API_ENDPOINTS.cloudDisk.restoreFolder : API_ENDPOINTS.cloudDisk.restoreFile,
+        null,
+        { params: isFolder ? { folderId: id } : { fileId: id } }
+      )
+      
+      await fetchFolders()
+      await fetchFiles(currentFolder.value || null)
+      
+      return { success: true, data: response.data }
+    } catch (error) {
+      console.error('Restore from trash error:', error)
+      return { success: false, message: error.response?.data?.message || '恢复失败' }
+    }
+  }
+  
   // 移动文件
   async function moveFile(fileId, targetFolderId, targetPath) {
     try {
@@ -556,6 +644,25 @@ export const useCloudDiskStore = defineStore('cloudDisk', () => {
     }
   }
   
+  // 移动文件夹（连同子文件夹与文件）
+  async function moveFolder(folderId, targetFolderId) {
+    try {
+      const response = await request.put(API_ENDPOINTS.cloudDisk.moveFolder, {
+        targetFolderId
+      }, {
+        params: { folderId }
+      })
+      
+      // 刷新文件夹树
+      await fetchFolders()
+      
+      return { success: true, folder: response.data || response }
+    } catch (error) {
+      console.error('Move folder error:', error)
+      return { success: false, message: error.response?.data?.message || '移动文件夹失败' }
+    }
+  }
+  
   // 重命名文件夹
   async function renameFolder(folderId, newName) {
     try {
@@ -740,17 +847,41 @@ export const useCloudDiskStore = defineStore('cloudDisk', () => {
     }
   }
 
+  // 按行分页获取文本内容（只读取当前页，不下载整个文件）
+  async function fetchTextLines(fileId, start = 0, count) {
+    try {
+      const response = await request.get(API_ENDPOINTS.cloudDisk.getContentLines(fileId), {
+        params: { start, count }
+      })
+      return (response && response.data) || null
+    } catch (error) {
+      console.error('❌ Fetch text lines error:', error)
+      return null
+    }
+  }
+
+  // 获取完整文本内容（在线编辑使用）
+  async function fetchFullTextContent(fileId) {
+    try {
+      const response = await request.get(API_ENDPOINTS.cloudDisk.getContent(fileId))
+      return response && response.data != null ? response.data : null
+    } catch (error) {
+      console.error('❌ Fetch full text content error:', error)
+      return null
+    }
+  }
+
   // 更新文件内容
   async function updateFileContent(fileId, content) {
     try {
       console.log('💾 Updating file content for:', fileId, 'length:', content?.length)
       
-      await request.put(API_ENDPOINTS.cloudDisk.updateContent(fileId), {
+      const response = await request.put(API_ENDPOINTS.cloudDisk.updateContent(fileId), {
         content: content
       })
       
       console.log('✅ File content updated successfully')
-      return { success: true, message: '保存成功' }
+      return { success: true, message: '保存成功', data: response && response.data }
     } catch (error) {
       console.error('❌ Update file content error:', error)
       return {
@@ -760,6 +891,24 @@ export const useCloudDiskStore = defineStore('cloudDisk', () => {
     }
   }
 
+  // 增量保存文件内容：只提交修改的部分，基准版本已过期时返回 conflict
+  async function patchFileContent(fileId, baseVersion, edits) {
+    try {
+      const response = await request.post(API_ENDPOINTS.cloudDisk.patchContent(fileId), {
+        base_version: baseVersion,
+        edits
+      })
+      return { success: true, message: '保存成功', data: response && response.data }
+    } catch (error) {
+      console.error('❌ Patch file content error:', error)
+      return {
+        success: false,
+        conflict: error.response?.status === 409,
+        message: error.response?.data?.message || error.message || '保存失败'
+      }
+    }
+  }
+
   // 下载文件
   function getDownloadUrl(fileId) {
     return `${request.defaults.baseURL}${API_ENDPOINTS.cloudDisk.download(fileId)}`
@@ -809,10 +958,18 @@ export const useCloudDiskStore = defineStore('cloudDisk', () => {
     uploadFolderZip,
     uploadFolderStream,
     createFolder,
+    fileSort,
+    hasMoreFiles,
+    isLoadingMore,
+    loadMoreFiles,
+    setFileSort,
     deleteFile,
     deleteFiles,
     deleteFolder,
+    fetchTrash,
+    restoreFromTrash,
     moveFile,
+    moveFolder,
     renameFolder,
     startRenameFile,
     resolveRenameFile,
@@ -821,7 +978,10 @@ export const useCloudDiskStore = defineStore('cloudDisk', () => {
     downloadFolder,
     fetchPreviewUrl,
     fetchTextFileContent,
+    fetchTextLines,
+    fetchFullTextContent,
     updateFileContent,
+    patchFileContent,
     getPreviewUrl,
     toggleFileSelection,
     toggleSelectAll,